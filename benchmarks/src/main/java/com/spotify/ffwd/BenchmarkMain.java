@@ -0,0 +1,63 @@
+/*-
+ * -\-\-
+ * FastForward Benchmarks
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks like the JMH launcher does, always with the GC profiler so that the
+ * allocations per operation are reported, and prints the wire sizes of the metrics first.
+ */
+public final class BenchmarkMain {
+
+  private BenchmarkMain() {
+  }
+
+  public static void main(String[] args) throws Exception {
+    final CommandLineOptions commandLine = new CommandLineOptions(args);
+
+    if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListProfilers()
+        || commandLine.shouldListResultFormats() || commandLine.shouldListWithParams()) {
+      org.openjdk.jmh.Main.main(args);
+      return;
+    }
+
+    final OptionsBuilder builder = new OptionsBuilder();
+    builder.parent(commandLine);
+
+    final boolean profiled = commandLine.getProfilers().stream()
+        .anyMatch(p -> p.getKlass().equals(GCProfiler.class.getName())
+            || p.getKlass().equals("gc"));
+
+    if (!profiled) {
+      builder.addProfiler(GCProfiler.class);
+    }
+
+    final Options options = builder.build();
+
+    WireSizes.print(System.out);
+    new Runner(options).run();
+  }
+}
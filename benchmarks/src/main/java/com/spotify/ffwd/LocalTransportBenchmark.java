@@ -0,0 +1,103 @@
+/*-
+ * -\-\-
+ * FastForward Benchmarks
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import com.spotify.ffwd.testing.FfwdReceiver;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sending to an agent on the same host, over UDP and TCP on the loopback interface and over a
+ * Unix domain socket.
+ *
+ * <p>Unlike the other send benchmarks, a receiver drains the socket, so that the stream
+ * transports do not only fill their write buffer. The share of the sent metrics that arrived is
+ * printed after every trial. {@code UNIX} requires Java 16 or later.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LocalTransportBenchmark {
+
+  @Param({"UDP_NIO", "TCP", "UNIX"})
+  public Transport transport;
+
+  private final MetricTemplate template = FastForward.metric("benchmark")
+      .attribute("what", "local-transport")
+      .template();
+
+  private FfwdReceiver receiver;
+  private FastForward client;
+  private long sent;
+
+  @Setup
+  public void setup() throws IOException {
+    receiver = FfwdReceiver.builder()
+        .setUdp(transport == Transport.UDP_NIO)
+        .setTcp(transport == Transport.TCP)
+        .setUnix(transport == Transport.UNIX)
+        .setDecode(false)
+        .start();
+
+    final FastForwardConfiguration configuration = FastForwardConfiguration.builder()
+        .setTransport(transport)
+        .build();
+
+    if (transport == Transport.UNIX) {
+      client = FastForward.setup(receiver.getUnixPath(), configuration);
+    } else {
+      final InetSocketAddress address = transport == Transport.TCP
+          ? receiver.getTcpAddress()
+          : receiver.getUdpAddress();
+      client = FastForward.setup(address.getAddress(), address.getPort(), configuration);
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    client.close();
+    receiver.awaitFrames(sent, 5, TimeUnit.SECONDS);
+    System.out.printf("%n%s: %d of %d metrics arrived%n", transport, receiver.getFrames(), sent);
+    receiver.close();
+  }
+
+  @Benchmark
+  public void send() throws IOException {
+    client.send(template, 42);
+    sent++;
+  }
+}
@@ -0,0 +1,110 @@
+/*-
+ * -\-\-
+ * FastForward Benchmarks
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building a metric with a number of attributes, by chaining and through a builder.
+ *
+ * <p>Chaining copies the attributes on every call, the builder adds them in place.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricBuilderBenchmark {
+
+  @Param({"0", "8", "32"})
+  public int attributes;
+
+  private String[] keys;
+  private String[] values;
+
+  @Setup
+  public void setup() {
+    keys = new String[attributes];
+    values = new String[attributes];
+
+    for (int i = 0; i < attributes; i++) {
+      keys[i] = "key-" + i;
+      values[i] = "value-" + i;
+    }
+  }
+
+  @Benchmark
+  public Metric chainV0() {
+    Metric metric = FastForward.metric("benchmark");
+
+    for (int i = 0; i < keys.length; i++) {
+      metric = metric.attribute(keys[i], values[i]);
+    }
+
+    return metric.value(42);
+  }
+
+  @Benchmark
+  public Metric builderV0() {
+    final Metric.Builder builder = Metric.builder().key("benchmark");
+
+    for (int i = 0; i < keys.length; i++) {
+      builder.attribute(keys[i], values[i]);
+    }
+
+    return builder.value(42).build();
+  }
+
+  @Benchmark
+  public com.spotify.ffwd.v1.Metric chainV1() {
+    com.spotify.ffwd.v1.Metric metric = FastForward.metricV1("benchmark");
+
+    for (int i = 0; i < keys.length; i++) {
+      metric = metric.attribute(keys[i], values[i]);
+    }
+
+    return metric.value(com.spotify.ffwd.v1.Value.doubleValue(42));
+  }
+
+  @Benchmark
+  public com.spotify.ffwd.v1.Metric builderV1() {
+    final com.spotify.ffwd.v1.Metric.Builder builder =
+        com.spotify.ffwd.v1.Metric.builder().key("benchmark");
+
+    for (int i = 0; i < keys.length; i++) {
+      builder.attribute(keys[i], values[i]);
+    }
+
+    return builder.value(com.spotify.ffwd.v1.Value.doubleValue(42)).build();
+  }
+}
@@ -0,0 +1,140 @@
+/*-
+ * -\-\-
+ * FastForward Benchmarks
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The code paths that differ between the Java 8 classes of the client and the versions for newer
+ * Java releases in its multi-release JAR.
+ *
+ * <p>{@code Java8} runs with multi-release JARs disabled, so that both load the same JDK and only
+ * the classes of the client differ. Run with {@code -jvm} to compare against an actual Java 8.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public abstract class MultiReleaseBenchmark {
+
+  /**
+   * The limit of {@link #pacedSend}, with a send expected every 10 us.
+   */
+  private static final long PACED_RATE = 100_000;
+
+  @Fork(value = 1, jvmArgsAppend = "-Djdk.util.jar.enableMultiRelease=false")
+  public static class Java8 extends MultiReleaseBenchmark {
+  }
+
+  @Fork(1)
+  public static class Versioned extends MultiReleaseBenchmark {
+  }
+
+  @State(Scope.Thread)
+  public static class Encoding {
+    private final com.spotify.ffwd.v1.Metric metric = Scenarios.metricV1(0);
+    private final ByteBuffer buffer = ByteBuffer.allocate(1024);
+  }
+
+  @State(Scope.Thread)
+  public static class Client {
+    private final MetricTemplate template = FastForward.metric("benchmark")
+        .attribute("what", "multi-release")
+        .template();
+
+    private DatagramChannel sink;
+    private FastForward paced;
+    private FastForward async;
+
+    @Setup
+    public void setup() throws IOException {
+      sink = DatagramChannel.open();
+      sink.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+      final InetSocketAddress address = (InetSocketAddress) sink.getLocalAddress();
+
+      paced = FastForward.setup(address.getAddress(), address.getPort(),
+          FastForwardConfiguration.builder()
+              .setTransport(Transport.UDP_NIO)
+              .setMaxMetricsPerSecond(PACED_RATE)
+              .setRateLimitBurst(1, TimeUnit.MILLISECONDS)
+              .setMaxPacingDelay(1, TimeUnit.SECONDS)
+              .build());
+      async = FastForward.setup(address.getAddress(), address.getPort(),
+          FastForwardConfiguration.builder()
+              .setTransport(Transport.UDP_NIO)
+              .setAsync(true)
+              .build());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+      paced.close();
+      async.close();
+      sink.close();
+    }
+  }
+
+  /**
+   * Encoding a v1 metric, whose frame header and double value are written through {@link
+   * Buffers}.
+   */
+  @Benchmark
+  public int encode(Encoding state) {
+    state.buffer.clear();
+    return state.metric.serializeTo(state.buffer);
+  }
+
+  /**
+   * Sending at the rate limit, which waits about 10 us before every send through {@link
+   * Parking}. The rate limiter makes up for late sends on average, so the percentiles show how
+   * precise the pacing is.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.SampleTime)
+  public void pacedSend(Client state) throws IOException {
+    state.paced.send(state.template, 42);
+  }
+
+  /**
+   * Queueing for the background sender of an asynchronous client, started through {@link
+   * Threads}.
+   */
+  @Benchmark
+  public void asyncSend(Client state) throws IOException {
+    state.async.send(state.template, 42);
+  }
+}
@@ -0,0 +1,87 @@
+/*-
+ * -\-\-
+ * FastForward Benchmarks
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sending through a template with a sample rate, towards a loopback socket that never reads.
+ *
+ * <p>With a rate of 0.01 nearly every point is sampled out, which shows what a skipped point
+ * costs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SampleBenchmark {
+
+  @Param({"1", "0.1", "0.01"})
+  public double rate;
+
+  private DatagramChannel sink;
+  private FastForward client;
+  private MetricTemplate template;
+
+  @Setup
+  public void setup() throws IOException {
+    sink = DatagramChannel.open();
+    sink.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    final InetSocketAddress address = (InetSocketAddress) sink.getLocalAddress();
+
+    client = FastForward.setup(address.getAddress(), address.getPort(),
+        FastForwardConfiguration.builder()
+            .setTransport(Transport.UDP_NIO)
+            .setSampleRate("benchmark.", rate)
+            .build());
+
+    template = Scenarios.metric(8).template();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    client.close();
+    sink.close();
+  }
+
+  @Benchmark
+  public void send() throws IOException {
+    client.send(template, 42);
+  }
+}
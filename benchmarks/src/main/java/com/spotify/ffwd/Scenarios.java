@@ -0,0 +1,83 @@
+/*-
+ * -\-\-
+ * FastForward Benchmarks
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import com.google.protobuf.ByteString;
+import com.spotify.ffwd.v1.Sketch;
+import com.spotify.ffwd.v1.Value;
+import java.util.Random;
+
+/**
+ * The metrics that benchmarks send, so that their wire sizes can be reported alongside.
+ */
+final class Scenarios {
+
+  static final int[] ATTRIBUTES = {0, 8, 32};
+
+  private Scenarios() {
+  }
+
+  static Metric metric(int attributes) {
+    final Metric.Builder builder = Metric.builder()
+        .key("benchmark.requests")
+        .host("host.example.com")
+        .time(1575323125000L)
+        .value(42.5);
+
+    for (int i = 0; i < attributes; i++) {
+      builder.attribute("key-" + i, "value-" + i);
+    }
+
+    return builder.build();
+  }
+
+  static com.spotify.ffwd.v1.Metric metricV1(int attributes) {
+    final com.spotify.ffwd.v1.Metric.Builder builder = com.spotify.ffwd.v1.Metric.builder()
+        .key("benchmark.requests")
+        .host("host.example.com")
+        .time(1575323125000L)
+        .value(Value.doubleValue(42.5));
+
+    for (int i = 0; i < attributes; i++) {
+      builder.attribute("key-" + i, "value-" + i);
+    }
+
+    return builder.build();
+  }
+
+  static com.spotify.ffwd.v1.Metric distribution(int attributes) {
+    return metricV1(attributes).value(Value.distributionValue(latencies()));
+  }
+
+  /**
+   * A sketch of 10000 log-normally distributed latencies, as recorded for a busy endpoint.
+   */
+  static ByteString latencies() {
+    final Random random = new Random(42);
+    final Sketch sketch = Sketch.create();
+
+    for (int i = 0; i < 10000; i++) {
+      sketch.record(Math.exp(3 + random.nextGaussian()));
+    }
+
+    return sketch.serialize();
+  }
+}
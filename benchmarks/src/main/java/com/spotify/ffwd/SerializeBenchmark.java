@@ -0,0 +1,95 @@
+/*-
+ * -\-\-
+ * FastForward Benchmarks
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding metrics, into a new array and into a reused buffer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializeBenchmark {
+
+  @Param({"0", "8", "32"})
+  public int attributes;
+
+  private Metric metric;
+  private com.spotify.ffwd.v1.Metric metricV1;
+  private com.spotify.ffwd.v1.Metric distribution;
+  private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+  @Setup
+  public void setup() {
+    metric = Scenarios.metric(attributes);
+    metricV1 = Scenarios.metricV1(attributes);
+    distribution = Scenarios.distribution(attributes);
+  }
+
+  @Benchmark
+  public byte[] serializeV0() {
+    return metric.serialize();
+  }
+
+  @Benchmark
+  public int serializeToV0() {
+    buffer.clear();
+    return metric.serializeTo(buffer);
+  }
+
+  @Benchmark
+  public byte[] serializeV1Double() {
+    return metricV1.serialize();
+  }
+
+  @Benchmark
+  public int serializeToV1Double() {
+    buffer.clear();
+    return metricV1.serializeTo(buffer);
+  }
+
+  @Benchmark
+  public byte[] serializeV1Distribution() {
+    return distribution.serialize();
+  }
+
+  @Benchmark
+  public int serializeToV1Distribution() {
+    buffer.clear();
+    return distribution.serializeTo(buffer);
+  }
+}
@@ -0,0 +1,58 @@
+/*-
+ * -\-\-
+ * FastForward Benchmarks
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.io.PrintStream;
+
+/**
+ * Prints the frame size of every benchmarked metric, to put the timings in relation.
+ */
+final class WireSizes {
+
+  private WireSizes() {
+  }
+
+  static void print(PrintStream out) {
+    out.println("# Wire size per frame, in bytes, including the 8 byte header");
+    out.printf("%-28s%8s%8s%8s%n", "scenario", "0", "8", "32");
+    out.printf("%-28s%8d%8d%8d%n", "v0 double",
+        frameSize(Scenarios.metric(0).serialize()),
+        frameSize(Scenarios.metric(8).serialize()),
+        frameSize(Scenarios.metric(32).serialize()));
+    out.printf("%-28s%8d%8d%8d%n", "v1 double",
+        frameSize(Scenarios.metricV1(0).serialize()),
+        frameSize(Scenarios.metricV1(8).serialize()),
+        frameSize(Scenarios.metricV1(32).serialize()));
+    out.printf("%-28s%8d%8d%8d%n", "v1 distribution",
+        frameSize(Scenarios.distribution(0).serialize()),
+        frameSize(Scenarios.distribution(8).serialize()),
+        frameSize(Scenarios.distribution(32).serialize()));
+    out.println();
+  }
+
+  private static int frameSize(byte[] message) {
+    return FrameEncoder.HEADER_SIZE + message.length;
+  }
+
+  public static void main(String[] args) {
+    print(System.out);
+  }
+}
@@ -0,0 +1,170 @@
+/*-
+ * -\-\-
+ * FastForward Benchmarks
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+
+package com.spotify.ffwd.micrometer;
+
+import com.spotify.ffwd.FastForward;
+import com.spotify.ffwd.FastForwardConfiguration;
+import com.spotify.ffwd.testing.FfwdReceiver;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MockClock;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.util.NamedThreadFactory;
+import io.micrometer.statsd.StatsdConfig;
+import io.micrometer.statsd.StatsdMeterRegistry;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One step of a Micrometer registry with counters and timers: every meter is updated
+ * {@code updates} times, then the step is published.
+ *
+ * <p>{@code ffwd} publishes the step through a {@link FfwdMeterRegistry}, one metric or
+ * distribution per meter. {@code statsd} has no publication, a {@link StatsdMeterRegistry} writes
+ * a line per update instead, sent here as one datagram each. Both send over UDP to a local
+ * receiver that drains the socket.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MicrometerPublishBenchmark {
+
+  @Param({"1000"})
+  public int meters;
+
+  @Param({"1", "10"})
+  public int updates;
+
+  private final MockClock clock = new MockClock();
+
+  private FfwdReceiver receiver;
+  private DatagramChannel channel;
+  private FfwdMeterRegistry ffwd;
+  private StatsdMeterRegistry statsd;
+  private Counter[] ffwdCounters;
+  private Timer[] ffwdTimers;
+  private Counter[] statsdCounters;
+  private Timer[] statsdTimers;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    receiver = FfwdReceiver.builder().setUdp(true).setDecode(false).start();
+
+    final InetSocketAddress address = receiver.getUdpAddress();
+    final FastForward client = FastForward.setup(address.getAddress(), address.getPort(),
+        FastForwardConfiguration.builder().setBatching(true).build());
+    ffwd = new FfwdMeterRegistry(FfwdConfig.DEFAULT, clock,
+        new NamedThreadFactory("ffwd-benchmark-publisher"), client);
+
+    channel = DatagramChannel.open();
+    channel.connect(address);
+    statsd = StatsdMeterRegistry.builder(StatsdConfig.DEFAULT)
+        .clock(clock)
+        .lineSink(this::sendLine)
+        .build();
+
+    ffwdCounters = counters(ffwd);
+    ffwdTimers = timers(ffwd);
+    statsdCounters = counters(statsd);
+    statsdTimers = timers(statsd);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    ffwd.close();
+    statsd.close();
+    channel.close();
+    receiver.close();
+  }
+
+  @Benchmark
+  public void ffwd() {
+    update(ffwdCounters, ffwdTimers);
+    clock.add(FfwdConfig.DEFAULT.step());
+    ffwd.publish();
+  }
+
+  @Benchmark
+  public void statsd() {
+    update(statsdCounters, statsdTimers);
+  }
+
+  private void update(final Counter[] counters, final Timer[] timers) {
+    for (int i = 0; i < updates; i++) {
+      for (final Counter counter : counters) {
+        counter.increment();
+      }
+
+      for (final Timer timer : timers) {
+        timer.record(i, TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  private Counter[] counters(final MeterRegistry registry) {
+    final Counter[] counters = new Counter[meters / 2];
+
+    for (int i = 0; i < counters.length; i++) {
+      counters[i] = registry.counter("requests", "endpoint", "endpoint-" + i, "status", "200");
+    }
+
+    return counters;
+  }
+
+  private Timer[] timers(final MeterRegistry registry) {
+    final Timer[] timers = new Timer[meters - meters / 2];
+
+    for (int i = 0; i < timers.length; i++) {
+      timers[i] = registry.timer("latency", "endpoint", "endpoint-" + i);
+    }
+
+    return timers;
+  }
+
+  private void sendLine(final String line) {
+    try {
+      channel.write(StandardCharsets.UTF_8.encode(line));
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,357 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import com.spotify.ffwd.v1.Sketch;
+import com.spotify.ffwd.v1.Value;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Aggregates counters and gauges in memory and sends one value per series and interval.
+ *
+ * <p>A series is identified by the key, host, tags and attributes of a {@link Metric}, its time
+ * and value are ignored. Look up a series once and keep the returned handle: updating a handle is
+ * lock-free and does not allocate.
+ *
+ * <pre>{@code
+ * Aggregator aggregator = Aggregator.create(ffwd, 10, TimeUnit.SECONDS);
+ * Aggregator.Counter requests = aggregator.counter(FastForward.metric("requests"));
+ *
+ * requests.increment();
+ * }</pre>
+ */
+public class Aggregator implements Closeable {
+
+  private final FastForward client;
+  /**
+   * Series by their {@link Metric} or {@link com.spotify.ffwd.v1.Metric} without time and value.
+   */
+  private final ConcurrentMap<Object, Series> series = new ConcurrentHashMap<>();
+  private final ScheduledThreadPoolExecutor scheduler;
+
+  /**
+   * Create an aggregator that sends through the given client every interval.
+   */
+  public static Aggregator create(FastForward client, long interval, TimeUnit unit) {
+    if (interval <= 0) {
+      throw new IllegalArgumentException("interval must be positive");
+    }
+
+    return new Aggregator(client, interval, unit);
+  }
+
+  private Aggregator(FastForward client, long interval, TimeUnit unit) {
+    this.client = client;
+    this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+      final Thread thread = new Thread(runnable, "ffwd-aggregator");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.scheduler.scheduleAtFixedRate(this::flushQuietly, interval, interval, unit);
+  }
+
+  /**
+   * The counter of the series of the given metric.
+   *
+   * <p>Every interval the counter sends how much it was incremented since the previous interval.
+   */
+  public Counter counter(Metric metric) {
+    final Metric series = metric.series();
+    return register(series, Counter.class, () -> new Counter(series));
+  }
+
+  /**
+   * The gauge of the series of the given metric, which sends its last value every interval.
+   */
+  public Gauge gauge(Metric metric) {
+    final Metric series = metric.series();
+    return register(series, LastValueGauge.class, () -> new LastValueGauge(series));
+  }
+
+  /**
+   * A gauge of the series of the given metric that sends the minimum, maximum, sum and count of
+   * the values recorded during each interval.
+   *
+   * <p>The four statistics are sent as separate metrics with a {@code stat} attribute of
+   * {@code min}, {@code max}, {@code sum} and {@code count}. Nothing is sent for intervals
+   * without values.
+   */
+  public Gauge gaugeStats(Metric metric) {
+    final Metric series = metric.series();
+    return register(series, StatsGauge.class, () -> new StatsGauge(series));
+  }
+
+  /**
+   * The sketch of the series of the given v1 metric.
+   *
+   * <p>Every interval the values recorded in the sketch are sent as a distribution value, see
+   * {@link Sketch}. Nothing is sent for intervals without values.
+   */
+  public Sketch sketch(com.spotify.ffwd.v1.Metric metric) {
+    final com.spotify.ffwd.v1.Metric series = metric.time(0).value(Value.doubleValue(0));
+    return register(series, SketchSeries.class, () -> new SketchSeries(series)).sketch;
+  }
+
+  /**
+   * Send the aggregated value of every series now.
+   *
+   * <p>A series that fails to send loses its interval, but does not keep the others from being
+   * sent. Every failure is counted in the stats of the client.
+   *
+   * @throws IOException The first failure, with the later ones suppressed.
+   */
+  public void flush() throws IOException {
+    final long time = System.currentTimeMillis();
+    IOException failure = null;
+
+    for (final Series s : series.values()) {
+      try {
+        s.flush(client, time);
+      } catch (final IOException e) {
+        client.stats().failed(e);
+
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Stop the periodic flush and send what was aggregated since the last one.
+   */
+  @Override
+  public void close() throws IOException {
+    scheduler.shutdownNow();
+
+    try {
+      scheduler.awaitTermination(1, TimeUnit.SECONDS);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    flush();
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (final IOException e) {
+      // already counted by flush().
+    } catch (final RuntimeException e) {
+      client.stats().failed(e);
+    }
+  }
+
+  private <T extends Series> T register(
+      final Object key, final Class<T> type, final Supplier<T> factory
+  ) {
+    final Series existing = series.computeIfAbsent(key, k -> factory.get());
+
+    if (!type.isInstance(existing)) {
+      throw new IllegalArgumentException(
+          "The series of this metric is already registered with another type");
+    }
+
+    return type.cast(existing);
+  }
+
+  abstract static class Series {
+    abstract void flush(FastForward client, long time) throws IOException;
+  }
+
+  /**
+   * A monotonic counter, using striped cells so that concurrent increments do not contend.
+   */
+  public static final class Counter extends Series {
+    private final MetricTemplate template;
+    private final LongAdder longs = new LongAdder();
+    private final DoubleAdder doubles = new DoubleAdder();
+
+    // only touched by the flushing thread.
+    private long flushedLongs;
+    private double flushedDoubles;
+
+    Counter(final Metric series) {
+      this.template = series.template();
+    }
+
+    public void increment() {
+      longs.increment();
+    }
+
+    public void add(final long delta) {
+      longs.add(delta);
+    }
+
+    public void add(final double delta) {
+      doubles.add(delta);
+    }
+
+    @Override
+    synchronized void flush(final FastForward client, final long time) throws IOException {
+      // the adders are never reset: sumThenReset() reads and clears every cell in two steps on
+      // Java 8, which loses updates in between. The difference of the long totals is exact.
+      final long totalLongs = longs.sum();
+      final double totalDoubles = doubles.sum();
+      final double delta = (totalLongs - flushedLongs) + (totalDoubles - flushedDoubles);
+
+      flushedLongs = totalLongs;
+      flushedDoubles = totalDoubles;
+      client.send(template, time, delta);
+    }
+  }
+
+  /**
+   * A gauge that records values from any number of threads.
+   */
+  public abstract static class Gauge extends Series {
+    public abstract void update(double value);
+  }
+
+  private static final class LastValueGauge extends Gauge {
+    private static final long UNSET = Double.doubleToRawLongBits(Double.NaN) ^ 1;
+
+    private final MetricTemplate template;
+    private final AtomicLong last = new AtomicLong(UNSET);
+
+    LastValueGauge(final Metric series) {
+      this.template = series.template();
+    }
+
+    @Override
+    public void update(final double value) {
+      last.set(Double.doubleToRawLongBits(value));
+    }
+
+    @Override
+    void flush(final FastForward client, final long time) throws IOException {
+      final long bits = last.get();
+
+      if (bits != UNSET) {
+        client.send(template, time, Double.longBitsToDouble(bits));
+      }
+    }
+  }
+
+  private static final class SketchSeries extends Series {
+    private final com.spotify.ffwd.v1.MetricTemplate template;
+    private final Sketch sketch = Sketch.create();
+
+    SketchSeries(final com.spotify.ffwd.v1.Metric series) {
+      this.template = series.template();
+    }
+
+    @Override
+    void flush(final FastForward client, final long time) throws IOException {
+      if (sketch.getCount() == 0) {
+        return;
+      }
+
+      client.send(template, time, Value.distributionValue(sketch.serializeAndReset()));
+    }
+  }
+
+  private static final class StatsGauge extends Gauge {
+    private static final long MIN_RESET = Double.doubleToRawLongBits(Double.POSITIVE_INFINITY);
+    private static final long MAX_RESET = Double.doubleToRawLongBits(Double.NEGATIVE_INFINITY);
+
+    private final MetricTemplate minTemplate;
+    private final MetricTemplate maxTemplate;
+    private final MetricTemplate sumTemplate;
+    private final MetricTemplate countTemplate;
+
+    private final LongAdder count = new LongAdder();
+    private final DoubleAdder sum = new DoubleAdder();
+    private final AtomicLong min = new AtomicLong(MIN_RESET);
+    private final AtomicLong max = new AtomicLong(MAX_RESET);
+
+    // only touched by the flushing thread.
+    private long flushedCount;
+    private double flushedSum;
+
+    StatsGauge(final Metric series) {
+      this.minTemplate = series.attribute("stat", "min").template();
+      this.maxTemplate = series.attribute("stat", "max").template();
+      this.sumTemplate = series.attribute("stat", "sum").template();
+      this.countTemplate = series.attribute("stat", "count").template();
+    }
+
+    @Override
+    public void update(final double value) {
+      sum.add(value);
+      count.increment();
+
+      long current;
+
+      while (value < Double.longBitsToDouble(current = min.get())) {
+        if (min.compareAndSet(current, Double.doubleToRawLongBits(value))) {
+          break;
+        }
+      }
+
+      while (value > Double.longBitsToDouble(current = max.get())) {
+        if (max.compareAndSet(current, Double.doubleToRawLongBits(value))) {
+          break;
+        }
+      }
+    }
+
+    @Override
+    synchronized void flush(final FastForward client, final long time) throws IOException {
+      // never reset, like the adders of the counter.
+      final long totalCount = count.sum();
+      final double totalSum = sum.sum();
+      final long intervalCount = totalCount - flushedCount;
+      final double intervalSum = totalSum - flushedSum;
+
+      flushedCount = totalCount;
+      flushedSum = totalSum;
+
+      final double intervalMin = Double.longBitsToDouble(min.getAndSet(MIN_RESET));
+      final double intervalMax = Double.longBitsToDouble(max.getAndSet(MAX_RESET));
+
+      if (intervalCount == 0) {
+        return;
+      }
+
+      client.send(minTemplate, time, intervalMin);
+      client.send(maxTemplate, time, intervalMax);
+      client.send(sumTemplate, time, intervalSum);
+      client.send(countTemplate, time, intervalCount);
+    }
+  }
+}
@@ -0,0 +1,274 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queues frames in a bounded queue and writes them to a delegate from a background thread.
+ *
+ * <p>The queue is bounded both by the number of frames and by their total size in bytes, what
+ * happens when either bound is reached is decided by the configured {@link OverflowPolicy}.
+ */
+class AsyncFrameWriter implements FrameWriter {
+
+  /**
+   * Maximum number of frames the sender takes out of the queue at a time.
+   */
+  private static final int DRAIN_BATCH = 64;
+
+  /**
+   * Initial size of the buffer frames are copied into for writers that prefer direct buffers.
+   */
+  private static final int INITIAL_DIRECT_BUFFER_SIZE = 4096;
+
+  private final FrameWriter delegate;
+  private final StatsRecorder stats;
+  private final int maxQueuedMetrics;
+  private final long maxQueuedBytes;
+  private final OverflowPolicy overflowPolicy;
+  private final long blockTimeoutNanos;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  private final Condition drained = lock.newCondition();
+
+  private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+  private long queuedBytes = 0;
+  private int inFlight = 0;
+  private boolean closed = false;
+
+  private final Thread sender;
+
+  AsyncFrameWriter(
+      final FrameWriter delegate, final FastForwardConfiguration configuration,
+      final StatsRecorder stats
+  ) {
+    this.delegate = delegate;
+    this.stats = stats;
+    this.maxQueuedMetrics = configuration.getMaxQueuedMetrics();
+    this.maxQueuedBytes = configuration.getMaxQueuedBytes();
+    this.overflowPolicy = configuration.getOverflowPolicy();
+    this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getBlockTimeoutMillis());
+
+    this.sender = Threads.newThread("ffwd-sender", this::run);
+    this.sender.start();
+  }
+
+  @Override
+  public void write(ByteBuffer frame) throws IOException {
+    final byte[] bytes = new byte[frame.remaining()];
+    frame.get(bytes);
+
+    lock.lock();
+
+    try {
+      if (closed) {
+        stats.dropped(DropReason.CLOSED);
+        throw new IOException("FastForward client is closed");
+      }
+
+      if (bytes.length > maxQueuedBytes) {
+        stats.dropped(DropReason.QUEUE_FULL);
+        return;
+      }
+
+      long nanos = blockTimeoutNanos;
+
+      while (queue.size() >= maxQueuedMetrics || queuedBytes + bytes.length > maxQueuedBytes) {
+        switch (overflowPolicy) {
+          case DROP_OLDEST:
+            queuedBytes -= queue.pollFirst().length;
+            stats.dropped(DropReason.QUEUE_FULL);
+            break;
+          case BLOCK:
+            if (nanos <= 0) {
+              stats.dropped(DropReason.QUEUE_FULL);
+              return;
+            }
+
+            nanos = notFull.awaitNanos(nanos);
+
+            if (closed) {
+              stats.dropped(DropReason.CLOSED);
+              throw new IOException("FastForward client is closed");
+            }
+            break;
+          default:
+            stats.dropped(DropReason.QUEUE_FULL);
+            return;
+        }
+      }
+
+      queue.addLast(bytes);
+      queuedBytes += bytes.length;
+      notEmpty.signal();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      stats.dropped(DropReason.QUEUE_FULL);
+      throw new InterruptedIOException("Interrupted while waiting for room in the send queue");
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean flush(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+    lock.lock();
+
+    try {
+      while (!queue.isEmpty() || inFlight > 0) {
+        final long nanos = deadline - System.nanoTime();
+
+        if (nanos <= 0) {
+          return false;
+        }
+
+        drained.awaitNanos(nanos);
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    return delegate.flush(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Stop accepting frames, drop everything still queued and close the delegate once the sender
+   * has finished the frames it is currently writing.
+   *
+   * <p>Use {@link #flush(long, TimeUnit)} first to give queued frames a chance to be sent.
+   */
+  @Override
+  public void close() throws IOException {
+    lock.lock();
+
+    try {
+      if (closed) {
+        return;
+      }
+
+      closed = true;
+      stats.dropped(DropReason.CLOSED, queue.size());
+      queue.clear();
+      queuedBytes = 0;
+      notEmpty.signalAll();
+      notFull.signalAll();
+      drained.signalAll();
+    } finally {
+      lock.unlock();
+    }
+
+    try {
+      sender.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    delegate.close();
+  }
+
+  @Override
+  public int queueSize() {
+    lock.lock();
+
+    try {
+      return queue.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void run() {
+    final byte[][] batch = new byte[DRAIN_BATCH][];
+    final boolean direct = delegate.prefersDirectBuffers();
+    ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(INITIAL_DIRECT_BUFFER_SIZE) : null;
+
+    while (true) {
+      final int size;
+
+      lock.lock();
+
+      try {
+        while (queue.isEmpty() && !closed) {
+          notEmpty.awaitUninterruptibly();
+        }
+
+        if (closed) {
+          return;
+        }
+
+        size = Math.min(queue.size(), batch.length);
+
+        for (int i = 0; i < size; i++) {
+          batch[i] = queue.pollFirst();
+          queuedBytes -= batch[i].length;
+        }
+
+        inFlight = size;
+        notFull.signalAll();
+      } finally {
+        lock.unlock();
+      }
+
+      for (int i = 0; i < size; i++) {
+        try {
+          if (direct) {
+            if (buffer.capacity() < batch[i].length) {
+              buffer = ByteBuffer.allocateDirect(Math.max(batch[i].length, buffer.capacity() * 2));
+            }
+
+            buffer.clear();
+            buffer.put(batch[i]).flip();
+            delegate.write(buffer);
+          } else {
+            delegate.write(ByteBuffer.wrap(batch[i]));
+          }
+        } catch (final Exception e) {
+          stats.failed(e);
+        }
+
+        batch[i] = null;
+      }
+
+      lock.lock();
+
+      try {
+        inFlight = 0;
+
+        if (queue.isEmpty()) {
+          drained.signalAll();
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+}
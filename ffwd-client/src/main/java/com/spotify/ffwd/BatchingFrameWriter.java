@@ -0,0 +1,254 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.DatagramSocket;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Enforces the maximum datagram size and, when batching, packs consecutive frames into shared
+ * datagrams.
+ *
+ * <p>A batch is written to the delegate when the next frame would not fit, or from a background
+ * thread once its first frame has waited for the linger time. Frames larger than a datagram are
+ * handled according to the {@link OversizePolicy}.
+ */
+class BatchingFrameWriter implements FrameWriter {
+
+  /**
+   * Largest payload of an IPv4 UDP datagram.
+   */
+  static final int MAX_UDP_PAYLOAD = 65507;
+
+  private static final int ETHERNET_MTU = 1500;
+  private static final int IPV4_UDP_HEADERS = 20 + 8;
+  private static final int IPV6_UDP_HEADERS = 40 + 8;
+
+  private final FrameWriter delegate;
+  private final StatsRecorder stats;
+  private final int maxDatagramSize;
+  private final OversizePolicy oversizePolicy;
+  private final long lingerNanos;
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /**
+   * Frames waiting to be sent, {@code null} when not batching.
+   */
+  private final ByteBuffer batch;
+  private final ScheduledThreadPoolExecutor linger;
+  private long batchStartNanos;
+  private boolean closed = false;
+
+  BatchingFrameWriter(
+      final FrameWriter delegate, final int maxDatagramSize,
+      final FastForwardConfiguration configuration, final StatsRecorder stats
+  ) {
+    this.delegate = delegate;
+    this.stats = stats;
+    this.maxDatagramSize = maxDatagramSize;
+    this.oversizePolicy = configuration.getOversizePolicy();
+    this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(configuration.getLingerMillis());
+
+    if (!configuration.isBatching()) {
+      this.batch = null;
+      this.linger = null;
+      return;
+    }
+
+    this.batch = delegate.prefersDirectBuffers()
+        ? ByteBuffer.allocateDirect(maxDatagramSize) : ByteBuffer.allocate(maxDatagramSize);
+
+    this.linger = new ScheduledThreadPoolExecutor(1, runnable -> {
+      final Thread thread = new Thread(runnable, "ffwd-linger");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.linger.scheduleWithFixedDelay(
+        this::sendLingering, lingerNanos, lingerNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * The largest datagram payload that avoids IP fragmentation on the way to the given address.
+   *
+   * <p>This is derived from the MTU of the local interface the address is routed through. The
+   * path further along may have a lower MTU, in which case the size should be configured.
+   */
+  static int defaultMaxDatagramSize(final InetAddress address) {
+    if (address.isLoopbackAddress()) {
+      return MAX_UDP_PAYLOAD;
+    }
+
+    final int headers = address instanceof Inet6Address ? IPV6_UDP_HEADERS : IPV4_UDP_HEADERS;
+
+    try (DatagramSocket probe = new DatagramSocket()) {
+      // connecting a datagram socket only picks a route, nothing is sent.
+      probe.connect(address, FastForward.DEFAULT_PORT);
+
+      final NetworkInterface networkInterface =
+          NetworkInterface.getByInetAddress(probe.getLocalAddress());
+
+      if (networkInterface != null && networkInterface.getMTU() > headers) {
+        return Math.min(networkInterface.getMTU() - headers, MAX_UDP_PAYLOAD);
+      }
+    } catch (final IOException | UncheckedIOException e) {
+      // fall back to the common ethernet MTU.
+    }
+
+    return ETHERNET_MTU - headers;
+  }
+
+  @Override
+  public void write(ByteBuffer frame) throws IOException {
+    final int size = frame.remaining();
+
+    if (size > maxDatagramSize) {
+      writeOversized(frame);
+      return;
+    }
+
+    if (batch == null) {
+      delegate.write(frame);
+      return;
+    }
+
+    lock.lock();
+
+    try {
+      if (closed) {
+        stats.dropped(DropReason.CLOSED);
+        throw new IOException("FastForward client is closed");
+      }
+
+      if (batch.remaining() < size) {
+        sendBatch();
+      }
+
+      if (batch.position() == 0) {
+        batchStartNanos = System.nanoTime();
+      }
+
+      batch.put(frame);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean prefersDirectBuffers() {
+    // batched frames are copied anyway.
+    return batch == null && delegate.prefersDirectBuffers();
+  }
+
+  @Override
+  public boolean flush(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+    if (batch != null) {
+      lock.lock();
+
+      try {
+        sendBatch();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    return delegate.flush(timeout, unit);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (batch == null) {
+      delegate.close();
+      return;
+    }
+
+    linger.shutdownNow();
+    lock.lock();
+
+    try {
+      closed = true;
+      sendBatch();
+    } finally {
+      lock.unlock();
+      delegate.close();
+    }
+  }
+
+  private void writeOversized(final ByteBuffer frame) throws IOException {
+    stats.oversized();
+
+    switch (oversizePolicy) {
+      case SEND:
+        delegate.write(frame);
+        return;
+      case DROP:
+        stats.dropped(DropReason.OVERSIZED);
+        frame.position(frame.limit());
+        return;
+      default:
+        stats.dropped(DropReason.OVERSIZED);
+        final int size = frame.remaining();
+        frame.position(frame.limit());
+        throw new IOException(
+            "Metric of " + size + " bytes exceeds the maximum datagram size of "
+            + maxDatagramSize + " bytes");
+    }
+  }
+
+  private void sendLingering() {
+    lock.lock();
+
+    try {
+      if (batch.position() > 0 && System.nanoTime() - batchStartNanos >= lingerNanos) {
+        sendBatch();
+      }
+    } catch (final Exception e) {
+      stats.failed(e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Write the current batch, if any, the lock must be held.
+   */
+  private void sendBatch() throws IOException {
+    if (batch.position() == 0) {
+      return;
+    }
+
+    batch.flip();
+
+    try {
+      delegate.write(batch);
+    } finally {
+      batch.clear();
+    }
+  }
+}
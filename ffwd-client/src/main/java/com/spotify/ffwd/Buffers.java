@@ -0,0 +1,58 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Multi-byte writes into buffers with a fixed byte order, whatever the order of the buffer.
+ *
+ * <p>This writes one byte at a time. Java 17 and later load a version from {@code
+ * META-INF/versions/17} that writes each value at once through a {@code VarHandle}.
+ */
+final class Buffers {
+
+  private Buffers() {
+  }
+
+  /**
+   * Write a big-endian int at the position and advance it.
+   *
+   * @throws java.nio.BufferOverflowException If fewer than 4 bytes remain.
+   */
+  static void putIntBigEndian(ByteBuffer buffer, int value) {
+    buffer.put((byte) (value >>> 24));
+    buffer.put((byte) (value >>> 16));
+    buffer.put((byte) (value >>> 8));
+    buffer.put((byte) value);
+  }
+
+  /**
+   * Write a little-endian long at the position and advance it.
+   *
+   * @throws java.nio.BufferOverflowException If fewer than 8 bytes remain.
+   */
+  static void putLongLittleEndian(ByteBuffer buffer, long value) {
+    for (int i = 0; i < 8; i++) {
+      buffer.put((byte) (value >>> (i * 8)));
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Sends every frame as its own datagram through a connected {@link DatagramChannel}.
+ *
+ * <p>Frames are expected in direct buffers, which the channel hands to the operating system
+ * without first copying them into native memory. Since the channel is connected the destination
+ * is resolved and checked once, instead of on every send.
+ *
+ * <p>In non-blocking mode a frame that does not fit in the socket send buffer is dropped and
+ * counted as {@link DropReason#SEND_BUFFER_FULL}, and slows down the {@link RateLimiter} of the
+ * client if it has one.
+ */
+class DatagramChannelWriter implements FrameWriter {
+
+  private final DatagramChannel channel;
+  private final StatsRecorder stats;
+  private final RateLimiter limiter;
+
+  static DatagramChannelWriter open(
+      InetSocketAddress address, FastForwardConfiguration configuration, StatsRecorder stats
+  ) throws IOException {
+    return open(address, configuration, stats, null);
+  }
+
+  /**
+   * Open and connect a channel with the socket options of the given configuration.
+   *
+   * @param limiter The rate limiter of the client, or {@code null}.
+   */
+  static DatagramChannelWriter open(
+      InetSocketAddress address, FastForwardConfiguration configuration, StatsRecorder stats,
+      RateLimiter limiter
+  ) throws IOException {
+    final DatagramChannel channel = DatagramChannel.open();
+
+    try {
+      if (configuration.getSendBufferSize() > 0) {
+        channel.setOption(StandardSocketOptions.SO_SNDBUF, configuration.getSendBufferSize());
+      }
+
+      if (configuration.getTrafficClass() >= 0) {
+        channel.setOption(StandardSocketOptions.IP_TOS, configuration.getTrafficClass());
+      }
+
+      channel.configureBlocking(!configuration.isNonBlocking());
+      channel.connect(address);
+    } catch (final IOException e) {
+      channel.close();
+      throw e;
+    }
+
+    return new DatagramChannelWriter(channel, stats, limiter);
+  }
+
+  DatagramChannelWriter(DatagramChannel channel, StatsRecorder stats, RateLimiter limiter) {
+    this.channel = channel;
+    this.stats = stats;
+    this.limiter = limiter;
+  }
+
+  @Override
+  public void write(ByteBuffer frame) throws IOException {
+    final int written = channel.write(frame);
+
+    if (written == 0 && frame.hasRemaining()) {
+      stats.dropped(DropReason.SEND_BUFFER_FULL);
+      frame.position(frame.limit());
+
+      if (limiter != null) {
+        limiter.congested();
+      }
+    } else {
+      stats.sentDatagram(written);
+    }
+  }
+
+  @Override
+  public boolean prefersDirectBuffers() {
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
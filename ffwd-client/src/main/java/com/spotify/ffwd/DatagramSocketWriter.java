@@ -0,0 +1,102 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sends every frame as its own datagram through an unconnected {@link DatagramSocket}.
+ */
+class DatagramSocketWriter implements FrameWriter {
+
+  private static final byte[] EMPTY = new byte[0];
+
+  private final DatagramSocket socket;
+  private final StatsRecorder stats;
+
+  /**
+   * Packets are only used for the duration of a send, so each thread can keep reusing one.
+   */
+  private final ThreadLocal<DatagramPacket> packets;
+
+  /**
+   * Open a socket with the socket options of the given configuration.
+   */
+  static DatagramSocketWriter open(
+      InetAddress addr, int port, FastForwardConfiguration configuration, StatsRecorder stats
+  ) throws SocketException {
+    final DatagramSocket socket = new DatagramSocket();
+
+    try {
+      if (configuration.getSendBufferSize() > 0) {
+        socket.setSendBufferSize(configuration.getSendBufferSize());
+      }
+
+      if (configuration.getTrafficClass() >= 0) {
+        socket.setTrafficClass(configuration.getTrafficClass());
+      }
+    } catch (final SocketException e) {
+      socket.close();
+      throw e;
+    }
+
+    return new DatagramSocketWriter(socket, addr, port, stats);
+  }
+
+  DatagramSocketWriter(DatagramSocket socket, InetAddress addr, int port, StatsRecorder stats) {
+    this.socket = socket;
+    this.stats = stats;
+    this.packets = ThreadLocal.withInitial(() -> new DatagramPacket(EMPTY, 0, addr, port));
+  }
+
+  @Override
+  public void write(ByteBuffer frame) throws IOException {
+    final DatagramPacket packet = packets.get();
+
+    if (frame.hasArray()) {
+      packet.setData(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+    } else {
+      final byte[] bytes = new byte[frame.remaining()];
+      frame.duplicate().get(bytes);
+      packet.setData(bytes);
+    }
+
+    try {
+      socket.send(packet);
+    } finally {
+      packet.setData(EMPTY);
+    }
+
+    stats.sentDatagram(frame.remaining());
+
+    frame.position(frame.limit());
+  }
+
+  @Override
+  public void close() {
+    socket.close();
+  }
+}
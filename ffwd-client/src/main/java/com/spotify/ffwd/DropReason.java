@@ -0,0 +1,53 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+/**
+ * Why metrics were dropped by a client, see {@link FastForwardStats#getDropped(DropReason)}.
+ */
+public enum DropReason {
+  /**
+   * The send queue of an asynchronous client was full.
+   */
+  QUEUE_FULL,
+  /**
+   * The metric was sent to, or still queued in, a client that was closed.
+   */
+  CLOSED,
+  /**
+   * A non-blocking socket had no room left in its send buffer.
+   */
+  SEND_BUFFER_FULL,
+  /**
+   * The metric was larger than a datagram, with {@link OversizePolicy#DROP} or
+   * {@link OversizePolicy#FAIL}.
+   */
+  OVERSIZED,
+  /**
+   * The write buffer of a TCP client was full, usually because the agent was unreachable.
+   */
+  BUFFER_FULL,
+  /**
+   * The rate limit of the client was reached, and the metric could not be paced within the
+   * maximum pacing delay.
+   */
+  RATE_LIMITED
+}
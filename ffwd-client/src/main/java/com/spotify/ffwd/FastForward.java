@@ -20,16 +20,27 @@
 
 package com.spotify.ffwd;
 
+import com.spotify.ffwd.v1.Value;
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.DatagramPacket;
+import java.io.InterruptedIOException;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntBiFunction;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
-public class FastForward {
+public class FastForward implements Closeable {
 
   /**
    * If you are using an older version, please use Version.V0.
@@ -41,6 +52,30 @@ public class FastForward {
   public static final String DEFAULT_HOST = "localhost";
   public static final int DEFAULT_PORT = 19091;
 
+  /**
+   * How long {@link #close()} waits for queued metrics to be sent.
+   */
+  public static final long DEFAULT_CLOSE_TIMEOUT_MILLIS = 5000;
+
+  private static final int INITIAL_BUFFER_SIZE = 4096;
+
+  /**
+   * How many bytes of frames are packed into one write over a stream transport.
+   */
+  private static final int MAX_STREAM_PACKED_SIZE = 64 * 1024;
+
+  /**
+   * Per-thread buffers that frames are encoded into, writers never hold on to them past a call.
+   */
+  private static final ThreadLocal<ByteBuffer> HEAP_BUFFERS =
+      ThreadLocal.withInitial(() -> ByteBuffer.allocate(INITIAL_BUFFER_SIZE));
+
+  /**
+   * Like {@link #HEAP_BUFFERS}, for writers that send straight from native memory.
+   */
+  private static final ThreadLocal<ByteBuffer> DIRECT_BUFFERS =
+      ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE));
+
   public enum Version {
     V0(0),
     V1(1);
@@ -82,51 +117,623 @@ public class FastForward {
    * @throws SocketException If a datagram socket cannot be created.
    */
   public static FastForward setup(InetAddress addr, int port) throws SocketException {
-    final DatagramSocket socket = new DatagramSocket();
-    return new FastForward(addr, port, socket);
+    final FastForwardConfiguration configuration = FastForwardConfiguration.builder().build();
+    final StatsRecorder stats = new StatsRecorder();
+    final FrameWriter writer =
+        new DatagramSocketWriter(new DatagramSocket(), addr, port, stats);
+    return create(new FrameWriter[] {writer}, addr, configuration, stats, null);
+  }
+
+  public static FastForward setup(
+      String host, int port, FastForwardConfiguration configuration
+  ) throws IOException {
+    return setup(InetAddress.getByName(host), port, configuration);
   }
 
-  private final InetAddress addr;
-  private final int port;
-  private final DatagramSocket socket;
+  /**
+   * Initialization method for a FastForward client with custom options.
+   *
+   * <p>An asynchronous or batching client owns a background thread, call {@link #close()} when it
+   * is no longer needed.
+   *
+   * @return A new instance of a FastForward client.
+   *
+   * @throws IOException If the underlying socket cannot be created.
+   */
+  public static FastForward setup(
+      InetAddress addr, int port, FastForwardConfiguration configuration
+  ) throws IOException {
+    if (configuration.getTransport() == Transport.UNIX) {
+      throw new IllegalArgumentException(
+          "The UNIX transport connects to a socket path, see setup(Path, ...)");
+    }
+
+    return connect(addr, configuration,
+        (stats, limiter) -> openWriter(addr, port, configuration, stats, limiter));
+  }
+
+  /**
+   * Initialization method for a FastForward client using the given transport.
+   *
+   * @return A new instance of a FastForward client.
+   *
+   * @throws IOException If the underlying socket cannot be created.
+   */
+  public static FastForward setup(String host, int port, Transport transport)
+      throws IOException {
+    return setup(InetAddress.getByName(host), port, transport);
+  }
 
-  private FastForward(InetAddress addr, int port, DatagramSocket socket) {
-    this.addr = addr;
-    this.port = port;
-    this.socket = socket;
+  public static FastForward setup(InetAddress addr, int port, Transport transport)
+      throws IOException {
+    return setup(addr, port, FastForwardConfiguration.builder().setTransport(transport).build());
+  }
+
+  /**
+   * Initialization method for a FastForward client connected to an agent on the same host,
+   * through the Unix domain socket at the given path.
+   *
+   * @throws IOException If Unix domain sockets are not supported by this Java version.
+   */
+  public static FastForward setup(Path socket) throws IOException {
+    return setup(socket, FastForwardConfiguration.builder().setTransport(Transport.UNIX).build());
+  }
+
+  /**
+   * Like {@link #setup(Path)} with custom options, the transport must be {@link Transport#UNIX}.
+   *
+   * <p>The connection is made and re-established in the background like for {@link
+   * Transport#TCP}, so this does not fail while the agent is not listening yet.
+   *
+   * @throws IOException If Unix domain sockets are not supported by this Java version.
+   */
+  public static FastForward setup(Path socket, FastForwardConfiguration configuration)
+      throws IOException {
+    if (configuration.getTransport() != Transport.UNIX) {
+      throw new IllegalArgumentException("Set the transport to UNIX to connect to a socket path");
+    }
+
+    return connect(null, configuration,
+        (stats, limiter) -> StreamFrameWriter.unix(socket, configuration, stats));
+  }
+
+  /**
+   * Open a transport writer per stripe and set up a client with them.
+   */
+  private static FastForward connect(
+      InetAddress addr, FastForwardConfiguration configuration, TransportFactory factory
+  ) throws IOException {
+    final StatsRecorder stats = new StatsRecorder();
+    final RateLimiter limiter = RateLimiter.create(configuration);
+    final FrameWriter[] transports = new FrameWriter[configuration.getStripes()];
+
+    try {
+      for (int i = 0; i < transports.length; i++) {
+        transports[i] = factory.open(stats, limiter);
+      }
+    } catch (final IOException e) {
+      for (final FrameWriter transport : transports) {
+        if (transport != null) {
+          transport.close();
+        }
+      }
+
+      throw e;
+    }
+
+    final FastForward client = create(transports, addr, configuration, stats, limiter);
+
+    if (configuration.getJmxName() != null) {
+      try {
+        client.mbean = StatsBean.register(configuration.getJmxName(), client::getStats);
+      } catch (final JMException e) {
+        client.close();
+        throw new IOException("Could not register the statistics of the client in JMX", e);
+      }
+    }
+
+    if (configuration.getStatsIntervalMillis() > 0) {
+      client.emitter = new StatsEmitter(
+          client, configuration.getStatsKey(), configuration.getStatsIntervalMillis());
+    }
+
+    return client;
+  }
+
+  /**
+   * Wrap the transport writers, one per stripe, into the writer of a new client.
+   *
+   * @param limiter The rate limiter shared by the stripes, or {@code null}.
+   */
+  private static FastForward create(
+      FrameWriter[] transports, InetAddress addr, FastForwardConfiguration configuration,
+      StatsRecorder stats, RateLimiter limiter
+  ) {
+    final FrameWriter[] stripes = transports.clone();
+    final int maxPackedSize;
+
+    if (configuration.getTransport().isStream()) {
+      maxPackedSize = MAX_STREAM_PACKED_SIZE;
+    } else {
+      final int maxDatagramSize = configuration.getMaxDatagramSize() > 0
+          ? configuration.getMaxDatagramSize()
+          : BatchingFrameWriter.defaultMaxDatagramSize(addr);
+
+      for (int i = 0; i < stripes.length; i++) {
+        stripes[i] = new BatchingFrameWriter(stripes[i], maxDatagramSize, configuration, stats);
+      }
+
+      maxPackedSize = configuration.isBatching() ? maxDatagramSize : 0;
+    }
+
+    FrameWriter writer = stripes.length == 1 ? stripes[0] : new StripedFrameWriter(stripes);
+
+    if (limiter != null) {
+      writer = new RateLimitingFrameWriter(writer, limiter, stats);
+    }
+
+    if (configuration.isAsync()) {
+      writer = new AsyncFrameWriter(writer, configuration, stats);
+    }
+
+    return new FastForward(writer, stats, maxPackedSize, new SeriesRegistry(configuration),
+        Sampler.create(configuration.getSampleRates()));
+  }
+
+  private static FrameWriter openWriter(
+      InetAddress addr, int port, FastForwardConfiguration configuration, StatsRecorder stats,
+      RateLimiter limiter
+  ) throws IOException {
+    switch (configuration.getTransport()) {
+      case UDP_NIO:
+        return DatagramChannelWriter.open(
+            new InetSocketAddress(addr, port), configuration, stats, limiter);
+      case TCP:
+        return StreamFrameWriter.tcp(new InetSocketAddress(addr, port), configuration, stats);
+      default:
+        return DatagramSocketWriter.open(addr, port, configuration, stats);
+    }
+  }
+
+  /**
+   * Opens the writer of one stripe.
+   */
+  private interface TransportFactory {
+    FrameWriter open(StatsRecorder stats, RateLimiter limiter) throws IOException;
+  }
+
+  private final FrameWriter writer;
+  private final StatsRecorder stats;
+  private final ThreadLocal<ByteBuffer> buffers;
+  private final SeriesRegistry series;
+
+  /**
+   * Decides which points of sampled keys are sent, {@code null} if no key is sampled.
+   */
+  private final Sampler sampler;
+  private StatsEmitter emitter;
+  private ObjectName mbean;
+
+  /**
+   * How many bytes of frames {@link #send(Collection)} may pack into one write, or 0 to write
+   * every frame on its own.
+   */
+  private final int maxPackedSize;
+
+  private FastForward(
+      FrameWriter writer, StatsRecorder stats, int maxPackedSize, SeriesRegistry series,
+      Sampler sampler
+  ) {
+    this.writer = writer;
+    this.stats = stats;
+    this.buffers = writer.prefersDirectBuffers() ? DIRECT_BUFFERS : HEAP_BUFFERS;
+    this.maxPackedSize = maxPackedSize;
+    this.series = series;
+    this.sampler = sampler;
   }
 
   protected FastForward() throws UnknownHostException, SocketException {
-    this.addr = InetAddress.getByName(DEFAULT_HOST);
-    this.port = DEFAULT_PORT;
-    this.socket = new DatagramSocket();
+    this.stats = new StatsRecorder();
+    this.writer = new DatagramSocketWriter(
+        new DatagramSocket(), InetAddress.getByName(DEFAULT_HOST), DEFAULT_PORT, stats);
+    this.buffers = HEAP_BUFFERS;
+    this.maxPackedSize = 0;
+    this.series = new SeriesRegistry(FastForwardConfiguration.builder().build());
+    this.sampler = null;
   }
 
 
   public void send(Metric metric) throws IOException {
-    sendFrame(metric.serialize(), Version.V0);
+    final Metric sampled = sample(metric);
+
+    if (sampled != null) {
+      sendOne(sampled, Metric::serializeTo);
+    }
   }
 
   public void send(com.spotify.ffwd.v1.Metric metric) throws IOException {
-    sendFrame(metric.serialize(), Version.V1);
+    final com.spotify.ffwd.v1.Metric sampled = sample(metric);
+
+    if (sampled != null) {
+      sendOne(sampled, com.spotify.ffwd.v1.Metric::serializeTo);
+    }
+  }
+
+  /**
+   * Send several metrics at once.
+   *
+   * <p>With batching enabled the metrics are packed into as few datagrams as possible, otherwise
+   * this is the same as sending them one by one.
+   */
+  public void send(Collection<Metric> metrics) throws IOException {
+    if (sampler == null) {
+      sendAll(metrics, Metric::serializeTo);
+      return;
+    }
+
+    final List<Metric> sampled = new ArrayList<>(metrics.size());
+
+    for (final Metric metric : metrics) {
+      final Metric s = sample(metric);
+
+      if (s != null) {
+        sampled.add(s);
+      }
+    }
+
+    sendAll(sampled, Metric::serializeTo);
+  }
+
+  /**
+   * Send a value through a template, with the time of the template metric if it has one.
+   */
+  public void send(MetricTemplate template, double value) throws IOException {
+    final MetricTemplate sampled = sample(template);
+
+    if (sampled == null) {
+      return;
+    }
+
+    final ByteBuffer buffer = frameBuffer(sampled.maxFrameSize());
+    sampled.serializeTo(buffer, value);
+    buffer.flip();
+    sendFrame(buffer);
   }
 
-  void sendFrame(byte[] bytes, Version v) throws IOException {
-    final ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 8);
-    buffer.order(ByteOrder.BIG_ENDIAN);
+  public void send(MetricTemplate template, long time, double value) throws IOException {
+    final MetricTemplate sampled = sample(template);
 
-    buffer.putInt(v.getVersion());
-    buffer.putInt(buffer.capacity());
-    buffer.put(bytes);
-    buffer.rewind();
+    if (sampled == null) {
+      return;
+    }
 
-    final byte[] send = new byte[buffer.capacity()];
-    buffer.get(send);
+    final ByteBuffer buffer = frameBuffer(sampled.maxFrameSize());
+    sampled.serializeTo(buffer, time, value);
+    buffer.flip();
+    sendFrame(buffer);
+  }
 
-    final DatagramPacket packet = new DatagramPacket(send, send.length,
-        addr, port);
+  /**
+   * Send a value through a template, with the time of the template metric if it has one.
+   */
+  public void send(com.spotify.ffwd.v1.MetricTemplate template, double value)
+      throws IOException {
+    final com.spotify.ffwd.v1.MetricTemplate sampled = sample(template);
+
+    if (sampled == null) {
+      return;
+    }
+
+    final ByteBuffer buffer = frameBuffer(sampled.maxFrameSize());
+    sampled.serializeTo(buffer, value);
+    buffer.flip();
+    sendFrame(buffer);
+  }
+
+  public void send(com.spotify.ffwd.v1.MetricTemplate template, long time, double value)
+      throws IOException {
+    final com.spotify.ffwd.v1.MetricTemplate sampled = sample(template);
+
+    if (sampled == null) {
+      return;
+    }
 
-    socket.send(packet);
+    final ByteBuffer buffer = frameBuffer(sampled.maxFrameSize());
+    sampled.serializeTo(buffer, time, value);
+    buffer.flip();
+    sendFrame(buffer);
+  }
+
+  public void send(com.spotify.ffwd.v1.MetricTemplate template, long time, Value value)
+      throws IOException {
+    final com.spotify.ffwd.v1.MetricTemplate sampled = sample(template);
+
+    if (sampled == null) {
+      return;
+    }
+
+    final ByteBuffer buffer = frameBuffer(sampled.maxFrameSize(value));
+    sampled.serializeTo(buffer, time, value);
+    buffer.flip();
+    sendFrame(buffer);
+  }
+
+  /**
+   * Send several v1 metrics at once, see {@link #send(Collection)}.
+   */
+  public void sendV1(Collection<com.spotify.ffwd.v1.Metric> metrics) throws IOException {
+    if (sampler == null) {
+      sendAll(metrics, com.spotify.ffwd.v1.Metric::serializeTo);
+      return;
+    }
+
+    final List<com.spotify.ffwd.v1.Metric> sampled = new ArrayList<>(metrics.size());
+
+    for (final com.spotify.ffwd.v1.Metric metric : metrics) {
+      final com.spotify.ffwd.v1.Metric s = sample(metric);
+
+      if (s != null) {
+        sampled.add(s);
+      }
+    }
+
+    sendAll(sampled, com.spotify.ffwd.v1.Metric::serializeTo);
+  }
+
+  /**
+   * Register the series of the given metric, to record values for it without building metrics.
+   *
+   * <p>A series is identified by the key, host, tags and attributes of the metric, its time and
+   * value are ignored. Keep the returned handle around, looking it up again costs as much as
+   * building the metric.
+   *
+   * <pre>{@code
+   * SeriesHandle requests = ffwd.series(FastForward.metric("rpc").attribute("what", "latency"));
+   *
+   * requests.record(elapsedMillis);
+   * }</pre>
+   */
+  public SeriesHandle series(Metric metric) {
+    return new SeriesHandle(this, series, series.register(SeriesRegistry.key(metric)));
+  }
+
+  public SeriesHandle series(com.spotify.ffwd.v1.Metric metric) {
+    return new SeriesHandle(this, series, series.register(SeriesRegistry.key(metric)));
+  }
+
+  void sendFrame(ByteBuffer frame) throws IOException {
+    sendFrame(frame, 1);
+  }
+
+  /**
+   * Write a buffer of the given number of frames, recording how long it took.
+   */
+  void sendFrame(ByteBuffer frame, int metrics) throws IOException {
+    final long start = System.nanoTime();
+
+    try {
+      writer.write(frame);
+    } catch (final IOException e) {
+      stats.failed(e);
+      throw e;
+    }
+
+    stats.sent(metrics, System.nanoTime() - start);
+  }
+
+  /**
+   * A snapshot of the statistics of this client.
+   */
+  public FastForwardStats getStats() {
+    return stats.snapshot(writer.queueSize());
+  }
+
+  /**
+   * Wait for metrics queued by an asynchronous client to be sent.
+   *
+   * <p>For a synchronous client this returns immediately.
+   *
+   * @return {@code true} if all queued metrics were sent before the timeout expired.
+   */
+  public boolean flush(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+    return writer.flush(timeout, unit);
+  }
+
+  /**
+   * Flush queued metrics for at most the given timeout, then release the client.
+   *
+   * <p>Metrics that could not be sent before the timeout expired are dropped.
+   *
+   * @return {@code true} if all queued metrics were sent before the client was closed.
+   */
+  public boolean close(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+    if (emitter != null) {
+      emitter.close();
+    }
+
+    if (mbean != null) {
+      StatsBean.unregister(mbean);
+    }
+
+    try {
+      return writer.flush(timeout, unit);
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * Close the client, waiting at most {@link #DEFAULT_CLOSE_TIMEOUT_MILLIS} for queued metrics.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      close(DEFAULT_CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while closing FastForward client");
+    }
+  }
+
+  StatsRecorder stats() {
+    return stats;
+  }
+
+  /**
+   * The metric to send after sampling, or {@code null} if it was sampled out.
+   */
+  private Metric sample(Metric metric) {
+    final Sampler.Rate rate = sampleKey(metric.getKey());
+
+    if (rate == null) {
+      return metric;
+    }
+
+    return rate == Sampler.DROPPED
+        ? null : metric.attribute(Sampler.ATTRIBUTE, rate.getAttribute());
+  }
+
+  private com.spotify.ffwd.v1.Metric sample(com.spotify.ffwd.v1.Metric metric) {
+    final Sampler.Rate rate = sampleKey(metric.getKey());
+
+    if (rate == null) {
+      return metric;
+    }
+
+    return rate == Sampler.DROPPED
+        ? null : metric.attribute(Sampler.ATTRIBUTE, rate.getAttribute());
+  }
+
+  private MetricTemplate sample(MetricTemplate template) {
+    final Sampler.Rate rate = sampleKey(template.getMetric().getKey());
+
+    if (rate == null) {
+      return template;
+    }
+
+    return rate == Sampler.DROPPED ? null : sampler.template(template,
+        t -> t.getMetric().attribute(Sampler.ATTRIBUTE, rate.getAttribute()).template());
+  }
+
+  private com.spotify.ffwd.v1.MetricTemplate sample(
+      com.spotify.ffwd.v1.MetricTemplate template) {
+    final Sampler.Rate rate = sampleKey(template.getMetric().getKey());
+
+    if (rate == null) {
+      return template;
+    }
+
+    return rate == Sampler.DROPPED ? null : sampler.template(template,
+        t -> t.getMetric().attribute(Sampler.ATTRIBUTE, rate.getAttribute()).template());
+  }
+
+  private Sampler.Rate sampleKey(String key) {
+    if (sampler == null) {
+      return null;
+    }
+
+    final Sampler.Rate rate = sampler.sample(key);
+
+    if (rate == Sampler.DROPPED) {
+      stats.sampledOut();
+    }
+
+    return rate;
+  }
+
+  private <T> void sendOne(T metric, ToIntBiFunction<T, ByteBuffer> serializer)
+      throws IOException {
+    ByteBuffer buffer = buffers.get();
+    buffer.clear();
+
+    while (true) {
+      try {
+        serializer.applyAsInt(metric, buffer);
+        break;
+      } catch (final BufferOverflowException e) {
+        buffer = growBuffer(buffer);
+      }
+    }
+
+    buffer.flip();
+    sendFrame(buffer);
+  }
+
+  private <T> void sendAll(Collection<T> metrics, ToIntBiFunction<T, ByteBuffer> serializer)
+      throws IOException {
+    if (maxPackedSize == 0) {
+      for (final T metric : metrics) {
+        sendOne(metric, serializer);
+      }
+
+      return;
+    }
+
+    ByteBuffer buffer = frameBuffer(maxPackedSize);
+    buffer.limit(maxPackedSize);
+    int packed = 0;
+
+    for (final T metric : metrics) {
+      try {
+        serializer.applyAsInt(metric, buffer);
+        packed++;
+        continue;
+      } catch (final BufferOverflowException e) {
+        // serializers write nothing when the frame does not fit.
+      }
+
+      if (buffer.position() > 0) {
+        buffer.flip();
+        sendFrame(buffer, packed);
+        buffer.clear().limit(maxPackedSize);
+        packed = 0;
+
+        try {
+          serializer.applyAsInt(metric, buffer);
+          packed++;
+          continue;
+        } catch (final BufferOverflowException e) {
+          // larger than a datagram on its own.
+        }
+      }
+
+      sendOne(metric, serializer);
+      buffer = frameBuffer(maxPackedSize);
+      buffer.limit(maxPackedSize);
+    }
+
+    if (buffer.position() > 0) {
+      buffer.flip();
+      sendFrame(buffer, packed);
+    }
+  }
+
+  /**
+   * The buffer of the current thread, cleared and with room for at least the given size.
+   */
+  private ByteBuffer frameBuffer(int size) {
+    ByteBuffer buffer = buffers.get();
+
+    if (buffer.capacity() < size) {
+      buffer = allocate(Math.max(size, buffer.capacity() * 2));
+    }
+
+    buffer.clear();
+    return buffer;
+  }
+
+  private ByteBuffer growBuffer(ByteBuffer buffer) {
+    return allocate(buffer.capacity() * 2);
+  }
+
+  /**
+   * Replace the buffer of the current thread with a larger one of the same kind.
+   */
+  private ByteBuffer allocate(int capacity) {
+    final ByteBuffer buffer = buffers.get().isDirect()
+        ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    buffers.set(buffer);
+    return buffer;
   }
 
   public static Metric metric(String key) {
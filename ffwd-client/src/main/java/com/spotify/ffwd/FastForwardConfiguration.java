@@ -0,0 +1,601 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Options for a {@link FastForward} client.
+ *
+ * <p>The defaults give the same behaviour as {@link FastForward#setup(String, int)}: every metric
+ * is sent synchronously on the calling thread.
+ */
+public class FastForwardConfiguration {
+  private final boolean async;
+  private final int maxQueuedMetrics;
+  private final long maxQueuedBytes;
+  private final OverflowPolicy overflowPolicy;
+  private final long blockTimeoutMillis;
+  private final Transport transport;
+  private final int sendBufferSize;
+  private final int trafficClass;
+  private final boolean nonBlocking;
+  private final int stripes;
+  private final boolean batching;
+  private final int maxDatagramSize;
+  private final long lingerMillis;
+  private final OversizePolicy oversizePolicy;
+  private final int maxBufferedBytes;
+  private final long minReconnectDelayMillis;
+  private final long maxReconnectDelayMillis;
+  private final int maxSeries;
+  private final long seriesIdleTimeoutMillis;
+  private final String jmxName;
+  private final long statsIntervalMillis;
+  private final String statsKey;
+  private final Map<String, Double> sampleRates;
+  private final long maxMetricsPerSecond;
+  private final long maxBytesPerSecond;
+  private final long rateLimitBurstMillis;
+  private final long maxPacingDelayMillis;
+
+  public boolean isAsync() {
+    return async;
+  }
+
+  public int getMaxQueuedMetrics() {
+    return maxQueuedMetrics;
+  }
+
+  public long getMaxQueuedBytes() {
+    return maxQueuedBytes;
+  }
+
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  public long getBlockTimeoutMillis() {
+    return blockTimeoutMillis;
+  }
+
+  public Transport getTransport() {
+    return transport;
+  }
+
+  public int getSendBufferSize() {
+    return sendBufferSize;
+  }
+
+  public int getTrafficClass() {
+    return trafficClass;
+  }
+
+  public boolean isNonBlocking() {
+    return nonBlocking;
+  }
+
+  public int getStripes() {
+    return stripes;
+  }
+
+  public boolean isBatching() {
+    return batching;
+  }
+
+  /**
+   * Maximum UDP payload size, or 0 to derive it from the network interface towards the agent.
+   */
+  public int getMaxDatagramSize() {
+    return maxDatagramSize;
+  }
+
+  public long getLingerMillis() {
+    return lingerMillis;
+  }
+
+  public OversizePolicy getOversizePolicy() {
+    return oversizePolicy;
+  }
+
+  public int getMaxBufferedBytes() {
+    return maxBufferedBytes;
+  }
+
+  public long getMinReconnectDelayMillis() {
+    return minReconnectDelayMillis;
+  }
+
+  public long getMaxReconnectDelayMillis() {
+    return maxReconnectDelayMillis;
+  }
+
+  public int getMaxSeries() {
+    return maxSeries;
+  }
+
+  public long getSeriesIdleTimeoutMillis() {
+    return seriesIdleTimeoutMillis;
+  }
+
+  /**
+   * Name the statistics of the client are registered in JMX under, or {@code null} to not
+   * register them.
+   */
+  public String getJmxName() {
+    return jmxName;
+  }
+
+  /**
+   * How often the client sends its own statistics, or 0 to not send them.
+   */
+  public long getStatsIntervalMillis() {
+    return statsIntervalMillis;
+  }
+
+  public String getStatsKey() {
+    return statsKey;
+  }
+
+  /**
+   * Sample rates by key prefix.
+   */
+  public Map<String, Double> getSampleRates() {
+    return sampleRates;
+  }
+
+  /**
+   * Maximum rate of metrics sent, or 0 for no limit.
+   */
+  public long getMaxMetricsPerSecond() {
+    return maxMetricsPerSecond;
+  }
+
+  /**
+   * Maximum rate of bytes sent, or 0 for no limit.
+   */
+  public long getMaxBytesPerSecond() {
+    return maxBytesPerSecond;
+  }
+
+  public long getRateLimitBurstMillis() {
+    return rateLimitBurstMillis;
+  }
+
+  public long getMaxPacingDelayMillis() {
+    return maxPacingDelayMillis;
+  }
+
+  public static FastForwardConfigurationBuilder builder() {
+    return new FastForwardConfigurationBuilder();
+  }
+
+  private FastForwardConfiguration(FastForwardConfigurationBuilder builder) {
+    this.async = builder.async;
+    this.maxQueuedMetrics = builder.maxQueuedMetrics;
+    this.maxQueuedBytes = builder.maxQueuedBytes;
+    this.overflowPolicy = builder.overflowPolicy;
+    this.blockTimeoutMillis = builder.blockTimeoutMillis;
+    this.transport = builder.transport;
+    this.sendBufferSize = builder.sendBufferSize;
+    this.trafficClass = builder.trafficClass;
+    this.nonBlocking = builder.nonBlocking;
+    this.stripes = builder.stripes;
+    this.batching = builder.batching;
+    this.maxDatagramSize = builder.maxDatagramSize;
+    this.lingerMillis = builder.lingerMillis;
+    this.oversizePolicy = builder.oversizePolicy;
+    this.maxBufferedBytes = builder.maxBufferedBytes;
+    this.minReconnectDelayMillis = builder.minReconnectDelayMillis;
+    this.maxReconnectDelayMillis = builder.maxReconnectDelayMillis;
+    this.maxSeries = builder.maxSeries;
+    this.seriesIdleTimeoutMillis = builder.seriesIdleTimeoutMillis;
+    this.jmxName = builder.jmxName;
+    this.statsIntervalMillis = builder.statsIntervalMillis;
+    this.statsKey = builder.statsKey;
+    this.sampleRates = Collections.unmodifiableMap(new LinkedHashMap<>(builder.sampleRates));
+    this.maxMetricsPerSecond = builder.maxMetricsPerSecond;
+    this.maxBytesPerSecond = builder.maxBytesPerSecond;
+    this.rateLimitBurstMillis = builder.rateLimitBurstMillis;
+    this.maxPacingDelayMillis = builder.maxPacingDelayMillis;
+  }
+
+  // Builder Class
+  public static class FastForwardConfigurationBuilder {
+    private boolean async = false;
+    private int maxQueuedMetrics = 10000;
+    private long maxQueuedBytes = 4 * 1024 * 1024;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+    private long blockTimeoutMillis = 100;
+    private Transport transport = Transport.UDP;
+    private int sendBufferSize = 0;
+    private int trafficClass = -1;
+    private boolean nonBlocking = false;
+    private int stripes = 1;
+    private boolean batching = false;
+    private int maxDatagramSize = 0;
+    private long lingerMillis = 5;
+    private OversizePolicy oversizePolicy = OversizePolicy.SEND;
+    private int maxBufferedBytes = 1024 * 1024;
+    private long minReconnectDelayMillis = 100;
+    private long maxReconnectDelayMillis = 30000;
+    private int maxSeries = 10000;
+    private long seriesIdleTimeoutMillis = TimeUnit.MINUTES.toMillis(10);
+    private String jmxName = null;
+    private long statsIntervalMillis = 0;
+    private String statsKey = "ffwd-java";
+    private final Map<String, Double> sampleRates = new LinkedHashMap<>();
+    private long maxMetricsPerSecond = 0;
+    private long maxBytesPerSecond = 0;
+    private long rateLimitBurstMillis = 100;
+    private long maxPacingDelayMillis = 0;
+
+    public FastForwardConfigurationBuilder() {}
+
+    /**
+     * Queue metrics and send them from a background thread instead of the calling thread.
+     */
+    public FastForwardConfigurationBuilder setAsync(final boolean async) {
+      this.async = async;
+      return this;
+    }
+
+    /**
+     * Maximum number of metrics waiting to be sent by an asynchronous client.
+     */
+    public FastForwardConfigurationBuilder setMaxQueuedMetrics(final int maxQueuedMetrics) {
+      if (maxQueuedMetrics <= 0) {
+        throw new IllegalArgumentException("maxQueuedMetrics must be positive");
+      }
+      this.maxQueuedMetrics = maxQueuedMetrics;
+      return this;
+    }
+
+    /**
+     * Maximum number of encoded bytes waiting to be sent by an asynchronous client.
+     */
+    public FastForwardConfigurationBuilder setMaxQueuedBytes(final long maxQueuedBytes) {
+      if (maxQueuedBytes <= 0) {
+        throw new IllegalArgumentException("maxQueuedBytes must be positive");
+      }
+      this.maxQueuedBytes = maxQueuedBytes;
+      return this;
+    }
+
+    public FastForwardConfigurationBuilder setOverflowPolicy(
+        final OverflowPolicy overflowPolicy) {
+      if (overflowPolicy == null) {
+        throw new NullPointerException("overflowPolicy");
+      }
+      this.overflowPolicy = overflowPolicy;
+      return this;
+    }
+
+    /**
+     * How long a sending thread may wait for room in the queue with {@link OverflowPolicy#BLOCK}.
+     */
+    public FastForwardConfigurationBuilder setBlockTimeout(
+        final long blockTimeout, final TimeUnit unit) {
+      this.blockTimeoutMillis = unit.toMillis(blockTimeout);
+      return this;
+    }
+
+    public FastForwardConfigurationBuilder setTransport(final Transport transport) {
+      if (transport == null) {
+        throw new NullPointerException("transport");
+      }
+      this.transport = transport;
+      return this;
+    }
+
+    /**
+     * Size of the socket send buffer ({@code SO_SNDBUF}), or 0 to keep the operating system
+     * default.
+     */
+    public FastForwardConfigurationBuilder setSendBufferSize(final int sendBufferSize) {
+      if (sendBufferSize < 0) {
+        throw new IllegalArgumentException("sendBufferSize must not be negative");
+      }
+      this.sendBufferSize = sendBufferSize;
+      return this;
+    }
+
+    /**
+     * Traffic class or type-of-service octet of sent packets ({@code IP_TOS}), or -1 to keep the
+     * operating system default.
+     */
+    public FastForwardConfigurationBuilder setTrafficClass(final int trafficClass) {
+      if (trafficClass < -1 || trafficClass > 255) {
+        throw new IllegalArgumentException("trafficClass must be between 0 and 255, or -1");
+      }
+      this.trafficClass = trafficClass;
+      return this;
+    }
+
+    /**
+     * Put the channel of {@link Transport#UDP_NIO} in non-blocking mode.
+     *
+     * <p>A non-blocking send never waits for room in the socket send buffer, metrics that do not
+     * fit are dropped instead.
+     */
+    public FastForwardConfigurationBuilder setNonBlocking(final boolean nonBlocking) {
+      this.nonBlocking = nonBlocking;
+      return this;
+    }
+
+    /**
+     * Send through one socket per available processor, see {@link #setStripes(int)}.
+     */
+    public FastForwardConfigurationBuilder setStriped(final boolean striped) {
+      this.stripes = striped ? Runtime.getRuntime().availableProcessors() : 1;
+      return this;
+    }
+
+    /**
+     * Number of sockets that metrics are sent through.
+     *
+     * <p>Each thread sticks to the socket it was assigned when it first sent a metric, so that
+     * threads sharing a client do not all contend on the lock of a single socket.
+     */
+    public FastForwardConfigurationBuilder setStripes(final int stripes) {
+      if (stripes <= 0) {
+        throw new IllegalArgumentException("stripes must be positive");
+      }
+      this.stripes = stripes;
+      return this;
+    }
+
+    /**
+     * Pack several metrics into each datagram, up to {@link #setMaxDatagramSize(int)} bytes.
+     *
+     * <p>A datagram is sent once the next metric would not fit, or when the first metric in it
+     * has waited for about the linger time. The agent must read every frame of a datagram, not
+     * only the first one.
+     */
+    public FastForwardConfigurationBuilder setBatching(final boolean batching) {
+      this.batching = batching;
+      return this;
+    }
+
+    /**
+     * Maximum UDP payload size in bytes.
+     *
+     * <p>The default of 0 uses the MTU of the network interface the agent is reached through,
+     * minus the IP and UDP headers, and the largest possible datagram towards a loopback address.
+     */
+    public FastForwardConfigurationBuilder setMaxDatagramSize(final int maxDatagramSize) {
+      if (maxDatagramSize < 0 || maxDatagramSize > BatchingFrameWriter.MAX_UDP_PAYLOAD) {
+        throw new IllegalArgumentException(
+            "maxDatagramSize must be between 0 and " + BatchingFrameWriter.MAX_UDP_PAYLOAD);
+      }
+      this.maxDatagramSize = maxDatagramSize;
+      return this;
+    }
+
+    /**
+     * How long a batched metric may wait for more metrics to share its datagram.
+     */
+    public FastForwardConfigurationBuilder setLinger(final long linger, final TimeUnit unit) {
+      final long lingerMillis = unit.toMillis(linger);
+      if (lingerMillis <= 0) {
+        throw new IllegalArgumentException("linger must be at least one millisecond");
+      }
+      this.lingerMillis = lingerMillis;
+      return this;
+    }
+
+    public FastForwardConfigurationBuilder setOversizePolicy(
+        final OversizePolicy oversizePolicy) {
+      if (oversizePolicy == null) {
+        throw new NullPointerException("oversizePolicy");
+      }
+      this.oversizePolicy = oversizePolicy;
+      return this;
+    }
+
+    /**
+     * Maximum number of bytes of metrics a {@link Transport#TCP} client holds while they wait to
+     * be written, including while the connection is down.
+     */
+    public FastForwardConfigurationBuilder setMaxBufferedBytes(final int maxBufferedBytes) {
+      if (maxBufferedBytes <= 0) {
+        throw new IllegalArgumentException("maxBufferedBytes must be positive");
+      }
+      this.maxBufferedBytes = maxBufferedBytes;
+      return this;
+    }
+
+    /**
+     * Bounds of the delay between attempts to re-establish a {@link Transport#TCP} connection.
+     *
+     * <p>The delay doubles with every failed attempt, starting from {@code min} and up to
+     * {@code max}, and is randomized by up to half of its value.
+     */
+    public FastForwardConfigurationBuilder setReconnectDelay(
+        final long min, final long max, final TimeUnit unit) {
+      final long minMillis = unit.toMillis(min);
+      final long maxMillis = unit.toMillis(max);
+      if (minMillis <= 0 || maxMillis < minMillis) {
+        throw new IllegalArgumentException("reconnect delays must be positive and min <= max");
+      }
+      this.minReconnectDelayMillis = minMillis;
+      this.maxReconnectDelayMillis = maxMillis;
+      return this;
+    }
+
+    /**
+     * Maximum number of series registered through {@link FastForward#series(Metric)}.
+     *
+     * <p>When more are registered, the least recently used series are evicted.
+     */
+    public FastForwardConfigurationBuilder setMaxSeries(final int maxSeries) {
+      if (maxSeries <= 0) {
+        throw new IllegalArgumentException("maxSeries must be positive");
+      }
+      this.maxSeries = maxSeries;
+      return this;
+    }
+
+    /**
+     * How long a registered series may go without being recorded before it is evicted.
+     */
+    public FastForwardConfigurationBuilder setSeriesIdleTimeout(
+        final long timeout, final TimeUnit unit) {
+      final long timeoutMillis = unit.toMillis(timeout);
+      if (timeoutMillis <= 0) {
+        throw new IllegalArgumentException("series idle timeout must be at least one millisecond");
+      }
+      this.seriesIdleTimeoutMillis = timeoutMillis;
+      return this;
+    }
+
+    /**
+     * Register the statistics of the client as an MBean, see {@link FastForwardMxBean}.
+     *
+     * <p>The object name is {@code com.spotify.ffwd:type=FastForward,name=<name>}, it is
+     * unregistered again when the client is closed.
+     */
+    public FastForwardConfigurationBuilder setJmxName(final String jmxName) {
+      if (jmxName != null && jmxName.isEmpty()) {
+        throw new IllegalArgumentException("jmxName must not be empty");
+      }
+      this.jmxName = jmxName;
+      return this;
+    }
+
+    /**
+     * Send the statistics of the client through the client itself every interval, 0 to disable.
+     *
+     * <p>Every statistic is a metric with the key of {@link #setStatsKey(String)} and a
+     * {@code what} attribute naming it. Counters are sent as what changed during the interval.
+     */
+    public FastForwardConfigurationBuilder setStatsInterval(
+        final long interval, final TimeUnit unit) {
+      if (interval < 0) {
+        throw new IllegalArgumentException("stats interval must not be negative");
+      }
+      final long intervalMillis = unit.toMillis(interval);
+      if (interval > 0 && intervalMillis == 0) {
+        throw new IllegalArgumentException("stats interval must be at least one millisecond");
+      }
+      this.statsIntervalMillis = intervalMillis;
+      return this;
+    }
+
+    /**
+     * Key of the metrics sent with {@link #setStatsInterval(long, TimeUnit)}.
+     */
+    public FastForwardConfigurationBuilder setStatsKey(final String statsKey) {
+      if (statsKey == null || statsKey.isEmpty()) {
+        throw new IllegalArgumentException("statsKey must not be empty");
+      }
+      this.statsKey = statsKey;
+      return this;
+    }
+
+    /**
+     * Only send the given fraction of the points whose key starts with the given prefix.
+     *
+     * <p>Whether a point is sent is decided at random before it is serialized, so skipped points
+     * cost next to nothing. Sent points carry a {@code sample_rate} attribute with the rate, to
+     * scale them up again. A key is sampled at the rate of the longest matching prefix, a key
+     * can be given in full to sample only that key. Call once per prefix.
+     *
+     * @param rate Above 0 and at most 1, where 1 sends every point.
+     */
+    public FastForwardConfigurationBuilder setSampleRate(
+        final String keyPrefix, final double rate) {
+      if (keyPrefix == null) {
+        throw new IllegalArgumentException("keyPrefix must not be null");
+      }
+      if (!(rate > 0 && rate <= 1)) {
+        throw new IllegalArgumentException("sample rate must be above 0 and at most 1");
+      }
+      this.sampleRates.put(keyPrefix, rate);
+      return this;
+    }
+
+    /**
+     * Limit the rate of metrics sent, 0 for no limit.
+     *
+     * <p>Metrics over the limit are dropped and counted as {@link DropReason#RATE_LIMITED}, unless
+     * they can be paced with {@link #setMaxPacingDelay(long, TimeUnit)}. When the operating
+     * system reports a full send buffer, the limit is temporarily lowered.
+     */
+    public FastForwardConfigurationBuilder setMaxMetricsPerSecond(
+        final long maxMetricsPerSecond) {
+      if (maxMetricsPerSecond < 0) {
+        throw new IllegalArgumentException("maxMetricsPerSecond must not be negative");
+      }
+      this.maxMetricsPerSecond = maxMetricsPerSecond;
+      return this;
+    }
+
+    /**
+     * Limit the rate of bytes sent, including frame headers, 0 for no limit.
+     *
+     * @see #setMaxMetricsPerSecond(long)
+     */
+    public FastForwardConfigurationBuilder setMaxBytesPerSecond(final long maxBytesPerSecond) {
+      if (maxBytesPerSecond < 0) {
+        throw new IllegalArgumentException("maxBytesPerSecond must not be negative");
+      }
+      this.maxBytesPerSecond = maxBytesPerSecond;
+      return this;
+    }
+
+    /**
+     * How much of the rate limits may be sent at once, as the time it takes to send it at the
+     * limit.
+     */
+    public FastForwardConfigurationBuilder setRateLimitBurst(
+        final long burst, final TimeUnit unit) {
+      final long burstMillis = unit.toMillis(burst);
+      if (burstMillis <= 0) {
+        throw new IllegalArgumentException("rate limit burst must be at least one millisecond");
+      }
+      this.rateLimitBurstMillis = burstMillis;
+      return this;
+    }
+
+    /**
+     * How long a send over the rate limits may be held back to pace it, instead of dropping it.
+     *
+     * <p>Pacing spreads bursts out over time. The sending thread waits, which is the sender
+     * thread of an asynchronous client. Defaults to 0, which drops right away.
+     */
+    public FastForwardConfigurationBuilder setMaxPacingDelay(
+        final long delay, final TimeUnit unit) {
+      if (delay < 0) {
+        throw new IllegalArgumentException("max pacing delay must not be negative");
+      }
+      this.maxPacingDelayMillis = unit.toMillis(delay);
+      return this;
+    }
+
+    public FastForwardConfiguration build() {
+      return new FastForwardConfiguration(this);
+    }
+  }
+}
@@ -0,0 +1,64 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.util.Map;
+import javax.management.MXBean;
+
+/**
+ * The statistics of a client in JMX, see
+ * {@link FastForwardConfiguration.FastForwardConfigurationBuilder#setJmxName(String)}.
+ *
+ * <p>Every attribute is read from a fresh {@link FastForwardStats} snapshot.
+ */
+@MXBean
+public interface FastForwardMxBean {
+
+  long getSentMetrics();
+
+  long getSentBytes();
+
+  long getSentDatagrams();
+
+  long getFailed();
+
+  /**
+   * Failed sends by the class name of their exception.
+   */
+  Map<String, Long> getFailures();
+
+  /**
+   * Dropped metrics by {@link DropReason}.
+   */
+  Map<String, Long> getDropped();
+
+  long getOversized();
+
+  long getSampledOut();
+
+  int getQueueDepth();
+
+  long getSendLatencyMedianNanos();
+
+  long getSendLatency99thPercentileNanos();
+
+  long getSendLatency999thPercentileNanos();
+}
@@ -0,0 +1,237 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A snapshot of the statistics of a client, see {@link FastForward#getStats()}.
+ *
+ * <p>Counters are totals since the client was set up. Use {@link #since(FastForwardStats)} for
+ * what happened between two snapshots.
+ */
+public final class FastForwardStats {
+
+  private final long sentMetrics;
+  private final long sentBytes;
+  private final long sentDatagrams;
+  private final long failed;
+  private final Map<String, Long> failures;
+  private final long[] dropped;
+  private final long oversized;
+  private final long sampledOut;
+  private final int queueDepth;
+  private final long[] latencies;
+
+  FastForwardStats(
+      long sentMetrics, long sentBytes, long sentDatagrams, long failed,
+      Map<String, Long> failures, long[] dropped, long oversized, long sampledOut, int queueDepth,
+      long[] latencies
+  ) {
+    this.sentMetrics = sentMetrics;
+    this.sentBytes = sentBytes;
+    this.sentDatagrams = sentDatagrams;
+    this.failed = failed;
+    this.failures = Collections.unmodifiableMap(failures);
+    this.dropped = dropped;
+    this.oversized = oversized;
+    this.sampledOut = sampledOut;
+    this.queueDepth = queueDepth;
+    this.latencies = latencies;
+  }
+
+  /**
+   * Metrics handed to the client without an exception. Metrics can still be dropped after that,
+   * for example from the queue of an asynchronous client.
+   */
+  public long getSentMetrics() {
+    return sentMetrics;
+  }
+
+  /**
+   * Bytes handed to the operating system, including frame headers.
+   */
+  public long getSentBytes() {
+    return sentBytes;
+  }
+
+  /**
+   * Datagrams handed to the operating system, always 0 over TCP.
+   */
+  public long getSentDatagrams() {
+    return sentDatagrams;
+  }
+
+  /**
+   * Failed sends, whether they were thrown to the caller or happened in the background.
+   */
+  public long getFailed() {
+    return failed;
+  }
+
+  /**
+   * Failed sends by the class name of their exception.
+   */
+  public Map<String, Long> getFailures() {
+    return failures;
+  }
+
+  /**
+   * Metrics dropped for any reason.
+   */
+  public long getDropped() {
+    long total = 0;
+
+    for (final long count : dropped) {
+      total += count;
+    }
+
+    return total;
+  }
+
+  public long getDropped(DropReason reason) {
+    return dropped[reason.ordinal()];
+  }
+
+  /**
+   * Metrics larger than a datagram, whatever the {@link OversizePolicy} did with them.
+   */
+  public long getOversized() {
+    return oversized;
+  }
+
+  /**
+   * Points of sampled keys that were not sent, see
+   * {@link FastForwardConfiguration.FastForwardConfigurationBuilder#setSampleRate(String, double)}.
+   */
+  public long getSampledOut() {
+    return sampledOut;
+  }
+
+  /**
+   * Frames waiting in the queue of an asynchronous client, always 0 for other clients.
+   */
+  public int getQueueDepth() {
+    return queueDepth;
+  }
+
+  /**
+   * Number of sends whose latency was recorded.
+   */
+  public long getSendLatencyCount() {
+    long total = 0;
+
+    for (final long count : latencies) {
+      total += count;
+    }
+
+    return total;
+  }
+
+  /**
+   * The latency below which the given percentage of sends completed, in nanoseconds.
+   *
+   * <p>The latency of a send is the time it took to hand its frame to the client's writer, which
+   * for an asynchronous client is the time to queue it. Latencies are counted in buckets, the
+   * upper bound of the bucket is returned which overestimates the latency by at most 1/8.
+   *
+   * @param percentile Between 0 and 100.
+   * @return The latency, or 0 if none was recorded.
+   */
+  public long getSendLatencyNanos(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("percentile must be between 0 and 100");
+    }
+
+    final long count = getSendLatencyCount();
+
+    if (count == 0) {
+      return 0;
+    }
+
+    final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+    long seen = 0;
+
+    for (int i = 0; i < latencies.length; i++) {
+      seen += latencies[i];
+
+      if (seen >= rank) {
+        return StatsRecorder.latencyBucketLimit(i);
+      }
+    }
+
+    return StatsRecorder.latencyBucketLimit(latencies.length - 1);
+  }
+
+  /**
+   * What happened since the given, earlier snapshot of the same client.
+   *
+   * <p>The queue depth is the one of this snapshot.
+   */
+  public FastForwardStats since(FastForwardStats earlier) {
+    final Map<String, Long> failures = new HashMap<>(this.failures);
+
+    for (final Map.Entry<String, Long> e : earlier.failures.entrySet()) {
+      failures.computeIfPresent(e.getKey(), (type, count) -> count - e.getValue());
+    }
+
+    return new FastForwardStats(sentMetrics - earlier.sentMetrics,
+        sentBytes - earlier.sentBytes, sentDatagrams - earlier.sentDatagrams,
+        failed - earlier.failed, failures, subtract(dropped, earlier.dropped),
+        oversized - earlier.oversized, sampledOut - earlier.sampledOut, queueDepth,
+        subtract(latencies, earlier.latencies));
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder builder = new StringBuilder("FastForwardStats(")
+        .append("sentMetrics=").append(sentMetrics)
+        .append(", sentBytes=").append(sentBytes)
+        .append(", sentDatagrams=").append(sentDatagrams)
+        .append(", failures=").append(failures)
+        .append(", dropped={");
+
+    final DropReason[] reasons = DropReason.values();
+
+    for (int i = 0; i < reasons.length; i++) {
+      builder.append(i == 0 ? "" : ", ").append(reasons[i]).append('=').append(dropped[i]);
+    }
+
+    return builder.append("}, oversized=").append(oversized)
+        .append(", sampledOut=").append(sampledOut)
+        .append(", queueDepth=").append(queueDepth)
+        .append(", sendLatencyP99Nanos=").append(getSendLatencyNanos(99))
+        .append(')')
+        .toString();
+  }
+
+  private static long[] subtract(long[] a, long[] b) {
+    final long[] result = new long[a.length];
+
+    for (int i = 0; i < a.length; i++) {
+      result[i] = a[i] - b[i];
+    }
+
+    return result;
+  }
+}
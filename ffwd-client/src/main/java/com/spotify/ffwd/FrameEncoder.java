@@ -0,0 +1,189 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Low-level helpers to write ffwd frames and the protobuf wire format straight into a
+ * {@link ByteBuffer}, without going through the generated message builders.
+ *
+ * <p>The output is byte for byte what the generated protobuf classes produce. Strings are encoded
+ * as UTF-8 and unpaired surrogates are replaced with {@code '?'}, like protobuf does.
+ *
+ * <p>This class is used by {@link Metric} and {@link com.spotify.ffwd.v1.Metric}, it is not
+ * intended to be used directly.
+ */
+public final class FrameEncoder {
+
+  /**
+   * Size of the version and length header that precedes every message.
+   */
+  public static final int HEADER_SIZE = 8;
+
+  public static final int WIRETYPE_VARINT = 0;
+  public static final int WIRETYPE_FIXED64 = 1;
+  public static final int WIRETYPE_LENGTH_DELIMITED = 2;
+
+  private FrameEncoder() {}
+
+  /**
+   * Write the frame header, the total frame size includes the header itself.
+   */
+  public static void writeHeader(ByteBuffer buffer, int version, int frameSize) {
+    Buffers.putIntBigEndian(buffer, version);
+    Buffers.putIntBigEndian(buffer, frameSize);
+  }
+
+  public static int tagSize(int field) {
+    return varintSize(field << 3);
+  }
+
+  public static void writeTag(ByteBuffer buffer, int field, int wireType) {
+    writeVarint(buffer, (field << 3) | wireType);
+  }
+
+  public static int varintSize(long value) {
+    int size = 1;
+
+    while ((value & ~0x7FL) != 0) {
+      value >>>= 7;
+      size++;
+    }
+
+    return size;
+  }
+
+  public static void writeVarint(ByteBuffer buffer, long value) {
+    while ((value & ~0x7FL) != 0) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+
+    buffer.put((byte) value);
+  }
+
+  /**
+   * Size of a length delimited field with the given payload size, including tag and length.
+   */
+  public static int lengthDelimitedSize(int field, int size) {
+    return tagSize(field) + varintSize(size) + size;
+  }
+
+  public static void writeLengthDelimited(ByteBuffer buffer, int field, int size) {
+    writeTag(buffer, field, WIRETYPE_LENGTH_DELIMITED);
+    writeVarint(buffer, size);
+  }
+
+  public static int int64Size(int field, long value) {
+    return tagSize(field) + varintSize(value);
+  }
+
+  public static void writeInt64(ByteBuffer buffer, int field, long value) {
+    writeTag(buffer, field, WIRETYPE_VARINT);
+    writeVarint(buffer, value);
+  }
+
+  public static int doubleSize(int field) {
+    return tagSize(field) + 8;
+  }
+
+  public static void writeDouble(ByteBuffer buffer, int field, double value) {
+    writeTag(buffer, field, WIRETYPE_FIXED64);
+    Buffers.putLongLittleEndian(buffer, Double.doubleToRawLongBits(value));
+  }
+
+  /**
+   * Number of bytes needed to encode the given string as UTF-8.
+   */
+  public static int utf8Size(String value) {
+    final int length = value.length();
+    int size = length;
+
+    for (int i = 0; i < length; i++) {
+      final char c = value.charAt(i);
+
+      if (c < 0x80) {
+        continue;
+      }
+
+      if (c < 0x800) {
+        size += 1;
+      } else if (Character.isSurrogate(c)) {
+        if (Character.isHighSurrogate(c) && i + 1 < length
+            && Character.isLowSurrogate(value.charAt(i + 1))) {
+          // four bytes for the two chars of the pair.
+          size += 2;
+          i++;
+        }
+        // unpaired surrogates are written as a single '?'.
+      } else {
+        size += 2;
+      }
+    }
+
+    return size;
+  }
+
+  public static int stringSize(int field, String value) {
+    return lengthDelimitedSize(field, utf8Size(value));
+  }
+
+  public static void writeString(ByteBuffer buffer, int field, String value) {
+    writeString(buffer, field, value, utf8Size(value));
+  }
+
+  /**
+   * Write a string field whose UTF-8 size has already been computed with {@link #utf8Size}.
+   */
+  public static void writeString(ByteBuffer buffer, int field, String value, int utf8Size) {
+    writeLengthDelimited(buffer, field, utf8Size);
+
+    final int length = value.length();
+    int p = buffer.position();
+
+    for (int i = 0; i < length; i++) {
+      final char c = value.charAt(i);
+
+      if (c < 0x80) {
+        buffer.put(p++, (byte) c);
+      } else if (c < 0x800) {
+        buffer.put(p++, (byte) (0xC0 | (c >>> 6)));
+        buffer.put(p++, (byte) (0x80 | (c & 0x3F)));
+      } else if (!Character.isSurrogate(c)) {
+        buffer.put(p++, (byte) (0xE0 | (c >>> 12)));
+        buffer.put(p++, (byte) (0x80 | ((c >>> 6) & 0x3F)));
+        buffer.put(p++, (byte) (0x80 | (c & 0x3F)));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length
+                 && Character.isLowSurrogate(value.charAt(i + 1))) {
+        final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        buffer.put(p++, (byte) (0xF0 | (codePoint >>> 18)));
+        buffer.put(p++, (byte) (0x80 | ((codePoint >>> 12) & 0x3F)));
+        buffer.put(p++, (byte) (0x80 | ((codePoint >>> 6) & 0x3F)));
+        buffer.put(p++, (byte) (0x80 | (codePoint & 0x3F)));
+      } else {
+        buffer.put(p++, (byte) '?');
+      }
+    }
+
+    buffer.position(p);
+  }
+}
@@ -0,0 +1,66 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transmits encoded frames to a ffwd agent.
+ *
+ * <p>A frame is the 8 byte version and length header followed by a serialized protobuf message.
+ */
+interface FrameWriter extends Closeable {
+
+  /**
+   * Write the frame(s) between the position and the limit of the given buffer.
+   *
+   * <p>The buffer is only borrowed for the duration of the call, implementations that hold on to
+   * frames must copy them.
+   */
+  void write(ByteBuffer frame) throws IOException;
+
+  /**
+   * Whether frames should be encoded into direct buffers, because the writer would otherwise copy
+   * heap buffers into native memory on every write.
+   */
+  default boolean prefersDirectBuffers() {
+    return false;
+  }
+
+  /**
+   * Wait until all previously written frames have been handed to the operating system.
+   *
+   * @return {@code true} if everything was flushed before the timeout expired.
+   */
+  default boolean flush(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+    return true;
+  }
+
+  /**
+   * Number of frames waiting to be written, for writers that queue them.
+   */
+  default int queueSize() {
+    return 0;
+  }
+}
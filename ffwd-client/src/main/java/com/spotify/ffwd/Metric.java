@@ -20,8 +20,8 @@
 
 package com.spotify.ffwd;
 
-import com.spotify.ffwd.protocol0.Protocol0;
-import com.spotify.ffwd.protocol0.Protocol0.Attribute;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -37,6 +37,18 @@ public class Metric {
   private static final long TAGS = 1 << 5;
   private static final long ATTRIBUTES = 1 << 6;
 
+  // Field numbers from protocol0.proto
+  static final int MESSAGE_METRIC = 1;
+  private static final int FIELD_PROC = 1;
+  static final int FIELD_TIME = 2;
+  private static final int FIELD_KEY = 3;
+  static final int FIELD_VALUE = 4;
+  private static final int FIELD_HOST = 5;
+  private static final int FIELD_TAGS = 6;
+  private static final int FIELD_ATTRIBUTES = 7;
+  private static final int ATTRIBUTE_KEY = 1;
+  private static final int ATTRIBUTE_VALUE = 2;
+
   private final long has;
   private final String proc;
   private final long time;
@@ -121,32 +133,257 @@ public class Metric {
         new HashMap<>(attributes));
   }
 
+  /**
+   * A mutable builder, for metrics with many tags or attributes.
+   *
+   * <p>Every call to the methods of {@link Metric} copies the metric, including its tags and
+   * attributes, while a builder only copies them once.
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * A builder initialized with the fields of this metric.
+   */
+  public Builder toBuilder() {
+    final Builder builder = new Builder();
+    builder.has = has;
+    builder.proc = proc;
+    builder.time = time;
+    builder.key = key;
+    builder.value = value;
+    builder.host = host;
+    builder.tags.addAll(tags);
+    builder.attributes.putAll(attributes);
+    return builder;
+  }
+
+  /**
+   * Builds a {@link Metric} in place, each call is O(1).
+   *
+   * <p>A builder is meant to be used from a single thread, and only once: the tags and attributes
+   * are handed over to the built metric without being copied, so the builder cannot be used
+   * after {@link #build()}.
+   */
+  public static final class Builder {
+    private long has = 0;
+    private String proc;
+    private long time = 0;
+    private String key;
+    private double value;
+    private String host;
+    private List<String> tags = new ArrayList<>();
+    private Map<String, String> attributes = new HashMap<>();
+
+    private Builder() {}
+
+    public Builder proc(final String proc) {
+      this.has |= PROC;
+      this.proc = proc;
+      return this;
+    }
+
+    public Builder time(final long time) {
+      this.has |= TIME;
+      this.time = time;
+      return this;
+    }
+
+    public Builder key(final String key) {
+      this.has |= KEY;
+      this.key = key;
+      return this;
+    }
+
+    public Builder value(final double value) {
+      this.has |= VALUE;
+      this.value = value;
+      return this;
+    }
+
+    public Builder host(final String host) {
+      this.has |= HOST;
+      this.host = host;
+      return this;
+    }
+
+    public Builder tag(final String tag) {
+      this.has |= TAGS;
+      mutableTags().add(tag);
+      return this;
+    }
+
+    public Builder tags(final List<String> tags) {
+      this.has |= TAGS;
+      mutableTags().clear();
+      this.tags.addAll(tags);
+      return this;
+    }
+
+    public Builder attribute(final String k, final String v) {
+      this.has |= ATTRIBUTES;
+      mutableAttributes().put(k, v);
+      return this;
+    }
+
+    public Builder attributes(final Map<String, String> attributes) {
+      this.has |= ATTRIBUTES;
+      mutableAttributes().clear();
+      this.attributes.putAll(attributes);
+      return this;
+    }
+
+    public Metric build() {
+      final Metric metric =
+          new Metric(has, proc, time, key, value, host, mutableTags(), mutableAttributes());
+      this.tags = null;
+      this.attributes = null;
+      return metric;
+    }
+
+    private List<String> mutableTags() {
+      if (tags == null) {
+        throw new IllegalStateException("Builder was already built");
+      }
+
+      return tags;
+    }
+
+    private Map<String, String> mutableAttributes() {
+      if (attributes == null) {
+        throw new IllegalStateException("Builder was already built");
+      }
+
+      return attributes;
+    }
+  }
+
+  /**
+   * Serialize this metric into a protocol v0 message, without the frame header.
+   */
   public byte[] serialize() {
-    final Protocol0.Metric.Builder builder = Protocol0.Metric.newBuilder();
+    final int metricSize = metricSize();
+    final byte[] bytes =
+        new byte[FrameEncoder.lengthDelimitedSize(MESSAGE_METRIC, metricSize)];
+    writeMessage(ByteBuffer.wrap(bytes), metricSize);
+    return bytes;
+  }
 
-    if (test(PROC)) {
-      builder.setProc(proc);
+  /**
+   * Write this metric as a complete protocol v0 frame, header included, at the current position
+   * of the given buffer.
+   *
+   * <p>Nothing is written if the frame does not fit in the remaining space of the buffer.
+   *
+   * @return The number of bytes written.
+   *
+   * @throws java.nio.BufferOverflowException If the buffer does not have enough room left.
+   */
+  public int serializeTo(ByteBuffer buffer) {
+    final int metricSize = metricSize();
+    final int frameSize =
+        FrameEncoder.HEADER_SIZE + FrameEncoder.lengthDelimitedSize(MESSAGE_METRIC, metricSize);
+
+    if (buffer.remaining() < frameSize) {
+      throw new BufferOverflowException();
     }
 
+    FrameEncoder.writeHeader(buffer, FastForward.Version.V0.getVersion(), frameSize);
+    writeMessage(buffer, metricSize);
+    return frameSize;
+  }
+
+  /**
+   * Pre-encode everything but the time and the value of this metric, so that it can be sent
+   * repeatedly with new values through {@link FastForward#send(MetricTemplate, double)}.
+   */
+  public MetricTemplate template() {
+    final byte[] procBytes = new byte[procSize()];
+    writeProc(ByteBuffer.wrap(procBytes));
+
+    final byte[] keyBytes = new byte[keySize()];
+    writeKey(ByteBuffer.wrap(keyBytes));
+
+    final byte[] tailBytes = new byte[tailSize()];
+    writeTail(ByteBuffer.wrap(tailBytes));
+
+    return new MetricTemplate(this, procBytes, keyBytes, tailBytes, test(TIME));
+  }
+
+  /**
+   * This metric without its time and value, which identifies the series it belongs to.
+   */
+  Metric series() {
+    return new Metric(has & ~(TIME | VALUE), proc, 0, key, 0, host, tags, attributes);
+  }
+
+  /*
+   * The fields are written in field number order, like the generated code does. Proc and key are
+   * split from the rest since time and value are written between them.
+   */
+
+  private int metricSize() {
+    int size = procSize() + keySize() + tailSize();
+
     if (test(TIME)) {
-      builder.setTime(time);
+      size += FrameEncoder.int64Size(FIELD_TIME, time);
     }
 
-    if (test(KEY)) {
-      builder.setKey(key);
+    if (test(VALUE)) {
+      size += FrameEncoder.doubleSize(FIELD_VALUE);
     }
 
+    return size;
+  }
+
+  private void writeMessage(ByteBuffer buffer, int metricSize) {
+    FrameEncoder.writeLengthDelimited(buffer, MESSAGE_METRIC, metricSize);
+    writeProc(buffer);
+
+    if (test(TIME)) {
+      FrameEncoder.writeInt64(buffer, FIELD_TIME, time);
+    }
+
+    writeKey(buffer);
+
     if (test(VALUE)) {
-      builder.setValue(value);
+      FrameEncoder.writeDouble(buffer, FIELD_VALUE, value);
     }
 
+    writeTail(buffer);
+  }
+
+  private int procSize() {
+    return test(PROC) ? FrameEncoder.stringSize(FIELD_PROC, proc) : 0;
+  }
+
+  private void writeProc(ByteBuffer buffer) {
+    if (test(PROC)) {
+      FrameEncoder.writeString(buffer, FIELD_PROC, proc);
+    }
+  }
+
+  private int keySize() {
+    return test(KEY) ? FrameEncoder.stringSize(FIELD_KEY, key) : 0;
+  }
+
+  private void writeKey(ByteBuffer buffer) {
+    if (test(KEY)) {
+      FrameEncoder.writeString(buffer, FIELD_KEY, key);
+    }
+  }
+
+  private int tailSize() {
+    int size = 0;
+
     if (test(HOST)) {
-      builder.setHost(host);
+      size += FrameEncoder.stringSize(FIELD_HOST, host);
     }
 
     if (test(TAGS)) {
       for (final String tag : tags) {
-        builder.addTags(tag);
+        size += FrameEncoder.stringSize(FIELD_TAGS, tag);
       }
     }
 
@@ -156,20 +393,62 @@ public class Metric {
           continue;
         }
 
-        final Attribute.Builder attributeBuilder =
-            Protocol0.Attribute.newBuilder().setKey(entry.getKey());
+        size += FrameEncoder.lengthDelimitedSize(FIELD_ATTRIBUTES,
+            attributeSize(entry.getKey(), entry.getValue()));
+      }
+    }
+
+    return size;
+  }
 
-        if (entry.getValue() != null) {
-          attributeBuilder.setValue(entry.getValue());
+  private void writeTail(ByteBuffer buffer) {
+    if (test(HOST)) {
+      FrameEncoder.writeString(buffer, FIELD_HOST, host);
+    }
+
+    if (test(TAGS)) {
+      for (final String tag : tags) {
+        FrameEncoder.writeString(buffer, FIELD_TAGS, tag);
+      }
+    }
+
+    if (test(ATTRIBUTES)) {
+      for (final Map.Entry<String, String> entry : attributes.entrySet()) {
+        if (entry.getKey() == null) {
+          continue;
         }
 
-        builder.addAttributes(attributeBuilder.build());
+        writeAttribute(buffer, entry.getKey(), entry.getValue());
       }
     }
+  }
+
+  private static int attributeSize(String key, String value) {
+    int size = FrameEncoder.stringSize(ATTRIBUTE_KEY, key);
+
+    if (value != null) {
+      size += FrameEncoder.stringSize(ATTRIBUTE_VALUE, value);
+    }
+
+    return size;
+  }
 
-    final Protocol0.Metric m = builder.build();
-    return Protocol0.Message.newBuilder().setMetric(m).build()
-        .toByteArray();
+  private static void writeAttribute(ByteBuffer buffer, String key, String value) {
+    final int keySize = FrameEncoder.utf8Size(key);
+    final int valueSize = value == null ? 0 : FrameEncoder.utf8Size(value);
+
+    int size = FrameEncoder.lengthDelimitedSize(ATTRIBUTE_KEY, keySize);
+
+    if (value != null) {
+      size += FrameEncoder.lengthDelimitedSize(ATTRIBUTE_VALUE, valueSize);
+    }
+
+    FrameEncoder.writeLengthDelimited(buffer, FIELD_ATTRIBUTES, size);
+    FrameEncoder.writeString(buffer, ATTRIBUTE_KEY, key, keySize);
+
+    if (value != null) {
+      FrameEncoder.writeString(buffer, ATTRIBUTE_VALUE, value, valueSize);
+    }
   }
 
   public boolean equals(final Object o) {
@@ -0,0 +1,124 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link Metric} with everything but its time and value encoded ahead of time.
+ *
+ * <p>Sending a value through a template only encodes the time and the value and copies the
+ * cached bytes, without allocating. The produced frames are identical to those of
+ * {@code metric.time(time).value(value)}.
+ *
+ * <p>Templates are immutable and can be shared between threads, create them with
+ * {@link Metric#template()}.
+ */
+public final class MetricTemplate {
+
+  /**
+   * Room for the message tag, the metric length, the time and the value.
+   */
+  private static final int MAX_VARIABLE_SIZE = 1 + 5
+      + FrameEncoder.tagSize(Metric.FIELD_TIME) + 10
+      + FrameEncoder.doubleSize(Metric.FIELD_VALUE);
+
+  private final Metric metric;
+  private final byte[] proc;
+  private final byte[] key;
+  private final byte[] tail;
+  private final boolean hasTime;
+  private final int fixedSize;
+
+  MetricTemplate(Metric metric, byte[] proc, byte[] key, byte[] tail, boolean hasTime) {
+    this.metric = metric;
+    this.proc = proc;
+    this.key = key;
+    this.tail = tail;
+    this.hasTime = hasTime;
+    this.fixedSize = proc.length + key.length + tail.length;
+  }
+
+  /**
+   * The metric this template was created from.
+   */
+  public Metric getMetric() {
+    return metric;
+  }
+
+  /**
+   * An upper bound of the frame size of any value sent through this template.
+   */
+  public int maxFrameSize() {
+    return FrameEncoder.HEADER_SIZE + MAX_VARIABLE_SIZE + fixedSize;
+  }
+
+  /**
+   * Write a frame with the given value, and the time of the template metric if it has one.
+   *
+   * @return The number of bytes written.
+   *
+   * @throws BufferOverflowException If the buffer does not have enough room left.
+   */
+  public int serializeTo(ByteBuffer buffer, double value) {
+    return write(buffer, hasTime, metric.getTime(), value);
+  }
+
+  /**
+   * Write a frame with the given time and value.
+   *
+   * @return The number of bytes written.
+   *
+   * @throws BufferOverflowException If the buffer does not have enough room left.
+   */
+  public int serializeTo(ByteBuffer buffer, long time, double value) {
+    return write(buffer, true, time, value);
+  }
+
+  private int write(ByteBuffer buffer, boolean withTime, long time, double value) {
+    int metricSize = fixedSize + FrameEncoder.doubleSize(Metric.FIELD_VALUE);
+
+    if (withTime) {
+      metricSize += FrameEncoder.int64Size(Metric.FIELD_TIME, time);
+    }
+
+    final int frameSize = FrameEncoder.HEADER_SIZE
+        + FrameEncoder.lengthDelimitedSize(Metric.MESSAGE_METRIC, metricSize);
+
+    if (buffer.remaining() < frameSize) {
+      throw new BufferOverflowException();
+    }
+
+    FrameEncoder.writeHeader(buffer, FastForward.Version.V0.getVersion(), frameSize);
+    FrameEncoder.writeLengthDelimited(buffer, Metric.MESSAGE_METRIC, metricSize);
+    buffer.put(proc);
+
+    if (withTime) {
+      FrameEncoder.writeInt64(buffer, Metric.FIELD_TIME, time);
+    }
+
+    buffer.put(key);
+    FrameEncoder.writeDouble(buffer, Metric.FIELD_VALUE, value);
+    buffer.put(tail);
+    return frameSize;
+  }
+}
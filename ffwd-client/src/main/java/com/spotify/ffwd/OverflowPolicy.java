@@ -0,0 +1,40 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+/**
+ * What an asynchronous {@link FastForward} client does when its send queue is full.
+ */
+public enum OverflowPolicy {
+  /**
+   * Drop the metric being sent.
+   */
+  DROP_NEWEST,
+  /**
+   * Drop the oldest queued metrics until the new one fits.
+   */
+  DROP_OLDEST,
+  /**
+   * Block the sending thread until there is room in the queue, or drop the metric being sent if
+   * the configured timeout expires first.
+   */
+  BLOCK
+}
@@ -0,0 +1,40 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+/**
+ * What a {@link FastForward} client does with a metric whose encoding does not fit in a single
+ * datagram.
+ */
+public enum OversizePolicy {
+  /**
+   * Send the metric in a datagram of its own anyway, leaving it to IP fragmentation.
+   */
+  SEND,
+  /**
+   * Drop the metric.
+   */
+  DROP,
+  /**
+   * Drop the metric and throw an {@link java.io.IOException} from {@code send}.
+   */
+  FAIL
+}
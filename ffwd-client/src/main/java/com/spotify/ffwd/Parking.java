@@ -0,0 +1,43 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waiting for short periods of time.
+ *
+ * <p>This parks the thread. Java 17 and later load a version from {@code META-INF/versions/17}
+ * that spins with {@code Thread.onSpinWait()} through waits too short to park for.
+ */
+final class Parking {
+
+  private Parking() {
+  }
+
+  /**
+   * Wait for at most the given time, which may return early like
+   * {@link LockSupport#parkNanos(long)}.
+   */
+  static void parkNanos(long nanos) {
+    LockSupport.parkNanos(nanos);
+  }
+}
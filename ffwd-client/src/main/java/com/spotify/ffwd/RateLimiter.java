@@ -0,0 +1,166 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets for metrics and bytes per second, shared by every thread of a client.
+ *
+ * <p>Each bucket is kept as the time by which everything taken from it so far is paid back at
+ * the configured rate, in a single {@link AtomicLong} (the generic cell rate algorithm). Taking
+ * tokens is one compare-and-set, so sending threads never block each other.
+ *
+ * <p>When the operating system reports that its send buffer is full, the rates are halved, down
+ * to 1/64. Every {@link #RECOVERY_NANOS} without further congestion they are doubled again.
+ */
+class RateLimiter {
+
+  static final long RECOVERY_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+  private static final int MAX_BACKOFF = 6;
+
+  /**
+   * Returned by {@link #acquire(int, int)} when the tokens were not taken.
+   */
+  static final long DENIED = -1;
+
+  private final long metricsPerSecond;
+  private final long bytesPerSecond;
+  private final long burstNanos;
+  private final long maxPacingNanos;
+
+  private final AtomicLong metricsPaidUntil = new AtomicLong(Long.MIN_VALUE);
+  private final AtomicLong bytesPaidUntil = new AtomicLong(Long.MIN_VALUE);
+
+  private volatile int backoff = 0;
+  private volatile long lastBackoffNanos = 0;
+
+  /**
+   * A limiter for the limits of the given configuration, or {@code null} if it has none.
+   */
+  static RateLimiter create(FastForwardConfiguration configuration) {
+    if (configuration.getMaxMetricsPerSecond() == 0 && configuration.getMaxBytesPerSecond() == 0) {
+      return null;
+    }
+
+    return new RateLimiter(configuration.getMaxMetricsPerSecond(),
+        configuration.getMaxBytesPerSecond(),
+        TimeUnit.MILLISECONDS.toNanos(configuration.getRateLimitBurstMillis()),
+        TimeUnit.MILLISECONDS.toNanos(configuration.getMaxPacingDelayMillis()));
+  }
+
+  RateLimiter(
+      long metricsPerSecond, long bytesPerSecond, long burstNanos, long maxPacingNanos
+  ) {
+    this.metricsPerSecond = metricsPerSecond;
+    this.bytesPerSecond = bytesPerSecond;
+    this.burstNanos = burstNanos;
+    this.maxPacingNanos = maxPacingNanos;
+  }
+
+  /**
+   * Take tokens for the given number of metrics and bytes.
+   *
+   * @return How long to wait before sending, or {@link #DENIED} if that would be longer than the
+   *     maximum pacing delay, in which case nothing was taken.
+   */
+  long acquire(int metrics, int bytes) {
+    final long now = System.nanoTime();
+    final int shift = backoff(now);
+
+    final long metricsCost = cost(metrics, metricsPerSecond) << shift;
+    final long metricsWait = take(metricsPaidUntil, metricsCost, now);
+
+    if (metricsWait == DENIED) {
+      return DENIED;
+    }
+
+    final long bytesCost = cost(bytes, bytesPerSecond) << shift;
+    final long bytesWait = take(bytesPaidUntil, bytesCost, now);
+
+    if (bytesWait == DENIED) {
+      metricsPaidUntil.addAndGet(-metricsCost);
+      return DENIED;
+    }
+
+    return Math.max(metricsWait, bytesWait);
+  }
+
+  /**
+   * The operating system reported a full send buffer, slow down.
+   */
+  void congested() {
+    final long now = System.nanoTime();
+    backoff = Math.min(backoff(now) + 1, MAX_BACKOFF);
+    lastBackoffNanos = now;
+  }
+
+  /**
+   * By how many powers of two the rates are currently lowered.
+   */
+  int backoff(long now) {
+    final int level = backoff;
+
+    if (level == 0) {
+      return 0;
+    }
+
+    final long recovered = (now - lastBackoffNanos) / RECOVERY_NANOS;
+    return (int) Math.max(0, level - recovered);
+  }
+
+  /**
+   * The time it takes to pay back the given units at the given rate, rounded up so that a send
+   * is never free. It is computed per send, so a rate that does not divide a second is exact.
+   */
+  private static long cost(int units, long perSecond) {
+    if (perSecond <= 0) {
+      return 0;
+    }
+
+    return (units * NANOS_PER_SECOND + perSecond - 1) / perSecond;
+  }
+
+  private long take(AtomicLong paidUntil, long cost, long now) {
+    if (cost == 0) {
+      return 0;
+    }
+
+    // a single send larger than the burst is let through when nothing else is owed.
+    final long tolerance = Math.max(burstNanos, cost);
+
+    while (true) {
+      final long current = paidUntil.get();
+      final long next = Math.max(current, now) + cost;
+      final long wait = next - now - tolerance;
+
+      if (wait > maxPacingNanos) {
+        return DENIED;
+      }
+
+      if (paidUntil.compareAndSet(current, next)) {
+        return Math.max(0, wait);
+      }
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds frames to the rates of a {@link RateLimiter}.
+ *
+ * <p>Frames over the limit are delayed for up to the maximum pacing delay, which spreads bursts
+ * out, and dropped beyond that. Failures that mean the send buffer of the operating system is
+ * full slow the limiter down.
+ */
+class RateLimitingFrameWriter implements FrameWriter {
+
+  private final FrameWriter delegate;
+  private final RateLimiter limiter;
+  private final StatsRecorder stats;
+
+  RateLimitingFrameWriter(
+      final FrameWriter delegate, final RateLimiter limiter, final StatsRecorder stats
+  ) {
+    this.delegate = delegate;
+    this.limiter = limiter;
+    this.stats = stats;
+  }
+
+  @Override
+  public void write(ByteBuffer frame) throws IOException {
+    final int metrics = StreamFrameWriter.countFrames(frame, frame.position(), frame.limit());
+    final long wait = limiter.acquire(metrics, frame.remaining());
+
+    if (wait == RateLimiter.DENIED) {
+      stats.dropped(DropReason.RATE_LIMITED, metrics);
+      frame.position(frame.limit());
+      return;
+    }
+
+    if (wait > 0) {
+      pace(wait);
+    }
+
+    try {
+      delegate.write(frame);
+    } catch (final IOException e) {
+      if (isSendBufferFull(e)) {
+        limiter.congested();
+      }
+
+      throw e;
+    }
+  }
+
+  @Override
+  public boolean prefersDirectBuffers() {
+    return delegate.prefersDirectBuffers();
+  }
+
+  @Override
+  public boolean flush(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+    return delegate.flush(timeout, unit);
+  }
+
+  @Override
+  public int queueSize() {
+    return delegate.queueSize();
+  }
+
+  @Override
+  public void close() throws IOException {
+    delegate.close();
+  }
+
+  /**
+   * Whether the exception is the ENOBUFS error of a full send buffer, which the JDK only
+   * reports through its message.
+   */
+  static boolean isSendBufferFull(IOException e) {
+    final String message = e.getMessage();
+    return message != null && message.contains("No buffer space available");
+  }
+
+  private static void pace(long nanos) {
+    final long deadline = System.nanoTime() + nanos;
+    long remaining = nanos;
+
+    // parking may return early.
+    while (remaining > 0) {
+      Parking.parkNanos(remaining);
+      remaining = deadline - System.nanoTime();
+    }
+  }
+}
@@ -0,0 +1,166 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * Decides which points of sampled keys are sent, see
+ * {@link FastForwardConfiguration.FastForwardConfigurationBuilder#setSampleRate(String, double)}.
+ *
+ * <p>The rate of a key is the one of the longest configured prefix it starts with. Rates are
+ * cached per key, so that a decision costs a hash lookup and a random number.
+ */
+final class Sampler {
+
+  /**
+   * Attribute of sent points with the rate they were sampled at.
+   */
+  static final String ATTRIBUTE = "sample_rate";
+
+  /**
+   * Beyond this many keys or templates, rates are looked up without caching them.
+   */
+  private static final int MAX_CACHED = 10000;
+
+  /**
+   * The rate of keys that are not sampled.
+   */
+  private static final Rate UNSAMPLED = new Rate(1);
+
+  /**
+   * Returned by {@link #sample(String)} for points that are not sent.
+   */
+  static final Rate DROPPED = new Rate(0);
+
+  private final String[] prefixes;
+  private final Rate[] rates;
+  private final ConcurrentHashMap<String, Rate> keys = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Object, Object> templates = new ConcurrentHashMap<>();
+
+  /**
+   * A sampler for the given rates by key prefix, or {@code null} if there are none.
+   */
+  static Sampler create(Map<String, Double> rates) {
+    if (rates.isEmpty()) {
+      return null;
+    }
+
+    final List<String> prefixes = new ArrayList<>(rates.keySet());
+    // longest first, so that the first match is the most specific.
+    prefixes.sort((a, b) -> Integer.compare(b.length(), a.length()));
+
+    final Rate[] sorted = new Rate[prefixes.size()];
+
+    for (int i = 0; i < sorted.length; i++) {
+      final double rate = rates.get(prefixes.get(i));
+      sorted[i] = rate >= 1 ? UNSAMPLED : new Rate(rate);
+    }
+
+    return new Sampler(prefixes.toArray(new String[0]), sorted);
+  }
+
+  private Sampler(String[] prefixes, Rate[] rates) {
+    this.prefixes = prefixes;
+    this.rates = rates;
+  }
+
+  /**
+   * Decide whether to send a point of the given key.
+   *
+   * @return {@code null} if the key is not sampled, {@link #DROPPED} if the point should not be
+   *     sent, otherwise the rate to send it with.
+   */
+  Rate sample(String key) {
+    final Rate rate = rate(key == null ? "" : key);
+
+    if (rate == UNSAMPLED) {
+      return null;
+    }
+
+    return ThreadLocalRandom.current().nextDouble() < rate.rate ? rate : DROPPED;
+  }
+
+  /**
+   * The given template with the sample rate attribute added, cached per template.
+   */
+  @SuppressWarnings("unchecked")
+  <T> T template(T template, Function<T, T> withRate) {
+    final Object cached = templates.get(template);
+
+    if (cached != null) {
+      return (T) cached;
+    }
+
+    final T created = withRate.apply(template);
+
+    if (templates.size() < MAX_CACHED) {
+      templates.putIfAbsent(template, created);
+    }
+
+    return created;
+  }
+
+  private Rate rate(String key) {
+    final Rate cached = keys.get(key);
+
+    if (cached != null) {
+      return cached;
+    }
+
+    Rate rate = UNSAMPLED;
+
+    for (int i = 0; i < prefixes.length; i++) {
+      if (key.startsWith(prefixes[i])) {
+        rate = rates[i];
+        break;
+      }
+    }
+
+    if (keys.size() < MAX_CACHED) {
+      keys.putIfAbsent(key, rate);
+    }
+
+    return rate;
+  }
+
+  static final class Rate {
+    private final double rate;
+    private final String attribute;
+
+    private Rate(double rate) {
+      this.rate = rate;
+      this.attribute = Double.toString(rate);
+    }
+
+    /**
+     * The value of the {@link #ATTRIBUTE} attribute.
+     */
+    String getAttribute() {
+      return attribute;
+    }
+  }
+}
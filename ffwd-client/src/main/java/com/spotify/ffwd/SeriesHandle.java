@@ -0,0 +1,72 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.io.IOException;
+
+/**
+ * A registered series that values are recorded into, see {@link FastForward#series(Metric)}.
+ *
+ * <p>Everything but the value is encoded when the series is registered, so recording does not
+ * look anything up or allocate. A handle stays usable after its series was evicted from the
+ * registry, the series is registered again the next time a value is recorded.
+ *
+ * <p>Handles can be shared between threads.
+ */
+public final class SeriesHandle {
+
+  private final FastForward client;
+  private final SeriesRegistry registry;
+  private volatile SeriesRegistry.Series series;
+
+  SeriesHandle(FastForward client, SeriesRegistry registry, SeriesRegistry.Series series) {
+    this.client = client;
+    this.registry = registry;
+    this.series = series;
+  }
+
+  /**
+   * Send a value for this series, timestamped by the agent.
+   */
+  public void record(double value) throws IOException {
+    series().send(client, value);
+  }
+
+  /**
+   * Send a value for this series with the given time, in milliseconds since the epoch.
+   */
+  public void record(long time, double value) throws IOException {
+    series().send(client, time, value);
+  }
+
+  private SeriesRegistry.Series series() {
+    SeriesRegistry.Series current = series;
+
+    if (current.isEvicted()) {
+      current = registry.register(current.getKey());
+      series = current;
+    } else {
+      current.touch();
+    }
+
+    return current;
+  }
+}
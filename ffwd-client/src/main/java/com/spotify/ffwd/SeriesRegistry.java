@@ -0,0 +1,224 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import com.spotify.ffwd.v1.Value;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * The series behind {@link SeriesHandle}s, bounded in size and evicting idle series.
+ *
+ * <p>Recording through a handle never touches the registry, it only sets a flag on its series.
+ * Idle series are found by sweeping those flags, which happens while registering, so that no
+ * thread is needed.
+ */
+final class SeriesRegistry {
+
+  private final int maxSeries;
+  private final long idleNanos;
+  private final LongSupplier nanoTime;
+
+  /**
+   * Series by their {@link Metric} or {@link com.spotify.ffwd.v1.Metric} without time and value.
+   */
+  private final ConcurrentMap<Object, Series> series = new ConcurrentHashMap<>();
+  private final ReentrantLock sweepLock = new ReentrantLock();
+
+  // written under sweepLock.
+  private volatile long lastSweep;
+
+  SeriesRegistry(FastForwardConfiguration configuration) {
+    this(configuration.getMaxSeries(),
+        TimeUnit.MILLISECONDS.toNanos(configuration.getSeriesIdleTimeoutMillis()),
+        System::nanoTime);
+  }
+
+  SeriesRegistry(int maxSeries, long idleNanos, LongSupplier nanoTime) {
+    this.maxSeries = maxSeries;
+    this.idleNanos = idleNanos;
+    this.nanoTime = nanoTime;
+    this.lastSweep = nanoTime.getAsLong();
+  }
+
+  static Object key(Metric metric) {
+    return metric.series();
+  }
+
+  static Object key(com.spotify.ffwd.v1.Metric metric) {
+    return metric.time(0).value(Value.doubleValue(0));
+  }
+
+  /**
+   * The series of the given key, registering it if it is not already.
+   */
+  Series register(Object key) {
+    Series existing = series.get(key);
+
+    if (existing == null) {
+      final Series created = new Series(key, nanoTime.getAsLong());
+      existing = series.putIfAbsent(key, created);
+
+      if (existing == null) {
+        existing = created;
+
+        if (series.size() > maxSeries) {
+          evictOverflow();
+        }
+      }
+    }
+
+    existing.touch();
+    maybeSweep();
+    return existing;
+  }
+
+  int size() {
+    return series.size();
+  }
+
+  private void maybeSweep() {
+    if (nanoTime.getAsLong() - lastSweep < idleNanos / 2 || !sweepLock.tryLock()) {
+      return;
+    }
+
+    try {
+      sweep(nanoTime.getAsLong());
+    } finally {
+      sweepLock.unlock();
+    }
+  }
+
+  /**
+   * Evict the least recently used series, down to seven eighths of the bound so that the cost of
+   * sorting is shared by the series registered next.
+   */
+  private void evictOverflow() {
+    sweepLock.lock();
+
+    try {
+      sweep(nanoTime.getAsLong());
+
+      final int excess = series.size() - maxSeries;
+
+      if (excess <= 0) {
+        return;
+      }
+
+      final List<Series> candidates = new ArrayList<>(series.values());
+      candidates.sort(Comparator.comparingLong(s -> s.lastUsed));
+
+      final int evict = Math.min(candidates.size(), excess + maxSeries / 8);
+
+      for (int i = 0; i < evict; i++) {
+        evict(candidates.get(i));
+      }
+    } finally {
+      sweepLock.unlock();
+    }
+  }
+
+  /**
+   * Note when every series was last used, and evict those idle for too long.
+   */
+  private void sweep(long now) {
+    lastSweep = now;
+
+    for (final Series s : series.values()) {
+      if (s.touched) {
+        s.touched = false;
+        s.lastUsed = now;
+      } else if (now - s.lastUsed >= idleNanos) {
+        evict(s);
+      }
+    }
+  }
+
+  private void evict(Series s) {
+    if (series.remove(s.key, s)) {
+      s.evicted = true;
+    }
+  }
+
+  /**
+   * A registered series with its pre-encoded template.
+   */
+  static final class Series {
+    private final Object key;
+    private final MetricTemplate template;
+    private final com.spotify.ffwd.v1.MetricTemplate templateV1;
+
+    /**
+     * Set when recorded, and cleared by the sweep that notes the time of use.
+     */
+    private volatile boolean touched;
+    private volatile boolean evicted;
+
+    // guarded by sweepLock.
+    private long lastUsed;
+
+    Series(Object key, long now) {
+      this.key = key;
+      this.template = key instanceof Metric ? ((Metric) key).template() : null;
+      this.templateV1 = key instanceof Metric
+          ? null : ((com.spotify.ffwd.v1.Metric) key).template();
+      this.lastUsed = now;
+    }
+
+    Object getKey() {
+      return key;
+    }
+
+    boolean isEvicted() {
+      return evicted;
+    }
+
+    void touch() {
+      // only write when needed, to leave the cache line shared between recording threads.
+      if (!touched) {
+        touched = true;
+      }
+    }
+
+    void send(FastForward client, double value) throws IOException {
+      if (template != null) {
+        client.send(template, value);
+      } else {
+        client.send(templateV1, value);
+      }
+    }
+
+    void send(FastForward client, long time, double value) throws IOException {
+      if (template != null) {
+        client.send(template, time, value);
+      } else {
+        client.send(templateV1, time, value);
+      }
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Exposes the statistics of a client as a {@link FastForwardMxBean}.
+ */
+class StatsBean implements FastForwardMxBean {
+
+  private final Supplier<FastForwardStats> stats;
+
+  StatsBean(Supplier<FastForwardStats> stats) {
+    this.stats = stats;
+  }
+
+  /**
+   * Register the statistics under the given name in the platform MBean server.
+   *
+   * @return The object name to unregister.
+   */
+  static ObjectName register(String name, Supplier<FastForwardStats> stats) throws JMException {
+    final ObjectName objectName = new ObjectName(
+        "com.spotify.ffwd:type=FastForward,name=" + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(new StatsBean(stats), objectName);
+    return objectName;
+  }
+
+  static void unregister(ObjectName objectName) {
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    try {
+      server.unregisterMBean(objectName);
+    } catch (final JMException e) {
+      // already unregistered.
+    }
+  }
+
+  @Override
+  public long getSentMetrics() {
+    return stats.get().getSentMetrics();
+  }
+
+  @Override
+  public long getSentBytes() {
+    return stats.get().getSentBytes();
+  }
+
+  @Override
+  public long getSentDatagrams() {
+    return stats.get().getSentDatagrams();
+  }
+
+  @Override
+  public long getFailed() {
+    return stats.get().getFailed();
+  }
+
+  @Override
+  public Map<String, Long> getFailures() {
+    return stats.get().getFailures();
+  }
+
+  @Override
+  public Map<String, Long> getDropped() {
+    final FastForwardStats snapshot = stats.get();
+    final Map<String, Long> dropped = new LinkedHashMap<>();
+
+    for (final DropReason reason : DropReason.values()) {
+      dropped.put(reason.name(), snapshot.getDropped(reason));
+    }
+
+    return dropped;
+  }
+
+  @Override
+  public long getOversized() {
+    return stats.get().getOversized();
+  }
+
+  @Override
+  public long getSampledOut() {
+    return stats.get().getSampledOut();
+  }
+
+  @Override
+  public int getQueueDepth() {
+    return stats.get().getQueueDepth();
+  }
+
+  @Override
+  public long getSendLatencyMedianNanos() {
+    return stats.get().getSendLatencyNanos(50);
+  }
+
+  @Override
+  public long getSendLatency99thPercentileNanos() {
+    return stats.get().getSendLatencyNanos(99);
+  }
+
+  @Override
+  public long getSendLatency999thPercentileNanos() {
+    return stats.get().getSendLatencyNanos(99.9);
+  }
+}
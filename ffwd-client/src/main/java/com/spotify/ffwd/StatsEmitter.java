@@ -0,0 +1,104 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the statistics of a client through the client itself every interval.
+ *
+ * <p>Counters are sent as what changed during the interval, the queue depth as it is at the end
+ * of it. The statistics include the metrics this sends.
+ */
+class StatsEmitter {
+
+  private final FastForward client;
+  private final Metric base;
+  private final ScheduledThreadPoolExecutor scheduler;
+
+  // only touched by the scheduler thread.
+  private FastForwardStats previous;
+
+  StatsEmitter(FastForward client, String key, long intervalMillis) {
+    this.client = client;
+    this.base = FastForward.metric(key);
+    this.previous = client.getStats();
+    this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+      final Thread thread = new Thread(runnable, "ffwd-stats");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.scheduler.scheduleAtFixedRate(
+        this::emitQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  void close() {
+    scheduler.shutdownNow();
+  }
+
+  private void emitQuietly() {
+    try {
+      emit();
+    } catch (final Exception e) {
+      client.stats().failed(e);
+    }
+  }
+
+  private void emit() throws Exception {
+    final FastForwardStats current = client.getStats();
+    final FastForwardStats interval = current.since(previous);
+    previous = current;
+
+    final List<Metric> metrics = new ArrayList<>();
+    metrics.add(stat("sent-metrics", interval.getSentMetrics()));
+    metrics.add(stat("sent-bytes", interval.getSentBytes()));
+    metrics.add(stat("sent-datagrams", interval.getSentDatagrams()));
+    metrics.add(stat("failed", interval.getFailed()));
+    metrics.add(stat("oversized", interval.getOversized()));
+    metrics.add(stat("sampled-out", interval.getSampledOut()));
+    metrics.add(stat("queue-depth", interval.getQueueDepth()));
+
+    for (final DropReason reason : DropReason.values()) {
+      metrics.add(stat("dropped", interval.getDropped(reason))
+          .attribute("reason", reason.name().toLowerCase(Locale.ROOT).replace('_', '-')));
+    }
+
+    if (interval.getSendLatencyCount() > 0) {
+      metrics.add(latency("p50", interval.getSendLatencyNanos(50)));
+      metrics.add(latency("p99", interval.getSendLatencyNanos(99)));
+      metrics.add(latency("p99.9", interval.getSendLatencyNanos(99.9)));
+    }
+
+    client.send(metrics);
+  }
+
+  private Metric stat(String what, long value) {
+    return base.attribute("what", what).value(value);
+  }
+
+  private Metric latency(String stat, long nanos) {
+    return stat("send-latency", nanos).attribute("stat", stat).attribute("unit", "ns");
+  }
+}
@@ -0,0 +1,185 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Internal counters of a {@link FastForward} client.
+ *
+ * <p>All counters are striped so that recording from many threads does not contend.
+ */
+class StatsRecorder {
+
+  /**
+   * Latencies are counted in buckets of 8 per power of two, which bounds the error of a
+   * percentile to 1/8.
+   */
+  static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /**
+   * Latencies from 2^40 ns, about 18 minutes, on are counted in the last bucket.
+   */
+  private static final int MAX_EXPONENT = 40;
+  static final int LATENCY_BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+  private final LongAdder[] dropped = new LongAdder[DropReason.values().length];
+  private final ConcurrentMap<Class<?>, LongAdder> failures = new ConcurrentHashMap<>();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder oversized = new LongAdder();
+  private final LongAdder sampledOut = new LongAdder();
+  private final LongAdder sentMetrics = new LongAdder();
+  private final LongAdder sentBytes = new LongAdder();
+  private final LongAdder sentDatagrams = new LongAdder();
+  private final LongAdder[] latencies = new LongAdder[LATENCY_BUCKETS];
+
+  StatsRecorder() {
+    for (int i = 0; i < dropped.length; i++) {
+      dropped[i] = new LongAdder();
+    }
+
+    for (int i = 0; i < latencies.length; i++) {
+      latencies[i] = new LongAdder();
+    }
+  }
+
+  void dropped(DropReason reason) {
+    dropped[reason.ordinal()].increment();
+  }
+
+  void dropped(DropReason reason, long count) {
+    dropped[reason.ordinal()].add(count);
+  }
+
+  void failed(Exception e) {
+    failed.increment();
+    failures.computeIfAbsent(e.getClass(), type -> new LongAdder()).increment();
+  }
+
+  /**
+   * A metric larger than a datagram was seen, whatever the policy did with it.
+   */
+  void oversized() {
+    oversized.increment();
+  }
+
+  /**
+   * A point of a sampled key was not sent.
+   */
+  void sampledOut() {
+    sampledOut.increment();
+  }
+
+  /**
+   * Metrics were handed to the writer of the client, taking the given time.
+   */
+  void sent(int metrics, long nanos) {
+    sentMetrics.add(metrics);
+    latencies[latencyBucket(nanos)].increment();
+  }
+
+  /**
+   * A datagram was handed to the operating system.
+   */
+  void sentDatagram(int bytes) {
+    sentDatagrams.increment();
+    sentBytes.add(bytes);
+  }
+
+  /**
+   * Bytes were written to a stream connection.
+   */
+  void sentBytes(int bytes) {
+    sentBytes.add(bytes);
+  }
+
+  long getDropped(DropReason reason) {
+    return dropped[reason.ordinal()].sum();
+  }
+
+  long getFailed() {
+    return failed.sum();
+  }
+
+  long getOversized() {
+    return oversized.sum();
+  }
+
+  /**
+   * Take a snapshot of all counters, with the given number of queued frames.
+   */
+  FastForwardStats snapshot(int queueDepth) {
+    final long[] dropped = new long[this.dropped.length];
+
+    for (int i = 0; i < dropped.length; i++) {
+      dropped[i] = this.dropped[i].sum();
+    }
+
+    final Map<String, Long> failures = new HashMap<>();
+
+    for (final Map.Entry<Class<?>, LongAdder> e : this.failures.entrySet()) {
+      failures.put(e.getKey().getName(), e.getValue().sum());
+    }
+
+    final long[] latencies = new long[this.latencies.length];
+
+    for (int i = 0; i < latencies.length; i++) {
+      latencies[i] = this.latencies[i].sum();
+    }
+
+    return new FastForwardStats(sentMetrics.sum(), sentBytes.sum(), sentDatagrams.sum(),
+        failed.sum(), failures, dropped, oversized.sum(), sampledOut.sum(), queueDepth,
+        latencies);
+  }
+
+  static int latencyBucket(long nanos) {
+    if (nanos < SUB_BUCKETS) {
+      return (int) Math.max(nanos, 0);
+    }
+
+    final int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+
+    if (exponent > MAX_EXPONENT) {
+      return LATENCY_BUCKETS - 1;
+    }
+
+    final int shift = exponent - SUB_BUCKET_BITS;
+    return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((nanos >>> shift) & (SUB_BUCKETS - 1));
+  }
+
+  /**
+   * The largest latency that is counted in the given bucket.
+   */
+  static long latencyBucketLimit(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+
+    final int shift = (bucket >>> SUB_BUCKET_BITS) - 1;
+    final long lower = (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+    return lower + (1L << shift) - 1;
+  }
+}
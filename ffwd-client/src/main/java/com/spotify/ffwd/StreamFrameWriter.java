@@ -0,0 +1,386 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes frames over a long-lived stream connection from a background thread.
+ *
+ * <p>Frames are appended to a bounded write buffer, which the background thread hands to the
+ * connection in large writes. When the connection breaks it is re-established with exponential
+ * backoff and jitter, and frames keep being buffered in the meantime. Frames that do not fit in
+ * the buffer are dropped.
+ *
+ * <p>A frame that was only partially written when the connection broke is sent again in full on
+ * the next connection, so the agent always sees whole frames. Frames the operating system had
+ * fully accepted are not sent again, even if the agent never received them.
+ */
+class StreamFrameWriter implements FrameWriter {
+
+  private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+  /**
+   * Opens a new connection to the agent.
+   */
+  interface Connector {
+    WritableByteChannel connect() throws IOException;
+  }
+
+  private final Connector connector;
+  private final StatsRecorder stats;
+  private final long minReconnectDelayNanos;
+  private final long maxReconnectDelayNanos;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition drained = lock.newCondition();
+
+  /**
+   * Frames appended by callers, in write mode.
+   */
+  private ByteBuffer pending;
+
+  /**
+   * Frames being written by the background thread, in read mode. Only the background thread
+   * touches it, except for swapping it with {@link #pending} while holding the lock.
+   */
+  private ByteBuffer sending;
+
+  /**
+   * Bytes left in {@link #sending}, as last seen by the background thread.
+   */
+  private int unsent = 0;
+  private boolean closed = false;
+
+  private WritableByteChannel channel;
+  private final Thread thread;
+
+  /**
+   * Connect to a TCP address with the socket options of the given configuration.
+   */
+  static StreamFrameWriter tcp(
+      final InetSocketAddress address, final FastForwardConfiguration configuration,
+      final StatsRecorder stats
+  ) {
+    return new StreamFrameWriter(() -> {
+      final SocketChannel channel = SocketChannel.open();
+
+      try {
+        // frames are already coalesced in the write buffer.
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+
+        if (configuration.getSendBufferSize() > 0) {
+          channel.setOption(StandardSocketOptions.SO_SNDBUF, configuration.getSendBufferSize());
+        }
+
+        if (configuration.getTrafficClass() >= 0) {
+          channel.setOption(StandardSocketOptions.IP_TOS, configuration.getTrafficClass());
+        }
+
+        channel.socket().connect(address, CONNECT_TIMEOUT_MILLIS);
+      } catch (final IOException e) {
+        channel.close();
+        throw e;
+      }
+
+      return channel;
+    }, configuration, stats);
+  }
+
+  /**
+   * Connect to a Unix domain socket, see {@link UnixDomainSockets}.
+   *
+   * @throws IOException If Unix domain sockets are not supported by this Java version.
+   */
+  static StreamFrameWriter unix(
+      final Path path, final FastForwardConfiguration configuration, final StatsRecorder stats
+  ) throws IOException {
+    final SocketAddress address = UnixDomainSockets.address(path);
+
+    return new StreamFrameWriter(() -> {
+      final SocketChannel channel = SocketChannel.open(address);
+
+      try {
+        if (configuration.getSendBufferSize() > 0) {
+          channel.setOption(StandardSocketOptions.SO_SNDBUF, configuration.getSendBufferSize());
+        }
+      } catch (final IOException e) {
+        channel.close();
+        throw e;
+      }
+
+      return channel;
+    }, configuration, stats);
+  }
+
+  StreamFrameWriter(
+      final Connector connector, final FastForwardConfiguration configuration,
+      final StatsRecorder stats
+  ) {
+    this.connector = connector;
+    this.stats = stats;
+    this.minReconnectDelayNanos =
+        TimeUnit.MILLISECONDS.toNanos(configuration.getMinReconnectDelayMillis());
+    this.maxReconnectDelayNanos =
+        TimeUnit.MILLISECONDS.toNanos(configuration.getMaxReconnectDelayMillis());
+    this.pending = ByteBuffer.allocateDirect(configuration.getMaxBufferedBytes());
+    this.sending = ByteBuffer.allocateDirect(configuration.getMaxBufferedBytes());
+    this.sending.flip();
+
+    this.thread = Threads.newThread("ffwd-stream", this::run);
+    this.thread.start();
+  }
+
+  @Override
+  public void write(ByteBuffer frame) throws IOException {
+    lock.lock();
+
+    try {
+      if (closed) {
+        stats.dropped(DropReason.CLOSED, countFrames(frame, frame.position(), frame.limit()));
+        throw new IOException("FastForward client is closed");
+      }
+
+      if (pending.remaining() < frame.remaining()) {
+        stats.dropped(DropReason.BUFFER_FULL,
+            countFrames(frame, frame.position(), frame.limit()));
+        frame.position(frame.limit());
+        return;
+      }
+
+      pending.put(frame);
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+    long remaining = unit.toNanos(timeout);
+
+    lock.lock();
+
+    try {
+      while (pending.position() > 0 || unsent > 0) {
+        if (remaining <= 0) {
+          return false;
+        }
+
+        remaining = drained.awaitNanos(remaining);
+      }
+
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Stop the background thread and close the connection, buffered frames are dropped.
+   */
+  @Override
+  public void close() throws IOException {
+    lock.lock();
+
+    try {
+      if (closed) {
+        return;
+      }
+
+      closed = true;
+      notEmpty.signalAll();
+    } finally {
+      lock.unlock();
+    }
+
+    // abort a write or connect that is stuck on an unresponsive agent.
+    thread.interrupt();
+
+    try {
+      thread.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    lock.lock();
+
+    try {
+      final int dropped = countFrames(sending, sending.position(), sending.limit())
+          + countFrames(pending, 0, pending.position());
+      stats.dropped(DropReason.CLOSED, dropped);
+      pending.clear();
+      sending.clear().flip();
+      unsent = 0;
+      drained.signalAll();
+    } finally {
+      lock.unlock();
+    }
+
+    closeChannel();
+  }
+
+  private void run() {
+    int failedAttempts = 0;
+
+    while (true) {
+      lock.lock();
+
+      try {
+        unsent = sending.remaining();
+
+        while (!closed && unsent == 0 && pending.position() == 0) {
+          drained.signalAll();
+          notEmpty.awaitUninterruptibly();
+        }
+
+        if (closed) {
+          return;
+        }
+      } finally {
+        lock.unlock();
+      }
+
+      if (channel == null) {
+        try {
+          channel = connector.connect();
+          failedAttempts = 0;
+        } catch (final IOException e) {
+          stats.failed(e);
+          awaitReconnect(++failedAttempts);
+          continue;
+        }
+      }
+
+      // only take pending frames once connected, so that they count against the buffer size
+      // while the agent is unreachable.
+      lock.lock();
+
+      try {
+        if (!sending.hasRemaining()) {
+          final ByteBuffer swap = sending;
+          sending = pending;
+          sending.flip();
+          pending = swap;
+          pending.clear();
+          unsent = sending.remaining();
+        }
+      } finally {
+        lock.unlock();
+      }
+
+      writeSending();
+    }
+  }
+
+  private void writeSending() {
+    final int start = sending.position();
+
+    try {
+      while (sending.hasRemaining()) {
+        stats.sentBytes(channel.write(sending));
+      }
+    } catch (final IOException e) {
+      stats.failed(e);
+      closeChannel();
+      sending.position(frameBoundary(sending, start, sending.position()));
+    }
+  }
+
+  /**
+   * Sleep before the next connection attempt, unless the writer is closed in the meantime.
+   */
+  private void awaitReconnect(final int failedAttempts) {
+    final long delay = Math.min(maxReconnectDelayNanos,
+        minReconnectDelayNanos << Math.min(failedAttempts - 1, 30));
+    long remaining = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+
+    lock.lock();
+
+    try {
+      while (!closed && remaining > 0) {
+        remaining = notEmpty.awaitNanos(remaining);
+      }
+    } catch (final InterruptedException e) {
+      // interrupted by close.
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void closeChannel() {
+    if (channel == null) {
+      return;
+    }
+
+    try {
+      channel.close();
+    } catch (final IOException e) {
+      stats.failed(e);
+    }
+
+    channel = null;
+  }
+
+  /**
+   * The start of the frame that contains the given position, with frames starting at
+   * {@code start}.
+   */
+  static int frameBoundary(final ByteBuffer buffer, final int start, final int position) {
+    int boundary = start;
+
+    while (true) {
+      final int next = boundary + buffer.getInt(boundary + 4);
+
+      if (next > position) {
+        return boundary;
+      }
+
+      boundary = next;
+    }
+  }
+
+  /**
+   * Number of frames between two positions of the given buffer.
+   */
+  static int countFrames(final ByteBuffer buffer, final int start, final int end) {
+    int count = 0;
+
+    for (int p = start; p + FrameEncoder.HEADER_SIZE <= end; p += buffer.getInt(p + 4)) {
+      count++;
+    }
+
+    return count;
+  }
+}
@@ -0,0 +1,101 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads frames over several writers, each with a socket of its own.
+ *
+ * <p>Sending through a single socket serializes all threads on its lock. Here every thread is
+ * assigned a stripe round-robin the first time it writes, and keeps writing to that stripe, so
+ * threads only contend when they share a stripe.
+ */
+class StripedFrameWriter implements FrameWriter {
+
+  private final FrameWriter[] stripes;
+  private final AtomicInteger next = new AtomicInteger();
+  private final ThreadLocal<FrameWriter> affinity;
+
+  StripedFrameWriter(FrameWriter[] stripes) {
+    if (stripes.length == 0) {
+      throw new IllegalArgumentException("at least one stripe is required");
+    }
+
+    this.stripes = stripes.clone();
+    this.affinity = ThreadLocal.withInitial(
+        () -> this.stripes[Math.floorMod(next.getAndIncrement(), this.stripes.length)]);
+  }
+
+  @Override
+  public void write(ByteBuffer frame) throws IOException {
+    affinity.get().write(frame);
+  }
+
+  @Override
+  public boolean prefersDirectBuffers() {
+    return stripes[0].prefersDirectBuffers();
+  }
+
+  @Override
+  public boolean flush(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    boolean flushed = true;
+
+    for (final FrameWriter stripe : stripes) {
+      final long remaining = Math.max(0, deadline - System.nanoTime());
+      flushed &= stripe.flush(remaining, TimeUnit.NANOSECONDS);
+    }
+
+    return flushed;
+  }
+
+  /**
+   * Close every stripe, even when closing one of them fails.
+   */
+  @Override
+  public void close() throws IOException {
+    IOException error = null;
+
+    for (final FrameWriter stripe : stripes) {
+      try {
+        stripe.close();
+      } catch (final IOException e) {
+        if (error == null) {
+          error = e;
+        } else {
+          error.addSuppressed(e);
+        }
+      }
+    }
+
+    if (error != null) {
+      throw error;
+    }
+  }
+
+  int stripes() {
+    return stripes.length;
+  }
+}
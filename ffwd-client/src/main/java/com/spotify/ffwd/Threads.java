@@ -0,0 +1,42 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+/**
+ * Background threads of the writers, which must not keep the JVM alive.
+ *
+ * <p>This creates daemon platform threads. Java 21 and later load a version from {@code
+ * META-INF/versions/21} that creates virtual threads.
+ */
+final class Threads {
+
+  private Threads() {
+  }
+
+  /**
+   * A new, unstarted daemon thread.
+   */
+  static Thread newThread(String name, Runnable task) {
+    final Thread thread = new Thread(task, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+}
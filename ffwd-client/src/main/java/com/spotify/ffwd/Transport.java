@@ -0,0 +1,61 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+/**
+ * How a {@link FastForward} client talks to the agent.
+ */
+public enum Transport {
+  /**
+   * An unconnected {@link java.net.DatagramSocket}, one datagram per metric.
+   */
+  UDP,
+  /**
+   * A connected {@link java.nio.channels.DatagramChannel} that sends from direct buffers.
+   *
+   * <p>Since the channel is connected, sends fail with a
+   * {@link java.net.PortUnreachableException} while nothing listens on the agent port.
+   */
+  UDP_NIO,
+  /**
+   * One long-lived TCP connection, re-established with exponential backoff when it breaks.
+   *
+   * <p>Metrics are buffered and written by a background thread, so a slow or unreachable agent
+   * never blocks the sending thread. While disconnected, metrics are kept up to a bounded number
+   * of bytes.
+   */
+  TCP,
+  /**
+   * Like {@link #TCP}, over a Unix domain socket to an agent on the same host, see
+   * {@link FastForward#setup(java.nio.file.Path, FastForwardConfiguration)}.
+   *
+   * <p>This skips the loopback network stack, and like TCP it never drops metrics silently. It
+   * requires Java 16 or later.
+   */
+  UNIX;
+
+  /**
+   * Whether metrics are written to a connection rather than sent as datagrams.
+   */
+  boolean isStream() {
+    return this == TCP || this == UNIX;
+  }
+}
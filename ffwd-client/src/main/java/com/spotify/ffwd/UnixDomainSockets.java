@@ -0,0 +1,72 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.SocketAddress;
+import java.nio.file.Path;
+
+/**
+ * Unix domain socket addresses, which {@link java.nio.channels.SocketChannel} supports from Java
+ * 16 on.
+ *
+ * <p>The client is built for Java 8, so the address class is looked up reflectively. Everything
+ * else goes through the regular channel API, which accepts such addresses.
+ */
+final class UnixDomainSockets {
+
+  /**
+   * {@code UnixDomainSocketAddress.of(Path)}, or {@code null} before Java 16.
+   */
+  private static final Method ADDRESS_OF = addressFactory();
+
+  private UnixDomainSockets() {
+  }
+
+  /**
+   * The address of the socket file at the given path.
+   *
+   * @throws IOException If Unix domain sockets are not supported by this Java version.
+   */
+  static SocketAddress address(Path path) throws IOException {
+    if (ADDRESS_OF == null) {
+      throw new IOException("Unix domain sockets require Java 16 or later");
+    }
+
+    try {
+      return (SocketAddress) ADDRESS_OF.invoke(null, path);
+    } catch (final IllegalAccessException e) {
+      throw new IOException("Unix domain sockets are not accessible", e);
+    } catch (final InvocationTargetException e) {
+      throw new IOException("Invalid Unix domain socket path: " + path, e.getCause());
+    }
+  }
+
+  private static Method addressFactory() {
+    try {
+      return Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", Path.class);
+    } catch (final ReflectiveOperationException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,353 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+
+package com.spotify.ffwd.v1;
+
+import com.google.protobuf.UnsafeByteOperations;
+import com.spotify.ffwd.FastForward;
+import com.spotify.ffwd.FrameEncoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Writes the {@code Histogram} and {@code Summary} messages of {@code distribution.proto} as
+ * distribution values, for exporters mapping the histograms and summaries of other libraries.
+ *
+ * <p>Start a message with {@link #histogram()} or {@link #summary()}, set its fields, then
+ * {@link #write()} it:
+ *
+ * <pre><code>
+ *   Value value = writer.histogram()
+ *       .bound(10).bound(100)
+ *       .bucketCount(3).bucketCount(5).bucketCount(1)
+ *       .count(9).sum(270)
+ *       .write();
+ * </code></pre>
+ *
+ * <p>The writer keeps its arrays and buffer from one message to the next, so that a steady export
+ * allocates nothing but the returned value. The bytes of a value are only valid until the next
+ * one is written. That is enough to send it, since the client copies a value into its frame
+ * before {@link FastForward#send(MetricTemplate, long, Value)} returns. Not thread-safe.
+ */
+public final class DistributionWriter {
+
+  // Field numbers from distribution.proto
+  private static final int HISTOGRAM_BOUNDS = 1;
+  private static final int HISTOGRAM_COUNTS = 2;
+  private static final int HISTOGRAM_COUNT = 3;
+  private static final int HISTOGRAM_SUM = 4;
+  private static final int HISTOGRAM_SUM_OF_SQUARED_DEVIATION = 5;
+  private static final int HISTOGRAM_MIN = 6;
+  private static final int HISTOGRAM_MAX = 7;
+  private static final int HISTOGRAM_UPPER_INCLUSIVE = 8;
+  private static final int SUMMARY_COUNT = 1;
+  private static final int SUMMARY_SUM = 2;
+  private static final int SUMMARY_QUANTILES = 3;
+  private static final int SUMMARY_VALUES = 4;
+
+  private enum Message {
+    NONE, HISTOGRAM, SUMMARY
+  }
+
+  private Message message = Message.NONE;
+
+  /**
+   * Bounds of a histogram, or quantiles of a summary.
+   */
+  private double[] keys = new double[16];
+  private int keyLength = 0;
+
+  /**
+   * Bucket counts of a histogram.
+   */
+  private long[] counts = new long[16];
+  private int countLength = 0;
+
+  /**
+   * Values at the quantiles of a summary.
+   */
+  private double[] values = new double[16];
+
+  private long count;
+  private double sum;
+  private double sumOfSquaredDeviation;
+  private double min;
+  private double max;
+  private boolean upperInclusive;
+
+  private ByteBuffer buffer = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+
+  /**
+   * Start a {@code Histogram} message, discarding the fields of the previous message.
+   */
+  public DistributionWriter histogram() {
+    return start(Message.HISTOGRAM);
+  }
+
+  /**
+   * Start a {@code Summary} message, discarding the fields of the previous message.
+   */
+  public DistributionWriter summary() {
+    return start(Message.SUMMARY);
+  }
+
+  /**
+   * Add the next bound between the buckets of a histogram.
+   */
+  public DistributionWriter bound(final double bound) {
+    expect(Message.HISTOGRAM);
+
+    if (keyLength == keys.length) {
+      keys = Arrays.copyOf(keys, keyLength * 2);
+    }
+
+    keys[keyLength++] = bound;
+    return this;
+  }
+
+  /**
+   * Add the count of the next bucket of a histogram, not counting the values of the buckets
+   * before it.
+   */
+  public DistributionWriter bucketCount(final long bucketCount) {
+    expect(Message.HISTOGRAM);
+
+    if (countLength == counts.length) {
+      counts = Arrays.copyOf(counts, countLength * 2);
+    }
+
+    counts[countLength++] = bucketCount;
+    return this;
+  }
+
+  /**
+   * Add the value at the next quantile, between 0 and 1, of a summary.
+   */
+  public DistributionWriter quantile(final double quantile, final double value) {
+    expect(Message.SUMMARY);
+
+    if (keyLength == keys.length) {
+      keys = Arrays.copyOf(keys, keyLength * 2);
+      values = Arrays.copyOf(values, keyLength * 2);
+    }
+
+    keys[keyLength] = quantile;
+    values[keyLength++] = value;
+    return this;
+  }
+
+  /**
+   * Set the number of values.
+   */
+  public DistributionWriter count(final long count) {
+    expect(null);
+    this.count = count;
+    return this;
+  }
+
+  /**
+   * Set the sum of the values.
+   */
+  public DistributionWriter sum(final double sum) {
+    expect(null);
+    this.sum = sum;
+    return this;
+  }
+
+  /**
+   * Set the sum of the squared differences between every value of a histogram and their mean.
+   */
+  public DistributionWriter sumOfSquaredDeviation(final double sumOfSquaredDeviation) {
+    expect(Message.HISTOGRAM);
+    this.sumOfSquaredDeviation = sumOfSquaredDeviation;
+    return this;
+  }
+
+  /**
+   * Set the minimum of the values of a histogram.
+   */
+  public DistributionWriter min(final double min) {
+    expect(Message.HISTOGRAM);
+    this.min = min;
+    return this;
+  }
+
+  /**
+   * Set the maximum of the values of a histogram.
+   */
+  public DistributionWriter max(final double max) {
+    expect(Message.HISTOGRAM);
+    this.max = max;
+    return this;
+  }
+
+  /**
+   * Set whether a value equal to a bound of a histogram is counted in the bucket below the bound,
+   * rather than in the one above it.
+   */
+  public DistributionWriter upperInclusive(final boolean upperInclusive) {
+    expect(Message.HISTOGRAM);
+    this.upperInclusive = upperInclusive;
+    return this;
+  }
+
+  /**
+   * Write the current message. Fields that were not set, or set to 0, are left out.
+   *
+   * @return A distribution value whose bytes are only valid until the next message is written.
+   */
+  public Value write() {
+    expect(null);
+    final ByteBuffer out = message == Message.HISTOGRAM ? writeHistogram() : writeSummary();
+    message = Message.NONE;
+    return Value.distributionValue(UnsafeByteOperations.unsafeWrap(out.array(), 0,
+        out.position()));
+  }
+
+  private DistributionWriter start(final Message next) {
+    message = next;
+    keyLength = 0;
+    countLength = 0;
+    count = 0;
+    sum = 0;
+    sumOfSquaredDeviation = 0;
+    min = 0;
+    max = 0;
+    upperInclusive = false;
+    return this;
+  }
+
+  /**
+   * Check that the given message was started, or any message if it is null.
+   */
+  private void expect(final Message expected) {
+    if (message == Message.NONE || (expected != null && message != expected)) {
+      throw new IllegalStateException(
+          expected == null ? "No message was started" : "Not writing a " + expected);
+    }
+  }
+
+  private ByteBuffer writeHistogram() {
+    int countsSize = 0;
+
+    for (int i = 0; i < countLength; i++) {
+      countsSize += FrameEncoder.varintSize(counts[i]);
+    }
+
+    int size = packedDoublesSize(HISTOGRAM_BOUNDS, keyLength);
+
+    if (countLength > 0) {
+      size += FrameEncoder.lengthDelimitedSize(HISTOGRAM_COUNTS, countsSize);
+    }
+
+    size += int64FieldSize(HISTOGRAM_COUNT, count);
+    size += doubleFieldSize(HISTOGRAM_SUM, sum);
+    size += doubleFieldSize(HISTOGRAM_SUM_OF_SQUARED_DEVIATION, sumOfSquaredDeviation);
+    size += doubleFieldSize(HISTOGRAM_MIN, min);
+    size += doubleFieldSize(HISTOGRAM_MAX, max);
+    size += int64FieldSize(HISTOGRAM_UPPER_INCLUSIVE, upperInclusive ? 1 : 0);
+
+    final ByteBuffer out = buffer(size);
+    writePackedDoubles(out, HISTOGRAM_BOUNDS, keys, keyLength);
+
+    if (countLength > 0) {
+      FrameEncoder.writeLengthDelimited(out, HISTOGRAM_COUNTS, countsSize);
+
+      for (int i = 0; i < countLength; i++) {
+        FrameEncoder.writeVarint(out, counts[i]);
+      }
+    }
+
+    writeInt64Field(out, HISTOGRAM_COUNT, count);
+    writeDoubleField(out, HISTOGRAM_SUM, sum);
+    writeDoubleField(out, HISTOGRAM_SUM_OF_SQUARED_DEVIATION, sumOfSquaredDeviation);
+    writeDoubleField(out, HISTOGRAM_MIN, min);
+    writeDoubleField(out, HISTOGRAM_MAX, max);
+    writeInt64Field(out, HISTOGRAM_UPPER_INCLUSIVE, upperInclusive ? 1 : 0);
+    return out;
+  }
+
+  private ByteBuffer writeSummary() {
+    final int size = int64FieldSize(SUMMARY_COUNT, count)
+        + doubleFieldSize(SUMMARY_SUM, sum)
+        + packedDoublesSize(SUMMARY_QUANTILES, keyLength)
+        + packedDoublesSize(SUMMARY_VALUES, keyLength);
+
+    final ByteBuffer out = buffer(size);
+    writeInt64Field(out, SUMMARY_COUNT, count);
+    writeDoubleField(out, SUMMARY_SUM, sum);
+    writePackedDoubles(out, SUMMARY_QUANTILES, keys, keyLength);
+    writePackedDoubles(out, SUMMARY_VALUES, values, keyLength);
+    return out;
+  }
+
+  /**
+   * The cleared buffer, grown to hold at least the given number of bytes.
+   */
+  private ByteBuffer buffer(final int size) {
+    if (buffer.capacity() < size) {
+      buffer = ByteBuffer
+          .allocate(Math.max(size, buffer.capacity() * 2))
+          .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    buffer.clear();
+    return buffer;
+  }
+
+  private static int packedDoublesSize(final int field, final int length) {
+    return length == 0 ? 0 : FrameEncoder.lengthDelimitedSize(field, length * 8);
+  }
+
+  private static void writePackedDoubles(
+      final ByteBuffer out, final int field, final double[] doubles, final int length) {
+    if (length == 0) {
+      return;
+    }
+
+    FrameEncoder.writeLengthDelimited(out, field, length * 8);
+
+    for (int i = 0; i < length; i++) {
+      out.putDouble(doubles[i]);
+    }
+  }
+
+  private static int int64FieldSize(final int field, final long value) {
+    return value == 0 ? 0 : FrameEncoder.int64Size(field, value);
+  }
+
+  private static void writeInt64Field(final ByteBuffer out, final int field, final long value) {
+    if (value != 0) {
+      FrameEncoder.writeInt64(out, field, value);
+    }
+  }
+
+  private static int doubleFieldSize(final int field, final double value) {
+    return Double.doubleToRawLongBits(value) == 0 ? 0 : FrameEncoder.doubleSize(field);
+  }
+
+  private static void writeDoubleField(final ByteBuffer out, final int field, final double v) {
+    if (Double.doubleToRawLongBits(v) != 0) {
+      FrameEncoder.writeDouble(out, field, v);
+    }
+  }
+}
@@ -20,7 +20,11 @@
 
 package com.spotify.ffwd.v1;
 
-import com.spotify.ffwd.protocol1.Protocol1;
+import com.google.protobuf.ByteString;
+import com.spotify.ffwd.FastForward;
+import com.spotify.ffwd.FrameEncoder;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -36,6 +40,19 @@ public class Metric {
   private static final long TAGS = 1 << 5;
   private static final long ATTRIBUTES = 1 << 6;
 
+  // Field numbers from protocol1.proto
+  static final int MESSAGE_METRIC = 1;
+  static final int FIELD_TIME = 2;
+  private static final int FIELD_KEY = 3;
+  private static final int FIELD_HOST = 4;
+  private static final int FIELD_TAGS = 5;
+  private static final int FIELD_ATTRIBUTES = 6;
+  static final int FIELD_VALUE = 7;
+  private static final int ATTRIBUTE_KEY = 1;
+  private static final int ATTRIBUTE_VALUE = 2;
+  static final int VALUE_DOUBLE = 1;
+  private static final int VALUE_DISTRIBUTION = 2;
+
   private final long has;
   private final long time;
   private final String key;
@@ -114,38 +131,218 @@ public class Metric {
         new HashMap<>(attributes));
   }
 
+  /**
+   * A mutable builder, for metrics with many tags or attributes.
+   *
+   * <p>Every call to the methods of {@link Metric} copies the metric, including its tags and
+   * attributes, while a builder only copies them once.
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * A builder initialized with the fields of this metric.
+   */
+  public Builder toBuilder() {
+    final Builder builder = new Builder();
+    builder.has = has;
+    builder.time = time;
+    builder.key = key;
+    builder.value = value;
+    builder.host = host;
+    builder.tags.addAll(tags);
+    builder.attributes.putAll(attributes);
+    return builder;
+  }
+
+  /**
+   * Builds a {@link Metric} in place, each call is O(1).
+   *
+   * <p>A builder is meant to be used from a single thread, and only once: the tags and attributes
+   * are handed over to the built metric without being copied, so the builder cannot be used
+   * after {@link #build()}.
+   */
+  public static final class Builder {
+    private long has = 0;
+    private long time = 0;
+    private String key;
+    private Value value = Value.doubleValue(0);
+    private String host;
+    private List<String> tags = new ArrayList<>();
+    private Map<String, String> attributes = new HashMap<>();
+
+    private Builder() {}
+
+    public Builder time(final long time) {
+      this.has |= TIME;
+      this.time = time;
+      return this;
+    }
+
+    public Builder key(final String key) {
+      this.has |= KEY;
+      this.key = key;
+      return this;
+    }
+
+    public Builder value(final Value value) {
+      this.has |= VALUE;
+      this.value = (value == null) ? Value.doubleValue(0) : value;
+      return this;
+    }
+
+    public Builder host(final String host) {
+      this.has |= HOST;
+      this.host = host;
+      return this;
+    }
+
+    public Builder tag(final String tag) {
+      this.has |= TAGS;
+      mutableTags().add(tag);
+      return this;
+    }
+
+    public Builder tags(final List<String> tags) {
+      this.has |= TAGS;
+      mutableTags().clear();
+      this.tags.addAll(tags);
+      return this;
+    }
+
+    public Builder attribute(final String k, final String v) {
+      this.has |= ATTRIBUTES;
+      mutableAttributes().put(k, v);
+      return this;
+    }
+
+    public Builder attributes(final Map<String, String> attributes) {
+      this.has |= ATTRIBUTES;
+      mutableAttributes().clear();
+      this.attributes.putAll(attributes);
+      return this;
+    }
+
+    public Metric build() {
+      final Metric metric =
+          new Metric(has, time, key, value, host, mutableTags(), mutableAttributes());
+      this.tags = null;
+      this.attributes = null;
+      return metric;
+    }
+
+    private List<String> mutableTags() {
+      if (tags == null) {
+        throw new IllegalStateException("Builder was already built");
+      }
+
+      return tags;
+    }
+
+    private Map<String, String> mutableAttributes() {
+      if (attributes == null) {
+        throw new IllegalStateException("Builder was already built");
+      }
+
+      return attributes;
+    }
+  }
+
+  /**
+   * Serialize this metric into a protocol v1 message, without the frame header.
+   */
   public byte[] serialize() {
-    final Protocol1.Metric.Builder builder = Protocol1.Metric.newBuilder();
+    final int metricSize = metricSize();
+    final byte[] bytes =
+        new byte[FrameEncoder.lengthDelimitedSize(MESSAGE_METRIC, metricSize)];
+    writeMessage(ByteBuffer.wrap(bytes), metricSize);
+    return bytes;
+  }
 
-    if (test(TIME)) {
-      builder.setTime(time);
+  /**
+   * Write this metric as a complete protocol v1 frame, header included, at the current position
+   * of the given buffer.
+   *
+   * <p>Nothing is written if the frame does not fit in the remaining space of the buffer.
+   *
+   * @return The number of bytes written.
+   *
+   * @throws java.nio.BufferOverflowException If the buffer does not have enough room left.
+   */
+  public int serializeTo(ByteBuffer buffer) {
+    final int metricSize = metricSize();
+    final int frameSize =
+        FrameEncoder.HEADER_SIZE + FrameEncoder.lengthDelimitedSize(MESSAGE_METRIC, metricSize);
+
+    if (buffer.remaining() < frameSize) {
+      throw new BufferOverflowException();
     }
 
-    if (test(KEY)) {
-      builder.setKey(key);
+    FrameEncoder.writeHeader(buffer, FastForward.Version.V1.getVersion(), frameSize);
+    writeMessage(buffer, metricSize);
+    return frameSize;
+  }
+
+  /**
+   * Pre-encode everything but the time and the value of this metric, so that it can be sent
+   * repeatedly with new values through
+   * {@link FastForward#send(com.spotify.ffwd.v1.MetricTemplate, double)}.
+   */
+  public MetricTemplate template() {
+    final byte[] fixed = new byte[fixedSize()];
+    writeFixed(ByteBuffer.wrap(fixed));
+    return new MetricTemplate(this, fixed, test(TIME) ? time : 0);
+  }
+
+  /*
+   * Fields are written in field number order, and only when they differ from the proto3 default,
+   * like the generated code does. Everything between the time and the value is fixed for a
+   * template.
+   */
+
+  private int metricSize() {
+    int size = fixedSize();
+
+    if (test(TIME) && time != 0) {
+      size += FrameEncoder.int64Size(FIELD_TIME, time);
     }
 
     if (test(VALUE)) {
-      if (value instanceof Value.DoubleValue) {
-        Value.DoubleValue doubleValue = (Value.DoubleValue) value;
-        builder.setValue(Protocol1.Value.newBuilder().setDoubleValue(doubleValue.getValue()));
-      } else if (value instanceof Value.DistributionValue) {
-        Value.DistributionValue distributionValue = (Value.DistributionValue) value;
-        builder.setValue(Protocol1.Value.newBuilder()
-            .setDistributionValue(distributionValue.getValue()));
-      } else {
-        throw new IllegalArgumentException("Failed to identify distribution type : [" + value
-                                          + "]");
-      }
+      size += FrameEncoder.lengthDelimitedSize(FIELD_VALUE, valueSize(value));
+    }
+
+    return size;
+  }
+
+  private void writeMessage(ByteBuffer buffer, int metricSize) {
+    FrameEncoder.writeLengthDelimited(buffer, MESSAGE_METRIC, metricSize);
+
+    if (test(TIME) && time != 0) {
+      FrameEncoder.writeInt64(buffer, FIELD_TIME, time);
+    }
+
+    writeFixed(buffer);
+
+    if (test(VALUE)) {
+      writeValue(buffer, value);
+    }
+  }
+
+  private int fixedSize() {
+    int size = 0;
+
+    if (test(KEY) && !key.isEmpty()) {
+      size += FrameEncoder.stringSize(FIELD_KEY, key);
     }
 
-    if (test(HOST)) {
-      builder.setHost(host);
+    if (test(HOST) && !host.isEmpty()) {
+      size += FrameEncoder.stringSize(FIELD_HOST, host);
     }
 
     if (test(TAGS)) {
       for (final String tag : tags) {
-        builder.addTags(tag);
+        size += FrameEncoder.stringSize(FIELD_TAGS, tag);
       }
     }
 
@@ -155,20 +352,100 @@ public class Metric {
           continue;
         }
 
-        final Protocol1.Attribute.Builder attributeBuilder =
-            Protocol1.Attribute.newBuilder().setKey(entry.getKey());
+        size += FrameEncoder.lengthDelimitedSize(FIELD_ATTRIBUTES,
+            attributeSize(entry.getKey(), entry.getValue()));
+      }
+    }
+
+    return size;
+  }
+
+  private void writeFixed(ByteBuffer buffer) {
+    if (test(KEY) && !key.isEmpty()) {
+      FrameEncoder.writeString(buffer, FIELD_KEY, key);
+    }
+
+    if (test(HOST) && !host.isEmpty()) {
+      FrameEncoder.writeString(buffer, FIELD_HOST, host);
+    }
+
+    if (test(TAGS)) {
+      for (final String tag : tags) {
+        FrameEncoder.writeString(buffer, FIELD_TAGS, tag);
+      }
+    }
 
-        if (entry.getValue() != null) {
-          attributeBuilder.setValue(entry.getValue());
+    if (test(ATTRIBUTES)) {
+      for (final Map.Entry<String, String> entry : attributes.entrySet()) {
+        if (entry.getKey() == null) {
+          continue;
         }
 
-        builder.addAttributes(attributeBuilder.build());
+        writeAttribute(buffer, entry.getKey(), entry.getValue());
       }
     }
+  }
+
+  private static int attributeSize(String key, String value) {
+    int size = 0;
+
+    if (!key.isEmpty()) {
+      size += FrameEncoder.stringSize(ATTRIBUTE_KEY, key);
+    }
+
+    if (value != null && !value.isEmpty()) {
+      size += FrameEncoder.stringSize(ATTRIBUTE_VALUE, value);
+    }
+
+    return size;
+  }
+
+  private static void writeAttribute(ByteBuffer buffer, String key, String value) {
+    final int keySize = FrameEncoder.utf8Size(key);
+    final int valueSize = value == null ? 0 : FrameEncoder.utf8Size(value);
+
+    int size = 0;
+
+    if (keySize > 0) {
+      size += FrameEncoder.lengthDelimitedSize(ATTRIBUTE_KEY, keySize);
+    }
+
+    if (valueSize > 0) {
+      size += FrameEncoder.lengthDelimitedSize(ATTRIBUTE_VALUE, valueSize);
+    }
 
-    final Protocol1.Metric m = builder.build();
-    return Protocol1.Message.newBuilder().setMetric(m).build()
-        .toByteArray();
+    FrameEncoder.writeLengthDelimited(buffer, FIELD_ATTRIBUTES, size);
+
+    if (keySize > 0) {
+      FrameEncoder.writeString(buffer, ATTRIBUTE_KEY, key, keySize);
+    }
+
+    if (valueSize > 0) {
+      FrameEncoder.writeString(buffer, ATTRIBUTE_VALUE, value, valueSize);
+    }
+  }
+
+  static int valueSize(Value value) {
+    if (value instanceof Value.DoubleValue) {
+      return FrameEncoder.doubleSize(VALUE_DOUBLE);
+    } else if (value instanceof Value.DistributionValue) {
+      return FrameEncoder.lengthDelimitedSize(VALUE_DISTRIBUTION,
+          ((Value.DistributionValue) value).getValue().size());
+    }
+
+    throw new IllegalArgumentException("Failed to identify distribution type : [" + value + "]");
+  }
+
+  static void writeValue(ByteBuffer buffer, Value value) {
+    FrameEncoder.writeLengthDelimited(buffer, FIELD_VALUE, valueSize(value));
+
+    if (value instanceof Value.DoubleValue) {
+      FrameEncoder.writeDouble(buffer, VALUE_DOUBLE, ((Value.DoubleValue) value).getValue());
+    } else {
+      final ByteString distribution = ((Value.DistributionValue) value).getValue();
+      FrameEncoder.writeLengthDelimited(buffer, VALUE_DISTRIBUTION, distribution.size());
+      distribution.copyTo(buffer);
+    }
   }
 
   public boolean equals(final Object o) {
@@ -219,7 +496,7 @@ public class Metric {
   }
 
   private boolean canEqual(final Object other) {
-    return other instanceof com.spotify.ffwd.Metric;
+    return other instanceof Metric;
   }
 
   @SuppressWarnings({ "AbbreviationAsWordInName" })
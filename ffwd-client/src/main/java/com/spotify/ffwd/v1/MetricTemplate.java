@@ -0,0 +1,154 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd.v1;
+
+import com.spotify.ffwd.FastForward;
+import com.spotify.ffwd.FrameEncoder;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link Metric} with everything but its time and value encoded ahead of time.
+ *
+ * <p>Sending a double value through a template only encodes the time and the value and copies
+ * the cached bytes, without allocating. The produced frames are identical to those of
+ * {@code metric.time(time).value(value)}.
+ *
+ * <p>Templates are immutable and can be shared between threads, create them with
+ * {@link Metric#template()}.
+ */
+public final class MetricTemplate {
+
+  private static final int DOUBLE_VALUE_SIZE = FrameEncoder.doubleSize(Metric.VALUE_DOUBLE);
+
+  /**
+   * Room for the message tag, the metric length, the time and a double value.
+   */
+  private static final int MAX_VARIABLE_SIZE = 1 + 5
+      + FrameEncoder.tagSize(Metric.FIELD_TIME) + 10
+      + FrameEncoder.lengthDelimitedSize(Metric.FIELD_VALUE, DOUBLE_VALUE_SIZE);
+
+  private final Metric metric;
+  private final byte[] fixed;
+  private final long time;
+
+  MetricTemplate(Metric metric, byte[] fixed, long time) {
+    this.metric = metric;
+    this.fixed = fixed;
+    this.time = time;
+  }
+
+  /**
+   * The metric this template was created from.
+   */
+  public Metric getMetric() {
+    return metric;
+  }
+
+  /**
+   * An upper bound of the frame size of any double value sent through this template.
+   */
+  public int maxFrameSize() {
+    return FrameEncoder.HEADER_SIZE + MAX_VARIABLE_SIZE + fixed.length;
+  }
+
+  /**
+   * An upper bound of the frame size when sending the given value through this template.
+   */
+  public int maxFrameSize(Value value) {
+    return FrameEncoder.HEADER_SIZE + MAX_VARIABLE_SIZE + fixed.length
+        + Metric.valueSize(value);
+  }
+
+  /**
+   * Write a frame with the given value, and the time of the template metric if it has one.
+   *
+   * @return The number of bytes written.
+   *
+   * @throws BufferOverflowException If the buffer does not have enough room left.
+   */
+  public int serializeTo(ByteBuffer buffer, double value) {
+    return serializeTo(buffer, time, value);
+  }
+
+  /**
+   * Write a frame with the given time and double value.
+   *
+   * @return The number of bytes written.
+   *
+   * @throws BufferOverflowException If the buffer does not have enough room left.
+   */
+  public int serializeTo(ByteBuffer buffer, long time, double value) {
+    final int metricSize = metricSize(time, DOUBLE_VALUE_SIZE);
+    final int frameSize = writeHead(buffer, time, metricSize);
+
+    FrameEncoder.writeLengthDelimited(buffer, Metric.FIELD_VALUE, DOUBLE_VALUE_SIZE);
+    FrameEncoder.writeDouble(buffer, Metric.VALUE_DOUBLE, value);
+    return frameSize;
+  }
+
+  /**
+   * Write a frame with the given time and value.
+   *
+   * @return The number of bytes written.
+   *
+   * @throws BufferOverflowException If the buffer does not have enough room left.
+   */
+  public int serializeTo(ByteBuffer buffer, long time, Value value) {
+    final int metricSize = metricSize(time, Metric.valueSize(value));
+    final int frameSize = writeHead(buffer, time, metricSize);
+
+    Metric.writeValue(buffer, value);
+    return frameSize;
+  }
+
+  private int metricSize(long time, int valueSize) {
+    int size = fixed.length + FrameEncoder.lengthDelimitedSize(Metric.FIELD_VALUE, valueSize);
+
+    if (time != 0) {
+      size += FrameEncoder.int64Size(Metric.FIELD_TIME, time);
+    }
+
+    return size;
+  }
+
+  /**
+   * Write everything up to the value, after checking that the whole frame fits.
+   */
+  private int writeHead(ByteBuffer buffer, long time, int metricSize) {
+    final int frameSize = FrameEncoder.HEADER_SIZE
+        + FrameEncoder.lengthDelimitedSize(Metric.MESSAGE_METRIC, metricSize);
+
+    if (buffer.remaining() < frameSize) {
+      throw new BufferOverflowException();
+    }
+
+    FrameEncoder.writeHeader(buffer, FastForward.Version.V1.getVersion(), frameSize);
+    FrameEncoder.writeLengthDelimited(buffer, Metric.MESSAGE_METRIC, metricSize);
+
+    if (time != 0) {
+      FrameEncoder.writeInt64(buffer, Metric.FIELD_TIME, time);
+    }
+
+    buffer.put(fixed);
+    return frameSize;
+  }
+}
@@ -0,0 +1,527 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd.v1;
+
+import com.google.protobuf.ByteString;
+import com.spotify.ffwd.FrameEncoder;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A concurrent DDSketch, which estimates quantiles of recorded values within a fixed relative
+ * error.
+ *
+ * <p>Values are counted in buckets whose bounds grow geometrically. Values that are too small or
+ * too large to be indexed are counted in the first and last bucket, which bounds the memory of a
+ * sketch whatever is recorded. Buckets are allocated in chunks as they are first used.
+ *
+ * <p>Recording is lock-free: every thread increments the buckets of one of a few stripes, which
+ * are only merged when the sketch is serialized. Serialize the sketch with
+ * {@link #serializeAndReset()} every interval and send the result with
+ * {@link Value#distributionValue(ByteString)}. The layout of the bytes is the {@code DDSketch}
+ * message of {@code distribution.proto}.
+ */
+public final class Sketch {
+
+  public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+
+  /**
+   * Absolute values below this are counted as zero.
+   */
+  static final double MIN_INDEXABLE = 1e-9;
+
+  /**
+   * Absolute values above this are counted in the last bucket.
+   */
+  static final double MAX_INDEXABLE = 1e12;
+
+  private static final int CHUNK_BITS = 6;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int STRIPES = stripes();
+
+  /**
+   * Distance between the sums of two stripes, so that they are on different cache lines.
+   */
+  private static final int SUM_SPACING = 8;
+
+  // Field numbers from distribution.proto
+  private static final int FIELD_GAMMA = 1;
+  private static final int FIELD_ZERO_COUNT = 2;
+  private static final int FIELD_POSITIVE = 3;
+  private static final int FIELD_NEGATIVE = 4;
+  private static final int FIELD_COUNT = 5;
+  private static final int FIELD_SUM = 6;
+  private static final int FIELD_MIN = 7;
+  private static final int FIELD_MAX = 8;
+  private static final int BUCKETS_OFFSET = 1;
+  private static final int BUCKETS_COUNTS = 2;
+
+  private static final long MIN_RESET = Double.doubleToRawLongBits(Double.POSITIVE_INFINITY);
+  private static final long MAX_RESET = Double.doubleToRawLongBits(Double.NEGATIVE_INFINITY);
+
+  private final double relativeAccuracy;
+  private final double gamma;
+  private final double inverseLogGamma;
+
+  /**
+   * Index of the first bucket, the one {@link #MIN_INDEXABLE} falls into.
+   */
+  private final int minIndex;
+
+  /**
+   * Number of buckets for each sign.
+   */
+  private final int buckets;
+
+  /**
+   * Stripes of chunked bucket counts. Negative values are stored first, in reverse order, then
+   * the values counted as zero, then the positive ones.
+   */
+  private final AtomicReferenceArray<AtomicReferenceArray<AtomicLongArray>> stripes =
+      new AtomicReferenceArray<>(STRIPES);
+
+  /**
+   * Raw bits of the sum of the values of every stripe, {@link #SUM_SPACING} apart. Unlike
+   * {@link java.util.concurrent.atomic.DoubleAdder#sumThenReset()}, which reads and clears a cell
+   * in two steps on Java 8, every sum is reset with one {@code getAndSet}.
+   */
+  private final AtomicLongArray sums = new AtomicLongArray(STRIPES * SUM_SPACING);
+  private final AtomicLong min = new AtomicLong(MIN_RESET);
+  private final AtomicLong max = new AtomicLong(MAX_RESET);
+
+  public static Sketch create() {
+    return new Sketch(DEFAULT_RELATIVE_ACCURACY);
+  }
+
+  /**
+   * Create a sketch whose quantiles are within the given relative error, between 0 and 1.
+   */
+  public static Sketch create(double relativeAccuracy) {
+    if (!(relativeAccuracy > 0 && relativeAccuracy < 1)) {
+      throw new IllegalArgumentException("relativeAccuracy must be between 0 and 1");
+    }
+
+    return new Sketch(relativeAccuracy);
+  }
+
+  private Sketch(double relativeAccuracy) {
+    this.relativeAccuracy = relativeAccuracy;
+    this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+    this.inverseLogGamma = 1 / Math.log(gamma);
+    this.minIndex = (int) Math.ceil(Math.log(MIN_INDEXABLE) * inverseLogGamma);
+    this.buckets = (int) Math.ceil(Math.log(MAX_INDEXABLE) * inverseLogGamma) - minIndex + 1;
+  }
+
+  public double getRelativeAccuracy() {
+    return relativeAccuracy;
+  }
+
+  /**
+   * Record a value, NaN is ignored.
+   */
+  public void record(double value) {
+    if (Double.isNaN(value)) {
+      return;
+    }
+
+    final double magnitude = Math.abs(value);
+
+    if (magnitude < MIN_INDEXABLE) {
+      increment(buckets, 1);
+    } else {
+      final int bucket = bucket(magnitude);
+      increment(value > 0 ? buckets + 1 + bucket : buckets - 1 - bucket, 1);
+    }
+
+    add(value);
+    updateMin(value);
+    updateMax(value);
+  }
+
+  /**
+   * Add the values of another sketch with the same relative accuracy to this one.
+   */
+  public void merge(Sketch other) {
+    if (other.gamma != gamma) {
+      throw new IllegalArgumentException("Cannot merge sketches of different accuracy");
+    }
+
+    final long[] counts = other.counts(false);
+
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] != 0) {
+        increment(i, counts[i]);
+      }
+    }
+
+    if (total(counts) == 0) {
+      return;
+    }
+
+    add(other.sum(false));
+    updateMin(Double.longBitsToDouble(other.min.get()));
+    updateMax(Double.longBitsToDouble(other.max.get()));
+  }
+
+  /**
+   * Number of values recorded since the last reset.
+   */
+  public long getCount() {
+    return total(counts(false));
+  }
+
+  /**
+   * Estimate the given quantile, between 0 and 1, of the values recorded since the last reset.
+   *
+   * @return The estimate, or NaN if the sketch is empty.
+   */
+  public double getQuantile(double quantile) {
+    final long[] counts = counts(false);
+    final long count = total(counts);
+
+    if (count == 0) {
+      return Double.NaN;
+    }
+
+    final long rank = (long) (quantile * (count - 1));
+    long seen = 0;
+
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+
+      if (seen > rank) {
+        if (i == buckets) {
+          return 0;
+        }
+
+        return i < buckets ? -value(buckets - 1 - i) : value(i - buckets - 1);
+      }
+    }
+
+    return value(buckets - 1);
+  }
+
+  /**
+   * Serialize the values recorded since the last reset, and reset the sketch.
+   *
+   * <p>No value recorded concurrently is lost, but the buckets, the sum, the minimum and the
+   * maximum are reset one after another. A value recorded during the reset can therefore be
+   * counted in this serialization and added to the sum, minimum or maximum of the next one.
+   */
+  public synchronized ByteString serializeAndReset() {
+    final long[] counts = counts(true);
+    final double total = sum(true);
+    final double minimum = Double.longBitsToDouble(min.getAndSet(MIN_RESET));
+    final double maximum = Double.longBitsToDouble(max.getAndSet(MAX_RESET));
+    return encode(counts, total, minimum, maximum);
+  }
+
+  /**
+   * Serialize the values recorded since the last reset.
+   */
+  public ByteString serialize() {
+    return encode(counts(false), sum(false),
+        Double.longBitsToDouble(min.get()), Double.longBitsToDouble(max.get()));
+  }
+
+  private ByteString encode(
+      final long[] counts, final double total, final double minimum, final double maximum
+  ) {
+    final long zeros = counts[buckets];
+    final long count = total(counts);
+
+    // the negative buckets are stored in reverse.
+    final long[] negative = new long[buckets];
+
+    for (int i = 0; i < buckets; i++) {
+      negative[i] = counts[buckets - 1 - i];
+    }
+
+    final int positiveSize = bucketsSize(counts, buckets + 1);
+    final int negativeSize = bucketsSize(negative, 0);
+
+    int size = FrameEncoder.doubleSize(FIELD_GAMMA);
+
+    if (zeros != 0) {
+      size += FrameEncoder.int64Size(FIELD_ZERO_COUNT, zeros);
+    }
+
+    if (positiveSize > 0) {
+      size += FrameEncoder.lengthDelimitedSize(FIELD_POSITIVE, positiveSize);
+    }
+
+    if (negativeSize > 0) {
+      size += FrameEncoder.lengthDelimitedSize(FIELD_NEGATIVE, negativeSize);
+    }
+
+    if (count != 0) {
+      size += FrameEncoder.int64Size(FIELD_COUNT, count);
+      size += doubleFieldSize(FIELD_SUM, total);
+      size += doubleFieldSize(FIELD_MIN, minimum);
+      size += doubleFieldSize(FIELD_MAX, maximum);
+    }
+
+    final byte[] bytes = new byte[size];
+    final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+    FrameEncoder.writeDouble(buffer, FIELD_GAMMA, gamma);
+
+    if (zeros != 0) {
+      FrameEncoder.writeInt64(buffer, FIELD_ZERO_COUNT, zeros);
+    }
+
+    if (positiveSize > 0) {
+      FrameEncoder.writeLengthDelimited(buffer, FIELD_POSITIVE, positiveSize);
+      writeBuckets(buffer, counts, buckets + 1);
+    }
+
+    if (negativeSize > 0) {
+      FrameEncoder.writeLengthDelimited(buffer, FIELD_NEGATIVE, negativeSize);
+      writeBuckets(buffer, negative, 0);
+    }
+
+    if (count != 0) {
+      FrameEncoder.writeInt64(buffer, FIELD_COUNT, count);
+      writeDoubleField(buffer, FIELD_SUM, total);
+      writeDoubleField(buffer, FIELD_MIN, minimum);
+      writeDoubleField(buffer, FIELD_MAX, maximum);
+    }
+
+    return ByteString.copyFrom(bytes);
+  }
+
+  /**
+   * Size of the Buckets message for the counts from {@code start} to {@code start + buckets}, or
+   * 0 if they are all empty.
+   */
+  private int bucketsSize(final long[] counts, final int start) {
+    final int first = firstNonEmpty(counts, start);
+
+    if (first < 0) {
+      return 0;
+    }
+
+    final int last = lastNonEmpty(counts, start);
+    final int offset = minIndex + first - start;
+
+    int countsSize = 0;
+
+    for (int i = first; i <= last; i++) {
+      countsSize += FrameEncoder.varintSize(counts[i]);
+    }
+
+    int size = FrameEncoder.lengthDelimitedSize(BUCKETS_COUNTS, countsSize);
+
+    if (offset != 0) {
+      size += FrameEncoder.int64Size(BUCKETS_OFFSET, zigZag(offset));
+    }
+
+    return size;
+  }
+
+  private void writeBuckets(final ByteBuffer buffer, final long[] counts, final int start) {
+    final int first = firstNonEmpty(counts, start);
+    final int last = lastNonEmpty(counts, start);
+    final int offset = minIndex + first - start;
+
+    if (offset != 0) {
+      FrameEncoder.writeInt64(buffer, BUCKETS_OFFSET, zigZag(offset));
+    }
+
+    int countsSize = 0;
+
+    for (int i = first; i <= last; i++) {
+      countsSize += FrameEncoder.varintSize(counts[i]);
+    }
+
+    FrameEncoder.writeLengthDelimited(buffer, BUCKETS_COUNTS, countsSize);
+
+    for (int i = first; i <= last; i++) {
+      FrameEncoder.writeVarint(buffer, counts[i]);
+    }
+  }
+
+  private int firstNonEmpty(final long[] counts, final int start) {
+    for (int i = start; i < start + buckets; i++) {
+      if (counts[i] != 0) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  private int lastNonEmpty(final long[] counts, final int start) {
+    for (int i = start + buckets - 1; i >= start; i--) {
+      if (counts[i] != 0) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  /**
+   * Bucket counts merged across stripes, negative buckets first.
+   */
+  private long[] counts(final boolean reset) {
+    final long[] counts = new long[buckets * 2 + 1];
+
+    for (int s = 0; s < STRIPES; s++) {
+      final AtomicReferenceArray<AtomicLongArray> stripe = stripes.get(s);
+
+      if (stripe == null) {
+        continue;
+      }
+
+      for (int c = 0; c < stripe.length(); c++) {
+        final AtomicLongArray chunk = stripe.get(c);
+
+        if (chunk == null) {
+          continue;
+        }
+
+        final int base = c << CHUNK_BITS;
+
+        for (int i = 0; i < CHUNK_SIZE && base + i < counts.length; i++) {
+          counts[base + i] += reset ? chunk.getAndSet(i, 0) : chunk.get(i);
+        }
+      }
+    }
+
+    return counts;
+  }
+
+  /**
+   * Sum of the values of every stripe.
+   */
+  private double sum(final boolean reset) {
+    double total = 0;
+
+    for (int s = 0; s < STRIPES; s++) {
+      final int i = s * SUM_SPACING;
+      total += Double.longBitsToDouble(reset ? sums.getAndSet(i, 0) : sums.get(i));
+    }
+
+    return total;
+  }
+
+  private void add(final double value) {
+    final int i = stripe() * SUM_SPACING;
+    long current;
+
+    do {
+      current = sums.get(i);
+    } while (!sums.compareAndSet(
+        i, current, Double.doubleToRawLongBits(Double.longBitsToDouble(current) + value)));
+  }
+
+  private void increment(final int index, final long count) {
+    final int s = stripe();
+    AtomicReferenceArray<AtomicLongArray> stripe = stripes.get(s);
+
+    if (stripe == null) {
+      stripes.compareAndSet(s, null,
+          new AtomicReferenceArray<>((buckets * 2 + CHUNK_SIZE) >>> CHUNK_BITS));
+      stripe = stripes.get(s);
+    }
+
+    final int c = index >>> CHUNK_BITS;
+    AtomicLongArray chunk = stripe.get(c);
+
+    if (chunk == null) {
+      stripe.compareAndSet(c, null, new AtomicLongArray(CHUNK_SIZE));
+      chunk = stripe.get(c);
+    }
+
+    chunk.addAndGet(index & (CHUNK_SIZE - 1), count);
+  }
+
+  /**
+   * Bucket of a positive value above {@link #MIN_INDEXABLE}, relative to {@link #minIndex}.
+   */
+  private int bucket(final double magnitude) {
+    final double index = Math.ceil(Math.log(magnitude) * inverseLogGamma) - minIndex;
+    return (int) Math.max(0, Math.min(index, buckets - 1));
+  }
+
+  /**
+   * Representative value of a bucket relative to {@link #minIndex}.
+   */
+  private double value(final int bucket) {
+    return 2 * Math.pow(gamma, bucket + minIndex) / (gamma + 1);
+  }
+
+  private void updateMin(final double value) {
+    long current;
+
+    while (value < Double.longBitsToDouble(current = min.get())) {
+      if (min.compareAndSet(current, Double.doubleToRawLongBits(value))) {
+        return;
+      }
+    }
+  }
+
+  private void updateMax(final double value) {
+    long current;
+
+    while (value > Double.longBitsToDouble(current = max.get())) {
+      if (max.compareAndSet(current, Double.doubleToRawLongBits(value))) {
+        return;
+      }
+    }
+  }
+
+  private static long total(final long[] counts) {
+    long total = 0;
+
+    for (final long count : counts) {
+      total += count;
+    }
+
+    return total;
+  }
+
+  private static long zigZag(final int value) {
+    return ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+  }
+
+  private static int doubleFieldSize(final int field, final double value) {
+    return Double.doubleToRawLongBits(value) == 0 ? 0 : FrameEncoder.doubleSize(field);
+  }
+
+  private static void writeDoubleField(final ByteBuffer buffer, final int field, final double v) {
+    if (Double.doubleToRawLongBits(v) != 0) {
+      FrameEncoder.writeDouble(buffer, field, v);
+    }
+  }
+
+  private static int stripe() {
+    return (int) Thread.currentThread().getId() & (STRIPES - 1);
+  }
+
+  private static int stripes() {
+    final int processors = Math.min(Runtime.getRuntime().availableProcessors(), 16);
+    return Integer.highestOneBit(processors * 2 - 1);
+  }
+}
@@ -0,0 +1,76 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Multi-byte writes into buffers with a fixed byte order, whatever the order of the buffer.
+ *
+ * <p>The Java 17 version, which writes each value with a single access through a view
+ * {@link VarHandle}, for heap and direct buffers alike.
+ */
+final class Buffers {
+
+  private static final VarHandle INT_BIG_ENDIAN =
+      MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+  private static final VarHandle LONG_LITTLE_ENDIAN =
+      MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+  private Buffers() {
+  }
+
+  /**
+   * Write a big-endian int at the position and advance it.
+   *
+   * @throws BufferOverflowException If fewer than 4 bytes remain.
+   */
+  static void putIntBigEndian(ByteBuffer buffer, int value) {
+    final int position = buffer.position();
+
+    if (buffer.limit() - position < Integer.BYTES) {
+      throw new BufferOverflowException();
+    }
+
+    INT_BIG_ENDIAN.set(buffer, position, value);
+    buffer.position(position + Integer.BYTES);
+  }
+
+  /**
+   * Write a little-endian long at the position and advance it.
+   *
+   * @throws BufferOverflowException If fewer than 8 bytes remain.
+   */
+  static void putLongLittleEndian(ByteBuffer buffer, long value) {
+    final int position = buffer.position();
+
+    if (buffer.limit() - position < Long.BYTES) {
+      throw new BufferOverflowException();
+    }
+
+    LONG_LITTLE_ENDIAN.set(buffer, position, value);
+    buffer.position(position + Long.BYTES);
+  }
+}
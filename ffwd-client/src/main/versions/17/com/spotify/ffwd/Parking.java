@@ -0,0 +1,59 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waiting for short periods of time.
+ *
+ * <p>The Java 17 version. Parking takes tens of microseconds longer than asked for on most
+ * systems, so shorter waits spin instead, with {@link Thread#onSpinWait()} telling the processor
+ * that the thread is only waiting.
+ */
+final class Parking {
+
+  /**
+   * Waits shorter than this spin.
+   */
+  private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private Parking() {
+  }
+
+  /**
+   * Wait for at most the given time, which may return early like
+   * {@link LockSupport#parkNanos(long)}.
+   */
+  static void parkNanos(long nanos) {
+    if (nanos >= SPIN_NANOS) {
+      LockSupport.parkNanos(nanos);
+      return;
+    }
+
+    final long deadline = System.nanoTime() + nanos;
+
+    while (deadline - System.nanoTime() > 0) {
+      Thread.onSpinWait();
+    }
+  }
+}
@@ -0,0 +1,41 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+/**
+ * Background threads of the writers, which must not keep the JVM alive.
+ *
+ * <p>The Java 21 version, which creates virtual threads. They are always daemon threads, and
+ * block on locks and sockets without holding on to an operating system thread, so idle clients
+ * cost little more than their buffers.
+ */
+final class Threads {
+
+  private Threads() {
+  }
+
+  /**
+   * A new, unstarted virtual thread.
+   */
+  static Thread newThread(String name, Runnable task) {
+    return Thread.ofVirtual().name(name).unstarted(task);
+  }
+}
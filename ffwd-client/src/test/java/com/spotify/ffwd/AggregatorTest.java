@@ -0,0 +1,232 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.protobuf.ByteString;
+import com.spotify.ffwd.distribution.Distribution;
+import com.spotify.ffwd.v1.Sketch;
+import com.spotify.ffwd.v1.Value;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AggregatorTest {
+
+  private final Map<String, Double> sent = new HashMap<>();
+  private final Map<String, Value> sentV1 = new HashMap<>();
+  private final Map<String, Double> totals = new HashMap<>();
+  private Aggregator aggregator;
+
+  @BeforeEach
+  public void before() throws IOException {
+    final FastForward client = mock(FastForward.class);
+
+    doAnswer(invocation -> {
+      final Metric metric = invocation.<MetricTemplate>getArgument(0).getMetric();
+      final String stat = metric.getAttributes().get("stat");
+      final String name = metric.getKey() + (stat == null ? "" : "." + stat);
+      sent.put(name, invocation.getArgument(2));
+      totals.merge(name, invocation.getArgument(2), Double::sum);
+      return null;
+    }).when(client).send(any(MetricTemplate.class), anyLong(), anyDouble());
+
+    doAnswer(invocation -> {
+      final com.spotify.ffwd.v1.Metric metric =
+          invocation.<com.spotify.ffwd.v1.MetricTemplate>getArgument(0).getMetric();
+      sentV1.put(metric.getKey(), invocation.getArgument(2));
+      return null;
+    }).when(client).send(any(com.spotify.ffwd.v1.MetricTemplate.class), anyLong(),
+        any(Value.class));
+
+    aggregator = Aggregator.create(client, 1, TimeUnit.HOURS);
+  }
+
+  @AfterEach
+  public void after() throws IOException {
+    aggregator.close();
+  }
+
+  @Test
+  public void testCounter() throws Exception {
+    final Aggregator.Counter counter = aggregator.counter(FastForward.metric("requests"));
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    for (int t = 0; t < 4; t++) {
+      executor.execute(() -> {
+        for (int i = 0; i < 10000; i++) {
+          counter.increment();
+        }
+      });
+    }
+
+    executor.shutdown();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+    counter.add(0.5);
+
+    aggregator.flush();
+    assertEquals(40000.5, sent.get("requests"));
+
+    counter.add(2);
+    aggregator.flush();
+    assertEquals(2.0, sent.get("requests"));
+
+    aggregator.flush();
+    assertEquals(0.0, sent.get("requests"));
+  }
+
+  @Test
+  public void testFlushWhileUpdating() throws Exception {
+    final Aggregator.Counter counter = aggregator.counter(FastForward.metric("requests"));
+    final Aggregator.Gauge gauge = aggregator.gaugeStats(FastForward.metric("latency"));
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    for (int t = 0; t < 4; t++) {
+      executor.execute(() -> {
+        for (int i = 0; i < 100000; i++) {
+          counter.increment();
+          gauge.update(1);
+        }
+      });
+    }
+
+    executor.shutdown();
+
+    while (!executor.awaitTermination(1, TimeUnit.MILLISECONDS)) {
+      aggregator.flush();
+    }
+
+    aggregator.flush();
+
+    // no update is lost to a flush that ran concurrently.
+    assertEquals(400000.0, totals.get("requests"));
+    assertEquals(400000.0, totals.get("latency.count"));
+    assertEquals(400000.0, totals.get("latency.sum"));
+  }
+
+  @Test
+  public void testFlushContinuesAfterAFailedSeries() throws Exception {
+    final FastForward failing = mock(FastForward.class);
+    final StatsRecorder stats = new StatsRecorder();
+    final List<String> keys = new ArrayList<>();
+
+    when(failing.stats()).thenReturn(stats);
+    doThrow(new IOException("No buffer space available")).doAnswer(invocation -> {
+      keys.add(invocation.<MetricTemplate>getArgument(0).getMetric().getKey());
+      return null;
+    }).when(failing).send(any(MetricTemplate.class), anyLong(), anyDouble());
+
+    try (Aggregator failingAggregator = Aggregator.create(failing, 1, TimeUnit.HOURS)) {
+      for (final String key : new String[]{"a", "b", "c"}) {
+        failingAggregator.counter(FastForward.metric(key)).increment();
+      }
+
+      assertThrows(IOException.class, failingAggregator::flush);
+
+      // the series that failed lost its interval, the others were still sent.
+      assertEquals(2, keys.size());
+      assertEquals(1, stats.getFailed());
+
+      failingAggregator.flush();
+      assertEquals(5, keys.size());
+    }
+  }
+
+  @Test
+  public void testSeriesIgnoresTimeAndValue() {
+    final Metric metric = FastForward.metric("requests").attribute("what", "rpc");
+
+    assertSame(aggregator.counter(metric), aggregator.counter(metric.time(1).value(2)));
+    assertThrows(IllegalArgumentException.class, () -> aggregator.gauge(metric));
+  }
+
+  @Test
+  public void testGauge() throws Exception {
+    final Aggregator.Gauge gauge = aggregator.gauge(FastForward.metric("queue"));
+
+    aggregator.flush();
+    assertEquals(null, sent.get("queue"));
+
+    gauge.update(3);
+    gauge.update(7);
+    aggregator.flush();
+    assertEquals(7.0, sent.get("queue"));
+  }
+
+  @Test
+  public void testGaugeStats() throws Exception {
+    final Aggregator.Gauge gauge = aggregator.gaugeStats(FastForward.metric("latency"));
+
+    gauge.update(3);
+    gauge.update(-1);
+    gauge.update(10);
+    aggregator.flush();
+
+    assertEquals(-1.0, sent.get("latency.min"));
+    assertEquals(10.0, sent.get("latency.max"));
+    assertEquals(12.0, sent.get("latency.sum"));
+    assertEquals(3.0, sent.get("latency.count"));
+
+    sent.clear();
+    aggregator.flush();
+    assertEquals(0, sent.size());
+
+    gauge.update(5);
+    aggregator.flush();
+    assertEquals(5.0, sent.get("latency.min"));
+    assertEquals(5.0, sent.get("latency.max"));
+  }
+
+  @Test
+  public void testSketch() throws Exception {
+    final Sketch sketch = aggregator.sketch(FastForward.metricV1("latency"));
+    assertSame(sketch, aggregator.sketch(FastForward.metricV1("latency").time(1)));
+
+    aggregator.flush();
+    assertEquals(null, sentV1.get("latency"));
+
+    sketch.record(10);
+    sketch.record(20);
+    aggregator.flush();
+
+    final ByteString bytes = sentV1.get("latency").match(d -> null, b -> b, v -> null);
+    assertEquals(2, Distribution.DDSketch.parseFrom(bytes).getCount());
+    assertEquals(0, sketch.getCount());
+  }
+}
@@ -0,0 +1,212 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class AsyncFrameWriterTest {
+
+  private final StatsRecorder stats = new StatsRecorder();
+  private final RecordingWriter delegate = new RecordingWriter();
+  private AsyncFrameWriter writer;
+
+  @AfterEach
+  public void after() throws IOException {
+    delegate.release.countDown();
+
+    if (writer != null) {
+      writer.close();
+    }
+  }
+
+  @Test
+  public void testWritesInBackground() throws Exception {
+    delegate.release.countDown();
+    writer = create(FastForwardConfiguration.builder());
+
+    writer.write(frame(1));
+    writer.write(frame(2));
+
+    assertTrue(writer.flush(5, TimeUnit.SECONDS));
+    assertEquals(2, delegate.frames.size());
+    assertArrayEquals(new byte[]{1}, delegate.frames.get(0));
+    assertArrayEquals(new byte[]{2}, delegate.frames.get(1));
+  }
+
+  @Test
+  public void testDropNewest() throws Exception {
+    writer = create(FastForwardConfiguration.builder()
+        .setMaxQueuedMetrics(2)
+        .setOverflowPolicy(OverflowPolicy.DROP_NEWEST));
+
+    fillQueue();
+    writer.write(frame(3));
+    writer.write(frame(4));
+
+    assertEquals(1, stats.getDropped(DropReason.QUEUE_FULL));
+    delegate.release.countDown();
+
+    assertTrue(writer.flush(5, TimeUnit.SECONDS));
+    assertArrayEquals(new byte[]{3}, delegate.frames.get(delegate.frames.size() - 1));
+  }
+
+  @Test
+  public void testDropOldest() throws Exception {
+    writer = create(FastForwardConfiguration.builder()
+        .setMaxQueuedMetrics(2)
+        .setOverflowPolicy(OverflowPolicy.DROP_OLDEST));
+
+    fillQueue();
+    writer.write(frame(3));
+    writer.write(frame(4));
+
+    assertEquals(1, stats.getDropped(DropReason.QUEUE_FULL));
+    delegate.release.countDown();
+
+    assertTrue(writer.flush(5, TimeUnit.SECONDS));
+    assertArrayEquals(new byte[]{4}, delegate.frames.get(delegate.frames.size() - 1));
+  }
+
+  @Test
+  public void testBlockTimesOut() throws Exception {
+    writer = create(FastForwardConfiguration.builder()
+        .setMaxQueuedMetrics(1)
+        .setOverflowPolicy(OverflowPolicy.BLOCK)
+        .setBlockTimeout(10, TimeUnit.MILLISECONDS));
+
+    fillQueue();
+    writer.write(frame(3));
+
+    assertEquals(1, stats.getDropped(DropReason.QUEUE_FULL));
+  }
+
+  @Test
+  public void testBoundedByBytes() throws Exception {
+    writer = create(FastForwardConfiguration.builder()
+        .setMaxQueuedBytes(4)
+        .setOverflowPolicy(OverflowPolicy.DROP_NEWEST));
+
+    writer.write(frame(1));
+    delegate.started.await(5, TimeUnit.SECONDS);
+
+    writer.write(ByteBuffer.wrap(new byte[3]));
+    writer.write(ByteBuffer.wrap(new byte[2]));
+    writer.write(ByteBuffer.wrap(new byte[5]));
+
+    assertEquals(2, stats.getDropped(DropReason.QUEUE_FULL));
+  }
+
+  @Test
+  public void testFlushTimesOut() throws Exception {
+    writer = create(FastForwardConfiguration.builder());
+
+    writer.write(frame(1));
+
+    assertFalse(writer.flush(10, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testCloseDropsQueued() throws Exception {
+    writer = create(FastForwardConfiguration.builder());
+
+    fillQueue();
+
+    final Thread closer = new Thread(() -> {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    });
+
+    closer.start();
+
+    while (stats.getDropped(DropReason.CLOSED) == 0) {
+      Thread.sleep(1);
+    }
+
+    delegate.release.countDown();
+    closer.join();
+
+    assertTrue(delegate.closed);
+    assertEquals(1, stats.getDropped(DropReason.CLOSED));
+    assertThrows(IOException.class, () -> writer.write(frame(3)));
+  }
+
+  private AsyncFrameWriter create(
+      final FastForwardConfiguration.FastForwardConfigurationBuilder builder
+  ) {
+    return new AsyncFrameWriter(delegate, builder.build(), stats);
+  }
+
+  /**
+   * Make the sender block on the first frame and leave a second one in the queue.
+   */
+  private void fillQueue() throws Exception {
+    writer.write(frame(1));
+    assertTrue(delegate.started.await(5, TimeUnit.SECONDS));
+    writer.write(frame(2));
+  }
+
+  private static ByteBuffer frame(int id) {
+    return ByteBuffer.wrap(new byte[]{(byte) id});
+  }
+
+  private static class RecordingWriter implements FrameWriter {
+    private final List<byte[]> frames = new CopyOnWriteArrayList<>();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile boolean closed;
+
+    @Override
+    public void write(ByteBuffer frame) throws IOException {
+      started.countDown();
+
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+
+      final byte[] bytes = new byte[frame.remaining()];
+      frame.get(bytes);
+      frames.add(bytes);
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+}
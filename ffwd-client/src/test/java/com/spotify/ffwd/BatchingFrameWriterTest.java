@@ -0,0 +1,238 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.spotify.ffwd.FastForwardConfiguration.FastForwardConfigurationBuilder;
+import com.spotify.ffwd.protocol0.Protocol0;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class BatchingFrameWriterTest {
+
+  private final StatsRecorder stats = new StatsRecorder();
+  private final RecordingWriter delegate = new RecordingWriter();
+  private BatchingFrameWriter writer;
+
+  @AfterEach
+  public void after() throws IOException {
+    if (writer != null) {
+      writer.close();
+    }
+  }
+
+  @Test
+  public void testPacksFramesUntilFull() throws Exception {
+    writer = create(4, FastForwardConfiguration.builder()
+        .setBatching(true)
+        .setLinger(1, TimeUnit.HOURS));
+
+    writer.write(frame(1, 2));
+    writer.write(frame(3));
+    assertTrue(delegate.datagrams.isEmpty());
+
+    writer.write(frame(4, 5));
+    assertEquals(1, delegate.datagrams.size());
+    assertArrayEquals(new byte[]{1, 2, 3}, delegate.datagrams.get(0));
+
+    assertTrue(writer.flush(1, TimeUnit.SECONDS));
+    assertEquals(2, delegate.datagrams.size());
+    assertArrayEquals(new byte[]{4, 5}, delegate.datagrams.get(1));
+  }
+
+  @Test
+  public void testLinger() throws Exception {
+    writer = create(1024, FastForwardConfiguration.builder()
+        .setBatching(true)
+        .setLinger(1, TimeUnit.MILLISECONDS));
+
+    writer.write(frame(1));
+
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+    while (delegate.datagrams.isEmpty() && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+
+    assertEquals(1, delegate.datagrams.size());
+    assertArrayEquals(new byte[]{1}, delegate.datagrams.get(0));
+  }
+
+  @Test
+  public void testCloseSendsBatch() throws Exception {
+    writer = create(1024, FastForwardConfiguration.builder()
+        .setBatching(true)
+        .setLinger(1, TimeUnit.HOURS));
+
+    writer.write(frame(1));
+    writer.close();
+
+    assertEquals(1, delegate.datagrams.size());
+    assertTrue(delegate.closed);
+    assertThrows(IOException.class, () -> writer.write(frame(2)));
+    assertEquals(1, stats.getDropped(DropReason.CLOSED));
+  }
+
+  @Test
+  public void testOversizeSend() throws Exception {
+    writer = create(2, FastForwardConfiguration.builder()
+        .setOversizePolicy(OversizePolicy.SEND));
+
+    writer.write(frame(1, 2, 3));
+
+    assertEquals(1, delegate.datagrams.size());
+    assertEquals(1, stats.getOversized());
+    assertEquals(0, stats.getDropped(DropReason.OVERSIZED));
+  }
+
+  @Test
+  public void testOversizeDrop() throws Exception {
+    writer = create(2, FastForwardConfiguration.builder()
+        .setBatching(true)
+        .setOversizePolicy(OversizePolicy.DROP));
+
+    final ByteBuffer frame = frame(1, 2, 3);
+    writer.write(frame);
+    writer.flush(1, TimeUnit.SECONDS);
+
+    assertEquals(0, delegate.datagrams.size());
+    assertEquals(0, frame.remaining());
+    assertEquals(1, stats.getOversized());
+    assertEquals(1, stats.getDropped(DropReason.OVERSIZED));
+  }
+
+  @Test
+  public void testOversizeFail() throws Exception {
+    writer = create(2, FastForwardConfiguration.builder()
+        .setOversizePolicy(OversizePolicy.FAIL));
+
+    assertThrows(IOException.class, () -> writer.write(frame(1, 2, 3)));
+    assertEquals(0, delegate.datagrams.size());
+    assertEquals(1, stats.getDropped(DropReason.OVERSIZED));
+  }
+
+  @Test
+  public void testDefaultMaxDatagramSize() throws Exception {
+    assertEquals(BatchingFrameWriter.MAX_UDP_PAYLOAD,
+        BatchingFrameWriter.defaultMaxDatagramSize(InetAddress.getLoopbackAddress()));
+
+    final int size = BatchingFrameWriter.defaultMaxDatagramSize(InetAddress.getByName("10.0.0.1"));
+    assertTrue(size > 0 && size <= BatchingFrameWriter.MAX_UDP_PAYLOAD);
+  }
+
+  @Test
+  public void testSendCollectionPacksDatagrams() throws Exception {
+    final List<Metric> metrics = Arrays.asList(
+        FastForward.metric("a").value(1),
+        FastForward.metric("b").value(2),
+        FastForward.metric("c").value(3));
+
+    int frameSize = 0;
+
+    for (final Metric metric : metrics) {
+      frameSize = Math.max(frameSize, metric.serialize().length + 8);
+    }
+
+    try (DatagramChannel receiver = DatagramChannel.open()) {
+      receiver.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+      final InetSocketAddress address = (InetSocketAddress) receiver.getLocalAddress();
+
+      // room for two frames per datagram.
+      try (FastForward ffwd = FastForward.setup(address.getAddress(), address.getPort(),
+          FastForwardConfiguration.builder()
+              .setBatching(true)
+              .setMaxDatagramSize(frameSize * 2 + 1)
+              .setLinger(1, TimeUnit.HOURS)
+              .build())) {
+        ffwd.send(metrics);
+      }
+
+      assertEquals(Arrays.asList("a", "b"), receiveKeys(receiver));
+      assertEquals(Arrays.asList("c"), receiveKeys(receiver));
+    }
+  }
+
+  private List<String> receiveKeys(final DatagramChannel receiver) throws IOException {
+    final ByteBuffer datagram = ByteBuffer.allocate(65536);
+    receiver.receive(datagram);
+    datagram.flip();
+
+    final List<String> keys = new ArrayList<>();
+
+    while (datagram.hasRemaining()) {
+      assertEquals(FastForward.Version.V0.getVersion(), datagram.getInt());
+
+      final byte[] message = new byte[datagram.getInt() - 8];
+      datagram.get(message);
+      keys.add(Protocol0.Message.parseFrom(message).getMetric().getKey());
+    }
+
+    return keys;
+  }
+
+  private BatchingFrameWriter create(
+      final int maxDatagramSize, final FastForwardConfigurationBuilder builder
+  ) {
+    return new BatchingFrameWriter(delegate, maxDatagramSize, builder.build(), stats);
+  }
+
+  private static ByteBuffer frame(final int... bytes) {
+    final ByteBuffer frame = ByteBuffer.allocate(bytes.length);
+
+    for (final int b : bytes) {
+      frame.put((byte) b);
+    }
+
+    frame.flip();
+    return frame;
+  }
+
+  private static class RecordingWriter implements FrameWriter {
+    private final List<byte[]> datagrams = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    @Override
+    public void write(ByteBuffer frame) {
+      final byte[] bytes = new byte[frame.remaining()];
+      frame.get(bytes);
+      datagrams.add(bytes);
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+}
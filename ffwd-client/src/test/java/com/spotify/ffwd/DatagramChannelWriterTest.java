@@ -0,0 +1,134 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class DatagramChannelWriterTest {
+
+  private DatagramChannel receiver;
+  private InetSocketAddress address;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    receiver = DatagramChannel.open();
+    receiver.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    address = (InetSocketAddress) receiver.getLocalAddress();
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    receiver.close();
+  }
+
+  @Test
+  public void testSendThroughChannel() throws Exception {
+    assertRoundTrip(Transport.UDP_NIO);
+  }
+
+  @Test
+  public void testSendThroughSocket() throws Exception {
+    assertRoundTrip(Transport.UDP);
+  }
+
+  @Test
+  public void testSocketOptions() throws Exception {
+    final FastForwardConfiguration configuration = FastForwardConfiguration.builder()
+        .setTransport(Transport.UDP_NIO)
+        .setSendBufferSize(64 * 1024)
+        .setNonBlocking(true)
+        .build();
+
+    final DatagramChannelWriter writer =
+        DatagramChannelWriter.open(address, configuration, new StatsRecorder());
+
+    try {
+      assertTrue(writer.prefersDirectBuffers());
+
+      final ByteBuffer frame = ByteBuffer.allocateDirect(16);
+      frame.putLong(42).putLong(43).flip();
+      writer.write(frame);
+      assertEquals(frame.limit(), frame.position());
+
+      final ByteBuffer received = ByteBuffer.allocate(64);
+      receiver.receive(received);
+      received.flip();
+      assertEquals(42, received.getLong());
+      assertEquals(43, received.getLong());
+    } finally {
+      writer.close();
+    }
+  }
+
+  @Test
+  public void testWriteHeapBuffer() throws Exception {
+    final DatagramChannelWriter writer = DatagramChannelWriter.open(
+        address, FastForwardConfiguration.builder().build(), new StatsRecorder());
+
+    try {
+      final ByteBuffer frame = ByteBuffer.allocate(32);
+      frame.position(8);
+      frame.putLong(42).flip().position(8);
+      writer.write(frame);
+
+      final ByteBuffer received = ByteBuffer.allocate(64);
+      receiver.receive(received);
+      assertEquals(8, received.position());
+    } finally {
+      writer.close();
+    }
+  }
+
+  private void assertRoundTrip(final Transport transport) throws Exception {
+    final Metric metric = FastForward.metric("key").attribute("what", "test").value(42);
+
+    try (FastForward ffwd = FastForward.setup(address.getAddress(), address.getPort(),
+        FastForwardConfiguration.builder().setTransport(transport).setTrafficClass(0x10).build())) {
+      ffwd.send(metric);
+      ffwd.send(metric.template(), 42);
+    }
+
+    final byte[] message = metric.serialize();
+
+    for (int i = 0; i < 2; i++) {
+      final ByteBuffer received = ByteBuffer.allocate(1024);
+      receiver.receive(received);
+      received.flip();
+
+      assertEquals(FastForward.Version.V0.getVersion(), received.getInt());
+      assertEquals(message.length + 8, received.getInt());
+
+      final byte[] actual = new byte[received.remaining()];
+      received.get(actual);
+      assertArrayEquals(message, actual);
+    }
+  }
+}
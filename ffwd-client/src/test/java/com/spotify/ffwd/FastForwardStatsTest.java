@@ -0,0 +1,207 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.spotify.ffwd.protocol0.Protocol0;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class FastForwardStatsTest {
+
+  private DatagramChannel receiver;
+  private InetSocketAddress address;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    receiver = DatagramChannel.open();
+    receiver.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    address = (InetSocketAddress) receiver.getLocalAddress();
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    receiver.close();
+  }
+
+  @Test
+  public void testCountSent() throws Exception {
+    final Metric metric = FastForward.metric("key").value(42);
+    final int size = metric.serialize().length + 8;
+
+    try (FastForward ffwd = setup(FastForwardConfiguration.builder()
+        .setTransport(Transport.UDP_NIO)
+        .setBatching(true)
+        .build())) {
+      ffwd.send(metric);
+      ffwd.send(Arrays.asList(metric, metric, metric));
+      ffwd.flush(1, TimeUnit.SECONDS);
+
+      final FastForwardStats stats = ffwd.getStats();
+      assertEquals(4, stats.getSentMetrics());
+      assertEquals(4 * size, stats.getSentBytes());
+      assertTrue(stats.getSentDatagrams() >= 1 && stats.getSentDatagrams() <= 2);
+      assertEquals(2, stats.getSendLatencyCount());
+      assertEquals(0, stats.getDropped());
+      assertEquals(0, stats.getQueueDepth());
+    }
+  }
+
+  @Test
+  public void testCountFailures() throws Exception {
+    final FastForward ffwd = setup(FastForwardConfiguration.builder()
+        .setTransport(Transport.UDP_NIO)
+        .setBatching(true)
+        .build());
+    ffwd.close();
+
+    assertThrows(IOException.class, () -> ffwd.send(FastForward.metric("key")));
+
+    final FastForwardStats stats = ffwd.getStats();
+    assertEquals(1, stats.getFailed());
+    assertEquals(1L, (long) stats.getFailures().get(IOException.class.getName()));
+    assertEquals(1, stats.getDropped(DropReason.CLOSED));
+    assertEquals(0, stats.getSentMetrics());
+  }
+
+  @Test
+  public void testSince() {
+    final StatsRecorder recorder = new StatsRecorder();
+    recorder.sent(1, 100);
+    recorder.dropped(DropReason.QUEUE_FULL);
+    final FastForwardStats earlier = recorder.snapshot(0);
+
+    recorder.sent(2, 1000);
+    recorder.failed(new IOException());
+    final FastForwardStats interval = recorder.snapshot(3).since(earlier);
+
+    assertEquals(2, interval.getSentMetrics());
+    assertEquals(1, interval.getFailed());
+    assertEquals(0, interval.getDropped(DropReason.QUEUE_FULL));
+    assertEquals(1, interval.getSendLatencyCount());
+    assertEquals(3, interval.getQueueDepth());
+    assertEquals(1023, interval.getSendLatencyNanos(50));
+  }
+
+  @Test
+  public void testLatencyPercentiles() {
+    final StatsRecorder recorder = new StatsRecorder();
+
+    for (int i = 1; i <= 100; i++) {
+      recorder.sent(1, i * 1000L);
+    }
+
+    final FastForwardStats stats = recorder.snapshot(0);
+    assertEquals(0, recorder.snapshot(0).since(stats).getSendLatencyNanos(99));
+    assertWithinBucket(50_000, stats.getSendLatencyNanos(50));
+    assertWithinBucket(99_000, stats.getSendLatencyNanos(99));
+    assertWithinBucket(100_000, stats.getSendLatencyNanos(100));
+    assertThrows(IllegalArgumentException.class, () -> stats.getSendLatencyNanos(101));
+  }
+
+  @Test
+  public void testLatencyBuckets() {
+    for (long nanos = 0; nanos < 100_000; nanos += 7) {
+      final long limit = StatsRecorder.latencyBucketLimit(StatsRecorder.latencyBucket(nanos));
+      assertTrue(limit >= nanos);
+      assertTrue(limit <= nanos + nanos / 8);
+    }
+
+    assertEquals(StatsRecorder.LATENCY_BUCKETS - 1, StatsRecorder.latencyBucket(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testJmx() throws Exception {
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    final ObjectName name = new ObjectName("com.spotify.ffwd:type=FastForward,name=\"test\"");
+
+    try (FastForward ffwd = setup(FastForwardConfiguration.builder().setJmxName("test").build())) {
+      ffwd.send(FastForward.metric("key"));
+      assertEquals(1L, server.getAttribute(name, "SentMetrics"));
+      assertEquals(1L, server.getAttribute(name, "SentDatagrams"));
+
+      assertThrows(IOException.class,
+          () -> setup(FastForwardConfiguration.builder().setJmxName("test").build()));
+    }
+
+    assertTrue(!server.isRegistered(name));
+  }
+
+  @Test
+  public void testEmitStats() throws Exception {
+    try (FastForward ffwd = setup(FastForwardConfiguration.builder()
+        .setStatsInterval(10, TimeUnit.MILLISECONDS)
+        .setStatsKey("self")
+        .build())) {
+      ffwd.send(FastForward.metric("key"));
+
+      // the first datagram is the metric itself.
+      receive();
+
+      while (true) {
+        final Protocol0.Metric metric = receive();
+        assertEquals("self", metric.getKey());
+
+        if (metric.getAttributesList().stream().anyMatch(
+            a -> a.getKey().equals("what") && a.getValue().equals("sent-metrics"))) {
+          assertEquals(1, metric.getValue());
+          return;
+        }
+      }
+    }
+  }
+
+  private FastForward setup(FastForwardConfiguration configuration) throws IOException {
+    return FastForward.setup(address.getAddress(), address.getPort(), configuration);
+  }
+
+  private Protocol0.Metric receive() throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    receiver.receive(buffer);
+    buffer.flip().position(8);
+
+    try {
+      return Protocol0.Message.parseFrom(buffer).getMetric();
+    } catch (final InvalidProtocolBufferException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static void assertWithinBucket(long expected, long actual) {
+    assertTrue(actual >= expected && actual <= expected + expected / 8,
+        "expected about " + expected + " but was " + actual);
+  }
+}
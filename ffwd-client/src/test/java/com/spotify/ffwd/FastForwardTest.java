@@ -24,6 +24,7 @@ import com.spotify.ffwd.v1.Metric;
 import java.io.IOException;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -44,35 +45,46 @@ public class FastForwardTest {
    @Spy
    private FastForward client;
 
-   private ArgumentCaptor<byte []> inputCaptor;
-   private ArgumentCaptor<FastForward.Version> versionCaptor;
+   private ArgumentCaptor<ByteBuffer> frameCaptor;
 
    @BeforeEach
    public void before() throws IOException{
      MockitoAnnotations.initMocks(this);
-     inputCaptor = ArgumentCaptor.forClass(byte[].class);
-     versionCaptor = ArgumentCaptor.forClass(FastForward.Version.class);
-     Mockito.doNothing().when(client).sendFrame(inputCaptor.capture(), versionCaptor.capture());
+     frameCaptor = ArgumentCaptor.forClass(ByteBuffer.class);
+     Mockito.doNothing().when(client).sendFrame(frameCaptor.capture());
    }
 
   @Test
   public void testSendV1() throws SocketException, UnknownHostException , IOException {
     final  Metric metricV1 = FastForward.metricV1(KEY);
     client.send(metricV1);
-    Mockito.verify(client,times(1)).sendFrame(Mockito.any(byte[].class) ,
-        Mockito.any(FastForward.Version.class));
-    assertArrayEquals(metricV1.serialize(), inputCaptor.getValue());
-    assertEquals(FastForward.Version.V1,versionCaptor.getValue());
+    Mockito.verify(client,times(1)).sendFrame(Mockito.any(ByteBuffer.class));
+    final ByteBuffer frame = frameCaptor.getValue();
+    assertEquals(FastForward.Version.V1.getVersion(), frame.getInt());
+    assertEquals(frame.limit(), frame.getInt());
+    assertArrayEquals(metricV1.serialize(), remaining(frame));
   }
 
    @Test
    public void testSendV0() throws SocketException, UnknownHostException , IOException {
      final  com.spotify.ffwd.Metric metricV0 = FastForward.metric(KEY);
      client.send(metricV0);
-     Mockito.verify(client,times(1)).sendFrame(Mockito.any(byte[].class) ,
-         Mockito.any(FastForward.Version.class));
-     assertArrayEquals(metricV0.serialize(), inputCaptor.getValue());
-     assertEquals(FastForward.Version.V0,versionCaptor.getValue());
+     Mockito.verify(client,times(1)).sendFrame(Mockito.any(ByteBuffer.class));
+     final ByteBuffer frame = frameCaptor.getValue();
+     assertEquals(FastForward.Version.V0.getVersion(), frame.getInt());
+     assertEquals(frame.limit(), frame.getInt());
+     assertArrayEquals(metricV0.serialize(), remaining(frame));
+   }
+
+   @Test
+   public void testSendTemplate() throws IOException {
+     final com.spotify.ffwd.Metric metricV0 = FastForward.metric(KEY).attribute("foo", "bar");
+     client.send(metricV0.template(), 42L, 1.5);
+     Mockito.verify(client,times(1)).sendFrame(Mockito.any(ByteBuffer.class));
+     final ByteBuffer frame = frameCaptor.getValue();
+     assertEquals(FastForward.Version.V0.getVersion(), frame.getInt());
+     assertEquals(frame.limit(), frame.getInt());
+     assertArrayEquals(metricV0.time(42L).value(1.5).serialize(), remaining(frame));
    }
 
    @Test
@@ -89,5 +101,10 @@ public class FastForwardTest {
      assertEquals(KEY,metricV1.getKey());
    }
 
+   private static byte[] remaining(ByteBuffer buffer) {
+     final byte[] bytes = new byte[buffer.remaining()];
+     buffer.get(bytes);
+     return bytes;
+   }
 
 }
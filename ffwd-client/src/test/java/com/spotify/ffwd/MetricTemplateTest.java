@@ -0,0 +1,97 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+public class MetricTemplateTest {
+
+  private static final Metric FULL = FastForward.metric("requests")
+      .proc("proc")
+      .host("host")
+      .tags(Arrays.asList("a", "b"))
+      .attribute("what", "rpc")
+      .attribute("endpoint", "/ping");
+
+  @Test
+  public void testSameAsMetric() {
+    final MetricTemplate template = FULL.template();
+
+    for (final long time : new long[]{0, 1, 1575323125000L, -1, Long.MAX_VALUE}) {
+      for (final double value : new double[]{0, -1.5, 1e300, Double.NaN}) {
+        assertArrayEquals(frame(FULL.time(time).value(value)), frame(template, time, value));
+      }
+    }
+  }
+
+  @Test
+  public void testTimeFromMetric() {
+    assertArrayEquals(frame(FULL.value(2)), frame(FULL.template(), 2));
+    assertArrayEquals(frame(FULL.time(42).value(2)), frame(FULL.time(42).template(), 2));
+  }
+
+  @Test
+  public void testMinimalMetric() {
+    final Metric metric = FastForward.metric("key");
+    assertArrayEquals(frame(metric.time(7).value(3)), frame(metric.template(), 7, 3));
+    assertArrayEquals(frame(new Metric().value(3)), frame(new Metric().template(), 3));
+  }
+
+  @Test
+  public void testMaxFrameSize() {
+    final MetricTemplate template = FULL.template();
+    final ByteBuffer buffer = ByteBuffer.allocate(template.maxFrameSize());
+
+    assertTrue(template.serializeTo(buffer, Long.MIN_VALUE, 1.0) <= template.maxFrameSize());
+    assertEquals(FULL, template.getMetric());
+  }
+
+  private static byte[] frame(Metric metric) {
+    final ByteBuffer buffer = ByteBuffer.allocate(1024);
+    metric.serializeTo(buffer);
+    return bytes(buffer);
+  }
+
+  private static byte[] frame(MetricTemplate template, double value) {
+    final ByteBuffer buffer = ByteBuffer.allocate(1024);
+    template.serializeTo(buffer, value);
+    return bytes(buffer);
+  }
+
+  private static byte[] frame(MetricTemplate template, long time, double value) {
+    final ByteBuffer buffer = ByteBuffer.allocate(1024);
+    template.serializeTo(buffer, time, value);
+    return bytes(buffer);
+  }
+
+  private static byte[] bytes(ByteBuffer buffer) {
+    buffer.flip();
+    final byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+}
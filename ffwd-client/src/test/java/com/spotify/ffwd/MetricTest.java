@@ -0,0 +1,220 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.spotify.ffwd.protocol0.Protocol0;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class MetricTest {
+
+  // Field presence bits, as in Metric.
+  private static final long PROC = 1 << 0;
+  private static final long TIME = 1 << 1;
+  private static final long KEY = 1 << 2;
+  private static final long VALUE = 1 << 3;
+  private static final long HOST = 1 << 4;
+  private static final long TAGS = 1 << 5;
+  private static final long ATTRIBUTES = 1 << 6;
+  private static final long ALL = PROC | TIME | KEY | VALUE | HOST | TAGS | ATTRIBUTES;
+
+  @Test
+  public void testSerializeEmpty() {
+    assertSameAsProtobuf(0, new Metric());
+  }
+
+  @Test
+  public void testSerializeAllFields() {
+    final Map<String, String> attributes = new HashMap<>();
+    attributes.put("what", "requests");
+    attributes.put("empty", "");
+    attributes.put("missing", null);
+    attributes.put(null, "ignored");
+
+    assertSameAsProtobuf(ALL, FastForward.metric("key")
+        .proc("proc")
+        .time(1575323125000L)
+        .value(42.5)
+        .host("host")
+        .tags(Arrays.asList("a", "", "b"))
+        .attributes(attributes));
+  }
+
+  @Test
+  public void testSerializeDefaults() {
+    assertSameAsProtobuf(KEY | TIME | VALUE | HOST,
+        FastForward.metric("").time(0).value(0).host(""));
+    assertSameAsProtobuf(KEY | TIME | VALUE,
+        FastForward.metric("key").time(-1).value(Double.NaN));
+  }
+
+  @Test
+  public void testSerializeUnicode() {
+    assertSameAsProtobuf(KEY | ATTRIBUTES, FastForward.metric("kéy-€-😀")
+        .attribute("åäö", "😀😀")
+        .attribute("unpaired", "a\uD800b\uDC00c\uD800"));
+  }
+
+  @Test
+  public void testSerializeLongStrings() {
+    final char[] chars = new char[300];
+    Arrays.fill(chars, 'x');
+    final String value = new String(chars);
+
+    assertSameAsProtobuf(KEY | ATTRIBUTES | TAGS,
+        FastForward.metric(value).attribute(value, value).tag(value));
+  }
+
+  @Test
+  public void testSerializeToFrame() {
+    final Metric metric = FastForward.metric("key").attribute("foo", "bar").value(1);
+    final byte[] message = metric.serialize();
+
+    final ByteBuffer buffer = ByteBuffer.allocate(1024);
+    buffer.position(3);
+
+    assertEquals(message.length + 8, metric.serializeTo(buffer));
+    assertEquals(message.length + 11, buffer.position());
+
+    buffer.flip();
+    buffer.position(3);
+
+    assertEquals(FastForward.Version.V0.getVersion(), buffer.getInt());
+    assertEquals(message.length + 8, buffer.getInt());
+
+    final byte[] actual = new byte[buffer.remaining()];
+    buffer.get(actual);
+    assertArrayEquals(message, actual);
+  }
+
+  @Test
+  public void testSerializeToOverflow() {
+    final Metric metric = FastForward.metric("key").attribute("foo", "bar");
+    final ByteBuffer buffer = ByteBuffer.allocate(metric.serialize().length + 7);
+
+    assertThrows(BufferOverflowException.class, () -> metric.serializeTo(buffer));
+    assertEquals(0, buffer.position());
+  }
+
+  @Test
+  public void testBuilderEqualsChaining() {
+    final Metric chained = FastForward.metric("key")
+        .proc("proc")
+        .time(42)
+        .value(1.5)
+        .host("host")
+        .tag("a")
+        .tag("b")
+        .attribute("what", "requests")
+        .attribute("unit", "ms");
+
+    final Metric built = Metric.builder()
+        .key("key")
+        .proc("proc")
+        .time(42)
+        .value(1.5)
+        .host("host")
+        .tag("a")
+        .tag("b")
+        .attribute("what", "requests")
+        .attribute("unit", "ms")
+        .build();
+
+    assertEquals(chained, built);
+    assertEquals(chained.hashCode(), built.hashCode());
+    assertArrayEquals(chained.serialize(), built.serialize());
+    assertEquals(new Metric(), Metric.builder().build());
+    assertEquals(chained, chained.toBuilder().build());
+    assertEquals(chained.attribute("x", "y"), chained.toBuilder().attribute("x", "y").build());
+  }
+
+  @Test
+  public void testBuilderSingleUse() {
+    final Metric.Builder builder = Metric.builder().key("key");
+    final Metric metric = builder.build();
+
+    assertThrows(IllegalStateException.class, () -> builder.attribute("what", "requests"));
+    assertThrows(IllegalStateException.class, () -> builder.tag("a"));
+    assertEquals(FastForward.metric("key"), metric);
+  }
+
+  /**
+   * Serialize with the generated protobuf classes, the way it was done before the direct encoder.
+   */
+  private static byte[] protobufSerialize(long has, Metric metric) {
+    final Protocol0.Metric.Builder builder = Protocol0.Metric.newBuilder();
+
+    if ((has & PROC) != 0) {
+      builder.setProc(metric.getProc());
+    }
+
+    if ((has & TIME) != 0) {
+      builder.setTime(metric.getTime());
+    }
+
+    if ((has & KEY) != 0) {
+      builder.setKey(metric.getKey());
+    }
+
+    if ((has & VALUE) != 0) {
+      builder.setValue(metric.getValue());
+    }
+
+    if ((has & HOST) != 0) {
+      builder.setHost(metric.getHost());
+    }
+
+    if ((has & TAGS) != 0) {
+      builder.addAllTags(metric.getTags());
+    }
+
+    if ((has & ATTRIBUTES) != 0) {
+      for (final Map.Entry<String, String> entry : metric.getAttributes().entrySet()) {
+        if (entry.getKey() == null) {
+          continue;
+        }
+
+        final Protocol0.Attribute.Builder attribute =
+            Protocol0.Attribute.newBuilder().setKey(entry.getKey());
+
+        if (entry.getValue() != null) {
+          attribute.setValue(entry.getValue());
+        }
+
+        builder.addAttributes(attribute);
+      }
+    }
+
+    return Protocol0.Message.newBuilder().setMetric(builder).build().toByteArray();
+  }
+
+  private static void assertSameAsProtobuf(long has, Metric metric) {
+    assertArrayEquals(protobufSerialize(has, metric), metric.serialize());
+  }
+}
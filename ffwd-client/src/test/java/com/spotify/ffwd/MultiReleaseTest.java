@@ -0,0 +1,124 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the classes that have versions for newer Java releases, which run against the
+ * classes directory with surefire and against the multi-release JAR with failsafe.
+ */
+public class MultiReleaseTest {
+
+  @Test
+  public void testPutIntBigEndian() {
+    for (final ByteBuffer buffer : buffers(6)) {
+      buffer.put((byte) 9);
+      Buffers.putIntBigEndian(buffer, 0x01020304);
+
+      assertEquals(5, buffer.position());
+      assertArrayEquals(new byte[] {9, 1, 2, 3, 4}, written(buffer));
+      assertThrows(BufferOverflowException.class, () -> Buffers.putIntBigEndian(buffer, 1));
+    }
+  }
+
+  @Test
+  public void testPutLongLittleEndian() {
+    for (final ByteBuffer buffer : buffers(12)) {
+      buffer.put((byte) 9);
+      Buffers.putLongLittleEndian(buffer, 0x0102030405060708L);
+
+      assertEquals(9, buffer.position());
+      assertArrayEquals(new byte[] {9, 8, 7, 6, 5, 4, 3, 2, 1}, written(buffer));
+      assertThrows(BufferOverflowException.class, () -> Buffers.putLongLittleEndian(buffer, 1));
+    }
+  }
+
+  @Test
+  public void testParkNanos() {
+    final long start = System.nanoTime();
+    Parking.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+    Parking.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+  }
+
+  @Test
+  public void testNewThread() throws Exception {
+    final CountDownLatch ran = new CountDownLatch(1);
+    final Thread thread = Threads.newThread("ffwd-test", ran::countDown);
+
+    assertEquals("ffwd-test", thread.getName());
+    assertTrue(thread.isDaemon());
+    assertEquals(Thread.State.NEW, thread.getState());
+
+    thread.start();
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+    thread.join();
+  }
+
+  @Test
+  public void testVersionedClasses() {
+    final String buffers = Buffers.class.getResource("Buffers.class").toString();
+    final String threads = Threads.class.getResource("Threads.class").toString();
+    assumeTrue(buffers.startsWith("jar:"), "Only loaded from the multi-release JAR");
+
+    final int version = javaVersion();
+    assertEquals(version >= 17, buffers.contains("/META-INF/versions/17/"), buffers);
+    assertEquals(version >= 21, threads.contains("/META-INF/versions/21/"), threads);
+    assertFalse(Parking.class.getResource("Parking.class").toString().contains("/21/"));
+  }
+
+  private static ByteBuffer[] buffers(int capacity) {
+    final ByteBuffer offset = ByteBuffer.allocate(capacity + 1);
+    offset.position(1);
+
+    return new ByteBuffer[] {
+        ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN),
+        ByteBuffer.allocateDirect(capacity),
+        offset.slice()
+    };
+  }
+
+  private static byte[] written(ByteBuffer buffer) {
+    final ByteBuffer copy = buffer.duplicate();
+    copy.flip();
+    final byte[] bytes = new byte[copy.remaining()];
+    copy.get(bytes);
+    return bytes;
+  }
+
+  private static int javaVersion() {
+    final String version = System.getProperty("java.specification.version");
+    return version.startsWith("1.") ? 8 : Integer.parseInt(version);
+  }
+}
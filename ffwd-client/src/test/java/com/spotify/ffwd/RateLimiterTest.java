@@ -0,0 +1,135 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class RateLimiterTest {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  public void testBurstThenDrop() {
+    final RateLimiter limiter = new RateLimiter(10, 0, SECOND, 0);
+
+    assertEquals(0, limiter.acquire(10, 1000));
+    assertEquals(RateLimiter.DENIED, limiter.acquire(1, 0));
+  }
+
+  @Test
+  public void testPacing() {
+    final RateLimiter limiter = new RateLimiter(10, 0, SECOND / 10, SECOND);
+
+    assertEquals(0, limiter.acquire(1, 0));
+    assertTrue(limiter.acquire(1, 0) > SECOND / 20);
+    assertTrue(limiter.acquire(1, 0) > SECOND / 10);
+
+    // paced for up to a second, at a tenth of a second each.
+    int paced = 0;
+
+    while (limiter.acquire(1, 0) != RateLimiter.DENIED) {
+      paced++;
+    }
+
+    assertTrue(paced >= 7 && paced <= 9, "paced " + paced);
+  }
+
+  @Test
+  public void testRateThatDoesNotDivideASecond() {
+    final RateLimiter limiter = new RateLimiter(0, 600_000_000, 0, 10 * SECOND);
+
+    assertEquals(0, limiter.acquire(0, 600_000_000));
+
+    // a second's worth of bytes is paid back in a second, not in 0.6 seconds.
+    final long wait = limiter.acquire(0, 600_000_000);
+    assertTrue(wait > SECOND * 9 / 10, "wait " + wait);
+  }
+
+  @Test
+  public void testDeniedBytesReturnMetrics() {
+    final RateLimiter limiter = new RateLimiter(10, 100, SECOND, 0);
+
+    assertEquals(0, limiter.acquire(5, 100));
+    assertEquals(RateLimiter.DENIED, limiter.acquire(5, 1));
+    assertEquals(0, limiter.acquire(5, 0));
+  }
+
+  @Test
+  public void testLargeSendPassesWhenIdle() {
+    final RateLimiter limiter = new RateLimiter(0, 100, SECOND / 10, 0);
+
+    assertEquals(0, limiter.acquire(1, 1000));
+    assertEquals(RateLimiter.DENIED, limiter.acquire(1, 1));
+  }
+
+  @Test
+  public void testCongestionHalvesRate() {
+    final RateLimiter limiter = new RateLimiter(10, 0, SECOND, 0);
+    limiter.congested();
+    limiter.congested();
+
+    assertEquals(2, limiter.backoff(System.nanoTime()));
+    assertEquals(1, limiter.backoff(System.nanoTime() + RateLimiter.RECOVERY_NANOS));
+    assertEquals(0, limiter.acquire(2, 0));
+    assertEquals(RateLimiter.DENIED, limiter.acquire(1, 0));
+  }
+
+  @Test
+  public void testSendBufferFull() {
+    assertTrue(RateLimitingFrameWriter.isSendBufferFull(
+        new IOException("No buffer space available (sendto failed)")));
+    assertFalse(RateLimitingFrameWriter.isSendBufferFull(new IOException("Connection refused")));
+    assertFalse(RateLimitingFrameWriter.isSendBufferFull(new IOException()));
+  }
+
+  @Test
+  public void testClientDropsOverLimit() throws Exception {
+    try (DatagramChannel receiver = DatagramChannel.open()) {
+      receiver.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+      final InetSocketAddress address = (InetSocketAddress) receiver.getLocalAddress();
+
+      final FastForwardConfiguration configuration = FastForwardConfiguration.builder()
+          .setMaxMetricsPerSecond(10)
+          .setRateLimitBurst(1, TimeUnit.SECONDS)
+          .build();
+
+      try (FastForward ffwd =
+               FastForward.setup(address.getAddress(), address.getPort(), configuration)) {
+        for (int i = 0; i < 20; i++) {
+          ffwd.send(FastForward.metric("key"));
+        }
+
+        final FastForwardStats stats = ffwd.getStats();
+        assertTrue(stats.getDropped(DropReason.RATE_LIMITED) >= 9);
+        assertTrue(stats.getSentDatagrams() >= 10);
+      }
+    }
+  }
+}
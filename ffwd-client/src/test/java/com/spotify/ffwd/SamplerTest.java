@@ -0,0 +1,137 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.spotify.ffwd.protocol0.Protocol0;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class SamplerTest {
+
+  @Test
+  public void testLongestPrefixWins() {
+    final Map<String, Double> rates = new HashMap<>();
+    rates.put("rpc.", 0.5);
+    rates.put("rpc.important", 1.0);
+    final Sampler sampler = Sampler.create(rates);
+
+    assertNull(sampler.sample("rpc.important.latency"));
+    assertNull(sampler.sample("other"));
+    assertNull(sampler.sample(null));
+
+    int sent = 0;
+
+    for (int i = 0; i < 10000; i++) {
+      final Sampler.Rate rate = sampler.sample("rpc.latency");
+
+      if (rate != Sampler.DROPPED) {
+        assertEquals("0.5", rate.getAttribute());
+        sent++;
+      }
+    }
+
+    assertTrue(sent > 4500 && sent < 5500, "sent " + sent);
+  }
+
+  @Test
+  public void testNoRates() {
+    assertNull(Sampler.create(new HashMap<>()));
+  }
+
+  @Test
+  public void testTemplateIsCached() {
+    final Map<String, Double> rates = new HashMap<>();
+    rates.put("", 0.5);
+    final Sampler sampler = Sampler.create(rates);
+    final MetricTemplate template = FastForward.metric("key").template();
+
+    final MetricTemplate sampled = sampler.template(
+        template, t -> t.getMetric().attribute(Sampler.ATTRIBUTE, "0.5").template());
+    assertEquals("0.5", sampled.getMetric().getAttributes().get(Sampler.ATTRIBUTE));
+    assertSame(sampled, sampler.template(template, t -> t));
+  }
+
+  @Test
+  public void testInvalidRate() {
+    assertThrows(IllegalArgumentException.class,
+        () -> FastForwardConfiguration.builder().setSampleRate("key", 0));
+    assertThrows(IllegalArgumentException.class,
+        () -> FastForwardConfiguration.builder().setSampleRate("key", 1.5));
+  }
+
+  @Test
+  public void testSendSampled() throws Exception {
+    try (DatagramChannel receiver = DatagramChannel.open()) {
+      receiver.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+      final InetSocketAddress address = (InetSocketAddress) receiver.getLocalAddress();
+
+      final FastForwardConfiguration configuration = FastForwardConfiguration.builder()
+          .setSampleRate("hot", 0.25)
+          .build();
+
+      try (FastForward ffwd =
+               FastForward.setup(address.getAddress(), address.getPort(), configuration)) {
+        final MetricTemplate template = FastForward.metric("hot").template();
+
+        // sent first, since the receive buffer may overflow with the hot metrics behind it.
+        ffwd.send(FastForward.metric("cold"));
+
+        for (int i = 0; i < 1000; i++) {
+          ffwd.send(template, i);
+        }
+
+        final FastForwardStats stats = ffwd.getStats();
+        assertEquals(1001, stats.getSentMetrics() + stats.getSampledOut());
+        assertTrue(stats.getSampledOut() > 600, "sampled out " + stats.getSampledOut());
+      }
+
+      Protocol0.Metric metric = receive(receiver);
+      assertEquals("cold", metric.getKey());
+      assertEquals(0, metric.getAttributesCount());
+
+      metric = receive(receiver);
+      assertEquals("hot", metric.getKey());
+      assertEquals(attribute(Sampler.ATTRIBUTE, "0.25"), metric.getAttributes(0));
+    }
+  }
+
+  private static Protocol0.Attribute attribute(String key, String value) {
+    return Protocol0.Attribute.newBuilder().setKey(key).setValue(value).build();
+  }
+
+  private static Protocol0.Metric receive(DatagramChannel receiver) throws Exception {
+    final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    receiver.receive(buffer);
+    buffer.flip().position(8);
+    return Protocol0.Message.parseFrom(buffer).getMetric();
+  }
+}
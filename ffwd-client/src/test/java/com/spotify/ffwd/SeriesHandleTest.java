@@ -0,0 +1,148 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SeriesHandleTest {
+
+  private static final long IDLE = TimeUnit.SECONDS.toNanos(100);
+
+  private final AtomicLong now = new AtomicLong();
+  private final List<String> sent = new ArrayList<>();
+  private FastForward client;
+
+  @BeforeEach
+  public void before() throws IOException {
+    client = mock(FastForward.class);
+
+    doAnswer(invocation -> {
+      final Metric metric = invocation.<MetricTemplate>getArgument(0).getMetric();
+      sent.add(metric.getKey() + "=" + invocation.getArgument(1));
+      return null;
+    }).when(client).send(any(MetricTemplate.class), anyDouble());
+
+    doAnswer(invocation -> {
+      final com.spotify.ffwd.v1.Metric metric =
+          invocation.<com.spotify.ffwd.v1.MetricTemplate>getArgument(0).getMetric();
+      sent.add(metric.getKey() + "=" + invocation.getArgument(1));
+      return null;
+    }).when(client).send(any(com.spotify.ffwd.v1.MetricTemplate.class), anyDouble());
+  }
+
+  @Test
+  public void testRecord() throws IOException {
+    final SeriesRegistry registry = registry(10);
+
+    handle(registry, FastForward.metric("a").time(42).value(1)).record(1.5);
+    handle(registry, FastForward.metricV1("b")).record(2.5);
+
+    assertEquals(2, sent.size());
+    assertEquals("a=1.5", sent.get(0));
+    assertEquals("b=2.5", sent.get(1));
+  }
+
+  @Test
+  public void testSameSeries() {
+    final SeriesRegistry registry = registry(10);
+
+    final SeriesRegistry.Series first =
+        registry.register(SeriesRegistry.key(FastForward.metric("a").time(1).value(1)));
+    final SeriesRegistry.Series second =
+        registry.register(SeriesRegistry.key(FastForward.metric("a").time(2).value(2)));
+
+    assertSame(first, second);
+    assertEquals(1, registry.size());
+  }
+
+  @Test
+  public void testIdleEviction() throws IOException {
+    final SeriesRegistry registry = registry(10);
+    final SeriesHandle used = handle(registry, FastForward.metric("used"));
+    final SeriesHandle idle = handle(registry, FastForward.metric("idle"));
+
+    // the first sweep notes that both were registered.
+    advance(60);
+    handle(registry, FastForward.metric("other"));
+    advance(40);
+    used.record(1);
+    advance(70);
+    handle(registry, FastForward.metric("last"));
+
+    assertEquals(2, registry.size());
+
+    idle.record(2);
+
+    assertEquals(3, registry.size());
+    assertEquals("idle=2.0", sent.get(1));
+  }
+
+  @Test
+  public void testMaxSeries() throws IOException {
+    final SeriesRegistry registry = registry(8);
+    final List<SeriesHandle> handles = new ArrayList<>();
+
+    for (int i = 0; i < 20; i++) {
+      handles.add(handle(registry, FastForward.metric("m" + i)));
+      advance(1);
+      assertTrue(registry.size() <= 8);
+    }
+
+    for (final SeriesHandle handle : handles) {
+      handle.record(1);
+      assertTrue(registry.size() <= 8);
+    }
+
+    assertEquals(20, sent.size());
+    assertFalse(registry.register(SeriesRegistry.key(FastForward.metric("m19"))).isEvicted());
+  }
+
+  private SeriesRegistry registry(int maxSeries) {
+    return new SeriesRegistry(maxSeries, IDLE, now::get);
+  }
+
+  private SeriesHandle handle(SeriesRegistry registry, Metric metric) {
+    return new SeriesHandle(client, registry, registry.register(SeriesRegistry.key(metric)));
+  }
+
+  private SeriesHandle handle(SeriesRegistry registry, com.spotify.ffwd.v1.Metric metric) {
+    return new SeriesHandle(client, registry, registry.register(SeriesRegistry.key(metric)));
+  }
+
+  private void advance(long seconds) {
+    now.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+  }
+}
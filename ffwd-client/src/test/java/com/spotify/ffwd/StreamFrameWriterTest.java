@@ -0,0 +1,227 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.spotify.ffwd.protocol0.Protocol0;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class StreamFrameWriterTest {
+
+  private final StatsRecorder stats = new StatsRecorder();
+  private StreamFrameWriter writer;
+
+  @AfterEach
+  public void after() throws IOException {
+    if (writer != null) {
+      writer.close();
+    }
+  }
+
+  @Test
+  public void testSendOverTcp() throws Exception {
+    try (ServerSocketChannel server = ServerSocketChannel.open()) {
+      server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+      final InetSocketAddress address = (InetSocketAddress) server.getLocalAddress();
+
+      try (FastForward ffwd =
+               FastForward.setup(address.getAddress(), address.getPort(), Transport.TCP)) {
+        ffwd.send(FastForward.metric("a").value(1));
+        ffwd.send(Arrays.asList(FastForward.metric("b").value(2), FastForward.metric("c")));
+        ffwd.send(FastForward.metric("d").template(), 4);
+        assertTrue(ffwd.flush(5, TimeUnit.SECONDS));
+      }
+
+      try (SocketChannel connection = server.accept()) {
+        assertEquals(Arrays.asList("a", "b", "c", "d"), readKeys(connection));
+      }
+    }
+  }
+
+  @Test
+  public void testUnixTransportConnectsToPath() {
+    final InetAddress loopback = InetAddress.getLoopbackAddress();
+    final FastForwardConfiguration tcp = FastForwardConfiguration.builder()
+        .setTransport(Transport.TCP)
+        .build();
+
+    assertThrows(IllegalArgumentException.class,
+        () -> FastForward.setup(loopback, 19091, Transport.UNIX));
+    assertThrows(IllegalArgumentException.class,
+        () -> FastForward.setup(Paths.get("ffwd.sock"), tcp));
+  }
+
+  @Test
+  public void testResendPartialFrameAfterReconnect() throws Exception {
+    final FailingChannel broken = new FailingChannel(12);
+    final FailingChannel working = new FailingChannel(Integer.MAX_VALUE);
+    final AtomicInteger connects = new AtomicInteger();
+
+    writer = new StreamFrameWriter(() -> {
+      switch (connects.getAndIncrement()) {
+        case 0:
+          throw new IOException("connection refused");
+        case 1:
+          return broken;
+        default:
+          return working;
+      }
+    }, configuration().build(), stats);
+
+    final ByteBuffer frames = ByteBuffer.allocate(1024);
+    FastForward.metric("a").serializeTo(frames);
+    FastForward.metric("b").serializeTo(frames);
+    frames.flip();
+    final int first = frames.getInt(4);
+
+    writer.write(frames);
+    assertTrue(writer.flush(5, TimeUnit.SECONDS));
+
+    assertEquals(3, connects.get());
+    assertEquals(12, broken.written.size());
+    assertTrue(broken.closed);
+    assertEquals(Arrays.asList("a", "b"), parseKeys(working.written.toByteArray()));
+    assertTrue(first > 12);
+    assertEquals(2, stats.getFailed());
+  }
+
+  @Test
+  public void testBufferWhileDisconnected() throws Exception {
+    final Metric metric = FastForward.metric("a");
+    final int frameSize = metric.serialize().length + 8;
+
+    writer = new StreamFrameWriter(() -> {
+      throw new IOException("connection refused");
+    }, configuration().setMaxBufferedBytes(frameSize * 2).build(), stats);
+
+    for (int i = 0; i < 3; i++) {
+      final ByteBuffer frame = ByteBuffer.allocate(frameSize);
+      metric.serializeTo(frame);
+      frame.flip();
+      writer.write(frame);
+    }
+
+    assertEquals(1, stats.getDropped(DropReason.BUFFER_FULL));
+    assertFalse(writer.flush(10, TimeUnit.MILLISECONDS));
+
+    writer.close();
+    assertEquals(2, stats.getDropped(DropReason.CLOSED));
+  }
+
+  @Test
+  public void testFrameBoundary() {
+    final ByteBuffer frames = ByteBuffer.allocate(1024);
+    FastForward.metric("a").serializeTo(frames);
+    final int second = frames.position();
+    FastForward.metric("bb").serializeTo(frames);
+    final int end = frames.position();
+
+    assertEquals(0, StreamFrameWriter.frameBoundary(frames, 0, 0));
+    assertEquals(0, StreamFrameWriter.frameBoundary(frames, 0, second - 1));
+    assertEquals(second, StreamFrameWriter.frameBoundary(frames, 0, second));
+    assertEquals(second, StreamFrameWriter.frameBoundary(frames, 0, end - 1));
+    assertEquals(2, StreamFrameWriter.countFrames(frames, 0, end));
+    assertEquals(1, StreamFrameWriter.countFrames(frames, second, end));
+  }
+
+  private static FastForwardConfiguration.FastForwardConfigurationBuilder configuration() {
+    return FastForwardConfiguration.builder().setReconnectDelay(1, 1, TimeUnit.MILLISECONDS);
+  }
+
+  private static List<String> readKeys(final SocketChannel connection) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+    while (connection.read(buffer) >= 0) {
+      bytes.write(buffer.array(), 0, buffer.position());
+      buffer.clear();
+    }
+
+    return parseKeys(bytes.toByteArray());
+  }
+
+  private static List<String> parseKeys(final byte[] bytes) throws IOException {
+    final ByteBuffer frames = ByteBuffer.wrap(bytes);
+    final List<String> keys = new ArrayList<>();
+
+    while (frames.hasRemaining()) {
+      assertEquals(FastForward.Version.V0.getVersion(), frames.getInt());
+
+      final byte[] message = new byte[frames.getInt() - 8];
+      frames.get(message);
+      keys.add(Protocol0.Message.parseFrom(message).getMetric().getKey());
+    }
+
+    return keys;
+  }
+
+  /**
+   * Accepts a limited number of bytes, one at a time, then fails.
+   */
+  private static class FailingChannel implements WritableByteChannel {
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private final int failAfter;
+    private volatile boolean closed;
+
+    FailingChannel(final int failAfter) {
+      this.failAfter = failAfter;
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+      if (written.size() >= failAfter) {
+        throw new IOException("connection reset");
+      }
+
+      written.write(src.get());
+      return 1;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return !closed;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class StripedFrameWriterTest {
+
+  @Test
+  public void testThreadAffinity() throws Exception {
+    final RecordingWriter[] stripes = {new RecordingWriter(), new RecordingWriter()};
+    final StripedFrameWriter writer = new StripedFrameWriter(stripes);
+
+    final Thread other = new Thread(() -> {
+      try {
+        writer.write(ByteBuffer.allocate(1));
+        writer.write(ByteBuffer.allocate(1));
+      } catch (final IOException e) {
+        throw new RuntimeException(e);
+      }
+    });
+
+    writer.write(ByteBuffer.allocate(1));
+    other.start();
+    other.join();
+    writer.write(ByteBuffer.allocate(1));
+
+    assertEquals(2, stripes[0].writes);
+    assertEquals(2, stripes[1].writes);
+    assertSame(Thread.currentThread(), stripes[0].thread);
+    assertSame(other, stripes[1].thread);
+  }
+
+  @Test
+  public void testCloseAllStripes() {
+    final RecordingWriter failing = new RecordingWriter() {
+      @Override
+      public void close() throws IOException {
+        super.close();
+        throw new IOException("close failed");
+      }
+    };
+    final RecordingWriter working = new RecordingWriter();
+
+    final StripedFrameWriter writer = new StripedFrameWriter(
+        new FrameWriter[] {failing, working});
+
+    assertThrows(IOException.class, writer::close);
+    assertTrue(failing.closed);
+    assertTrue(working.closed);
+  }
+
+  @Test
+  public void testStripedClient() throws Exception {
+    try (DatagramChannel receiver = DatagramChannel.open()) {
+      receiver.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+      final InetSocketAddress address = (InetSocketAddress) receiver.getLocalAddress();
+
+      final FastForwardConfiguration configuration = FastForwardConfiguration.builder()
+          .setTransport(Transport.UDP_NIO)
+          .setStripes(3)
+          .build();
+
+      try (FastForward ffwd =
+               FastForward.setup(address.getAddress(), address.getPort(), configuration)) {
+        final Thread[] threads = new Thread[3];
+
+        for (int i = 0; i < threads.length; i++) {
+          threads[i] = new Thread(() -> {
+            try {
+              ffwd.send(FastForward.metric("a"));
+            } catch (final IOException e) {
+              throw new RuntimeException(e);
+            }
+          });
+          threads[i].start();
+        }
+
+        for (final Thread thread : threads) {
+          thread.join();
+        }
+
+        assertTrue(ffwd.flush(5, TimeUnit.SECONDS));
+      }
+
+      final Set<SocketAddress> senders = new HashSet<>();
+      final ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+      for (int i = 0; i < 3; i++) {
+        buffer.clear();
+        senders.add(receiver.receive(buffer));
+      }
+
+      assertEquals(3, senders.size());
+    }
+  }
+
+  private static class RecordingWriter implements FrameWriter {
+    private volatile int writes;
+    private volatile Thread thread;
+    private volatile boolean closed;
+
+    @Override
+    public synchronized void write(final ByteBuffer frame) {
+      writes++;
+      thread = Thread.currentThread();
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+
+package com.spotify.ffwd.v1;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.spotify.ffwd.distribution.Distribution;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+public class DistributionWriterTest {
+
+  private final DistributionWriter writer = new DistributionWriter();
+
+  @Test
+  public void testHistogram() throws Exception {
+    final Value value = writer.histogram()
+        .bound(10).bound(100)
+        .bucketCount(1).bucketCount(0).bucketCount(2)
+        .count(3).sum(555).min(5).max(500)
+        .upperInclusive(true)
+        .write();
+
+    final Distribution.Histogram decoded =
+        Distribution.Histogram.parseFrom(((Value.DistributionValue) value).getValue());
+    assertEquals(Arrays.asList(10.0, 100.0), decoded.getBoundsList());
+    assertEquals(Arrays.asList(1L, 0L, 2L), decoded.getCountsList());
+    assertEquals(3, decoded.getCount());
+    assertEquals(555, decoded.getSum());
+    assertEquals(0, decoded.getSumOfSquaredDeviation());
+    assertEquals(5, decoded.getMin());
+    assertEquals(500, decoded.getMax());
+    assertTrue(decoded.getUpperInclusive());
+  }
+
+  @Test
+  public void testSummaryDiscardsPreviousFields() throws Exception {
+    writer.histogram().bound(1).bucketCount(1).count(1).write();
+
+    final Value value = writer.summary()
+        .quantile(0.5, 20).quantile(0.99, 95)
+        .count(100).sum(2500)
+        .write();
+
+    final Distribution.Summary decoded =
+        Distribution.Summary.parseFrom(((Value.DistributionValue) value).getValue());
+    assertEquals(100, decoded.getCount());
+    assertEquals(2500, decoded.getSum());
+    assertEquals(Arrays.asList(0.5, 0.99), decoded.getQuantilesList());
+    assertEquals(Arrays.asList(20.0, 95.0), decoded.getValuesList());
+  }
+
+  @Test
+  public void testGrowsBeyondInitialCapacity() throws Exception {
+    writer.histogram();
+
+    for (int i = 0; i < 100; i++) {
+      writer.bound(i).bucketCount(i);
+    }
+
+    final Distribution.Histogram decoded = Distribution.Histogram.parseFrom(
+        ((Value.DistributionValue) writer.bucketCount(1000).write()).getValue());
+    assertEquals(100, decoded.getBoundsCount());
+    assertEquals(101, decoded.getCountsCount());
+    assertEquals(1000L, decoded.getCounts(100));
+    assertFalse(decoded.getUpperInclusive());
+  }
+
+  @Test
+  public void testFieldsOfOtherMessageAreRejected() {
+    assertThrows(IllegalStateException.class, () -> writer.bound(1));
+    writer.summary();
+    assertThrows(IllegalStateException.class, () -> writer.bucketCount(1));
+    writer.histogram();
+    assertThrows(IllegalStateException.class, () -> writer.quantile(0.5, 1));
+  }
+}
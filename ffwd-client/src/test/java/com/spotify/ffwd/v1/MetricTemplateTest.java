@@ -0,0 +1,98 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd.v1;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.protobuf.ByteString;
+import com.spotify.ffwd.FastForward;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+public class MetricTemplateTest {
+
+  private static final Metric FULL = FastForward.metricV1("requests")
+      .host("host")
+      .tags(Arrays.asList("a", "b"))
+      .attribute("what", "rpc")
+      .attribute("endpoint", "/ping");
+
+  @Test
+  public void testSameAsMetric() {
+    final MetricTemplate template = FULL.template();
+
+    for (final long time : new long[]{0, 1, 1575323125000L, -1}) {
+      for (final double value : new double[]{0, -1.5, 1e300}) {
+        final Metric metric = FULL.time(time).value(Value.doubleValue(value));
+        assertArrayEquals(frame(metric), frame(template, time, value));
+      }
+    }
+  }
+
+  @Test
+  public void testDistributionSameAsMetric() {
+    final MetricTemplate template = FULL.template();
+
+    for (final ByteString bytes : new ByteString[]{
+        ByteString.EMPTY, ByteString.copyFromUtf8("distribution"), ByteString.copyFrom(new byte[300])
+    }) {
+      final Value value = Value.distributionValue(bytes);
+      final ByteBuffer buffer = ByteBuffer.allocate(template.maxFrameSize(value));
+      template.serializeTo(buffer, 42, value);
+      assertArrayEquals(frame(FULL.time(42).value(value)), bytes(buffer));
+    }
+  }
+
+  @Test
+  public void testTimeFromMetric() {
+    final ByteBuffer buffer = ByteBuffer.allocate(1024);
+    FULL.time(42).template().serializeTo(buffer, 2);
+    assertArrayEquals(frame(FULL.time(42).value(Value.doubleValue(2))), bytes(buffer));
+  }
+
+  @Test
+  public void testMaxFrameSize() {
+    final MetricTemplate template = FULL.template();
+    final ByteBuffer buffer = ByteBuffer.allocate(template.maxFrameSize());
+    assertTrue(template.serializeTo(buffer, Long.MIN_VALUE, 1.0) <= template.maxFrameSize());
+  }
+
+  private static byte[] frame(Metric metric) {
+    final ByteBuffer buffer = ByteBuffer.allocate(1024);
+    metric.serializeTo(buffer);
+    return bytes(buffer);
+  }
+
+  private static byte[] frame(MetricTemplate template, long time, double value) {
+    final ByteBuffer buffer = ByteBuffer.allocate(1024);
+    template.serializeTo(buffer, time, value);
+    return bytes(buffer);
+  }
+
+  private static byte[] bytes(ByteBuffer buffer) {
+    buffer.flip();
+    final byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+}
@@ -21,17 +21,21 @@
 package com.spotify.ffwd.v1;
 
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.spotify.ffwd.FastForward;
 import com.spotify.ffwd.protocol1.Protocol1;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 import org.junit.jupiter.api.Test;
 
@@ -44,6 +48,46 @@ public class MetricTest {
   private static final String KEYVALUE ="val1";
   private static final String DISTRIBUTION_DATA_POINT ="FAKEDATAFAKEDATAFAKEDATA";
 
+  // Field presence bits, as in Metric.
+  private static final long TIME_SET = 1 << 1;
+  private static final long KEY_SET = 1 << 2;
+  private static final long VALUE_SET = 1 << 3;
+  private static final long HOST_SET = 1 << 4;
+  private static final long TAGS_SET = 1 << 5;
+  private static final long ATTRIBUTES_SET = 1 << 6;
+
+
+  @Test
+  public void testBuilderEqualsChaining() {
+    final Metric chained = FastForward.metricV1(KEY)
+        .time(42)
+        .value(Value.doubleValue(1.5))
+        .host(HOST)
+        .tag(TAG1)
+        .attribute("what", "requests")
+        .attribute("unit", "ms");
+
+    final Metric built = Metric.builder()
+        .key(KEY)
+        .time(42)
+        .value(Value.doubleValue(1.5))
+        .host(HOST)
+        .tag(TAG1)
+        .attribute("what", "requests")
+        .attribute("unit", "ms")
+        .build();
+
+    assertEquals(chained, built);
+    assertEquals(chained.hashCode(), built.hashCode());
+    assertArrayEquals(chained.serialize(), built.serialize());
+    assertEquals(new Metric(), Metric.builder().build());
+    assertEquals(chained, chained.toBuilder().build());
+    assertEquals(chained.value(null), chained.toBuilder().value(null).build());
+
+    final Metric.Builder builder = Metric.builder();
+    builder.build();
+    assertThrows(IllegalStateException.class, () -> builder.tag(TAG1));
+  }
 
   @Test
   public void testMetricValueNullDefault(){
@@ -104,6 +148,113 @@ public class MetricTest {
   }
 
 
+  @Test
+  public void testSerializeSameAsProtobuf() {
+    final Map<String, String> attributes = new HashMap<>();
+    attributes.put("what", "requests");
+    attributes.put("", "empty-key");
+    attributes.put("empty", "");
+    attributes.put("missing", null);
+    attributes.put(null, "ignored");
+
+    final Metric metric = FastForward.metricV1("kéy-😀")
+        .time(1575323125000L)
+        .host(HOST)
+        .tags(Arrays.asList(TAG1, "", TAG2))
+        .attributes(attributes)
+        .value(Value.doubleValue(42.5));
+
+    assertSameAsProtobuf(
+        TIME_SET | KEY_SET | VALUE_SET | HOST_SET | TAGS_SET | ATTRIBUTES_SET, metric);
+  }
+
+  @Test
+  public void testSerializeDefaultsSameAsProtobuf() {
+    assertSameAsProtobuf(0, new Metric());
+    assertSameAsProtobuf(KEY_SET | TIME_SET | HOST_SET | VALUE_SET,
+        FastForward.metricV1("").time(0).host("").value(Value.doubleValue(0)));
+    assertSameAsProtobuf(KEY_SET | TIME_SET | VALUE_SET,
+        FastForward.metricV1(KEY).time(-1).value(Value.distributionValue(ByteString.EMPTY)));
+    assertSameAsProtobuf(KEY_SET | VALUE_SET, FastForward.metricV1(KEY).value(Value
+        .distributionValue(ByteString.copyFromUtf8(DISTRIBUTION_DATA_POINT))));
+  }
+
+  @Test
+  public void testSerializeToFrame() {
+    final Metric metric = FastForward.metricV1(KEY).value(Value.doubleValue(1));
+    final byte[] message = metric.serialize();
+
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+
+    assertEquals(message.length + 8, metric.serializeTo(buffer));
+    buffer.flip();
+
+    assertEquals(FastForward.Version.V1.getVersion(), buffer.getInt());
+    assertEquals(message.length + 8, buffer.getInt());
+
+    final byte[] actual = new byte[buffer.remaining()];
+    buffer.get(actual);
+    assertArrayEquals(message, actual);
+  }
+
+  /**
+   * Serialize with the generated protobuf classes, the way it was done before the direct encoder.
+   */
+  private static byte[] protobufSerialize(long has, Metric metric) {
+    final Protocol1.Metric.Builder builder = Protocol1.Metric.newBuilder();
+
+    if ((has & TIME_SET) != 0) {
+      builder.setTime(metric.getTime());
+    }
+
+    if ((has & KEY_SET) != 0) {
+      builder.setKey(metric.getKey());
+    }
+
+    if ((has & VALUE_SET) != 0) {
+      final Value value = metric.getValue();
+
+      if (value instanceof Value.DoubleValue) {
+        builder.setValue(Protocol1.Value.newBuilder()
+            .setDoubleValue(((Value.DoubleValue) value).getValue()));
+      } else {
+        builder.setValue(Protocol1.Value.newBuilder()
+            .setDistributionValue(((Value.DistributionValue) value).getValue()));
+      }
+    }
+
+    if ((has & HOST_SET) != 0) {
+      builder.setHost(metric.getHost());
+    }
+
+    if ((has & TAGS_SET) != 0) {
+      builder.addAllTags(metric.getTags());
+    }
+
+    if ((has & ATTRIBUTES_SET) != 0) {
+      for (final Map.Entry<String, String> entry : metric.getAttributes().entrySet()) {
+        if (entry.getKey() == null) {
+          continue;
+        }
+
+        final Protocol1.Attribute.Builder attribute =
+            Protocol1.Attribute.newBuilder().setKey(entry.getKey());
+
+        if (entry.getValue() != null) {
+          attribute.setValue(entry.getValue());
+        }
+
+        builder.addAttributes(attribute);
+      }
+    }
+
+    return Protocol1.Message.newBuilder().setMetric(builder).build().toByteArray();
+  }
+
+  private static void assertSameAsProtobuf(long has, Metric metric) {
+    assertArrayEquals(protobufSerialize(has, metric), metric.serialize());
+  }
+
   private Metric createMetric(Value value, long time){
     final long has = 1L;
     final Map<String, String> attributes = Collections.singletonMap(KEY, KEYVALUE);
@@ -0,0 +1,178 @@
+/*-
+ * -\-\-
+ * FastForward Java Client
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd.v1;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.spotify.ffwd.distribution.Distribution;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class SketchTest {
+
+  @Test
+  public void testQuantilesWithinRelativeAccuracy() {
+    final Sketch sketch = Sketch.create(0.01);
+    final double[] values = new double[10000];
+    final Random random = new Random(42);
+
+    for (int i = 0; i < values.length; i++) {
+      values[i] = Math.exp(random.nextGaussian() * 3);
+      sketch.record(values[i]);
+    }
+
+    Arrays.sort(values);
+
+    for (final double q : new double[]{0, 0.1, 0.5, 0.9, 0.99, 0.999, 1}) {
+      final double exact = values[(int) (q * (values.length - 1))];
+      final double estimate = sketch.getQuantile(q);
+      assertTrue(Math.abs(estimate - exact) <= exact * 0.01, q + ": " + estimate + " " + exact);
+    }
+  }
+
+  @Test
+  public void testSerialize() throws Exception {
+    final Sketch sketch = Sketch.create(0.02);
+    sketch.record(1);
+    sketch.record(1);
+    sketch.record(100);
+    sketch.record(0);
+    sketch.record(-5);
+    sketch.record(Double.NaN);
+
+    final Distribution.DDSketch decoded =
+        Distribution.DDSketch.parseFrom(sketch.serializeAndReset());
+
+    assertEquals(1.02 / 0.98, decoded.getGamma(), 1e-12);
+    assertEquals(5, decoded.getCount());
+    assertEquals(1, decoded.getZeroCount());
+    assertEquals(97, decoded.getSum());
+    assertEquals(-5, decoded.getMin());
+    assertEquals(100, decoded.getMax());
+
+    // bucket i holds values in (gamma^(i-1), gamma^i], so 1 is the last value of bucket 0.
+    final Distribution.Buckets positive = decoded.getPositive();
+    assertEquals(0, positive.getOffset());
+    assertEquals(2, positive.getCounts(0));
+    assertEquals(1, positive.getCounts(positive.getCountsCount() - 1));
+    assertEquals(100, bucketValue(decoded, positive.getOffset() + positive.getCountsCount() - 1),
+        2);
+    assertEquals(3, positive.getCountsList().stream().mapToLong(Long::longValue).sum());
+
+    final Distribution.Buckets negative = decoded.getNegative();
+    assertEquals(1, negative.getCountsCount());
+    assertEquals(5, bucketValue(decoded, negative.getOffset()), 0.1);
+
+    final Distribution.DDSketch empty =
+        Distribution.DDSketch.parseFrom(sketch.serializeAndReset());
+    assertEquals(0, empty.getCount());
+    assertFalse(empty.hasPositive());
+    assertEquals(0, sketch.getCount());
+  }
+
+  @Test
+  public void testConcurrentRecordAndMerge() throws Exception {
+    final Sketch sketch = Sketch.create();
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    for (int t = 0; t < 4; t++) {
+      executor.execute(() -> {
+        for (int i = 1; i <= 1000; i++) {
+          sketch.record(i);
+        }
+      });
+    }
+
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(4000, sketch.getCount());
+
+    final Sketch other = Sketch.create();
+    other.record(-1);
+    other.record(5000);
+    sketch.merge(other);
+
+    final Distribution.DDSketch decoded = Distribution.DDSketch.parseFrom(sketch.serialize());
+    assertEquals(4002, decoded.getCount());
+    assertEquals(4 * 500500 + 4999, decoded.getSum());
+    assertEquals(-1, decoded.getMin());
+    assertEquals(5000, decoded.getMax());
+    assertEquals(500, sketch.getQuantile(0.5), 5);
+
+    assertThrows(IllegalArgumentException.class, () -> sketch.merge(Sketch.create(0.05)));
+  }
+
+  @Test
+  public void testSerializeAndResetWhileRecording() throws Exception {
+    final Sketch sketch = Sketch.create();
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    for (int t = 0; t < 4; t++) {
+      executor.execute(() -> {
+        for (int i = 0; i < 100000; i++) {
+          sketch.record(1);
+        }
+      });
+    }
+
+    executor.shutdown();
+
+    long count = 0;
+    double sum = 0;
+
+    do {
+      final Distribution.DDSketch decoded =
+          Distribution.DDSketch.parseFrom(sketch.serializeAndReset());
+      count += decoded.getCount();
+      sum += decoded.getSum();
+    } while (!executor.awaitTermination(1, TimeUnit.MILLISECONDS));
+
+    final Distribution.DDSketch last = Distribution.DDSketch.parseFrom(sketch.serializeAndReset());
+
+    // every value ends up in one of the serializations.
+    assertEquals(400000, count + last.getCount());
+    assertEquals(400000, sum + last.getSum());
+  }
+
+  @Test
+  public void testBoundedRange() throws Exception {
+    final Sketch sketch = Sketch.create();
+    sketch.record(1e-12);
+    sketch.record(1e300);
+    sketch.record(Double.POSITIVE_INFINITY);
+
+    final Distribution.DDSketch decoded = Distribution.DDSketch.parseFrom(sketch.serialize());
+    assertEquals(1, decoded.getZeroCount());
+    assertEquals(1, decoded.getPositive().getCountsCount());
+    assertEquals(2, decoded.getPositive().getCounts(0));
+  }
+
+  private static double bucketValue(final Distribution.DDSketch sketch, final int index) {
+    return 2 * Math.pow(sketch.getGamma(), index) / (sketch.getGamma() + 1);
+  }
+}
@@ -0,0 +1,700 @@
+/*-
+ * -\-\-
+ * FastForward Testing
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd.testing;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.spotify.ffwd.protocol0.Protocol0;
+import com.spotify.ffwd.protocol1.Protocol1;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A ffwd agent to embed in tests and benchmarks, listening on ephemeral loopback ports.
+ *
+ * <pre>{@code
+ * try (FfwdReceiver receiver = FfwdReceiver.builder().setUdp(true).start()) {
+ *   FastForward ffwd = FastForward.setup(receiver.getUdpAddress().getAddress(),
+ *       receiver.getUdpAddress().getPort());
+ *   ffwd.send(FastForward.metric("requests").value(1));
+ *
+ *   Protocol0.Metric metric = receiver.assertReceived(1, 1, TimeUnit.SECONDS).get(0);
+ * }
+ * }</pre>
+ *
+ * <p>Received v0 and v1 metrics are put in separate bounded queues. When a queue is full, further
+ * metrics are only counted as overflowed. With {@link Builder#setDecode(boolean)} turned off,
+ * frames are only counted, which keeps up with well over a million frames per second.
+ *
+ * <p>Loss, delay and truncation can be injected to see how the code under test copes with them.
+ */
+public final class FfwdReceiver implements Closeable {
+
+  private static final int RECEIVE_BUFFER_SIZE = 8 * 1024 * 1024;
+  private static final int MAX_DATAGRAM_SIZE = 64 * 1024;
+  private static final int STREAM_BUFFER_SIZE = 256 * 1024;
+
+  private final boolean decode;
+  private final double loss;
+  private final long delayNanos;
+  private final double truncation;
+  private final SplittableRandom random;
+
+  private final DatagramChannel udp;
+  private final ServerSocketChannel tcp;
+  private final ServerSocketChannel unix;
+  private final Path unixPath;
+  private final ScheduledThreadPoolExecutor delayer;
+  private final List<Thread> threads = new CopyOnWriteArrayList<>();
+  private final List<SocketChannel> connections = new CopyOnWriteArrayList<>();
+
+  private final BlockingQueue<Protocol0.Metric> metrics;
+  private final BlockingQueue<Protocol1.Metric> metricsV1;
+
+  private final LongAdder frames = new LongAdder();
+  private final LongAdder lost = new LongAdder();
+  private final LongAdder truncated = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder overflowed = new LongAdder();
+
+  private volatile boolean closed;
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private FfwdReceiver(Builder builder) throws IOException {
+    this.decode = builder.decode;
+    this.loss = builder.loss;
+    this.delayNanos = builder.delayNanos;
+    this.truncation = builder.truncation;
+    this.random = new SplittableRandom(builder.seed);
+    this.metrics = new ArrayBlockingQueue<>(builder.queueCapacity);
+    this.metricsV1 = new ArrayBlockingQueue<>(builder.queueCapacity);
+
+    final InetAddress loopback = InetAddress.getLoopbackAddress();
+    DatagramChannel udp = null;
+    ServerSocketChannel tcp = null;
+    ServerSocketChannel unix = null;
+    Path unixPath = null;
+
+    try {
+      if (builder.udp) {
+        udp = DatagramChannel.open();
+        udp.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_SIZE);
+        udp.bind(new InetSocketAddress(loopback, 0));
+      }
+
+      if (builder.tcp) {
+        tcp = ServerSocketChannel.open();
+        tcp.bind(new InetSocketAddress(loopback, 0));
+      }
+
+      if (builder.unix) {
+        unixPath = Files.createTempDirectory("ffwd-receiver").resolve("ffwd.sock");
+        unix = openUnix(unixPath);
+      }
+    } catch (final IOException e) {
+      if (udp != null) {
+        udp.close();
+      }
+
+      if (tcp != null) {
+        tcp.close();
+      }
+
+      deleteUnixPath(unixPath);
+      throw e;
+    }
+
+    this.udp = udp;
+    this.tcp = tcp;
+    this.unix = unix;
+    this.unixPath = unixPath;
+
+    if (delayNanos > 0) {
+      delayer = new ScheduledThreadPoolExecutor(1, runnable -> {
+        final Thread thread = new Thread(runnable, "ffwd-receiver-delay");
+        thread.setDaemon(true);
+        return thread;
+      });
+    } else {
+      delayer = null;
+    }
+  }
+
+  private void listen() {
+    if (udp != null) {
+      start("ffwd-receiver-udp", this::receiveDatagrams);
+    }
+
+    if (tcp != null) {
+      start("ffwd-receiver-accept", random -> accept(tcp));
+    }
+
+    if (unix != null) {
+      start("ffwd-receiver-accept-unix", random -> accept(unix));
+    }
+  }
+
+  /**
+   * The address to send datagrams to.
+   *
+   * @throws IllegalStateException If the receiver does not listen for UDP.
+   */
+  public InetSocketAddress getUdpAddress() {
+    if (udp == null) {
+      throw new IllegalStateException("Not listening for UDP");
+    }
+
+    return localAddress(udp.socket().getLocalPort());
+  }
+
+  /**
+   * The address to connect to.
+   *
+   * @throws IllegalStateException If the receiver does not listen for TCP.
+   */
+  public InetSocketAddress getTcpAddress() {
+    if (tcp == null) {
+      throw new IllegalStateException("Not listening for TCP");
+    }
+
+    return localAddress(tcp.socket().getLocalPort());
+  }
+
+  /**
+   * The path of the Unix domain socket to connect to.
+   *
+   * @throws IllegalStateException If the receiver does not listen on a Unix domain socket.
+   */
+  public Path getUnixPath() {
+    if (unixPath == null) {
+      throw new IllegalStateException("Not listening on a Unix domain socket");
+    }
+
+    return unixPath;
+  }
+
+  /**
+   * The received v0 metrics, in the order they were received.
+   */
+  public BlockingQueue<Protocol0.Metric> getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * The received v1 metrics, in the order they were received.
+   */
+  public BlockingQueue<Protocol1.Metric> getMetricsV1() {
+    return metricsV1;
+  }
+
+  /**
+   * Frames that were received and decoded, including those that did not fit in a queue.
+   */
+  public long getFrames() {
+    return frames.sum();
+  }
+
+  /**
+   * Frames dropped on purpose, see {@link Builder#setLoss(double)}.
+   */
+  public long getLost() {
+    return lost.sum();
+  }
+
+  /**
+   * Frames cut off by truncated datagrams, see {@link Builder#setTruncation(double)}.
+   */
+  public long getTruncated() {
+    return truncated.sum();
+  }
+
+  /**
+   * Invalid frames and frames of unknown versions.
+   */
+  public long getErrors() {
+    return errors.sum();
+  }
+
+  /**
+   * Metrics that were decoded but not queued, because the queue was full.
+   */
+  public long getOverflowed() {
+    return overflowed.sum();
+  }
+
+  /**
+   * Wait until at least the given number of frames was received.
+   *
+   * @return {@code true} if they were received before the timeout expired.
+   */
+  public boolean awaitFrames(long count, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+    while (getFrames() < count) {
+      if (System.nanoTime() - deadline >= 0) {
+        return false;
+      }
+
+      Thread.sleep(1);
+    }
+
+    return true;
+  }
+
+  /**
+   * Take the given number of v0 metrics from the queue, waiting for them up to the timeout.
+   *
+   * @throws AssertionError If fewer metrics were received in time.
+   */
+  public List<Protocol0.Metric> assertReceived(int count, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    return take(metrics, count, timeout, unit, "v0");
+  }
+
+  /**
+   * Take the given number of v1 metrics from the queue, waiting for them up to the timeout.
+   *
+   * @throws AssertionError If fewer metrics were received in time.
+   */
+  public List<Protocol1.Metric> assertReceivedV1(int count, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    return take(metricsV1, count, timeout, unit, "v1");
+  }
+
+  /**
+   * Wait for the given time and check that no frame at all arrived meanwhile.
+   *
+   * @throws AssertionError If a frame was received.
+   */
+  public void assertNothingReceived(long time, TimeUnit unit) throws InterruptedException {
+    final long before = getFrames() + getErrors();
+    unit.sleep(time);
+    final long received = getFrames() + getErrors() - before;
+
+    if (received > 0) {
+      throw new AssertionError("Expected no frames, but received " + received);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+
+    if (delayer != null) {
+      delayer.shutdownNow();
+    }
+
+    if (udp != null) {
+      udp.close();
+    }
+
+    if (tcp != null) {
+      tcp.close();
+    }
+
+    if (unix != null) {
+      unix.close();
+      deleteUnixPath(unixPath);
+    }
+
+    for (final SocketChannel connection : connections) {
+      connection.close();
+    }
+
+    for (final Thread thread : threads) {
+      try {
+        thread.join(TimeUnit.SECONDS.toMillis(1));
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private static <T> List<T> take(
+      BlockingQueue<T> queue, int count, long timeout, TimeUnit unit, String version
+  ) throws InterruptedException {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    final List<T> taken = new ArrayList<>(count);
+
+    while (taken.size() < count) {
+      final T metric = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+
+      if (metric == null) {
+        throw new AssertionError("Expected " + count + " " + version + " metrics, but received "
+            + taken.size() + ": " + taken);
+      }
+
+      taken.add(metric);
+    }
+
+    return taken;
+  }
+
+  /**
+   * Listen on a Unix domain socket at the given path, through the API of Java 16 and later.
+   */
+  private static ServerSocketChannel openUnix(Path path) throws IOException {
+    try {
+      final SocketAddress address = (SocketAddress) Class
+          .forName("java.net.UnixDomainSocketAddress")
+          .getMethod("of", Path.class)
+          .invoke(null, path);
+      final ServerSocketChannel server = (ServerSocketChannel) ServerSocketChannel.class
+          .getMethod("open", ProtocolFamily.class)
+          .invoke(null, StandardProtocolFamily.valueOf("UNIX"));
+
+      try {
+        server.bind(address);
+      } catch (final IOException e) {
+        server.close();
+        throw e;
+      }
+
+      return server;
+    } catch (final ReflectiveOperationException | IllegalArgumentException e) {
+      throw new IOException("Unix domain sockets require Java 16 or later", e);
+    }
+  }
+
+  private static void deleteUnixPath(Path path) throws IOException {
+    if (path != null) {
+      Files.deleteIfExists(path);
+      Files.deleteIfExists(path.getParent());
+    }
+  }
+
+  private static InetSocketAddress localAddress(int port) {
+    return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+  }
+
+  private void start(String name, IoTask task) {
+    final SplittableRandom threadRandom;
+
+    synchronized (random) {
+      threadRandom = random.split();
+    }
+
+    final Thread thread = new Thread(() -> {
+      try {
+        task.run(threadRandom);
+      } catch (final ClosedChannelException e) {
+        // closed by close().
+      } catch (final IOException e) {
+        if (!closed) {
+          errors.increment();
+        }
+      }
+    }, name);
+
+    thread.setDaemon(true);
+    threads.add(thread);
+    thread.start();
+  }
+
+  private void receiveDatagrams(SplittableRandom random) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+    final FrameDecoder decoder = new FrameDecoder((version, message) -> frame(random, version,
+        message));
+
+    while (!closed) {
+      buffer.clear();
+      udp.receive(buffer);
+      buffer.flip();
+
+      final boolean cut = truncation > 0 && buffer.hasRemaining()
+          && random.nextDouble() < truncation;
+
+      if (cut) {
+        truncate(buffer, random.nextInt(buffer.limit()));
+      }
+
+      // the rest of a truncated datagram is the part of a frame that was cut.
+      if (!decoder.decode(buffer) || (buffer.hasRemaining() && !cut)) {
+        errors.increment();
+      }
+    }
+  }
+
+  /**
+   * Cut the datagram at the given length, counting the frames that are lost in whole or in part.
+   */
+  private void truncate(ByteBuffer buffer, int length) {
+    int position = buffer.position();
+
+    while (buffer.limit() - position >= FrameDecoder.HEADER_SIZE) {
+      final int frameLength = buffer.getInt(position + 4);
+
+      if (frameLength < FrameDecoder.HEADER_SIZE) {
+        break;
+      }
+
+      if (position + frameLength > length) {
+        truncated.increment();
+      }
+
+      position += frameLength;
+    }
+
+    buffer.limit(length);
+  }
+
+  private void accept(ServerSocketChannel server) throws IOException {
+    while (!closed) {
+      final SocketChannel connection = server.accept();
+      connections.add(connection);
+      start("ffwd-receiver-tcp", threadRandom -> receiveStream(connection, threadRandom));
+    }
+  }
+
+  private void receiveStream(SocketChannel connection, SplittableRandom random)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+    final FrameDecoder decoder = new FrameDecoder((version, message) -> frame(random, version,
+        message));
+
+    try {
+      while (!closed && connection.read(buffer) >= 0) {
+        buffer.flip();
+
+        if (!decoder.decode(buffer)) {
+          errors.increment();
+          return;
+        }
+
+        buffer.compact();
+
+        if (!buffer.hasRemaining()) {
+          // a partial frame fills the buffer, the decoder accepts frames up to MAX_FRAME_SIZE.
+          buffer = grow(buffer);
+        }
+      }
+    } finally {
+      connection.close();
+      connections.remove(connection);
+    }
+  }
+
+  private static ByteBuffer grow(ByteBuffer buffer) {
+    final ByteBuffer grown = ByteBuffer.allocate(
+        Math.min(buffer.capacity() * 2, FrameDecoder.MAX_FRAME_SIZE));
+    buffer.flip();
+    grown.put(buffer);
+    return grown;
+  }
+
+  private void frame(SplittableRandom random, int version, ByteBuffer message) {
+    if (loss > 0 && random.nextDouble() < loss) {
+      lost.increment();
+      return;
+    }
+
+    if (!decode) {
+      if (version == 0 || version == 1) {
+        deliver(frames::increment);
+      } else {
+        errors.increment();
+      }
+
+      return;
+    }
+
+    try {
+      if (version == 0) {
+        final Protocol0.Metric metric = Protocol0.Message.parseFrom(message).getMetric();
+        deliver(() -> queue(metrics, metric));
+      } else if (version == 1) {
+        final Protocol1.Metric metric = Protocol1.Message.parseFrom(message).getMetric();
+        deliver(() -> queue(metricsV1, metric));
+      } else {
+        errors.increment();
+      }
+    } catch (final InvalidProtocolBufferException e) {
+      errors.increment();
+    }
+  }
+
+  private void deliver(Runnable delivery) {
+    if (delayer == null) {
+      delivery.run();
+    } else {
+      delayer.schedule(delivery, delayNanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private <T> void queue(BlockingQueue<T> queue, T metric) {
+    // counted first, so that a taken metric is always included in the count.
+    frames.increment();
+
+    if (!queue.offer(metric)) {
+      overflowed.increment();
+    }
+  }
+
+  private interface IoTask {
+    void run(SplittableRandom random) throws IOException;
+  }
+
+  public static final class Builder {
+    private boolean udp = false;
+    private boolean tcp = false;
+    private boolean unix = false;
+    private boolean decode = true;
+    private int queueCapacity = 100000;
+    private double loss = 0;
+    private long delayNanos = 0;
+    private double truncation = 0;
+    private long seed = System.nanoTime();
+
+    private Builder() {
+    }
+
+    /**
+     * Listen for datagrams on an ephemeral loopback port.
+     */
+    public Builder setUdp(final boolean udp) {
+      this.udp = udp;
+      return this;
+    }
+
+    /**
+     * Accept connections on an ephemeral loopback port.
+     */
+    public Builder setTcp(final boolean tcp) {
+      this.tcp = tcp;
+      return this;
+    }
+
+    /**
+     * Accept connections on a Unix domain socket in a new temporary directory, which requires
+     * Java 16 or later.
+     */
+    public Builder setUnix(final boolean unix) {
+      this.unix = unix;
+      return this;
+    }
+
+    /**
+     * Whether to decode the messages of received frames and queue them, or only count the frames.
+     */
+    public Builder setDecode(final boolean decode) {
+      this.decode = decode;
+      return this;
+    }
+
+    /**
+     * How many metrics of each version are queued before further ones are only counted.
+     */
+    public Builder setQueueCapacity(final int queueCapacity) {
+      if (queueCapacity <= 0) {
+        throw new IllegalArgumentException("queueCapacity must be positive");
+      }
+      this.queueCapacity = queueCapacity;
+      return this;
+    }
+
+    /**
+     * Probability that a received frame is dropped as if it never arrived.
+     */
+    public Builder setLoss(final double loss) {
+      this.loss = probability(loss, "loss");
+      return this;
+    }
+
+    /**
+     * Hold every received frame for the given time before it is counted and queued.
+     */
+    public Builder setDelay(final long delay, final TimeUnit unit) {
+      if (delay < 0) {
+        throw new IllegalArgumentException("delay must not be negative");
+      }
+      this.delayNanos = unit.toNanos(delay);
+      return this;
+    }
+
+    /**
+     * Probability that a received datagram is cut short at a random length, as happens when a
+     * datagram is larger than the buffer it is read into.
+     *
+     * <p>Frames that are cut are counted by {@link FfwdReceiver#getTruncated()}, the frames before
+     * them are received as usual.
+     */
+    public Builder setTruncation(final double truncation) {
+      this.truncation = probability(truncation, "truncation");
+      return this;
+    }
+
+    /**
+     * Seed of the random decisions of loss and truncation, to make them repeatable.
+     */
+    public Builder setSeed(final long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    /**
+     * Bind the ports and start receiving.
+     *
+     * @throws IOException If a port could not be bound.
+     */
+    public FfwdReceiver start() throws IOException {
+      if (!udp && !tcp && !unix) {
+        throw new IllegalStateException("Enable UDP, TCP or a Unix domain socket");
+      }
+
+      final FfwdReceiver receiver = new FfwdReceiver(this);
+      receiver.listen();
+      return receiver;
+    }
+
+    private static double probability(final double value, final String name) {
+      if (value < 0 || value > 1) {
+        throw new IllegalArgumentException(name + " must be between 0 and 1");
+      }
+      return value;
+    }
+  }
+}
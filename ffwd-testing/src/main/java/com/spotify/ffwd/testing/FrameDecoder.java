@@ -0,0 +1,97 @@
+/*-
+ * -\-\-
+ * FastForward Testing
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd.testing;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Splits received bytes into frames, without copying them.
+ *
+ * <p>A frame is a 4 byte version and a 4 byte length, both big-endian, followed by a protobuf
+ * message. The length includes the header. Every message is handed to the handler as a view of
+ * the received buffer, valid only for the duration of the call. The view is reused, so decoding
+ * does not allocate.
+ *
+ * <p>A decoder is not thread-safe, use one per receiving thread.
+ */
+public final class FrameDecoder {
+
+  public static final int HEADER_SIZE = 8;
+
+  /**
+   * Frames announcing a larger length are treated as garbage rather than waited for.
+   */
+  public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+  /**
+   * Receives the decoded frames.
+   */
+  public interface Handler {
+    /**
+     * Called with the version of a frame and a view of its message, from the position to the
+     * limit.
+     */
+    void frame(int version, ByteBuffer message);
+  }
+
+  private final Handler handler;
+  private ByteBuffer source;
+  private ByteBuffer view;
+
+  public FrameDecoder(Handler handler) {
+    this.handler = handler;
+  }
+
+  /**
+   * Decode all complete frames between the position and the limit of the buffer.
+   *
+   * <p>The position is left at the start of the first incomplete frame, if any, so that the
+   * rest of a stream can be appended after compacting the buffer.
+   *
+   * @return {@code false} if the bytes at the position are not a valid frame header.
+   */
+  public boolean decode(ByteBuffer buffer) {
+    if (buffer != source) {
+      source = buffer;
+      view = buffer.duplicate();
+    }
+
+    while (buffer.remaining() >= HEADER_SIZE) {
+      final int start = buffer.position();
+      final int version = buffer.getInt(start);
+      final int length = buffer.getInt(start + 4);
+
+      if (length < HEADER_SIZE || length > MAX_FRAME_SIZE) {
+        return false;
+      }
+
+      if (buffer.remaining() < length) {
+        break;
+      }
+
+      view.limit(start + length).position(start + HEADER_SIZE);
+      handler.frame(version, view);
+      buffer.position(start + length);
+    }
+
+    return true;
+  }
+}
@@ -0,0 +1,257 @@
+/*-
+ * -\-\-
+ * FastForward Testing
+ * --
+ * Copyright (C) 2016 - 2020 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd.testing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import com.spotify.ffwd.FastForward;
+import com.spotify.ffwd.FastForwardConfiguration;
+import com.spotify.ffwd.Transport;
+import com.spotify.ffwd.protocol0.Protocol0;
+import com.spotify.ffwd.protocol1.Protocol1;
+import com.spotify.ffwd.v1.Value;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class FfwdReceiverTest {
+
+  @Test
+  public void testReceiveUdp() throws Exception {
+    try (FfwdReceiver receiver = FfwdReceiver.builder().setUdp(true).start();
+         FastForward ffwd = setup(receiver.getUdpAddress(), Transport.UDP)) {
+      ffwd.send(FastForward.metric("a").attribute("what", "test").value(1));
+      ffwd.send(FastForward.metricV1("b"));
+
+      final Protocol0.Metric metric = receiver.assertReceived(1, 5, TimeUnit.SECONDS).get(0);
+      assertEquals("a", metric.getKey());
+      assertEquals(1, metric.getValue());
+      assertEquals("b", receiver.assertReceivedV1(1, 5, TimeUnit.SECONDS).get(0).getKey());
+      assertEquals(2, receiver.getFrames());
+    }
+  }
+
+  @Test
+  public void testReceiveTcp() throws Exception {
+    try (FfwdReceiver receiver = FfwdReceiver.builder().setTcp(true).start()) {
+      try (FastForward ffwd = setup(receiver.getTcpAddress(), Transport.TCP)) {
+        for (int i = 0; i < 1000; i++) {
+          ffwd.send(FastForward.metric("a").value(i));
+        }
+      }
+
+      final List<Protocol0.Metric> metrics = receiver.assertReceived(1000, 5, TimeUnit.SECONDS);
+      assertEquals(999, metrics.get(999).getValue());
+      assertThrows(IllegalStateException.class, receiver::getUdpAddress);
+    }
+  }
+
+  @Test
+  public void testReceiveFrameLargerThanStreamBuffer() throws Exception {
+    final char[] large = new char[1024 * 1024];
+    Arrays.fill(large, 'x');
+    final ByteBuffer frame = ByteBuffer.allocate(2 * large.length);
+    FastForward.metric("large").attribute("what", new String(large)).serializeTo(frame);
+    FastForward.metric("small").serializeTo(frame);
+    frame.flip();
+
+    try (FfwdReceiver receiver = FfwdReceiver.builder().setTcp(true).start();
+         SocketChannel channel = SocketChannel.open(receiver.getTcpAddress())) {
+      while (frame.hasRemaining()) {
+        channel.write(frame);
+      }
+
+      final List<Protocol0.Metric> metrics = receiver.assertReceived(2, 5, TimeUnit.SECONDS);
+      assertEquals(large.length, metrics.get(0).getAttributes(0).getValue().length());
+      assertEquals("small", metrics.get(1).getKey());
+      assertEquals(0, receiver.getErrors());
+    }
+  }
+
+  @Test
+  public void testReceiveUnix() throws Exception {
+    assumeTrue(supportsUnixDomainSockets(), "Unix domain sockets require Java 16 or later");
+
+    final Path path;
+
+    try (FfwdReceiver receiver = FfwdReceiver.builder().setUnix(true).start()) {
+      path = receiver.getUnixPath();
+
+      try (FastForward ffwd = FastForward.setup(path)) {
+        for (int i = 0; i < 1000; i++) {
+          ffwd.send(FastForward.metricV1("a").value(Value.doubleValue(i)));
+        }
+      }
+
+      final List<Protocol1.Metric> metrics = receiver.assertReceivedV1(1000, 5, TimeUnit.SECONDS);
+      assertEquals(999, metrics.get(999).getValue().getDoubleValue());
+      assertThrows(IllegalStateException.class, receiver::getTcpAddress);
+    }
+
+    assertFalse(Files.exists(path));
+  }
+
+  @Test
+  public void testAssertReceivedTimesOut() throws Exception {
+    try (FfwdReceiver receiver = FfwdReceiver.builder().setUdp(true).start()) {
+      assertThrows(AssertionError.class,
+          () -> receiver.assertReceived(1, 10, TimeUnit.MILLISECONDS));
+      receiver.assertNothingReceived(10, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Test
+  public void testLoss() throws Exception {
+    try (FfwdReceiver receiver = FfwdReceiver.builder().setUdp(true).setLoss(1).start();
+         FastForward ffwd = setup(receiver.getUdpAddress(), Transport.UDP)) {
+      ffwd.send(FastForward.metric("a"));
+      ffwd.send(FastForward.metric("b"));
+
+      assertTrue(awaitCount(receiver::getLost, 2));
+      assertEquals(0, receiver.getFrames());
+    }
+  }
+
+  @Test
+  public void testTruncation() throws Exception {
+    final FastForwardConfiguration configuration = FastForwardConfiguration.builder()
+        .setBatching(true)
+        .build();
+
+    try (FfwdReceiver receiver = FfwdReceiver.builder()
+        .setUdp(true)
+        .setTruncation(1)
+        .setSeed(42)
+        .start()) {
+      final InetSocketAddress address = receiver.getUdpAddress();
+
+      try (FastForward ffwd =
+               FastForward.setup(address.getAddress(), address.getPort(), configuration)) {
+        ffwd.send(Arrays.asList(FastForward.metric("a"), FastForward.metric("b"),
+            FastForward.metric("c")));
+      }
+
+      assertTrue(awaitCount(() -> receiver.getFrames() + receiver.getTruncated(), 3));
+      assertTrue(receiver.getTruncated() >= 1);
+      assertEquals(0, receiver.getErrors());
+    }
+  }
+
+  @Test
+  public void testDelay() throws Exception {
+    try (FfwdReceiver receiver = FfwdReceiver.builder()
+        .setUdp(true)
+        .setDelay(200, TimeUnit.MILLISECONDS)
+        .start();
+         FastForward ffwd = setup(receiver.getUdpAddress(), Transport.UDP)) {
+      final long start = System.nanoTime();
+      ffwd.send(FastForward.metric("a"));
+
+      receiver.assertReceived(1, 5, TimeUnit.SECONDS);
+      assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+  }
+
+  @Test
+  public void testCountOnly() throws Exception {
+    try (FfwdReceiver receiver = FfwdReceiver.builder().setUdp(true).setDecode(false).start();
+         FastForward ffwd = setup(receiver.getUdpAddress(), Transport.UDP)) {
+      ffwd.send(FastForward.metric("a"));
+
+      assertTrue(receiver.awaitFrames(1, 5, TimeUnit.SECONDS));
+      assertTrue(receiver.getMetrics().isEmpty());
+    }
+  }
+
+  @Test
+  public void testFrameDecoder() {
+    final ByteBuffer buffer = ByteBuffer.allocate(1024);
+    FastForward.metric("a").serializeTo(buffer);
+    FastForward.metricV1("bb").serializeTo(buffer);
+    final int end = buffer.position();
+    buffer.flip().limit(end - 1);
+
+    final List<String> keys = new ArrayList<>();
+    final FrameDecoder decoder = new FrameDecoder((version, message) -> {
+      try {
+        keys.add(version == 0
+            ? Protocol0.Message.parseFrom(message).getMetric().getKey()
+            : Protocol1.Message.parseFrom(message).getMetric().getKey());
+      } catch (final Exception e) {
+        throw new AssertionError(e);
+      }
+    });
+
+    assertTrue(decoder.decode(buffer));
+    assertEquals(Arrays.asList("a"), keys);
+
+    // the rest of the second frame arrives.
+    buffer.limit(end);
+    assertTrue(decoder.decode(buffer));
+    assertEquals(Arrays.asList("a", "bb"), keys);
+    assertFalse(buffer.hasRemaining());
+
+    assertFalse(decoder.decode(ByteBuffer.wrap(new byte[] {0, 0, 0, 0, 0, 0, 0, 1})));
+  }
+
+  private static FastForward setup(InetSocketAddress address, Transport transport)
+      throws Exception {
+    return FastForward.setup(address.getAddress(), address.getPort(), transport);
+  }
+
+  private static boolean supportsUnixDomainSockets() {
+    try {
+      Class.forName("java.net.UnixDomainSocketAddress");
+      return true;
+    } catch (final ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  private static boolean awaitCount(CountSupplier count, long expected) throws Exception {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+    while (count.get() < expected) {
+      if (System.nanoTime() > deadline) {
+        return false;
+      }
+
+      Thread.sleep(1);
+    }
+
+    return true;
+  }
+
+  private interface CountSupplier {
+    long get();
+  }
+}
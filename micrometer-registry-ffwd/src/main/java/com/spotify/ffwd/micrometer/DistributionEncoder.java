@@ -0,0 +1,101 @@
+/*-
+ * -\-\-
+ * micrometer-registry-ffwd
+ * --
+ * Copyright (C) 2016 - 2019 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd.micrometer;
+
+import com.spotify.ffwd.v1.DistributionWriter;
+import com.spotify.ffwd.v1.Value;
+import io.micrometer.core.instrument.distribution.CountAtBucket;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes Micrometer histogram snapshots as distribution values of the v1 protocol.
+ *
+ * <p>The buckets of a snapshot are encoded as the {@code Histogram} message of
+ * {@code distribution.proto}, its percentiles as the {@code Summary} message. Micrometer counts
+ * the values of every bucket cumulatively, the counts are converted to the count of each bucket,
+ * and the count of the snapshot that is above the last bucket goes to the overflow bucket. A value
+ * equal to a bound is counted in the bucket below it, so histograms are upper inclusive. Values
+ * are written by a {@link DistributionWriter}, and are only valid until the next one is encoded.
+ * Not thread-safe.
+ */
+final class DistributionEncoder {
+
+  private final DistributionWriter writer = new DistributionWriter();
+
+  /**
+   * Encode a histogram that only has a count and a sum.
+   */
+  Value histogram(final long count, final double sum) {
+    return writer.histogram().count(count).sum(sum).write();
+  }
+
+  /**
+   * Encode the buckets of a snapshot, with its values in the given unit, or as is if the unit is
+   * null.
+   */
+  Value histogram(final HistogramSnapshot snapshot, final TimeUnit unit) {
+    final CountAtBucket[] buckets = snapshot.histogramCounts();
+    writer.histogram();
+
+    for (final CountAtBucket bucket : buckets) {
+      writer.bound(unit == null ? bucket.bucket() : bucket.bucket(unit));
+    }
+
+    long previous = 0;
+
+    for (final CountAtBucket bucket : buckets) {
+      final long cumulative = (long) bucket.count();
+      writer.bucketCount(cumulative - previous);
+      previous = cumulative;
+    }
+
+    if (buckets.length > 0) {
+      writer.bucketCount(Math.max(0, snapshot.count() - previous));
+    }
+
+    return writer
+        .count(snapshot.count())
+        .sum(unit == null ? snapshot.total() : snapshot.total(unit))
+        .max(unit == null ? snapshot.max() : snapshot.max(unit))
+        .upperInclusive(true)
+        .write();
+  }
+
+  /**
+   * Encode the percentiles of a snapshot, with its values in the given unit, or as is if the unit
+   * is null.
+   */
+  Value summary(final HistogramSnapshot snapshot, final TimeUnit unit) {
+    writer.summary();
+
+    for (final ValueAtPercentile percentile : snapshot.percentileValues()) {
+      writer.quantile(percentile.percentile(),
+          unit == null ? percentile.value() : percentile.value(unit));
+    }
+
+    return writer
+        .count(snapshot.count())
+        .sum(unit == null ? snapshot.total() : snapshot.total(unit))
+        .write();
+  }
+}
@@ -0,0 +1,69 @@
+/*-
+ * -\-\-
+ * micrometer-registry-ffwd
+ * --
+ * Copyright (C) 2016 - 2019 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd.micrometer;
+
+import static io.micrometer.core.instrument.config.MeterRegistryConfigValidator.checkAll;
+import static io.micrometer.core.instrument.config.MeterRegistryConfigValidator.checkRequired;
+import static io.micrometer.core.instrument.config.validate.PropertyValidator.getInteger;
+import static io.micrometer.core.instrument.config.validate.PropertyValidator.getString;
+
+import com.spotify.ffwd.FastForward;
+import io.micrometer.core.instrument.config.validate.Validated;
+import io.micrometer.core.instrument.step.StepRegistryConfig;
+
+/**
+ * Configuration of a {@link FfwdMeterRegistry}, read from properties prefixed with
+ * {@code ffwd.}.
+ */
+public interface FfwdConfig extends StepRegistryConfig {
+
+  /**
+   * Accepts the default of every property.
+   */
+  FfwdConfig DEFAULT = key -> null;
+
+  @Override
+  default String prefix() {
+    return "ffwd";
+  }
+
+  /**
+   * Host of the ffwd agent.
+   */
+  default String host() {
+    return getString(this, "host").orElse(FastForward.DEFAULT_HOST);
+  }
+
+  /**
+   * UDP port of the ffwd agent.
+   */
+  default int port() {
+    return getInteger(this, "port").orElse(FastForward.DEFAULT_PORT);
+  }
+
+  @Override
+  default Validated<?> validate() {
+    return checkAll(this,
+        c -> StepRegistryConfig.validate(c),
+        checkRequired("host", FfwdConfig::host),
+        checkRequired("port", FfwdConfig::port));
+  }
+}
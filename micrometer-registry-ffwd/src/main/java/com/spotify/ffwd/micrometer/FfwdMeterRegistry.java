@@ -0,0 +1,444 @@
+/*-
+ * -\-\-
+ * micrometer-registry-ffwd
+ * --
+ * Copyright (C) 2016 - 2019 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd.micrometer;
+
+import com.spotify.ffwd.FastForward;
+import com.spotify.ffwd.FastForwardConfiguration;
+import com.spotify.ffwd.v1.MetricTemplate;
+import com.spotify.ffwd.v1.Value;
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.LongTaskTimer;
+import io.micrometer.core.instrument.Measurement;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Statistic;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.distribution.Histogram;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.NoopHistogram;
+import io.micrometer.core.instrument.distribution.StepBucketHistogram;
+import io.micrometer.core.instrument.distribution.TimeWindowPercentileHistogram;
+import io.micrometer.core.instrument.distribution.pause.PauseDetector;
+import io.micrometer.core.instrument.internal.DefaultLongTaskTimer;
+import io.micrometer.core.instrument.step.StepDistributionSummary;
+import io.micrometer.core.instrument.step.StepMeterRegistry;
+import io.micrometer.core.instrument.step.StepTimer;
+import io.micrometer.core.instrument.util.MeterPartition;
+import io.micrometer.core.instrument.util.NamedThreadFactory;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Micrometer registry publishing to ffwd protobuf API v1.
+ *
+ * <p>Example of usage:
+ *
+ * <pre><code>
+ *   MeterRegistry registry = new FfwdMeterRegistry(FfwdConfig.DEFAULT, Clock.SYSTEM);
+ * </code></pre>
+ *
+ * <p>Every step, the value of every meter over the last step is sent as a v1 metric keyed by the
+ * name of the meter, with its tags, its base unit and a {@code metric_type} attribute:
+ * {@code counter} for counters, {@code gauge} for gauges and {@code distribution} for timers,
+ * long task timers and distribution summaries. Timers and summaries are sent as one distribution
+ * value laid out as the {@code Histogram} message of {@code distribution.proto}, with times in
+ * milliseconds. Their percentiles are sent as a second distribution value laid out as the
+ * {@code Summary} message, with {@code metric_type} {@code histogram}, and meters only publishing
+ * percentiles only send that one. Other meters send one metric per statistic, with a
+ * {@code statistic} attribute.
+ *
+ * <p>The name and tags of every meter are encoded once into a metric template, publishing only
+ * encodes the time and value of every metric. Meters are published in batches of
+ * {@link FfwdConfig#batchSize()}, and the client is flushed after every batch.
+ */
+public class FfwdMeterRegistry extends StepMeterRegistry {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FfwdMeterRegistry.class);
+
+  private static final ThreadFactory DEFAULT_THREAD_FACTORY =
+      new NamedThreadFactory("ffwd-metrics-publisher");
+
+  private final FfwdConfig config;
+  private final FastForward client;
+  private final DistributionEncoder encoder = new DistributionEncoder();
+
+  /**
+   * The templates of every meter, built the first time the meter is published.
+   */
+  private final Map<Meter.Id, Prototype> prototypes = new ConcurrentHashMap<>();
+
+  /**
+   * Send failures of the current publication.
+   */
+  private int failures = 0;
+  private IOException failure = null;
+
+  /**
+   * Create a registry, with a batching client connected to the configured agent.
+   *
+   * @throws IllegalStateException if the client cannot be set up.
+   */
+  public FfwdMeterRegistry(final FfwdConfig config, final Clock clock) {
+    this(config, clock, DEFAULT_THREAD_FACTORY, setup(config));
+  }
+
+  /**
+   * Create a registry publishing through the given client, which is closed with the registry.
+   */
+  public FfwdMeterRegistry(
+      final FfwdConfig config, final Clock clock, final ThreadFactory threadFactory,
+      final FastForward client
+  ) {
+    super(config, clock);
+    config.requireValid();
+    this.config = config;
+    this.client = client;
+    config().onMeterRemoved(meter -> prototypes.remove(meter.getId()));
+    start(threadFactory);
+  }
+
+  @Override
+  protected TimeUnit getBaseTimeUnit() {
+    return TimeUnit.MILLISECONDS;
+  }
+
+  // The buckets and percentiles of timers and summaries are sent with them as one distribution,
+  // instead of as gauges of their own.
+
+  @Override
+  protected Timer newTimer(
+      final Meter.Id id, final DistributionStatisticConfig distributionStatisticConfig,
+      final PauseDetector pauseDetector
+  ) {
+    return new FfwdTimer(id, clock, distributionStatisticConfig, pauseDetector,
+        getBaseTimeUnit(), config.step().toMillis(), histogram(distributionStatisticConfig));
+  }
+
+  @Override
+  protected DistributionSummary newDistributionSummary(
+      final Meter.Id id, final DistributionStatisticConfig distributionStatisticConfig,
+      final double scale
+  ) {
+    return new FfwdDistributionSummary(id, clock, distributionStatisticConfig, scale,
+        config.step().toMillis(), histogram(distributionStatisticConfig));
+  }
+
+  @Override
+  protected LongTaskTimer newLongTaskTimer(
+      final Meter.Id id, final DistributionStatisticConfig distributionStatisticConfig
+  ) {
+    return new DefaultLongTaskTimer(id, clock, getBaseTimeUnit(), distributionStatisticConfig,
+        false);
+  }
+
+  @Override
+  protected synchronized void publish() {
+    final long time = clock.wallTime();
+    failures = 0;
+    failure = null;
+
+    for (final List<Meter> batch : MeterPartition.partition(this, config.batchSize())) {
+      for (final Meter meter : batch) {
+        publishMeter(meter, time);
+      }
+
+      flush();
+    }
+
+    if (failures > 0) {
+      LOG.error("Failed to send {} metrics", failures, failure);
+    }
+  }
+
+  @Override
+  public void close() {
+    super.close();
+
+    try {
+      client.close(FastForward.DEFAULT_CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (IOException e) {
+      LOG.error("Failed to close the ffwd client", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Number of meters with cached templates.
+   */
+  int prototypes() {
+    return prototypes.size();
+  }
+
+  private void publishMeter(final Meter meter, final long time) {
+    if (meter instanceof TimeGauge) {
+      send(prototype(meter, "gauge"), time, ((TimeGauge) meter).value(getBaseTimeUnit()));
+    } else if (meter instanceof Gauge) {
+      send(prototype(meter, "gauge"), time, ((Gauge) meter).value());
+    } else if (meter instanceof FunctionCounter) {
+      send(prototype(meter, "counter"), time, ((FunctionCounter) meter).count());
+    } else if (meter instanceof Counter) {
+      send(prototype(meter, "counter"), time, ((Counter) meter).count());
+    } else if (meter instanceof FunctionTimer) {
+      final FunctionTimer timer = (FunctionTimer) meter;
+      send(prototype(meter, "distribution").template, time,
+          encoder.histogram((long) timer.count(), timer.totalTime(getBaseTimeUnit())));
+    } else if (meter instanceof LongTaskTimer) {
+      publishSnapshot(meter, time, ((LongTaskTimer) meter).takeSnapshot(), getBaseTimeUnit());
+    } else if (meter instanceof Timer) {
+      publishSnapshot(meter, time, ((Timer) meter).takeSnapshot(), getBaseTimeUnit());
+    } else if (meter instanceof DistributionSummary) {
+      publishSnapshot(meter, time, ((DistributionSummary) meter).takeSnapshot(), null);
+    } else {
+      final Prototype prototype = prototype(meter, null);
+
+      for (final Measurement measurement : meter.measure()) {
+        send(prototype.statistic(measurement.getStatistic()), time, measurement.getValue());
+      }
+    }
+  }
+
+  private void publishSnapshot(
+      final Meter meter, final long time, final HistogramSnapshot snapshot, final TimeUnit unit) {
+    final boolean percentiles = snapshot.percentileValues().length > 0;
+    final boolean histogram = snapshot.histogramCounts().length > 0 || !percentiles;
+    final Prototype prototype = prototype(meter, histogram ? "distribution" : null);
+
+    if (histogram) {
+      send(prototype.template, time, encoder.histogram(snapshot, unit));
+    }
+
+    if (percentiles) {
+      send(prototype.summary(), time, encoder.summary(snapshot, unit));
+    }
+  }
+
+  private void send(final Prototype prototype, final long time, final double value) {
+    send(prototype.template, time, value);
+  }
+
+  private void send(final MetricTemplate template, final long time, final Value value) {
+    try {
+      client.send(template, time, value);
+    } catch (IOException e) {
+      failures++;
+      failure = e;
+    }
+  }
+
+  private void send(final MetricTemplate template, final long time, final double value) {
+    // a gauge of a collected object, or a function of an empty step, has no value.
+    if (!Double.isFinite(value)) {
+      return;
+    }
+
+    try {
+      client.send(template, time, value);
+    } catch (IOException e) {
+      failures++;
+      failure = e;
+    }
+  }
+
+  /**
+   * Wait for the metrics batched by the client to be sent.
+   */
+  private void flush() {
+    try {
+      if (!client.flush(config.step().toMillis(), TimeUnit.MILLISECONDS)) {
+        LOG.warn("Timed out flushing metrics");
+      }
+    } catch (IOException e) {
+      failures++;
+      failure = e;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * The templates of a meter, built the first time the meter is published.
+   *
+   * <p>A meter is only published as one type, the type is only used to build its templates.
+   */
+  private Prototype prototype(final Meter meter, final String metricType) {
+    final Meter.Id id = meter.getId();
+    Prototype prototype = prototypes.get(id);
+
+    if (prototype == null) {
+      prototype = new Prototype(getConventionName(id), tags(id), metricType);
+      prototypes.put(id, prototype);
+    }
+
+    return prototype;
+  }
+
+  private Map<String, String> tags(final Meter.Id id) {
+    final List<Tag> conventionTags = getConventionTags(id);
+    final Map<String, String> tags = new HashMap<>(conventionTags.size() + 3);
+
+    for (final Tag tag : conventionTags) {
+      tags.put(tag.getKey(), tag.getValue());
+    }
+
+    if (id.getBaseUnit() != null) {
+      tags.put("unit", id.getBaseUnit());
+    }
+
+    return tags;
+  }
+
+  /**
+   * The histogram of a timer or summary.
+   *
+   * <p>Buckets are counted over the same step as the count of the meter, so that the count above
+   * the last bucket is their difference. Percentile histograms count their buckets too, since
+   * distributions of the same buckets can be aggregated. Percentiles are only available over a
+   * time window.
+   */
+  private Histogram histogram(final DistributionStatisticConfig distributionStatisticConfig) {
+    final long stepMillis = config.step().toMillis();
+
+    if (distributionStatisticConfig.isPublishingHistogram()) {
+      return distributionStatisticConfig.isPublishingPercentiles()
+          ? new StepPercentileHistogram(clock, stepMillis, distributionStatisticConfig)
+          : new StepBucketHistogram(clock, stepMillis, distributionStatisticConfig, true, true);
+    }
+
+    if (distributionStatisticConfig.isPublishingPercentiles()) {
+      return new TimeWindowPercentileHistogram(clock, distributionStatisticConfig, false);
+    }
+
+    return NoopHistogram.INSTANCE;
+  }
+
+  private static FastForward setup(final FfwdConfig config) {
+    try {
+      return FastForward.setup(config.host(), config.port(),
+          FastForwardConfiguration.builder().setBatching(true).build());
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to start ffwd micrometer client", e);
+    }
+  }
+
+  private static final class FfwdTimer extends StepTimer {
+    FfwdTimer(
+        final Meter.Id id, final Clock clock,
+        final DistributionStatisticConfig distributionStatisticConfig,
+        final PauseDetector pauseDetector, final TimeUnit baseTimeUnit, final long stepMillis,
+        final Histogram histogram
+    ) {
+      super(id, clock, distributionStatisticConfig, pauseDetector, baseTimeUnit, stepMillis,
+          histogram);
+    }
+  }
+
+  private static final class FfwdDistributionSummary extends StepDistributionSummary {
+    FfwdDistributionSummary(
+        final Meter.Id id, final Clock clock,
+        final DistributionStatisticConfig distributionStatisticConfig, final double scale,
+        final long stepMillis, final Histogram histogram
+    ) {
+      super(id, clock, distributionStatisticConfig, scale, stepMillis, histogram);
+    }
+  }
+
+  /**
+   * The templates of one meter: a single template, or one per statistic for meters without a
+   * type of their own.
+   */
+  private static final class Prototype {
+    private final String name;
+    private final Map<String, String> tags;
+    private final MetricTemplate template;
+    private MetricTemplate summary;
+    private final Map<Statistic, MetricTemplate> statistics = new EnumMap<>(Statistic.class);
+
+    Prototype(final String name, final Map<String, String> tags, final String metricType) {
+      this.name = name;
+      this.tags = tags;
+
+      if (metricType != null) {
+        tags.put("metric_type", metricType);
+        this.template = FastForward.metricV1(name).attributes(tags).template();
+      } else {
+        this.template = null;
+      }
+    }
+
+    /**
+     * The template of the percentiles of a timer or summary, built the first time they are
+     * published.
+     */
+    MetricTemplate summary() {
+      if (summary == null) {
+        final Map<String, String> summaryTags = new HashMap<>(tags);
+        summaryTags.put("metric_type", "histogram");
+        summary = FastForward.metricV1(name).attributes(summaryTags).template();
+      }
+
+      return summary;
+    }
+
+    /**
+     * The template of a statistic, built the first time the statistic is published.
+     */
+    MetricTemplate statistic(final Statistic statistic) {
+      MetricTemplate statisticTemplate = statistics.get(statistic);
+
+      if (statisticTemplate == null) {
+        final Map<String, String> statisticTags = new HashMap<>(tags);
+        statisticTags.put("statistic", statistic.getTagValueRepresentation());
+        statisticTags.put("metric_type", getMetricType(statistic));
+        statisticTemplate = FastForward.metricV1(name).attributes(statisticTags).template();
+        statistics.put(statistic, statisticTemplate);
+      }
+
+      return statisticTemplate;
+    }
+
+    private static String getMetricType(final Statistic statistic) {
+      switch (statistic) {
+        case COUNT:
+        case TOTAL:
+        case TOTAL_TIME:
+          return "counter";
+        default:
+          return "gauge";
+      }
+    }
+  }
+}
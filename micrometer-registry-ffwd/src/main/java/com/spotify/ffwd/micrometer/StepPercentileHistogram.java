@@ -0,0 +1,87 @@
+/*-
+ * -\-\-
+ * micrometer-registry-ffwd
+ * --
+ * Copyright (C) 2016 - 2019 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd.micrometer;
+
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.distribution.Histogram;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.StepBucketHistogram;
+import io.micrometer.core.instrument.distribution.TimeWindowPercentileHistogram;
+
+/**
+ * Histogram of a meter publishing both buckets and percentiles.
+ *
+ * <p>Buckets are counted over the same step as the count of the meter, like a
+ * {@link StepBucketHistogram}. Percentiles can only be estimated over a time window, they come from
+ * a {@link TimeWindowPercentileHistogram} that counts no buckets of its own.
+ */
+final class StepPercentileHistogram implements Histogram {
+
+  private final Histogram buckets;
+  private final Histogram percentiles;
+
+  StepPercentileHistogram(
+      final Clock clock, final long stepMillis, final DistributionStatisticConfig config
+  ) {
+    this.buckets = new StepBucketHistogram(clock, stepMillis, config, true, true);
+    this.percentiles = new TimeWindowPercentileHistogram(clock, percentilesOnly(config), false);
+  }
+
+  private static DistributionStatisticConfig percentilesOnly(
+      final DistributionStatisticConfig config
+  ) {
+    return DistributionStatisticConfig.builder()
+        .percentiles(config.getPercentiles())
+        .percentilePrecision(config.getPercentilePrecision())
+        .minimumExpectedValue(config.getMinimumExpectedValueAsDouble())
+        .maximumExpectedValue(config.getMaximumExpectedValueAsDouble())
+        .expiry(config.getExpiry())
+        .bufferLength(config.getBufferLength())
+        .percentilesHistogram(false)
+        .build();
+  }
+
+  @Override
+  public void recordLong(final long value) {
+    buckets.recordLong(value);
+    percentiles.recordLong(value);
+  }
+
+  @Override
+  public void recordDouble(final double value) {
+    buckets.recordDouble(value);
+    percentiles.recordDouble(value);
+  }
+
+  @Override
+  public HistogramSnapshot takeSnapshot(final long count, final double total, final double max) {
+    return new HistogramSnapshot(count, total, max,
+        percentiles.takeSnapshot(count, total, max).percentileValues(),
+        buckets.takeSnapshot(count, total, max).histogramCounts(), null);
+  }
+
+  @Override
+  public void close() {
+    buckets.close();
+    percentiles.close();
+  }
+}
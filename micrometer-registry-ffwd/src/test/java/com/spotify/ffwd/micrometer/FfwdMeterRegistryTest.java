@@ -0,0 +1,238 @@
+/*-
+ * -\-\-
+ * micrometer-registry-ffwd
+ * --
+ * Copyright (C) 2016 - 2019 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd.micrometer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.spotify.ffwd.distribution.Distribution.Histogram;
+import com.spotify.ffwd.distribution.Distribution.Summary;
+import com.spotify.ffwd.protocol1.Protocol1;
+import com.spotify.ffwd.testing.FfwdReceiver;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Measurement;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MockClock;
+import io.micrometer.core.instrument.Statistic;
+import io.micrometer.core.instrument.Timer;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class FfwdMeterRegistryTest {
+
+  private final MockClock clock = new MockClock();
+
+  private FfwdReceiver receiver;
+  private FfwdConfig config;
+  private FfwdMeterRegistry registry;
+
+  @BeforeEach
+  void before() throws Exception {
+    receiver = FfwdReceiver.builder().setUdp(true).start();
+
+    final InetSocketAddress address = receiver.getUdpAddress();
+    final Map<String, String> properties = new HashMap<>();
+    properties.put("ffwd.host", address.getAddress().getHostAddress());
+    properties.put("ffwd.port", String.valueOf(address.getPort()));
+    config = properties::get;
+    registry = new FfwdMeterRegistry(config, clock);
+  }
+
+  @AfterEach
+  void after() throws Exception {
+    registry.close();
+    receiver.close();
+  }
+
+  @Test
+  void counterSendsStepValue() throws Exception {
+    final Counter counter = registry.counter("requests", "status", "200");
+    counter.increment(5);
+    clock.add(config.step());
+    registry.publish();
+
+    final Protocol1.Metric metric = receiver.assertReceivedV1(1, 5, TimeUnit.SECONDS).get(0);
+    assertEquals("requests", metric.getKey());
+    assertEquals(5.0, metric.getValue().getDoubleValue());
+    assertEquals(clock.wallTime(), metric.getTime());
+
+    final Map<String, String> attributes = attributes(metric);
+    assertEquals("200", attributes.get("status"));
+    assertEquals("counter", attributes.get("metric_type"));
+  }
+
+  @Test
+  void timerIsSentAsDistribution() throws Exception {
+    final Timer timer = Timer.builder("latency")
+        .serviceLevelObjectives(Duration.ofMillis(10), Duration.ofMillis(100))
+        .register(registry);
+    timer.record(5, TimeUnit.MILLISECONDS);
+    timer.record(50, TimeUnit.MILLISECONDS);
+    timer.record(500, TimeUnit.MILLISECONDS);
+    clock.add(config.step());
+    registry.publish();
+
+    final Protocol1.Metric metric = receiver.assertReceivedV1(1, 5, TimeUnit.SECONDS).get(0);
+    final Map<String, String> attributes = attributes(metric);
+    assertEquals("distribution", attributes.get("metric_type"));
+    assertEquals("milliseconds", attributes.get("unit"));
+
+    final Histogram decoded = Histogram.parseFrom(metric.getValue().getDistributionValue());
+    assertEquals(Arrays.asList(10.0, 100.0), decoded.getBoundsList());
+    assertEquals(Arrays.asList(1L, 1L, 1L), decoded.getCountsList());
+    assertEquals(3, decoded.getCount());
+    assertEquals(555.0, decoded.getSum());
+    assertEquals(500.0, decoded.getMax());
+    assertTrue(decoded.getUpperInclusive());
+  }
+
+  @Test
+  void percentilesAreSentAsSummary() throws Exception {
+    final DistributionSummary summary = DistributionSummary.builder("size")
+        .baseUnit("bytes")
+        .publishPercentiles(0.5, 0.99)
+        .register(registry);
+    summary.record(100);
+    summary.record(300);
+    clock.add(config.step());
+    registry.publish();
+
+    final Protocol1.Metric metric = receiver.assertReceivedV1(1, 5, TimeUnit.SECONDS).get(0);
+    final Map<String, String> attributes = attributes(metric);
+    assertEquals("histogram", attributes.get("metric_type"));
+    assertEquals("bytes", attributes.get("unit"));
+
+    final Summary decoded = Summary.parseFrom(metric.getValue().getDistributionValue());
+    assertEquals(2, decoded.getCount());
+    assertEquals(400.0, decoded.getSum());
+    assertEquals(Arrays.asList(0.5, 0.99), decoded.getQuantilesList());
+    assertEquals(2, decoded.getValuesCount());
+  }
+
+  @Test
+  void bucketsAndPercentilesAreSentSeparately() throws Exception {
+    final Timer timer = Timer.builder("latency")
+        .serviceLevelObjectives(Duration.ofMillis(10), Duration.ofMillis(100))
+        .publishPercentiles(0.5, 0.99)
+        .register(registry);
+    timer.record(5, TimeUnit.MILLISECONDS);
+    timer.record(50, TimeUnit.MILLISECONDS);
+    timer.record(500, TimeUnit.MILLISECONDS);
+    clock.add(config.step());
+    registry.publish();
+
+    final Map<String, Protocol1.Metric> metrics = new HashMap<>();
+
+    for (final Protocol1.Metric metric : receiver.assertReceivedV1(2, 5, TimeUnit.SECONDS)) {
+      metrics.put(attributes(metric).get("metric_type"), metric);
+    }
+
+    // the buckets cover the same step as the count, nothing is counted above the last bucket.
+    final Histogram histogram = Histogram.parseFrom(
+        metrics.get("distribution").getValue().getDistributionValue());
+    assertEquals(Arrays.asList(10.0, 100.0), histogram.getBoundsList());
+    assertEquals(Arrays.asList(1L, 1L, 1L), histogram.getCountsList());
+    assertEquals(3, histogram.getCount());
+
+    final Summary summary = Summary.parseFrom(
+        metrics.get("histogram").getValue().getDistributionValue());
+    assertEquals(3, summary.getCount());
+    assertEquals(Arrays.asList(0.5, 0.99), summary.getQuantilesList());
+    assertEquals(2, summary.getValuesCount());
+  }
+
+  @Test
+  void percentileHistogramSendsItsBuckets() throws Exception {
+    final DistributionSummary summary = DistributionSummary.builder("size")
+        .publishPercentileHistogram()
+        .maximumExpectedValue(1000.0)
+        .register(registry);
+    summary.record(3);
+    summary.record(700);
+    clock.add(config.step());
+    registry.publish();
+
+    final Protocol1.Metric metric = receiver.assertReceivedV1(1, 5, TimeUnit.SECONDS).get(0);
+    assertEquals("distribution", attributes(metric).get("metric_type"));
+
+    final Histogram decoded = Histogram.parseFrom(metric.getValue().getDistributionValue());
+    assertEquals(decoded.getBoundsCount() + 1, decoded.getCountsCount());
+    assertEquals(2, decoded.getCountsList().stream().mapToLong(Long::longValue).sum());
+  }
+
+  @Test
+  void meterWithoutTypeSendsEveryStatistic() throws Exception {
+    Meter.builder("pool", Meter.Type.OTHER, Arrays.asList(
+        new Measurement(() -> 4.0, Statistic.ACTIVE_TASKS),
+        new Measurement(() -> 10.0, Statistic.COUNT))).register(registry);
+    registry.publish();
+
+    final Map<String, Protocol1.Metric> metrics = new HashMap<>();
+
+    for (final Protocol1.Metric metric : receiver.assertReceivedV1(2, 5, TimeUnit.SECONDS)) {
+      metrics.put(attributes(metric).get("statistic"), metric);
+    }
+
+    assertEquals(4.0, metrics.get("active").getValue().getDoubleValue());
+    assertEquals("gauge", attributes(metrics.get("active")).get("metric_type"));
+    assertEquals(10.0, metrics.get("count").getValue().getDoubleValue());
+    assertEquals("counter", attributes(metrics.get("count")).get("metric_type"));
+  }
+
+  @Test
+  void prototypesAreReusedUntilMeterIsRemoved() throws Exception {
+    final Gauge gauge = Gauge.builder("queue", () -> 3).register(registry);
+    Gauge.builder("lost", () -> Double.NaN).register(registry);
+    registry.publish();
+    registry.publish();
+
+    final List<Protocol1.Metric> metrics = receiver.assertReceivedV1(2, 5, TimeUnit.SECONDS);
+    assertEquals("queue", metrics.get(0).getKey());
+    assertEquals("queue", metrics.get(1).getKey());
+    assertEquals(3.0, metrics.get(1).getValue().getDoubleValue());
+    assertEquals(2, registry.prototypes());
+
+    registry.remove(gauge);
+    assertEquals(1, registry.prototypes());
+    assertFalse(attributes(metrics.get(0)).containsKey("unit"));
+  }
+
+  private static Map<String, String> attributes(final Protocol1.Metric metric) {
+    final Map<String, String> attributes = new HashMap<>();
+
+    for (final Protocol1.Attribute attribute : metric.getAttributesList()) {
+      attributes.put(attribute.getKey(), attribute.getValue());
+    }
+
+    return attributes;
+  }
+}
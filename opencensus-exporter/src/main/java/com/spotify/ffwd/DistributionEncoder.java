@@ -0,0 +1,84 @@
+/*-
+ * -\-\-
+ * opencensus-exporter
+ * --
+ * Copyright (C) 2016 - 2019 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import com.spotify.ffwd.v1.DistributionWriter;
+import com.spotify.ffwd.v1.Value;
+import io.opencensus.common.Functions;
+import io.opencensus.metrics.export.Distribution;
+import io.opencensus.metrics.export.Summary;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Encodes OpenCensus distributions and summaries as distribution values of the v1 protocol.
+ *
+ * <p>A distribution is encoded as the {@code Histogram} message of {@code distribution.proto}, a
+ * summary as the {@code Summary} message, with the percentiles of the summary divided by 100.
+ * Values are written by a {@link DistributionWriter}, and are only valid until the next one is
+ * encoded. Not thread-safe.
+ */
+final class DistributionEncoder {
+
+  private final DistributionWriter writer = new DistributionWriter();
+
+  Value histogram(final Distribution distribution) {
+    writer.histogram();
+
+    for (final Double bound : bounds(distribution.getBucketOptions())) {
+      writer.bound(bound);
+    }
+
+    for (final Distribution.Bucket bucket : distribution.getBuckets()) {
+      writer.bucketCount(bucket.getCount());
+    }
+
+    return writer
+        .count(distribution.getCount())
+        .sum(distribution.getSum())
+        .sumOfSquaredDeviation(distribution.getSumOfSquaredDeviations())
+        .write();
+  }
+
+  Value summary(final Summary summary) {
+    writer.summary();
+
+    for (final Summary.Snapshot.ValueAtPercentile percentile :
+        summary.getSnapshot().getValueAtPercentiles()) {
+      writer.quantile(percentile.getPercentile() / 100, percentile.getValue());
+    }
+
+    return writer
+        .count(summary.getCount() != null ? summary.getCount() : 0)
+        .sum(summary.getSum() != null ? summary.getSum() : 0)
+        .write();
+  }
+
+  private static List<Double> bounds(final Distribution.BucketOptions options) {
+    if (options == null) {
+      return Collections.emptyList();
+    }
+
+    return options.match(
+        Distribution.BucketOptions.ExplicitOptions::getBucketBoundaries,
+        Functions.returnConstant(Collections.<Double>emptyList()));
+  }
+}
@@ -21,7 +21,7 @@
 package com.spotify.ffwd;
 
 import com.google.common.base.Strings;
-import com.google.common.collect.ImmutableList;
+import com.spotify.ffwd.v1.Value;
 import io.opencensus.common.Function;
 import io.opencensus.common.Functions;
 import io.opencensus.exporter.metrics.util.MetricExporter;
@@ -29,6 +29,7 @@ import io.opencensus.metrics.LabelKey;
 import io.opencensus.metrics.LabelValue;
 import io.opencensus.metrics.export.Distribution;
 import io.opencensus.metrics.export.Metric;
+import io.opencensus.metrics.export.MetricDescriptor;
 import io.opencensus.metrics.export.MetricDescriptor.Type;
 import io.opencensus.metrics.export.Point;
 import io.opencensus.metrics.export.Summary;
@@ -38,10 +39,16 @@ import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,97 +56,288 @@ public class FfwdMetricsConverter extends MetricExporter {
 
   private static final Logger LOG = LoggerFactory.getLogger(FfwdMetricsConverter.class);
 
-  private FastForward client;
+  /**
+   * Version of the protocol the metrics are sent with. Distributions and summaries are only sent
+   * as a whole with {@link FastForward.Version#V1}, encoded by the {@link DistributionEncoder}.
+   */
+  private final FastForward.Version version;
 
-  FfwdMetricsConverter(final String ffwdHost, final int ffwdPort) {
-    try {
-      client = FastForward.setup(ffwdHost, ffwdPort);
-    } catch (UnknownHostException | SocketException e) {
-      throw new IllegalStateException("Failed to start ffwd opencensus client", e);
-    }
+  /**
+   * Points of cumulative series that did not change since the last one sent are skipped, until
+   * the heartbeat is due.
+   */
+  private final boolean suppressUnchanged;
+  private final long heartbeatMillis;
+
+  /**
+   * Cumulative series are sent as the difference to their previous point.
+   */
+  private final boolean cumulativeDeltas;
+  private final int maxSeries;
+
+  /**
+   * The time series are split between the partitions by a hash of their metric descriptor and
+   * label values, so that a series is always converted by the same partition and its points are
+   * sent in order. Every partition has a client and an encode buffer of its own.
+   */
+  private final Partition[] partitions;
+
+  /**
+   * The partition clients were set up by the converter and are closed with it.
+   */
+  private final boolean ownsClients;
+
+  /**
+   * Converts the partitions in parallel, null if there is only one.
+   */
+  private final ExecutorService executor;
+
+  /**
+   * The executor was created by the converter and is shut down with it, a configured executor
+   * is left to its owner.
+   */
+  private final boolean ownsExecutor;
+  private final long exportIntervalNanos;
+  private long exports = 0;
+  private long lastExportNanos = 0;
+
+  FfwdMetricsConverter(final FfwdStatsConfiguration configuration) {
+    this(() -> setup(configuration), true, configuration);
   }
 
   protected FfwdMetricsConverter(final FastForward client) {
-    this.client = client;
+    this(client, FfwdStatsConfiguration.builder().build());
+  }
+
+  /**
+   * Create a converter sending to the given client, which is shared by all partitions.
+   */
+  protected FfwdMetricsConverter(
+      final FastForward client, final FfwdStatsConfiguration configuration) {
+    this(() -> client, false, configuration);
   }
 
+  private FfwdMetricsConverter(
+      final Supplier<FastForward> clients, final boolean ownsClients,
+      final FfwdStatsConfiguration configuration) {
+    this.version = configuration.getVersion();
+    this.suppressUnchanged = configuration.isSuppressUnchanged();
+    this.heartbeatMillis = TimeUnit.SECONDS.toMillis(configuration.getHeartbeatSeconds());
+    this.cumulativeDeltas = configuration.isCumulativeDeltas();
+    this.exportIntervalNanos =
+        TimeUnit.SECONDS.toNanos(configuration.getExporterIntervalSeconds());
+
+    final int parallelism = configuration.getParallelism();
+    // the bound on cached series is split evenly between the partitions.
+    final int partitionSeries = (configuration.getMaxSeries() + parallelism - 1) / parallelism;
+    this.maxSeries = configuration.getMaxSeries();
+    this.partitions = new Partition[parallelism];
+
+    for (int i = 0; i < parallelism; i++) {
+      partitions[i] = new Partition(clients.get(), partitionSeries);
+    }
+
+    this.ownsClients = ownsClients;
 
-  // Constant functions for TypedValue.
-  private static final Function<Double, List<com.spotify.ffwd.Metric>> typedValueDoubleFunction =
-      new Function<Double, List<com.spotify.ffwd.Metric>>() {
+    if (parallelism == 1) {
+      this.executor = null;
+      this.ownsExecutor = false;
+    } else if (configuration.getExecutor() != null) {
+      this.executor = configuration.getExecutor();
+      this.ownsExecutor = false;
+    } else {
+      this.executor = new ForkJoinPool(parallelism);
+      this.ownsExecutor = true;
+    }
+  }
+
+  private static FastForward setup(final FfwdStatsConfiguration configuration) {
+    try {
+      return FastForward.setup(configuration.getFfwdHost(), configuration.getFfwdPort());
+    } catch (UnknownHostException | SocketException e) {
+      throw new IllegalStateException("Failed to start ffwd opencensus client", e);
+    }
+  }
+
+  // Constant functions for TypedValue with the v0 protocol, null for values that are not sent.
+  private static final Function<Double, Double> typedValueDoubleFunction =
+      new Function<Double, Double>() {
         @Override
-        public List<com.spotify.ffwd.Metric> apply(Double value) {
-          return
-              Collections.singletonList(new com.spotify.ffwd.Metric().value(value));
+        public Double apply(Double value) {
+          return value;
         }
       };
 
-  private static final Function<Long, List<com.spotify.ffwd.Metric>> typedValueLongFunction =
-      new Function<Long, List<com.spotify.ffwd.Metric>>() {
+  private static final Function<Long, Double> typedValueLongFunction =
+      new Function<Long, Double>() {
         @Override
-        public List<com.spotify.ffwd.Metric> apply(Long value) {
-          return
-              Collections.singletonList(new com.spotify.ffwd.Metric().value(value));
+        public Double apply(Long value) {
+          return value.doubleValue();
         }
       };
 
-  private static final Function<Distribution, List<com.spotify.ffwd.Metric>>
-      typedValueDistributionFunction =
-      new Function<Distribution, List<com.spotify.ffwd.Metric>>() {
+  private static final Function<Distribution, Double> typedValueDistributionFunction =
+      new Function<Distribution, Double>() {
         @Override
-        public List<com.spotify.ffwd.Metric> apply(Distribution distribution) {
+        public Double apply(Distribution distribution) {
           //TODO: Big task of support distributions in Heroic.
-          return new ArrayList<>(ImmutableList.of());
+          return null;
         }
       };
-  private static final Function<Summary, List<com.spotify.ffwd.Metric>> typedValueSummaryFunction =
-      new Function<Summary, List<com.spotify.ffwd.Metric>>() {
+  private static final Function<Summary, Double> typedValueSummaryFunction =
+      new Function<Summary, Double>() {
         @Override
-        public List<com.spotify.ffwd.Metric> apply(Summary summary) {
+        public Double apply(Summary summary) {
           // TODO: Make the percentiles configurable.
           final List<Summary.Snapshot.ValueAtPercentile> snapshot =
               summary.getSnapshot().getValueAtPercentiles();
 
           // TODO: Add stat: min/max/average/p75/p99
-          return Collections.singletonList(
-              new com.spotify.ffwd.Metric().value(snapshot.get(50).getValue())
-          );
+          return snapshot.get(50).getValue();
         }
       };
 
-  public void export(Collection<Metric> collection) {
-    final ArrayList<com.spotify.ffwd.Metric> metrics = new ArrayList<>();
-
-    for (Metric metric : collection) {
-      for (TimeSeries timeSeries : metric.getTimeSeriesList()) {
-        for (final Point point : timeSeries.getPoints()) {
-          final List<com.spotify.ffwd.Metric> values = point.getValue().match(
-              typedValueDoubleFunction,
-              typedValueLongFunction,
-              typedValueDistributionFunction,
-              typedValueSummaryFunction,
-              Functions.throwIllegalArgumentException()
-          );
-
-          final Map<String, String> tags = createTags(
-              metric.getMetricDescriptor().getLabelKeys(), timeSeries.getLabelValues());
-
-          for (final com.spotify.ffwd.Metric value : values) {
-            metrics.add(
-                FastForward
-                    .metric(metric.getMetricDescriptor().getName())
-                    .attributes(tags)
-                    .attribute("unit", metric.getMetricDescriptor().getUnit())
-                    .attribute("metric_type", getMetricType(metric.getMetricDescriptor().getType()))
-                    .time(point.getTimestamp().getSeconds() * 1000) // convert to milliseconds
-                    .value(value.getValue())
-            );
-          }
+  // Functions for TypedValue with the v1 protocol, distributions and summaries are encoded by
+  // the partition.
+  private static final Function<Double, Value> valueDoubleFunction = Value::doubleValue;
+  private static final Function<Long, Value> valueLongFunction =
+      value -> Value.doubleValue(value);
+
+  public synchronized void export(Collection<Metric> collection) {
+    final long start = System.nanoTime();
+    final long export = ++exports;
+    final long droppedBefore = droppedPoints();
+    int timeSeries = 0;
+
+    for (final Metric metric : collection) {
+      final int hash = metric.getMetricDescriptor().hashCode();
+
+      for (final TimeSeries series : metric.getTimeSeriesList()) {
+        final int partition = partitions.length == 1
+            ? 0
+            : Math.floorMod(31 * hash + series.getLabelValues().hashCode(), partitions.length);
+        partitions[partition].add(metric, series);
+        timeSeries++;
+      }
+    }
+
+    if (executor == null) {
+      partitions[0].export(export);
+    } else {
+      exportInParallel(export);
+    }
+
+    lastExportNanos = System.nanoTime() - start;
+    final long millis = TimeUnit.NANOSECONDS.toMillis(lastExportNanos);
+    final long dropped = droppedPoints() - droppedBefore;
+
+    if (dropped > 0) {
+      LOG.warn("Dropped {} points of cumulative series beyond the {} cached series, which have no "
+          + "previous point to send a delta from", dropped, maxSeries);
+    }
+
+    if (lastExportNanos > exportIntervalNanos) {
+      LOG.warn("Exporting {} time series took {} ms, longer than the export interval",
+          timeSeries, millis);
+    } else {
+      LOG.debug("Exported {} time series in {} ms", timeSeries, millis);
+    }
+  }
+
+  private void exportInParallel(final long export) {
+    final List<Future<?>> futures = new ArrayList<>(partitions.length);
+
+    for (final Partition partition : partitions) {
+      futures.add(executor.submit(() -> partition.export(export)));
+    }
+
+    try {
+      for (final Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while exporting", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+
+      throw new IllegalStateException("Failed to export", e.getCause());
+    } finally {
+      // leave no partition running once the export returned.
+      for (final Future<?> future : futures) {
+        if (!future.isDone()) {
+          awaitQuietly(future);
         }
       }
     }
+  }
+
+  private static void awaitQuietly(final Future<?> future) {
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      LOG.error("Failed to export", e.getCause());
+    }
+  }
+
+  /**
+   * Release the executor and the clients the converter created. A configured executor and a
+   * client given to the converter are left open. Nothing can be exported once closed.
+   */
+  synchronized void close() {
+    if (ownsExecutor) {
+      executor.shutdown();
+    }
+
+    if (!ownsClients) {
+      return;
+    }
+
+    for (final Partition partition : partitions) {
+      try {
+        partition.client.close();
+      } catch (IOException e) {
+        LOG.error("Failed to close ffwd client", e);
+      }
+    }
+  }
+
+  /**
+   * Number of time series with a cached template.
+   */
+  synchronized int cachedSeries() {
+    int size = 0;
+
+    for (final Partition partition : partitions) {
+      size += partition.cachedSeries;
+    }
 
-    sendMetrics(metrics);
+    return size;
+  }
+
+  /**
+   * Number of points of cumulative series that were dropped with deltas, since the series were
+   * not cached.
+   */
+  synchronized long droppedPoints() {
+    long dropped = 0;
+
+    for (final Partition partition : partitions) {
+      dropped += partition.droppedPoints;
+    }
+
+    return dropped;
+  }
+
+  /**
+   * How long the last export took.
+   */
+  synchronized long lastExportNanos() {
+    return lastExportNanos;
   }
 
   private static String getMetricType(Type type) {
@@ -160,16 +358,6 @@ public class FfwdMetricsConverter extends MetricExporter {
     }
   }
 
-  private void sendMetrics(List<com.spotify.ffwd.Metric> metrics) {
-    for (com.spotify.ffwd.Metric m : metrics) {
-      try {
-        client.send(m);
-      } catch (IOException e) {
-        LOG.error("Failed to send metric", e);
-      }
-    }
-  }
-
   static Map<String, String> createTags(List<LabelKey> keys, List<LabelValue> values) {
     final HashMap<String, String> tags = new HashMap<>(keys.size());
     for (int i = 0; i < values.size(); i++) {
@@ -181,4 +369,302 @@ public class FfwdMetricsConverter extends MetricExporter {
     }
     return tags;
   }
+
+  /**
+   * The time series of one partition, with the client and encoder they are sent with. Only used
+   * by one thread at a time.
+   */
+  private final class Partition {
+    private final FastForward client;
+    private final DistributionEncoder encoder = new DistributionEncoder();
+
+    private final Function<Distribution, Value> valueDistributionFunction;
+    private final Function<Summary, Value> valueSummaryFunction;
+
+    /**
+     * Templates and state of the time series seen in the last export, by metric descriptor, so
+     * that a point only needs its time and value encoded. Series missing from an export are
+     * evicted, and at most {@link #maxSeries} are kept.
+     */
+    private final Map<MetricDescriptor, Descriptor> descriptors = new HashMap<>();
+    private final int maxSeries;
+    private int cachedSeries = 0;
+    private boolean full = false;
+    private long droppedPoints = 0;
+
+    /**
+     * The time series of the current export, and the metric of each of them.
+     */
+    private final List<Metric> metrics = new ArrayList<>();
+    private final List<TimeSeries> timeSeries = new ArrayList<>();
+
+    Partition(final FastForward client, final int maxSeries) {
+      this.client = client;
+      this.maxSeries = maxSeries;
+      this.valueDistributionFunction = encoder::histogram;
+      this.valueSummaryFunction = encoder::summary;
+    }
+
+    void add(final Metric metric, final TimeSeries series) {
+      metrics.add(metric);
+      timeSeries.add(series);
+    }
+
+    void export(final long export) {
+      try {
+        convert(export);
+      } finally {
+        metrics.clear();
+        timeSeries.clear();
+      }
+
+      evict(export);
+    }
+
+    private void convert(final long export) {
+      Metric lastMetric = null;
+      Descriptor descriptor = null;
+
+      for (int i = 0; i < timeSeries.size(); i++) {
+        final Metric metric = metrics.get(i);
+
+        // the series of a metric are next to each other.
+        if (metric != lastMetric) {
+          lastMetric = metric;
+          descriptor = descriptors.computeIfAbsent(metric.getMetricDescriptor(), Descriptor::new);
+          descriptor.exported = export;
+        }
+
+        final Series series = series(descriptor, timeSeries.get(i).getLabelValues());
+        series.exported = export;
+
+        for (final Point point : timeSeries.get(i).getPoints()) {
+          send(descriptor, series, point);
+        }
+      }
+    }
+
+    private void send(final Descriptor descriptor, final Series series, final Point point) {
+      // convert to milliseconds
+      final long time = point.getTimestamp().getSeconds() * 1000;
+
+      if (descriptor.cumulative && (suppressUnchanged || cumulativeDeltas)) {
+        sendCumulative(series, time, point.getValue().match(
+            typedValueDoubleFunction,
+            typedValueLongFunction,
+            typedValueDistributionFunction,
+            typedValueSummaryFunction,
+            Functions.throwIllegalArgumentException()
+        ));
+        return;
+      }
+
+      if (version == FastForward.Version.V1) {
+        sendMetric(series.templateV1, time, point.getValue().match(
+            valueDoubleFunction,
+            valueLongFunction,
+            valueDistributionFunction,
+            valueSummaryFunction,
+            Functions.throwIllegalArgumentException()
+        ));
+        return;
+      }
+
+      final Double value = point.getValue().match(
+          typedValueDoubleFunction,
+          typedValueLongFunction,
+          typedValueDistributionFunction,
+          typedValueSummaryFunction,
+          Functions.throwIllegalArgumentException()
+      );
+
+      if (value != null) {
+        sendMetric(series.template, time, value);
+      }
+    }
+
+    /**
+     * Send a point of a cumulative series, unless it did not change since the last point sent
+     * and the heartbeat is not due yet. With deltas, the difference to the previous point is
+     * sent instead, and the first point of a series is only remembered. Series that are not
+     * cached have no previous point: they are sent as they are, or dropped with deltas.
+     */
+    private void sendCumulative(Series series, long time, double value) {
+      if (!series.cached) {
+        // a total sent as a delta would inflate the sum of the deltas, so it is only counted.
+        if (cumulativeDeltas) {
+          droppedPoints++;
+        } else {
+          sendMetric(series, time, value);
+        }
+
+        return;
+      }
+
+      if (!series.seen) {
+        series.seen = true;
+        series.last = value;
+
+        if (!cumulativeDeltas) {
+          series.sent = time;
+          sendMetric(series, time, value);
+        }
+
+        return;
+      }
+
+      final double previous = series.last;
+      series.last = value;
+
+      if (suppressUnchanged
+          && Double.compare(value, previous) == 0
+          && time - series.sent < heartbeatMillis) {
+        return;
+      }
+
+      series.sent = time;
+
+      if (!cumulativeDeltas) {
+        sendMetric(series, time, value);
+      } else if (value < previous) {
+        // the series was reset, and counts from zero again.
+        sendMetric(series, time, value);
+      } else {
+        sendMetric(series, time, value - previous);
+      }
+    }
+
+    private void sendMetric(Series series, long time, double value) {
+      if (version == FastForward.Version.V1) {
+        sendMetric(series.templateV1, time, Value.doubleValue(value));
+      } else {
+        sendMetric(series.template, time, value);
+      }
+    }
+
+    private void sendMetric(MetricTemplate template, long time, double value) {
+      try {
+        client.send(template, time, value);
+      } catch (IOException e) {
+        LOG.error("Failed to send metric", e);
+      }
+    }
+
+    private void sendMetric(
+        com.spotify.ffwd.v1.MetricTemplate template, long time, Value value) {
+      try {
+        client.send(template, time, value);
+      } catch (IOException e) {
+        LOG.error("Failed to send metric", e);
+      }
+    }
+
+    /**
+     * The cached series with the given label values. Once {@link #maxSeries} are cached, new
+     * series get a template of their own every export, and no state.
+     */
+    private Series series(final Descriptor descriptor, final List<LabelValue> labelValues) {
+      Series cached = descriptor.series.get(labelValues);
+
+      if (cached != null) {
+        return cached;
+      }
+
+      final MetricDescriptor metric = descriptor.descriptor;
+      final Map<String, String> tags = createTags(metric.getLabelKeys(), labelValues);
+
+      if (version == FastForward.Version.V1) {
+        cached = new Series(null, FastForward
+            .metricV1(metric.getName())
+            .attributes(tags)
+            .attribute("unit", metric.getUnit())
+            .attribute("metric_type", descriptor.metricType)
+            .template());
+      } else {
+        cached = new Series(FastForward
+            .metric(metric.getName())
+            .attributes(tags)
+            .attribute("unit", metric.getUnit())
+            .attribute("metric_type", descriptor.metricType)
+            .template(), null);
+      }
+
+      if (cachedSeries < maxSeries) {
+        cached.cached = true;
+        descriptor.series.put(labelValues, cached);
+        cachedSeries++;
+      } else if (!full) {
+        full = true;
+        LOG.warn("More than {} time series, new series are exported without state, and their "
+            + "cumulative points are dropped with cumulative deltas", maxSeries);
+      }
+
+      return cached;
+    }
+
+    /**
+     * Forget the metrics and time series that were not part of the given export.
+     */
+    private void evict(long export) {
+      final Iterator<Descriptor> iterator = descriptors.values().iterator();
+
+      while (iterator.hasNext()) {
+        final Descriptor descriptor = iterator.next();
+
+        if (descriptor.exported != export) {
+          cachedSeries -= descriptor.series.size();
+          iterator.remove();
+          continue;
+        }
+
+        final Iterator<Series> series = descriptor.series.values().iterator();
+
+        while (series.hasNext()) {
+          if (series.next().exported != export) {
+            cachedSeries--;
+            series.remove();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * The time series of one metric.
+   */
+  private static final class Descriptor {
+    private final MetricDescriptor descriptor;
+    private final String metricType;
+    private final boolean cumulative;
+    private final Map<List<LabelValue>, Series> series = new HashMap<>();
+    private long exported;
+
+    Descriptor(final MetricDescriptor descriptor) {
+      this.descriptor = descriptor;
+      this.metricType = getMetricType(descriptor.getType());
+      this.cumulative = descriptor.getType() == Type.CUMULATIVE_INT64
+          || descriptor.getType() == Type.CUMULATIVE_DOUBLE;
+    }
+  }
+
+  /**
+   * A time series, with the template of the protocol version it is sent with.
+   */
+  private static final class Series {
+    private final MetricTemplate template;
+    private final com.spotify.ffwd.v1.MetricTemplate templateV1;
+    private long exported;
+    private boolean cached;
+
+    // the last value of a cumulative series, and when it was last sent.
+    private boolean seen;
+    private double last;
+    private long sent;
+
+    Series(
+        final MetricTemplate template, final com.spotify.ffwd.v1.MetricTemplate templateV1) {
+      this.template = template;
+      this.templateV1 = templateV1;
+    }
+  }
 }
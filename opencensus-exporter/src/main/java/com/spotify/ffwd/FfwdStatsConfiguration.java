@@ -20,10 +20,19 @@
 
 package com.spotify.ffwd;
 
+import java.util.concurrent.ExecutorService;
+
 public class FfwdStatsConfiguration {
   private String ffwdHost;
   private int ffwdPort;
   private long exporterIntervalSeconds;
+  private FastForward.Version version;
+  private boolean suppressUnchanged;
+  private long heartbeatSeconds;
+  private boolean cumulativeDeltas;
+  private int maxSeries;
+  private int parallelism;
+  private ExecutorService executor;
 
   public String getFfwdHost() {
     return ffwdHost;
@@ -37,6 +46,34 @@ public class FfwdStatsConfiguration {
     return exporterIntervalSeconds;
   }
 
+  public FastForward.Version getVersion() {
+    return version;
+  }
+
+  public boolean isSuppressUnchanged() {
+    return suppressUnchanged;
+  }
+
+  public long getHeartbeatSeconds() {
+    return heartbeatSeconds;
+  }
+
+  public boolean isCumulativeDeltas() {
+    return cumulativeDeltas;
+  }
+
+  public int getMaxSeries() {
+    return maxSeries;
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  public ExecutorService getExecutor() {
+    return executor;
+  }
+
   public static FfwdStatsConfigurationBuilder builder() {
     return new FfwdStatsConfigurationBuilder();
   }
@@ -45,6 +82,13 @@ public class FfwdStatsConfiguration {
     this.ffwdHost = builder.ffwdHost;
     this.ffwdPort = builder.ffwdPort;
     this.exporterIntervalSeconds = builder.exporterIntervalSeconds;
+    this.version = builder.version;
+    this.suppressUnchanged = builder.suppressUnchanged;
+    this.heartbeatSeconds = builder.heartbeatSeconds;
+    this.cumulativeDeltas = builder.cumulativeDeltas;
+    this.maxSeries = builder.maxSeries;
+    this.parallelism = builder.parallelism;
+    this.executor = builder.executor;
   }
 
   // Builder Class
@@ -52,6 +96,13 @@ public class FfwdStatsConfiguration {
     private String ffwdHost = "localhost";
     private int ffwdPort = 19091;
     private long exporterIntervalSeconds = 60;
+    private FastForward.Version version = FastForward.Version.V0;
+    private boolean suppressUnchanged = false;
+    private long heartbeatSeconds = 600;
+    private boolean cumulativeDeltas = false;
+    private int maxSeries = 1_000_000;
+    private int parallelism = 1;
+    private ExecutorService executor = null;
 
     public FfwdStatsConfigurationBuilder() {}
 
@@ -71,6 +122,93 @@ public class FfwdStatsConfiguration {
       return this;
     }
 
+    /**
+     * Protocol version to send the metrics with, {@link FastForward.Version#V0} by default.
+     *
+     * <p>With {@link FastForward.Version#V1}, every point of a distribution or a summary is sent
+     * as one distribution value, laid out as the {@code Histogram} or the {@code Summary} message
+     * of {@code distribution.proto}. With v0, distributions are not sent and summaries only send
+     * their median.
+     */
+    public FfwdStatsConfigurationBuilder setVersion(final FastForward.Version version) {
+      if (version == null) {
+        throw new IllegalArgumentException("version must not be null");
+      }
+
+      this.version = version;
+      return this;
+    }
+
+    /**
+     * Skip the points of cumulative series that did not change since the last point sent, until
+     * the heartbeat is due. Disabled by default.
+     */
+    public FfwdStatsConfigurationBuilder setSuppressUnchanged(final boolean suppressUnchanged) {
+      this.suppressUnchanged = suppressUnchanged;
+      return this;
+    }
+
+    /**
+     * How long an unchanged cumulative series may go without being sent, 600 seconds by default.
+     */
+    public FfwdStatsConfigurationBuilder setHeartbeatSeconds(final long heartbeatSeconds) {
+      if (heartbeatSeconds <= 0) {
+        throw new IllegalArgumentException("heartbeatSeconds must be positive");
+      }
+
+      this.heartbeatSeconds = heartbeatSeconds;
+      return this;
+    }
+
+    /**
+     * Send cumulative series as the difference to their previous point, rather than as the total
+     * since they started. The first point of a series is not sent, and a series that goes down is
+     * taken to have restarted from zero. Disabled by default.
+     */
+    public FfwdStatsConfigurationBuilder setCumulativeDeltas(final boolean cumulativeDeltas) {
+      this.cumulativeDeltas = cumulativeDeltas;
+      return this;
+    }
+
+    /**
+     * Number of time series whose template and last value are kept between exports, 1000000 by
+     * default. Series beyond that are sent every export as they are. With cumulative deltas, the
+     * points of cumulative series beyond it are dropped instead, since there is no previous point
+     * to subtract, and how many were dropped is logged as a warning.
+     */
+    public FfwdStatsConfigurationBuilder setMaxSeries(final int maxSeries) {
+      if (maxSeries <= 0) {
+        throw new IllegalArgumentException("maxSeries must be positive");
+      }
+
+      this.maxSeries = maxSeries;
+      return this;
+    }
+
+    /**
+     * Number of threads converting and sending an export, 1 by default.
+     *
+     * <p>The time series are split between that many partitions, each with its own ffwd client.
+     * A series always belongs to the same partition, so that its points are sent in order.
+     */
+    public FfwdStatsConfigurationBuilder setParallelism(final int parallelism) {
+      if (parallelism <= 0) {
+        throw new IllegalArgumentException("parallelism must be positive");
+      }
+
+      this.parallelism = parallelism;
+      return this;
+    }
+
+    /**
+     * Executor running the partitions when the parallelism is above 1, a fork-join pool with as
+     * many threads as the parallelism by default.
+     */
+    public FfwdStatsConfigurationBuilder setExecutor(final ExecutorService executor) {
+      this.executor = executor;
+      return this;
+    }
+
     public FfwdStatsConfiguration build() {
       return new FfwdStatsConfiguration(this);
     }
@@ -33,7 +33,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Exporter to ffwd protobuf API v0.
+ * Exporter to ffwd protobuf API v0, or v1 to also send distributions and summaries.
  *
  * <p>Example of usage on Google Cloud VMs:
  *
@@ -60,14 +60,14 @@ public class FfwdStatsExporter {
 
   private static final String EXPORTER_SPAN_NAME = "ExportMetricsToFfwd";
 
+  private final FfwdMetricsConverter converter;
   private final IntervalMetricReader intervalMetricReader;
 
-  private FfwdStatsExporter(
-      final String ffwdHost, final int ffwdPort, final long exporterIntervalSeconds) {
-
+  private FfwdStatsExporter(final FfwdStatsConfiguration configuration) {
+    this.converter = new FfwdMetricsConverter(configuration);
     this.intervalMetricReader =
         IntervalMetricReader.create(
-            new FfwdMetricsConverter(ffwdHost, ffwdPort),
+            converter,
             MetricReader.create(
                 MetricReader.Options.builder()
                     .setMetricProducerManager(
@@ -75,7 +75,8 @@ public class FfwdStatsExporter {
                     .setSpanName(EXPORTER_SPAN_NAME)
                     .build()),
             IntervalMetricReader.Options.builder()
-                .setExportInterval(Duration.create(exporterIntervalSeconds, 0))
+                .setExportInterval(
+                    Duration.create(configuration.getExporterIntervalSeconds(), 0))
                 .build());
   }
 
@@ -86,10 +87,7 @@ public class FfwdStatsExporter {
    * @throws IllegalStateException if a ffwd exporter is already created.
    */
   public static void createAndRegister(final FfwdStatsConfiguration configuration) {
-    createInternal(
-        configuration.getFfwdHost(),
-        configuration.getFfwdPort(),
-        configuration.getExporterIntervalSeconds());
+    createInternal(configuration);
   }
 
   /**
@@ -102,32 +100,29 @@ public class FfwdStatsExporter {
   }
 
   // Enforce singleton.
-  private static void createInternal(
-      final String ffwdHost, final int ffwdPort, final long exporterIntervalSeconds) {
+  private static void createInternal(final FfwdStatsConfiguration configuration) {
 
     synchronized (monitor) {
       checkState(instance == null, "Ffwd stats exporter is already created.");
 
       LOG.info("Registering ffwd opencensus stats exporter");
 
-      instance =
-          new FfwdStatsExporter(
-              ffwdHost,
-              ffwdPort,
-              exporterIntervalSeconds);
+      instance = new FfwdStatsExporter(configuration);
     }
   }
 
   /**
    * Unregisters the {@link FfwdStatsExporter} and stops metrics exporting.
    *
-   * <p>Unexported data will be flushed before the exporter is stopped.
+   * <p>Unexported data will be flushed before the exporter is stopped, then the ffwd clients
+   * and the executor the exporter created are closed.
    *
    */
   public static void unregister() {
     synchronized (monitor) {
       if (instance != null) {
         instance.intervalMetricReader.stop();
+        instance.converter.close();
       }
       instance = null;
     }
@@ -21,23 +21,42 @@
 package com.spotify.ffwd;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.times;
 
+import com.google.protobuf.ByteString;
+import com.spotify.ffwd.distribution.Distribution.Histogram;
 import io.opencensus.common.Timestamp;
 import io.opencensus.metrics.LabelKey;
 import io.opencensus.metrics.LabelValue;
+import io.opencensus.metrics.export.Distribution;
 import io.opencensus.metrics.export.Metric;
 import io.opencensus.metrics.export.MetricDescriptor;
 import io.opencensus.metrics.export.Point;
+import io.opencensus.metrics.export.Summary;
 import io.opencensus.metrics.export.TimeSeries;
 import io.opencensus.metrics.export.Value;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -57,30 +76,315 @@ public class FfwdMetricsConverterTest {
   void counterisSent() throws IOException {
     final FfwdMetricsConverter converter = new FfwdMetricsConverter(client);
 
-    final ArgumentCaptor<com.spotify.ffwd.Metric> metricCaptor =
-        ArgumentCaptor.forClass(com.spotify.ffwd.Metric.class);
+    final ArgumentCaptor<MetricTemplate> templateCaptor =
+        ArgumentCaptor.forClass(MetricTemplate.class);
 
-    Mockito.doNothing().when(client).send(metricCaptor.capture());
+    converter.export(Collections.singletonList(counter("200")));
+
+    Mockito.verify(client, times(1))
+        .send(templateCaptor.capture(), eq(1575323125000L), eq(10.0));
+
+    final com.spotify.ffwd.Metric metric = templateCaptor.getValue().getMetric();
+    assertEquals("rps-requests", metric.getKey());
+    assertEquals("requests", metric.getAttributes().get("unit"));
+    assertEquals("counter", metric.getAttributes().get("metric_type"));
+    assertEquals("200", metric.getAttributes().get("status-code"));
+  }
+
+  @Test
+  void templatesAreReusedAcrossExports() throws IOException {
+    final FfwdMetricsConverter converter = new FfwdMetricsConverter(client);
+
+    final ArgumentCaptor<MetricTemplate> templateCaptor =
+        ArgumentCaptor.forClass(MetricTemplate.class);
+
+    converter.export(Arrays.asList(counter("200"), counter("500")));
+    converter.export(Arrays.asList(counter("200"), counter("500")));
+
+    Mockito.verify(client, times(4)).send(templateCaptor.capture(), anyLong(), anyDouble());
+
+    final List<MetricTemplate> templates = templateCaptor.getAllValues();
+    assertNotSame(templates.get(0), templates.get(1));
+    assertSame(templates.get(0), templates.get(2));
+    assertSame(templates.get(1), templates.get(3));
+    assertEquals(2, converter.cachedSeries());
+  }
+
+  @Test
+  void seriesMissingFromAnExportAreEvicted() throws IOException {
+    final FfwdMetricsConverter converter = new FfwdMetricsConverter(client);
+
+    converter.export(Arrays.asList(counter("200"), counter("500")));
+    assertEquals(2, converter.cachedSeries());
+
+    converter.export(Collections.singletonList(counter("200")));
+    assertEquals(1, converter.cachedSeries());
+
+    converter.export(Collections.emptyList());
+    assertEquals(0, converter.cachedSeries());
+  }
+
+  @Test
+  void longIsSent() throws IOException {
+    final FfwdMetricsConverter converter = new FfwdMetricsConverter(client);
 
     converter.export(
         Collections.singletonList(
             Metric.createWithOneTimeSeries(
                 MetricDescriptor.create(
-                    "rps-requests",
-                    "requests",
-                    "requests",
-                    MetricDescriptor.Type.CUMULATIVE_DOUBLE,
-                    Collections.singletonList(LabelKey.create("status-code", "rpc status code"))),
+                    "queue-size", "queue size", "1", MetricDescriptor.Type.GAUGE_INT64,
+                    Collections.emptyList()),
                 TimeSeries.createWithOnePoint(
-                    Collections.singletonList(LabelValue.create("200")),
-                    Point.create(Value.doubleValue(10.0), Timestamp.create(1575323125, 0)),
-                    Timestamp.create(1575323125, 0)))));
+                    Collections.emptyList(),
+                    Point.create(Value.longValue(42), Timestamp.create(1575323125, 0)),
+                    null))));
+
+    Mockito.verify(client, times(1))
+        .send(Mockito.any(MetricTemplate.class), eq(1575323125000L), eq(42.0));
+  }
+
+  @Test
+  void distributionIsNotSentWithV0() throws IOException {
+    final FfwdMetricsConverter converter = new FfwdMetricsConverter(client);
+
+    converter.export(Collections.singletonList(latency()));
+
+    Mockito.verifyNoInteractions(client);
+  }
+
+  @Test
+  void distributionIsSentWithV1() throws IOException {
+    final FfwdMetricsConverter converter =
+        new FfwdMetricsConverter(client, v1());
+
+    final ArgumentCaptor<com.spotify.ffwd.v1.MetricTemplate> templateCaptor =
+        ArgumentCaptor.forClass(com.spotify.ffwd.v1.MetricTemplate.class);
+    final ArgumentCaptor<com.spotify.ffwd.v1.Value> valueCaptor =
+        ArgumentCaptor.forClass(com.spotify.ffwd.v1.Value.class);
+
+    converter.export(Collections.singletonList(latency()));
+
+    Mockito.verify(client, times(1))
+        .send(templateCaptor.capture(), eq(1575323125000L), valueCaptor.capture());
+
+    final com.spotify.ffwd.v1.Metric metric = templateCaptor.getValue().getMetric();
+    assertEquals("latency", metric.getKey());
+    assertEquals("distribution", metric.getAttributes().get("metric_type"));
+
+    final Histogram histogram = Histogram.parseFrom(bytes(valueCaptor.getValue()));
+    assertEquals(Arrays.asList(10.0, 100.0), histogram.getBoundsList());
+    assertEquals(Arrays.asList(1L, 2L, 0L), histogram.getCountsList());
+    assertEquals(3, histogram.getCount());
+    assertEquals(72.0, histogram.getSum());
+    assertEquals(1800.0, histogram.getSumOfSquaredDeviation());
+  }
+
+  @Test
+  void summaryIsSentWithV1() throws IOException {
+    final FfwdMetricsConverter converter =
+        new FfwdMetricsConverter(client, v1());
+
+    final ArgumentCaptor<com.spotify.ffwd.v1.Value> valueCaptor =
+        ArgumentCaptor.forClass(com.spotify.ffwd.v1.Value.class);
+
+    converter.export(
+        Collections.singletonList(
+            Metric.createWithOneTimeSeries(
+                MetricDescriptor.create(
+                    "size", "size", "By", MetricDescriptor.Type.SUMMARY,
+                    Collections.emptyList()),
+                TimeSeries.createWithOnePoint(
+                    Collections.emptyList(),
+                    Point.create(
+                        Value.summaryValue(Summary.create(10L, 100.0, Summary.Snapshot.create(
+                            null, null, Arrays.asList(
+                                Summary.Snapshot.ValueAtPercentile.create(50, 8),
+                                Summary.Snapshot.ValueAtPercentile.create(99, 20))))),
+                        Timestamp.create(1575323125, 0)),
+                    null))));
+
+    Mockito.verify(client, times(1))
+        .send(any(com.spotify.ffwd.v1.MetricTemplate.class), eq(1575323125000L),
+            valueCaptor.capture());
+
+    final com.spotify.ffwd.distribution.Distribution.Summary summary =
+        com.spotify.ffwd.distribution.Distribution.Summary.parseFrom(
+            bytes(valueCaptor.getValue()));
+    assertEquals(10, summary.getCount());
+    assertEquals(100.0, summary.getSum());
+    assertEquals(Arrays.asList(0.5, 0.99), summary.getQuantilesList());
+    assertEquals(Arrays.asList(8.0, 20.0), summary.getValuesList());
+  }
+
+  @Test
+  void counterIsSentAsDoubleWithV1() throws IOException {
+    final FfwdMetricsConverter converter =
+        new FfwdMetricsConverter(client, v1());
+
+    converter.export(Collections.singletonList(counter("200")));
+
+    Mockito.verify(client, times(1))
+        .send(any(com.spotify.ffwd.v1.MetricTemplate.class), eq(1575323125000L),
+            eq(com.spotify.ffwd.v1.Value.doubleValue(10.0)));
+  }
+
+  @Test
+  void unchangedCumulativesAreSuppressedUntilTheHeartbeat() throws IOException {
+    final FfwdMetricsConverter converter = new FfwdMetricsConverter(client,
+        FfwdStatsConfiguration.builder()
+            .setSuppressUnchanged(true)
+            .setHeartbeatSeconds(120)
+            .build());
+
+    converter.export(Collections.singletonList(counter("200", 10, 0)));
+    converter.export(Collections.singletonList(counter("200", 10, 60)));
+    converter.export(Collections.singletonList(counter("200", 11, 120)));
+    converter.export(Collections.singletonList(counter("200", 11, 180)));
+    converter.export(Collections.singletonList(counter("200", 11, 240)));
+    converter.export(Collections.singletonList(counter("200", 11, 300)));
+
+    final InOrder inOrder = Mockito.inOrder(client);
+    inOrder.verify(client).send(any(MetricTemplate.class), eq(0L), eq(10.0));
+    inOrder.verify(client).send(any(MetricTemplate.class), eq(120_000L), eq(11.0));
+    inOrder.verify(client).send(any(MetricTemplate.class), eq(240_000L), eq(11.0));
+    inOrder.verifyNoMoreInteractions();
+  }
 
-    Mockito.verify(client, times(1)).send(Mockito.any(com.spotify.ffwd.Metric.class));
+  @Test
+  void gaugesAreNotSuppressed() throws IOException {
+    final FfwdMetricsConverter converter = new FfwdMetricsConverter(client,
+        FfwdStatsConfiguration.builder().setSuppressUnchanged(true).build());
+
+    converter.export(Collections.singletonList(gauge(42)));
+    converter.export(Collections.singletonList(gauge(42)));
+
+    Mockito.verify(client, times(2)).send(any(MetricTemplate.class), anyLong(), eq(42.0));
+  }
+
+  @Test
+  void cumulativesAreSentAsDeltas() throws IOException {
+    final FfwdMetricsConverter converter = new FfwdMetricsConverter(client,
+        FfwdStatsConfiguration.builder().setCumulativeDeltas(true).build());
+
+    converter.export(Collections.singletonList(counter("200", 10, 0)));
+    converter.export(Collections.singletonList(counter("200", 15, 60)));
+    converter.export(Collections.singletonList(counter("200", 15, 120)));
+    // the process restarted.
+    converter.export(Collections.singletonList(counter("200", 3, 180)));
+
+    final InOrder inOrder = Mockito.inOrder(client);
+    inOrder.verify(client).send(any(MetricTemplate.class), eq(60_000L), eq(5.0));
+    inOrder.verify(client).send(any(MetricTemplate.class), eq(120_000L), eq(0.0));
+    inOrder.verify(client).send(any(MetricTemplate.class), eq(180_000L), eq(3.0));
+    inOrder.verifyNoMoreInteractions();
+  }
+
+  @Test
+  void deltaStateIsEvictedWithTheSeries() throws IOException {
+    final FfwdMetricsConverter converter = new FfwdMetricsConverter(client,
+        FfwdStatsConfiguration.builder().setCumulativeDeltas(true).build());
+
+    converter.export(Collections.singletonList(counter("200", 10, 0)));
+    converter.export(Collections.emptyList());
+    converter.export(Collections.singletonList(counter("200", 15, 120)));
+
+    Mockito.verifyNoInteractions(client);
+  }
+
+  @Test
+  void seriesBeyondTheMaximumAreNotCached() throws IOException {
+    final FfwdMetricsConverter converter = new FfwdMetricsConverter(client,
+        FfwdStatsConfiguration.builder().setSuppressUnchanged(true).setMaxSeries(1).build());
+
+    converter.export(Arrays.asList(counter("200"), counter("500")));
+    converter.export(Arrays.asList(counter("200"), counter("500")));
+
+    assertEquals(1, converter.cachedSeries());
+    // the uncached series has no last value to compare with.
+    Mockito.verify(client, times(3)).send(any(MetricTemplate.class), anyLong(), eq(10.0));
+  }
 
-    assertEquals("rps-requests", metricCaptor.getValue().getKey());
-    assertEquals("requests", metricCaptor.getValue().getAttributes().get("unit"));
-    assertEquals("counter", metricCaptor.getValue().getAttributes().get("metric_type"));
+  @Test
+  void seriesBeyondTheMaximumAreDroppedWithDeltas() throws IOException {
+    final FfwdMetricsConverter converter = new FfwdMetricsConverter(client,
+        FfwdStatsConfiguration.builder().setCumulativeDeltas(true).setMaxSeries(1).build());
+
+    converter.export(Arrays.asList(counter("200", 10, 0), counter("500", 10, 0)));
+    converter.export(Arrays.asList(counter("200", 15, 60), counter("500", 15, 60)));
+
+    // only the delta of the cached series is sent, never a total under the same key.
+    assertEquals(1, converter.cachedSeries());
+    assertEquals(2, converter.droppedPoints());
+    Mockito.verify(client).send(any(MetricTemplate.class), eq(60_000L), eq(5.0));
+    Mockito.verifyNoMoreInteractions(client);
+  }
+
+  @Test
+  void parallelExportSendsEverySeries() throws IOException {
+    final FfwdMetricsConverter converter = new FfwdMetricsConverter(client,
+        FfwdStatsConfiguration.builder().setParallelism(4).build());
+
+    final List<Metric> metrics = new ArrayList<>();
+
+    for (int i = 0; i < 1000; i++) {
+      metrics.add(counter(String.valueOf(i)));
+    }
+
+    converter.export(metrics);
+
+    Mockito.verify(client, times(1000))
+        .send(any(MetricTemplate.class), eq(1575323125000L), eq(10.0));
+    assertEquals(1000, converter.cachedSeries());
+    assertTrue(converter.lastExportNanos() > 0);
+  }
+
+  @Test
+  void parallelExportKeepsTheStateOfEverySeries() throws IOException {
+    final FfwdMetricsConverter converter = new FfwdMetricsConverter(client,
+        FfwdStatsConfiguration.builder().setParallelism(4).setCumulativeDeltas(true).build());
+
+    final List<Metric> first = new ArrayList<>();
+    final List<Metric> second = new ArrayList<>();
+
+    for (int i = 0; i < 1000; i++) {
+      first.add(counter(String.valueOf(i), 10, 0));
+      second.add(counter(String.valueOf(i), 15, 60));
+    }
+
+    converter.export(first);
+    converter.export(second);
+
+    // every series met its own previous point, whichever thread converted it.
+    Mockito.verify(client, times(1000)).send(any(MetricTemplate.class), eq(60_000L), eq(5.0));
+    Mockito.verifyNoMoreInteractions(client);
+  }
+
+  @Test
+  void closeShutsDownTheOwnedExecutor() {
+    final FfwdMetricsConverter converter = new FfwdMetricsConverter(client,
+        FfwdStatsConfiguration.builder().setParallelism(4).build());
+
+    converter.close();
+
+    assertThrows(RejectedExecutionException.class,
+        () -> converter.export(Collections.singletonList(counter("0"))));
+  }
+
+  @Test
+  void closeLeavesAConfiguredExecutorAndClientOpen() throws IOException {
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    try {
+      final FfwdMetricsConverter converter = new FfwdMetricsConverter(client,
+          FfwdStatsConfiguration.builder().setParallelism(4).setExecutor(executor).build());
+
+      converter.close();
+
+      assertFalse(executor.isShutdown());
+      Mockito.verify(client, Mockito.never()).close();
+    } finally {
+      executor.shutdown();
+    }
   }
 
   @Test
@@ -105,5 +409,58 @@ public class FfwdMetricsConverterTest {
     assertEquals(0, tags.size());
   }
 
+  private static FfwdStatsConfiguration v1() {
+    return FfwdStatsConfiguration.builder().setVersion(FastForward.Version.V1).build();
+  }
+
+  private static ByteString bytes(com.spotify.ffwd.v1.Value value) {
+    return value.match(d -> null, bytes -> bytes, v -> null);
+  }
+
+  private static Metric latency() {
+    return Metric.createWithOneTimeSeries(
+        MetricDescriptor.create(
+            "latency", "latency", "ms", MetricDescriptor.Type.CUMULATIVE_DISTRIBUTION,
+            Collections.emptyList()),
+        TimeSeries.createWithOnePoint(
+            Collections.emptyList(),
+            Point.create(
+                Value.distributionValue(Distribution.create(3, 72.0, 1800.0,
+                    Distribution.BucketOptions.explicitOptions(Arrays.asList(10.0, 100.0)),
+                    Arrays.asList(Distribution.Bucket.create(1), Distribution.Bucket.create(2),
+                        Distribution.Bucket.create(0)))),
+                Timestamp.create(1575323125, 0)),
+            Timestamp.create(1575323125, 0)));
+  }
+
+  private static Metric gauge(long value) {
+    return Metric.createWithOneTimeSeries(
+        MetricDescriptor.create(
+            "queue-size", "queue size", "1", MetricDescriptor.Type.GAUGE_INT64,
+            Collections.emptyList()),
+        TimeSeries.createWithOnePoint(
+            Collections.emptyList(),
+            Point.create(Value.longValue(value), Timestamp.create(1575323125, 0)),
+            null));
+  }
+
+  private static Metric counter(String statusCode) {
+    return counter(statusCode, 10.0, 1575323125);
+  }
+
+  private static Metric counter(String statusCode, double value, long seconds) {
+    return Metric.createWithOneTimeSeries(
+        MetricDescriptor.create(
+            "rps-requests",
+            "requests",
+            "requests",
+            MetricDescriptor.Type.CUMULATIVE_DOUBLE,
+            Collections.singletonList(LabelKey.create("status-code", "rpc status code"))),
+        TimeSeries.createWithOnePoint(
+            Collections.singletonList(LabelValue.create(statusCode)),
+            Point.create(Value.doubleValue(value), Timestamp.create(seconds, 0)),
+            Timestamp.create(0, 0)));
+  }
+
 
 }
@@ -0,0 +1,74 @@
+/*-
+ * -\-\-
+ * opentelemetry-exporter
+ * --
+ * Copyright (C) 2016 - 2019 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd.opentelemetry;
+
+import com.spotify.ffwd.v1.DistributionWriter;
+import com.spotify.ffwd.v1.Value;
+import io.opentelemetry.sdk.metrics.data.HistogramPointData;
+import io.opentelemetry.sdk.metrics.data.SummaryPointData;
+import io.opentelemetry.sdk.metrics.data.ValueAtQuantile;
+import java.util.List;
+
+/**
+ * Encodes OpenTelemetry histograms and summaries as distribution values of the v1 protocol.
+ *
+ * <p>A histogram is encoded as the {@code Histogram} message of {@code distribution.proto}, a
+ * summary as the {@code Summary} message. OpenTelemetry counts a value equal to a bound in the
+ * bucket below it, so histograms are upper inclusive. Values are written by a
+ * {@link DistributionWriter}, and are only valid until the next one is encoded. Not thread-safe.
+ */
+final class DistributionEncoder {
+
+  private final DistributionWriter writer = new DistributionWriter();
+
+  Value histogram(final HistogramPointData point) {
+    final List<Double> bounds = point.getBoundaries();
+    final List<Long> counts = point.getCounts();
+    writer.histogram();
+
+    for (int i = 0; i < bounds.size(); i++) {
+      writer.bound(bounds.get(i));
+    }
+
+    for (int i = 0; i < counts.size(); i++) {
+      writer.bucketCount(counts.get(i));
+    }
+
+    return writer
+        .count(point.getCount())
+        .sum(point.getSum())
+        .min(point.hasMin() ? point.getMin() : 0)
+        .max(point.hasMax() ? point.getMax() : 0)
+        .upperInclusive(true)
+        .write();
+  }
+
+  Value summary(final SummaryPointData point) {
+    final List<ValueAtQuantile> quantiles = point.getValues();
+    writer.summary();
+
+    for (int i = 0; i < quantiles.size(); i++) {
+      writer.quantile(quantiles.get(i).getQuantile(), quantiles.get(i).getValue());
+    }
+
+    return writer.count(point.getCount()).sum(point.getSum()).write();
+  }
+}
@@ -0,0 +1,493 @@
+/*-
+ * -\-\-
+ * opentelemetry-exporter
+ * --
+ * Copyright (C) 2016 - 2019 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd.opentelemetry;
+
+import com.spotify.ffwd.FastForward;
+import com.spotify.ffwd.FastForwardConfiguration;
+import com.spotify.ffwd.v1.MetricTemplate;
+import com.spotify.ffwd.v1.Value;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.common.InstrumentationScopeInfo;
+import io.opentelemetry.sdk.common.export.MemoryMode;
+import io.opentelemetry.sdk.metrics.InstrumentType;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
+import io.opentelemetry.sdk.metrics.data.DoublePointData;
+import io.opentelemetry.sdk.metrics.data.HistogramPointData;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.data.PointData;
+import io.opentelemetry.sdk.metrics.data.SummaryPointData;
+import io.opentelemetry.sdk.metrics.export.AggregationTemporalitySelector;
+import io.opentelemetry.sdk.metrics.export.MetricExporter;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exporter of OpenTelemetry metrics to ffwd protobuf API v1.
+ *
+ * <p>Example of usage:
+ *
+ * <pre><code>
+ *   SdkMeterProvider meterProvider = SdkMeterProvider.builder()
+ *       .registerMetricReader(
+ *           PeriodicMetricReader.builder(FfwdMetricExporter.builder().build()).build())
+ *       .build();
+ * </code></pre>
+ *
+ * <p>Every point is sent as a v1 metric keyed by the name of its instrument, with the attributes
+ * of the point, the unit and a {@code metric_type} attribute: {@code counter} for monotonic sums,
+ * {@code gauge} for gauges and other sums, {@code distribution} for histograms and
+ * {@code histogram} for summaries. Histograms and summaries are sent as one distribution value,
+ * laid out as the {@code Histogram} and {@code Summary} messages of {@code distribution.proto}.
+ * Exponential histograms are not sent.
+ *
+ * <p>Every instrument and attribute set is encoded once into a metric template, later collections
+ * only encode the time and value of their points. Series missing from
+ * {@link #EVICT_AFTER_EXPORTS} consecutive collections are forgotten. With the
+ * {@link MemoryMode#REUSABLE_DATA} memory mode, a steady export allocates next to nothing.
+ */
+public final class FfwdMetricExporter implements MetricExporter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(FfwdMetricExporter.class);
+
+  /**
+   * Series missing from this many consecutive exports are forgotten. With delta temporality, a
+   * series without new measurements is missing from a collection.
+   */
+  public static final int EVICT_AFTER_EXPORTS = 3;
+
+  private final FastForward client;
+  private final AggregationTemporalitySelector temporalitySelector;
+  private final MemoryMode memoryMode;
+  private final long flushTimeoutMillis;
+  private final DistributionEncoder encoder = new DistributionEncoder();
+
+  /**
+   * The instruments of every instrumentation scope, by name.
+   */
+  private final Map<InstrumentationScopeInfo, Map<String, Instrument>> scopes = new HashMap<>();
+  private int cachedSeries = 0;
+  private long exports = 0;
+  private boolean shutdown = false;
+
+  /**
+   * Send failures of the current export.
+   */
+  private int failures = 0;
+  private IOException failure = null;
+
+  private FfwdMetricExporter(final FfwdMetricExporterBuilder builder, final FastForward client) {
+    this.client = client;
+    this.temporalitySelector = builder.temporalitySelector;
+    this.memoryMode = builder.memoryMode;
+    this.flushTimeoutMillis = builder.flushTimeoutMillis;
+  }
+
+  public static FfwdMetricExporterBuilder builder() {
+    return new FfwdMetricExporterBuilder();
+  }
+
+  @Override
+  public AggregationTemporality getAggregationTemporality(final InstrumentType instrumentType) {
+    return temporalitySelector.getAggregationTemporality(instrumentType);
+  }
+
+  @Override
+  public MemoryMode getMemoryMode() {
+    return memoryMode;
+  }
+
+  @Override
+  public synchronized CompletableResultCode export(final Collection<MetricData> metrics) {
+    if (shutdown) {
+      return CompletableResultCode.ofFailure();
+    }
+
+    final long export = ++exports;
+    failures = 0;
+    failure = null;
+
+    for (final MetricData metric : metrics) {
+      final Instrument instrument = instrument(metric);
+
+      if (instrument != null) {
+        instrument.exported = export;
+        sendPoints(metric, instrument, export);
+      }
+    }
+
+    evict(export);
+
+    if (failures > 0) {
+      LOG.error("Failed to send {} metrics", failures, failure);
+      return CompletableResultCode.ofFailure();
+    }
+
+    return flush();
+  }
+
+  /**
+   * Wait for the metrics queued or batched by the client to be sent.
+   */
+  @Override
+  public CompletableResultCode flush() {
+    try {
+      return client.flush(flushTimeoutMillis, TimeUnit.MILLISECONDS)
+          ? CompletableResultCode.ofSuccess()
+          : CompletableResultCode.ofFailure();
+    } catch (IOException e) {
+      LOG.error("Failed to flush metrics", e);
+      return CompletableResultCode.ofFailure();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return CompletableResultCode.ofFailure();
+    }
+  }
+
+  @Override
+  public synchronized CompletableResultCode shutdown() {
+    if (shutdown) {
+      return CompletableResultCode.ofSuccess();
+    }
+
+    shutdown = true;
+
+    try {
+      return client.close(flushTimeoutMillis, TimeUnit.MILLISECONDS)
+          ? CompletableResultCode.ofSuccess()
+          : CompletableResultCode.ofFailure();
+    } catch (IOException e) {
+      LOG.error("Failed to close the ffwd client", e);
+      return CompletableResultCode.ofFailure();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return CompletableResultCode.ofFailure();
+    }
+  }
+
+  /**
+   * Number of time series with a cached template.
+   */
+  synchronized int cachedSeries() {
+    return cachedSeries;
+  }
+
+  private void sendPoints(
+      final MetricData metric, final Instrument instrument, final long export) {
+    switch (metric.getType()) {
+      case LONG_GAUGE:
+        sendLongs(metric.getLongGaugeData().getPoints(), instrument, export);
+        break;
+      case DOUBLE_GAUGE:
+        sendDoubles(metric.getDoubleGaugeData().getPoints(), instrument, export);
+        break;
+      case LONG_SUM:
+        sendLongs(metric.getLongSumData().getPoints(), instrument, export);
+        break;
+      case DOUBLE_SUM:
+        sendDoubles(metric.getDoubleSumData().getPoints(), instrument, export);
+        break;
+      case HISTOGRAM:
+        for (final HistogramPointData point : metric.getHistogramData().getPoints()) {
+          send(series(instrument, point, export), time(point), encoder.histogram(point));
+        }
+        break;
+      case SUMMARY:
+        for (final SummaryPointData point : metric.getSummaryData().getPoints()) {
+          send(series(instrument, point, export), time(point), encoder.summary(point));
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  private void sendLongs(
+      final Collection<LongPointData> points, final Instrument instrument, final long export) {
+    for (final LongPointData point : points) {
+      send(series(instrument, point, export), time(point), point.getValue());
+    }
+  }
+
+  private void sendDoubles(
+      final Collection<DoublePointData> points, final Instrument instrument, final long export) {
+    for (final DoublePointData point : points) {
+      send(series(instrument, point, export), time(point), point.getValue());
+    }
+  }
+
+  private void send(final MetricTemplate template, final long time, final double value) {
+    try {
+      client.send(template, time, value);
+    } catch (IOException e) {
+      failures++;
+      failure = e;
+    }
+  }
+
+  private void send(final MetricTemplate template, final long time, final Value value) {
+    try {
+      client.send(template, time, value);
+    } catch (IOException e) {
+      failures++;
+      failure = e;
+    }
+  }
+
+  /**
+   * Time of a point, in milliseconds.
+   */
+  private static long time(final PointData point) {
+    return TimeUnit.NANOSECONDS.toMillis(point.getEpochNanos());
+  }
+
+  /**
+   * The cached instrument of a metric, or null if the metric is not sent.
+   */
+  private Instrument instrument(final MetricData metric) {
+    final String metricType = getMetricType(metric);
+
+    if (metricType == null) {
+      return null;
+    }
+
+    final Map<String, Instrument> instruments =
+        scopes.computeIfAbsent(metric.getInstrumentationScopeInfo(), scope -> new HashMap<>());
+    Instrument instrument = instruments.get(metric.getName());
+
+    if (instrument == null
+        || !instrument.metricType.equals(metricType)
+        || !instrument.unit.equals(metric.getUnit())) {
+      if (instrument != null) {
+        cachedSeries -= instrument.series.size();
+      }
+
+      instrument = new Instrument(metric.getName(), metric.getUnit(), metricType);
+      instruments.put(metric.getName(), instrument);
+    }
+
+    return instrument;
+  }
+
+  /**
+   * The template of the series of a point, built the first time the series is exported.
+   */
+  private MetricTemplate series(
+      final Instrument instrument, final PointData point, final long export) {
+    final Attributes attributes = point.getAttributes();
+    Series series = instrument.series.get(attributes);
+
+    if (series == null) {
+      final Map<String, String> tags = new HashMap<>(attributes.size() + 2);
+      attributes.forEach((key, value) -> tags.put(key.getKey(), String.valueOf(value)));
+
+      if (!instrument.unit.isEmpty()) {
+        tags.put("unit", instrument.unit);
+      }
+
+      tags.put("metric_type", instrument.metricType);
+      series = new Series(FastForward.metricV1(instrument.name).attributes(tags).template());
+      instrument.series.put(attributes, series);
+      cachedSeries++;
+    }
+
+    series.exported = export;
+    return series.template;
+  }
+
+  private static String getMetricType(final MetricData metric) {
+    switch (metric.getType()) {
+      case LONG_GAUGE:
+      case DOUBLE_GAUGE:
+        return "gauge";
+      case LONG_SUM:
+        return metric.getLongSumData().isMonotonic() ? "counter" : "gauge";
+      case DOUBLE_SUM:
+        return metric.getDoubleSumData().isMonotonic() ? "counter" : "gauge";
+      case HISTOGRAM:
+        return "distribution";
+      case SUMMARY:
+        return "histogram";
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Forget the instruments and series missing from the last {@link #EVICT_AFTER_EXPORTS}
+   * exports.
+   */
+  private void evict(final long export) {
+    final Iterator<Map<String, Instrument>> scopeIterator = scopes.values().iterator();
+
+    while (scopeIterator.hasNext()) {
+      final Map<String, Instrument> instruments = scopeIterator.next();
+      final Iterator<Instrument> iterator = instruments.values().iterator();
+
+      while (iterator.hasNext()) {
+        final Instrument instrument = iterator.next();
+
+        if (export - instrument.exported >= EVICT_AFTER_EXPORTS) {
+          cachedSeries -= instrument.series.size();
+          iterator.remove();
+          continue;
+        }
+
+        final Iterator<Series> series = instrument.series.values().iterator();
+
+        while (series.hasNext()) {
+          if (export - series.next().exported >= EVICT_AFTER_EXPORTS) {
+            cachedSeries--;
+            series.remove();
+          }
+        }
+      }
+
+      if (instruments.isEmpty()) {
+        scopeIterator.remove();
+      }
+    }
+  }
+
+  /**
+   * The series of one instrument.
+   */
+  private static final class Instrument {
+    private final String name;
+    private final String unit;
+    private final String metricType;
+    private final Map<Attributes, Series> series = new HashMap<>();
+    private long exported;
+
+    Instrument(final String name, final String unit, final String metricType) {
+      this.name = name;
+      this.unit = unit;
+      this.metricType = metricType;
+    }
+  }
+
+  private static final class Series {
+    private final MetricTemplate template;
+    private long exported;
+
+    Series(final MetricTemplate template) {
+      this.template = template;
+    }
+  }
+
+  // Builder Class
+  public static final class FfwdMetricExporterBuilder {
+    private String host = FastForward.DEFAULT_HOST;
+    private int port = FastForward.DEFAULT_PORT;
+    private FastForwardConfiguration configuration =
+        FastForwardConfiguration.builder().setBatching(true).build();
+    private AggregationTemporalitySelector temporalitySelector =
+        AggregationTemporalitySelector.alwaysCumulative();
+    private MemoryMode memoryMode = MemoryMode.IMMUTABLE_DATA;
+    private long flushTimeoutMillis = FastForward.DEFAULT_CLOSE_TIMEOUT_MILLIS;
+
+    private FfwdMetricExporterBuilder() {}
+
+    public FfwdMetricExporterBuilder setHost(final String host) {
+      this.host = host;
+      return this;
+    }
+
+    public FfwdMetricExporterBuilder setPort(final int port) {
+      this.port = port;
+      return this;
+    }
+
+    /**
+     * Configuration of the ffwd client, which batches several metrics into each datagram by
+     * default.
+     */
+    public FfwdMetricExporterBuilder setClientConfiguration(
+        final FastForwardConfiguration configuration) {
+      if (configuration == null) {
+        throw new IllegalArgumentException("configuration must not be null");
+      }
+
+      this.configuration = configuration;
+      return this;
+    }
+
+    /**
+     * Temporality of every instrument type, cumulative by default. See
+     * {@link AggregationTemporalitySelector#deltaPreferred()} to send deltas instead.
+     */
+    public FfwdMetricExporterBuilder setAggregationTemporalitySelector(
+        final AggregationTemporalitySelector temporalitySelector) {
+      if (temporalitySelector == null) {
+        throw new IllegalArgumentException("temporalitySelector must not be null");
+      }
+
+      this.temporalitySelector = temporalitySelector;
+      return this;
+    }
+
+    /**
+     * Whether the SDK may reuse the metric data it hands to the exporter between collections,
+     * {@link MemoryMode#IMMUTABLE_DATA} by default. The exporter keeps no reference to the data
+     * after an export, so {@link MemoryMode#REUSABLE_DATA} is safe.
+     */
+    public FfwdMetricExporterBuilder setMemoryMode(final MemoryMode memoryMode) {
+      if (memoryMode == null) {
+        throw new IllegalArgumentException("memoryMode must not be null");
+      }
+
+      this.memoryMode = memoryMode;
+      return this;
+    }
+
+    /**
+     * How long an export, a flush or the shutdown waits for the client to send its metrics.
+     */
+    public FfwdMetricExporterBuilder setFlushTimeout(final long timeout, final TimeUnit unit) {
+      if (timeout < 0) {
+        throw new IllegalArgumentException("timeout must not be negative");
+      }
+
+      this.flushTimeoutMillis = unit.toMillis(timeout);
+      return this;
+    }
+
+    /**
+     * Create the exporter and its ffwd client.
+     *
+     * @throws IllegalStateException if the client cannot be set up.
+     */
+    public FfwdMetricExporter build() {
+      try {
+        return new FfwdMetricExporter(this, FastForward.setup(host, port, configuration));
+      } catch (IOException e) {
+        throw new IllegalStateException("Failed to start ffwd opentelemetry client", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,196 @@
+/*-
+ * -\-\-
+ * opentelemetry-exporter
+ * --
+ * Copyright (C) 2016 - 2019 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd.opentelemetry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.spotify.ffwd.distribution.Distribution.Histogram;
+import com.spotify.ffwd.protocol1.Protocol1;
+import com.spotify.ffwd.testing.FfwdReceiver;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.sdk.common.export.MemoryMode;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.export.AggregationTemporalitySelector;
+import io.opentelemetry.sdk.metrics.export.PeriodicMetricReader;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class FfwdMetricExporterTest {
+
+  private static final AttributeKey<String> STATUS = AttributeKey.stringKey("status");
+
+  private FfwdReceiver receiver;
+
+  @BeforeEach
+  void before() throws Exception {
+    receiver = FfwdReceiver.builder().setUdp(true).start();
+  }
+
+  @AfterEach
+  void after() throws Exception {
+    receiver.close();
+  }
+
+  @Test
+  void counterIsSent() throws Exception {
+    try (SdkMeterProvider provider = provider(builder().build())) {
+      final LongCounter counter = meter(provider).counterBuilder("requests").setUnit("1").build();
+      counter.add(5, Attributes.of(STATUS, "200"));
+      counter.add(2, Attributes.of(STATUS, "200"));
+      provider.forceFlush().join(5, TimeUnit.SECONDS);
+
+      final Protocol1.Metric metric = receiver.assertReceivedV1(1, 5, TimeUnit.SECONDS).get(0);
+      assertEquals("requests", metric.getKey());
+      assertEquals(7.0, metric.getValue().getDoubleValue());
+
+      final Map<String, String> attributes = attributes(metric);
+      assertEquals("200", attributes.get("status"));
+      assertEquals("1", attributes.get("unit"));
+      assertEquals("counter", attributes.get("metric_type"));
+    }
+  }
+
+  @Test
+  void upDownCounterIsSentAsGauge() throws Exception {
+    try (SdkMeterProvider provider = provider(builder().build())) {
+      meter(provider).upDownCounterBuilder("queue-size").build().add(-3);
+      provider.forceFlush().join(5, TimeUnit.SECONDS);
+
+      final Protocol1.Metric metric = receiver.assertReceivedV1(1, 5, TimeUnit.SECONDS).get(0);
+      assertEquals(-3.0, metric.getValue().getDoubleValue());
+      assertEquals("gauge", attributes(metric).get("metric_type"));
+    }
+  }
+
+  @Test
+  void histogramIsSentAsDistribution() throws Exception {
+    try (SdkMeterProvider provider = provider(builder().build())) {
+      final DoubleHistogram histogram = meter(provider)
+          .histogramBuilder("latency")
+          .setExplicitBucketBoundariesAdvice(Arrays.asList(10.0, 100.0))
+          .build();
+      histogram.record(5);
+      histogram.record(50);
+      histogram.record(500);
+      provider.forceFlush().join(5, TimeUnit.SECONDS);
+
+      final Protocol1.Metric metric = receiver.assertReceivedV1(1, 5, TimeUnit.SECONDS).get(0);
+      assertEquals("distribution", attributes(metric).get("metric_type"));
+
+      final Histogram decoded = Histogram.parseFrom(metric.getValue().getDistributionValue());
+      assertEquals(Arrays.asList(10.0, 100.0), decoded.getBoundsList());
+      assertEquals(Arrays.asList(1L, 1L, 1L), decoded.getCountsList());
+      assertEquals(3, decoded.getCount());
+      assertEquals(555.0, decoded.getSum());
+      assertEquals(5.0, decoded.getMin());
+      assertEquals(500.0, decoded.getMax());
+      assertTrue(decoded.getUpperInclusive());
+    }
+  }
+
+  @Test
+  void deltasAreSentWithReusableData() throws Exception {
+    final FfwdMetricExporter exporter = builder()
+        .setAggregationTemporalitySelector(AggregationTemporalitySelector.deltaPreferred())
+        .setMemoryMode(MemoryMode.REUSABLE_DATA)
+        .build();
+
+    try (SdkMeterProvider provider = provider(exporter)) {
+      final LongCounter counter = meter(provider).counterBuilder("requests").build();
+      counter.add(5, Attributes.of(STATUS, "200"));
+      provider.forceFlush().join(5, TimeUnit.SECONDS);
+      counter.add(3, Attributes.of(STATUS, "200"));
+      provider.forceFlush().join(5, TimeUnit.SECONDS);
+
+      final List<Protocol1.Metric> metrics = receiver.assertReceivedV1(2, 5, TimeUnit.SECONDS);
+      assertEquals(5.0, metrics.get(0).getValue().getDoubleValue());
+      assertEquals(3.0, metrics.get(1).getValue().getDoubleValue());
+      assertEquals(1, exporter.cachedSeries());
+    }
+  }
+
+  @Test
+  void seriesMissingFromSeveralExportsAreEvicted() throws Exception {
+    final FfwdMetricExporter exporter = builder()
+        .setAggregationTemporalitySelector(AggregationTemporalitySelector.deltaPreferred())
+        .build();
+
+    try (SdkMeterProvider provider = provider(exporter)) {
+      final LongCounter counter = meter(provider).counterBuilder("requests").build();
+      counter.add(1, Attributes.of(STATUS, "200"));
+      counter.add(1, Attributes.of(STATUS, "500"));
+      provider.forceFlush().join(5, TimeUnit.SECONDS);
+      assertEquals(2, exporter.cachedSeries());
+
+      // a delta series without measurements is missing from a collection.
+      for (int i = 1; i < FfwdMetricExporter.EVICT_AFTER_EXPORTS; i++) {
+        counter.add(1, Attributes.of(STATUS, "200"));
+        provider.forceFlush().join(5, TimeUnit.SECONDS);
+        assertEquals(2, exporter.cachedSeries());
+      }
+
+      counter.add(1, Attributes.of(STATUS, "200"));
+      provider.forceFlush().join(5, TimeUnit.SECONDS);
+      assertEquals(1, exporter.cachedSeries());
+    }
+  }
+
+  private FfwdMetricExporter.FfwdMetricExporterBuilder builder() {
+    final InetSocketAddress address = receiver.getUdpAddress();
+    return FfwdMetricExporter.builder()
+        .setHost(address.getHostString())
+        .setPort(address.getPort());
+  }
+
+  private static SdkMeterProvider provider(final FfwdMetricExporter exporter) {
+    return SdkMeterProvider.builder()
+        .registerMetricReader(
+            PeriodicMetricReader.builder(exporter).setInterval(Duration.ofHours(1)).build())
+        .build();
+  }
+
+  private static Meter meter(final SdkMeterProvider provider) {
+    return provider.get("ffwd-test");
+  }
+
+  private static Map<String, String> attributes(final Protocol1.Metric metric) {
+    final Map<String, String> attributes = new HashMap<>();
+
+    for (final Protocol1.Attribute attribute : metric.getAttributesList()) {
+      attributes.put(attribute.getKey(), attribute.getValue());
+    }
+
+    return attributes;
+  }
+}
@@ -20,12 +20,14 @@
 
 package com.spotify.ffwd;
 
+import java.net.InetSocketAddress;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import lombok.Data;
 import org.kohsuke.args4j.CmdLineParser;
@@ -54,6 +56,32 @@ public class FastForwardPerf {
       usage = "Attempt to send metrics evenly over the given time period in ms (default: disabled)")
   private long even = 200;
 
+  @Option(
+      name = "--rate",
+      usage = "Send this many metrics per second in total, open-loop, and report throughput, loss "
+          + "and latency (default: disabled)")
+  private long rate = 0;
+
+  @Option(name = "--duration", usage = "How many seconds to send for with --rate (default: 10)")
+  private long duration = 10;
+
+  @Option(name = "--protocol", usage = "Protocol version of the metrics (default: V0)")
+  private FastForward.Version version = FastForward.Version.V0;
+
+  @Option(
+      name = "--clients",
+      usage = "Whether threads share a client or have one each with --rate (default: SHARED)")
+  private OpenLoop.Clients clients = OpenLoop.Clients.SHARED;
+
+  @Option(name = "--transport", usage = "Transport to send metrics over (default: UDP)")
+  private Transport transport = Transport.UDP;
+
+  @Option(
+      name = "--agent",
+      usage = "host:port or [ipv6]:port of the agent to send to with --rate, instead of a local "
+          + "receiver that counts lost metrics (default: local receiver)")
+  private String agent = null;
+
   public static void main(String... argv) throws Exception {
     new FastForwardPerf().run(argv);
   }
@@ -70,9 +98,18 @@ public class FastForwardPerf {
 
     final Map<String, String> attributes = buildBaseAttributes();
 
+    if (rate > 0) {
+      final FastForwardConfiguration configuration =
+          FastForwardConfiguration.builder().setTransport(transport).build();
+
+      new OpenLoop(threads, rate, duration, TimeUnit.SECONDS, version, clients, configuration,
+          attributes).run(parseAgent(), System.out);
+      return;
+    }
+
     final ExecutorService executor = Executors.newFixedThreadPool(threads);
 
-    final Metric m = FastForward.metric("test").attributes(attributes);
+    final MetricTemplate m = FastForward.metric("test").attributes(attributes).template();
 
     System.out.println("Sending:");
 
@@ -106,6 +143,43 @@ public class FastForwardPerf {
     System.exit(0);
   }
 
+  private InetSocketAddress parseAgent() {
+    if (agent == null) {
+      return null;
+    }
+
+    // an IPv6 address with a port is bracketed, [::1]:19091.
+    if (agent.startsWith("[")) {
+      final int close = agent.indexOf(']');
+
+      if (close < 0) {
+        throw new IllegalArgumentException("Unclosed bracket in agent: " + agent);
+      }
+
+      final String host = agent.substring(1, close);
+
+      if (close == agent.length() - 1) {
+        return new InetSocketAddress(host, FastForward.DEFAULT_PORT);
+      }
+
+      if (agent.charAt(close + 1) != ':') {
+        throw new IllegalArgumentException("Expected :port after the bracketed host: " + agent);
+      }
+
+      return new InetSocketAddress(host, Integer.parseInt(agent.substring(close + 2)));
+    }
+
+    final int colon = agent.indexOf(':');
+
+    // a host name, or an IPv6 address without a port.
+    if (colon < 0 || colon != agent.lastIndexOf(':')) {
+      return new InetSocketAddress(agent, FastForward.DEFAULT_PORT);
+    }
+
+    return new InetSocketAddress(
+        agent.substring(0, colon), Integer.parseInt(agent.substring(colon + 1)));
+  }
+
   private Map<String, String> buildBaseAttributes() {
     final Map<String, String> attributes = new HashMap<>();
 
@@ -136,8 +210,12 @@ public class FastForwardPerf {
     }
 
     private void once() throws Exception {
-      final FastForward client = FastForward.setup();
+      try (FastForward client = FastForward.setup()) {
+        send(client);
+      }
+    }
 
+    private void send(final FastForward client) throws Exception {
       final long period = (even * 1000000) / count;
 
       while (true) {
@@ -147,10 +225,8 @@ public class FastForwardPerf {
           break;
         }
 
-        final Metric m = batch.metric.value(i * 1.0);
-
         if (even == 0) {
-          client.send(m);
+          client.send(batch.metric, i * 1.0);
           continue;
         }
 
@@ -165,7 +241,7 @@ public class FastForwardPerf {
           Thread.sleep(diff);
         }
 
-        client.send(m);
+        client.send(batch.metric, i * 1.0);
       }
     }
   }
@@ -178,7 +254,7 @@ public class FastForwardPerf {
     final AtomicInteger position = new AtomicInteger();
     final ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
 
-    final Metric metric;
+    final MetricTemplate metric;
     final CountDownLatch latch;
     final long started;
   }
@@ -0,0 +1,341 @@
+/*-
+ * -\-\-
+ * FastForward Perf
+ * --
+ * Copyright (C) 2016 - 2019 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.ffwd;
+
+import com.spotify.ffwd.testing.FfwdReceiver;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Sends at a fixed rate, whether or not the client keeps up, and measures how long every send
+ * took from the time it was scheduled at.
+ *
+ * <p>Measuring from the scheduled time instead of from when the send actually started corrects
+ * for coordinated omission: a stalled send delays the sends behind it, and those delays show up
+ * in the latencies instead of silently lowering the rate.
+ */
+class OpenLoop {
+
+  /**
+   * Below this, wait for the next send by spinning instead of parking the thread.
+   */
+  private static final long SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  /**
+   * How long to wait for more metrics to arrive before counting the rest as lost.
+   */
+  private static final long QUIET_MILLIS = 1000;
+
+  enum Clients {
+    /**
+     * All threads send through one client.
+     */
+    SHARED,
+    /**
+     * Every thread sends through a client of its own.
+     */
+    PER_THREAD
+  }
+
+  private final int threads;
+  private final long rate;
+  private final long durationNanos;
+  private final FastForward.Version version;
+  private final Clients clients;
+  private final FastForwardConfiguration configuration;
+  private final Map<String, String> attributes;
+
+  private final LongAdder sent = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+
+  OpenLoop(
+      int threads, long rate, long duration, TimeUnit unit, FastForward.Version version,
+      Clients clients, FastForwardConfiguration configuration, Map<String, String> attributes
+  ) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads must be at least 1: " + threads);
+    }
+
+    // every thread sends at most once per nanosecond.
+    if (rate < 1 || rate > TimeUnit.SECONDS.toNanos(threads)) {
+      throw new IllegalArgumentException(
+          "rate must be between 1 and " + TimeUnit.SECONDS.toNanos(threads) + " with " + threads
+              + " threads: " + rate);
+    }
+
+    this.threads = threads;
+    this.rate = rate;
+    this.durationNanos = unit.toNanos(duration);
+    this.version = version;
+    this.clients = clients;
+    this.configuration = configuration;
+    this.attributes = attributes;
+  }
+
+  /**
+   * Send to the given agent, or to a local receiver that counts what arrives if it is null.
+   */
+  void run(InetSocketAddress agent, PrintStream out) throws Exception {
+    if (agent != null) {
+      out.printf("Sending %d metrics/s to %s for %d s%n", rate, agent,
+          TimeUnit.NANOSECONDS.toSeconds(durationNanos));
+      report(send(() -> FastForward.setup(agent.getAddress(), agent.getPort(), configuration)),
+          null, out);
+      return;
+    }
+
+    final Transport transport = configuration.getTransport();
+
+    // frames are only counted, so that the receiver keeps up with the rate.
+    try (FfwdReceiver receiver = FfwdReceiver.builder()
+        .setUdp(transport != Transport.TCP && transport != Transport.UNIX)
+        .setTcp(transport == Transport.TCP)
+        .setUnix(transport == Transport.UNIX)
+        .setDecode(false)
+        .start()) {
+      final Connector connector;
+      final Object address;
+
+      if (transport == Transport.UNIX) {
+        final Path path = receiver.getUnixPath();
+        connector = () -> FastForward.setup(path, configuration);
+        address = path;
+      } else {
+        final InetSocketAddress local = transport == Transport.TCP
+            ? receiver.getTcpAddress()
+            : receiver.getUdpAddress();
+        connector = () -> FastForward.setup(local.getAddress(), local.getPort(), configuration);
+        address = local;
+      }
+
+      out.printf("Sending %d metrics/s to a local receiver on %s for %d s%n", rate, address,
+          TimeUnit.NANOSECONDS.toSeconds(durationNanos));
+      final Result result = send(connector);
+      await(receiver, sent.sum());
+      report(result, receiver, out);
+    }
+  }
+
+  /**
+   * Wait until the given number of metrics was received, or until nothing more arrived for a
+   * while.
+   */
+  private static void await(FfwdReceiver receiver, long expected) throws InterruptedException {
+    final long quietNanos = TimeUnit.MILLISECONDS.toNanos(QUIET_MILLIS);
+    long last = receiver.getFrames();
+    long lastChange = System.nanoTime();
+
+    while (last < expected && System.nanoTime() - lastChange < quietNanos) {
+      Thread.sleep(10);
+      final long current = receiver.getFrames();
+
+      if (current != last) {
+        last = current;
+        lastChange = System.nanoTime();
+      }
+    }
+  }
+
+  private Result send(Connector connector) throws Exception {
+    final List<FastForward> opened = new ArrayList<>();
+    final FastForward shared = clients == Clients.SHARED ? open(connector, opened) : null;
+
+    final Sender[] senders = new Sender[threads];
+    final Thread[] running = new Thread[threads];
+    final long intervalNanos = TimeUnit.SECONDS.toNanos(threads) / rate;
+    final long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+
+    for (int i = 0; i < threads; i++) {
+      final FastForward client = shared != null ? shared : open(connector, opened);
+      // stagger the threads so that the sends are evenly spread over every interval.
+      senders[i] = new Sender(client, start + intervalNanos * i / threads, intervalNanos,
+          start + durationNanos);
+      running[i] = new Thread(senders[i], "ffwd-perf-" + i);
+    }
+
+    for (final Thread thread : running) {
+      thread.start();
+    }
+
+    for (final Thread thread : running) {
+      thread.join();
+    }
+
+    final long elapsed = System.nanoTime() - start;
+
+    for (final FastForward client : opened) {
+      // stream transports drop what is still buffered on close.
+      client.flush(5, TimeUnit.SECONDS);
+      dropped.add(client.getStats().getDropped());
+      client.close();
+    }
+
+    final Histogram corrected = new Histogram(3);
+    final Histogram service = new Histogram(3);
+
+    for (final Sender sender : senders) {
+      corrected.add(sender.corrected);
+      service.add(sender.service);
+    }
+
+    return new Result(elapsed, corrected, service);
+  }
+
+  private FastForward open(Connector connector, List<FastForward> opened)
+      throws IOException {
+    final FastForward client = connector.connect();
+    opened.add(client);
+    return client;
+  }
+
+  private void report(Result result, FfwdReceiver receiver, PrintStream out) {
+    final long total = sent.sum();
+    final double seconds = result.elapsedNanos / 1e9;
+
+    out.println();
+    out.printf("Sent:       %d metrics in %.2f s, %.0f metrics/s (target %d/s)%n",
+        total, seconds, total / seconds, rate);
+    out.printf("Failed:     %d sends%n", failed.sum());
+    out.printf("Dropped:    %d metrics by the client%n", dropped.sum());
+
+    if (receiver != null) {
+      final long received = receiver.getFrames();
+      final double loss = total == 0 ? 0 : 100.0 * (total - received) / total;
+      out.printf("Received:   %d metrics, %.3f%% lost, %d frames of unknown versions%n",
+          received, loss, receiver.getErrors());
+    }
+
+    out.println();
+    out.println("Send latency from the scheduled time (corrected for coordinated omission), us:");
+    printPercentiles(result.corrected, out);
+    out.println("Send latency from the actual start (service time), us:");
+    printPercentiles(result.service, out);
+  }
+
+  private static void printPercentiles(Histogram histogram, PrintStream out) {
+    out.printf("  p50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f  p99.99 %.1f  max %.1f%n",
+        micros(histogram.getValueAtPercentile(50)),
+        micros(histogram.getValueAtPercentile(90)),
+        micros(histogram.getValueAtPercentile(99)),
+        micros(histogram.getValueAtPercentile(99.9)),
+        micros(histogram.getValueAtPercentile(99.99)),
+        micros(histogram.getMaxValue()));
+  }
+
+  private static double micros(long nanos) {
+    return nanos / 1000.0;
+  }
+
+  /**
+   * Sets up a client connected to where the metrics go.
+   */
+  private interface Connector {
+    FastForward connect() throws IOException;
+  }
+
+  private static final class Result {
+    private final long elapsedNanos;
+    private final Histogram corrected;
+    private final Histogram service;
+
+    Result(long elapsedNanos, Histogram corrected, Histogram service) {
+      this.elapsedNanos = elapsedNanos;
+      this.corrected = corrected;
+      this.service = service;
+    }
+  }
+
+  private final class Sender implements Runnable {
+    private final FastForward client;
+    private final long first;
+    private final long intervalNanos;
+    private final long end;
+    private final MetricTemplate template;
+    private final com.spotify.ffwd.v1.MetricTemplate templateV1;
+
+    // read once the thread was joined.
+    private final Histogram corrected = new Histogram(3);
+    private final Histogram service = new Histogram(3);
+
+    Sender(FastForward client, long first, long intervalNanos, long end) {
+      this.client = client;
+      this.first = first;
+      this.intervalNanos = intervalNanos;
+      this.end = end;
+      this.template = FastForward.metric("test").attributes(attributes).template();
+      this.templateV1 = FastForward.metricV1("test").attributes(attributes).template();
+    }
+
+    @Override
+    public void run() {
+      for (long i = 0; ; i++) {
+        final long scheduled = first + i * intervalNanos;
+
+        if (scheduled >= end) {
+          return;
+        }
+
+        final long begin = waitUntil(scheduled);
+
+        try {
+          if (version == FastForward.Version.V0) {
+            client.send(template, i);
+          } else {
+            client.send(templateV1, i);
+          }
+
+          sent.increment();
+        } catch (final IOException e) {
+          failed.increment();
+        }
+
+        final long done = System.nanoTime();
+        corrected.recordValue(done - scheduled);
+        service.recordValue(done - begin);
+      }
+    }
+
+    private long waitUntil(long scheduled) {
+      long now = System.nanoTime();
+
+      while (scheduled - now > SPIN_NANOS) {
+        LockSupport.parkNanos(scheduled - now - SPIN_NANOS);
+        now = System.nanoTime();
+      }
+
+      while (now < scheduled) {
+        now = System.nanoTime();
+      }
+
+      return now;
+    }
+  }
+}